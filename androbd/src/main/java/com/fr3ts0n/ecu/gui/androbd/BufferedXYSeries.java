@@ -0,0 +1,695 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu.gui.androbd;
+
+import com.fr3ts0n.pvs.CompressedTimeSeries;
+import com.fr3ts0n.pvs.PvSnapshotSupport;
+import com.fr3ts0n.pvs.TimeSeriesBuffer;
+
+import org.achartengine.model.XYSeries;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Chart data series which is backed by a TimeSeriesBuffer
+ *
+ * The samples are kept in the buffer only, ranges requested by the
+ * chart renderer are presented as read-only views on the buffer.
+ * If a max. number of points is set, larger ranges are decimated to
+ * min/max samples to keep rendering cost independent of history length.
+ *
+ * Samples which were moved to the compressed history of the buffer are
+ * included in ranges and limits, indexed access covers the buffer only.
+ *
+ * @author erwin
+ */
+class BufferedXYSeries extends XYSeries
+	implements PvSnapshotSupport
+{
+	private static final long serialVersionUID = -2185336458123775046L;
+
+	/** buffer of sample data */
+	private final TimeSeriesBuffer buffer;
+	/** max. number of points returned by getRange, 0 = unlimited */
+	private transient int maxPoints = 0;
+
+	/**
+	 * Create data series
+	 *
+	 * @param title  title of series
+	 * @param buffer buffer of sample data
+	 */
+	BufferedXYSeries(String title, TimeSeriesBuffer buffer)
+	{
+		super(title);
+		this.buffer = buffer;
+	}
+
+	/**
+	 * get buffer of sample data
+	 *
+	 * @return buffer of sample data
+	 */
+	TimeSeriesBuffer getBuffer()
+	{
+		return buffer;
+	}
+
+	/**
+	 * set max. number of points returned by getRange
+	 * - typically two points per horizontal pixel of chart
+	 *
+	 * @param maxPoints max. number of points, 0 = unlimited
+	 */
+	void setMaxPoints(int maxPoints)
+	{
+		this.maxPoints = maxPoints;
+	}
+
+	/**
+	 * create snapshot of series
+	 *
+	 * @param endTime only samples up to this time are included [ms]
+	 * @return series with snapshot of sample buffer
+	 */
+	@Override
+	public BufferedXYSeries snapshot(long endTime)
+	{
+		return new BufferedXYSeries(getTitle(), buffer.snapshot(endTime));
+	}
+
+	@Override
+	public synchronized void add(double x, double y)
+	{
+		buffer.add((long) x, y);
+	}
+
+	@Override
+	public synchronized void add(int index, double x, double y)
+	{
+		// sample time is limited to neighbours to keep time order
+		buffer.add(index, (long) x, y);
+	}
+
+	@Override
+	public synchronized void remove(int index)
+	{
+		buffer.remove(index);
+	}
+
+	@Override
+	public synchronized void clear()
+	{
+		buffer.clear();
+		super.clear();
+	}
+
+	@Override
+	public synchronized void clearSeriesValues()
+	{
+		buffer.clear();
+	}
+
+	@Override
+	public synchronized double getX(int index)
+	{
+		return buffer.getTime(index);
+	}
+
+	@Override
+	public synchronized double getY(int index)
+	{
+		return buffer.getValue(index);
+	}
+
+	@Override
+	public synchronized int getItemCount()
+	{
+		// super constructor requests item count before buffer is assigned
+		return (buffer != null) ? buffer.size() : 0;
+	}
+
+	@Override
+	public int getIndexForKey(double key)
+	{
+		synchronized (buffer)
+		{
+			int index = buffer.lowerBound((long) Math.ceil(key));
+			return (index < buffer.size() && buffer.getTime(index) == key) ? index : -1;
+		}
+	}
+
+	@Override
+	public double getMinX()
+	{
+		synchronized (buffer)
+		{
+			CompressedTimeSeries history = buffer.getHistory();
+			if (history != null && history.size() > 0)
+			{
+				return history.getChunkTime(0);
+			}
+			return buffer.size() > 0 ? buffer.getTime(0) : Double.MAX_VALUE;
+		}
+	}
+
+	@Override
+	public double getMaxX()
+	{
+		synchronized (buffer)
+		{
+			return buffer.size() > 0 ? buffer.getTime(buffer.size() - 1) : -Double.MAX_VALUE;
+		}
+	}
+
+	@Override
+	public double getMinY()
+	{
+		synchronized (buffer)
+		{
+			double result = buffer.size() > 0 ? buffer.getMinValue() : Double.MAX_VALUE;
+			CompressedTimeSeries history = buffer.getHistory();
+			if (history != null && history.size() > 0)
+			{
+				result = Math.min(result, history.getMinValue());
+			}
+			return result;
+		}
+	}
+
+	@Override
+	public double getMaxY()
+	{
+		synchronized (buffer)
+		{
+			double result = buffer.size() > 0 ? buffer.getMaxValue() : -Double.MAX_VALUE;
+			CompressedTimeSeries history = buffer.getHistory();
+			if (history != null && history.size() > 0)
+			{
+				result = Math.max(result, history.getMaxValue());
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * get samples within range [start, stop)
+	 * - same semantics as XYSeries.getRange
+	 * - ranges exceeding max. number of points are decimated
+	 *
+	 * @param start              start of range
+	 * @param stop               end of range (exclusive)
+	 * @param beforeAfterPoints  include one sample before and after range
+	 * @return read-only view on samples within range
+	 */
+	@Override
+	public synchronized SortedMap<Double, Double> getRange(double start, double stop,
+	                                                       boolean beforeAfterPoints)
+	{
+		synchronized (buffer)
+		{
+			int from = buffer.lowerBound((long) Math.ceil(start));
+			int to = buffer.lowerBound((long) Math.ceil(stop));
+			if (beforeAfterPoints)
+			{
+				if (from > 0) from--;
+				if (to < buffer.size()) to++;
+			}
+			if (to < from) to = from;
+			CompressedTimeSeries history = buffer.getHistory();
+			if (history != null
+			    && history.size() > 0
+			    && (buffer.size() == 0 || start < buffer.getTime(0)))
+			{
+				return getRangeWithHistory(history, start, stop, beforeAfterPoints, to);
+			}
+			if (maxPoints > 2 && to - from > maxPoints)
+			{
+				return getDecimated(from, to);
+			}
+			return new RangeView(from, to, buffer.getOffset());
+		}
+	}
+
+	/**
+	 * get samples within range [start, stop), which starts within history
+	 * - caller has to hold the buffer lock
+	 * - history samples are decoded chunk by chunk, and decimated to
+	 *   min/max samples if they exceed max. number of points
+	 *
+	 * @param history           compressed history of buffer
+	 * @param start             start of range
+	 * @param stop              end of range (exclusive)
+	 * @param beforeAfterPoints include one sample before and after range
+	 * @param to                buffer index after last sample of range
+	 * @return samples within range
+	 */
+	private SortedMap<Double, Double> getRangeWithHistory(CompressedTimeSeries history,
+	                                                      double start, double stop,
+	                                                      boolean beforeAfterPoints,
+	                                                      int to)
+	{
+		TreeMap<Double, Double> result = new TreeMap<>();
+		long startTime = (long) Math.ceil(start);
+		long stopTime = (long) Math.ceil(stop);
+		long bufferStart = buffer.size() > 0 ? buffer.getTime(0) : Long.MAX_VALUE;
+		long historyEnd = Math.min(stopTime, bufferStart);
+		int columns = maxPoints > 2 ? (maxPoints - 2) / 2 : 0;
+		HistoryDecimator decimator = new HistoryDecimator(columns, maxPoints, startTime, historyEnd);
+
+		// start reading at begin of chunk to find sample before range
+		CompressedTimeSeries.Reader reader =
+			history.reader(history.getChunkTime(history.findChunk(startTime)));
+		boolean afterFound = false;
+		while (reader.next())
+		{
+			long time = reader.getTime();
+			if (time < startTime)
+			{
+				if (beforeAfterPoints)
+				{
+					result.clear();
+					result.put((double) time, reader.getValue());
+				}
+			}
+			else if (time < historyEnd)
+			{
+				decimator.add(time, reader.getValue());
+			}
+			else
+			{
+				if (beforeAfterPoints && time >= stopTime)
+				{
+					result.put((double) time, reader.getValue());
+					afterFound = true;
+				}
+				break;
+			}
+		}
+		decimator.addTo(result);
+
+		// remaining samples from buffer
+		if (stopTime > bufferStart)
+		{
+			if (maxPoints > 2 && to > maxPoints)
+			{
+				result.putAll(getDecimated(0, to));
+			}
+			else
+			{
+				for (int i = 0; i < to; i++)
+				{
+					result.put((double) buffer.getTime(i), buffer.getValue(i));
+				}
+			}
+		}
+		else if (beforeAfterPoints && !afterFound && buffer.size() > 0)
+		{
+			result.put((double) buffer.getTime(0), buffer.getValue(0));
+		}
+		return result;
+	}
+
+	/**
+	 * Sequential reader of all samples of a series in time order
+	 * - samples of a compressed history are decoded chunk by chunk
+	 * - any other series is read by index
+	 * - series should be a snapshot, since samples are read without lock
+	 */
+	static class SampleReader
+	{
+		private final XYSeries series;
+		/** reader of history samples, null if history is finished */
+		private CompressedTimeSeries.Reader history = null;
+		/** number of samples in series (excl. history) */
+		private final int count;
+		/** number of history samples */
+		private final long historyCount;
+		/** index of current sample in series */
+		private int index = -1;
+		/** current sample */
+		private double x;
+		private double y;
+
+		SampleReader(XYSeries series)
+		{
+			this.series = series;
+			CompressedTimeSeries samples = (series instanceof BufferedXYSeries)
+				? ((BufferedXYSeries) series).getBuffer().getHistory()
+				: null;
+			if (samples != null && samples.size() > 0)
+			{
+				history = samples.reader(Long.MIN_VALUE);
+				historyCount = samples.size();
+			}
+			else
+			{
+				historyCount = 0;
+			}
+			count = series.getItemCount();
+		}
+
+		/**
+		 * get total number of samples
+		 *
+		 * @return number of samples incl. history
+		 */
+		long size()
+		{
+			return historyCount + count;
+		}
+
+		/**
+		 * advance to next sample
+		 *
+		 * @return true if a sample is available
+		 */
+		boolean next()
+		{
+			if (history != null)
+			{
+				if (history.next())
+				{
+					x = history.getTime();
+					y = history.getValue();
+					return true;
+				}
+				history = null;
+			}
+			if (index + 1 < count)
+			{
+				index++;
+				x = series.getX(index);
+				y = series.getY(index);
+				return true;
+			}
+			return false;
+		}
+
+		/** @return time of current sample */
+		double getX()
+		{
+			return x;
+		}
+
+		/** @return value of current sample */
+		double getY()
+		{
+			return y;
+		}
+	}
+
+	/**
+	 * Min/max decimation of a sample stream
+	 * - samples are kept unchanged up to max. number of points
+	 */
+	private static class HistoryDecimator
+	{
+		private final int columns;
+		private final long startTime;
+		private final long timeSpan;
+		/** unchanged samples, null if decimation is active */
+		private long[] rawTimes;
+		private double[] rawValues;
+		private int rawCount = 0;
+		/** min/max samples per column */
+		private final long[] minTimes;
+		private final double[] minValues;
+		private final long[] maxTimes;
+		private final double[] maxValues;
+		private final boolean[] used;
+		/** first and last sample */
+		private long firstTime;
+		private double firstValue;
+		private long lastTime;
+		private double lastValue;
+		private int count = 0;
+
+		HistoryDecimator(int columns, int maxPoints, long startTime, long endTime)
+		{
+			this.columns = columns;
+			this.startTime = startTime;
+			timeSpan = Math.max(1, endTime - startTime);
+			rawTimes = new long[columns > 0 ? maxPoints : 256];
+			rawValues = new double[rawTimes.length];
+			minTimes = new long[columns];
+			minValues = new double[columns];
+			maxTimes = new long[columns];
+			maxValues = new double[columns];
+			used = new boolean[columns];
+		}
+
+		void add(long time, double value)
+		{
+			if (count++ == 0)
+			{
+				firstTime = time;
+				firstValue = value;
+			}
+			lastTime = time;
+			lastValue = value;
+			if (rawTimes != null)
+			{
+				if (rawCount < rawTimes.length)
+				{
+					rawTimes[rawCount] = time;
+					rawValues[rawCount++] = value;
+					return;
+				}
+				if (columns == 0)
+				{
+					// no decimation: grow raw samples
+					rawTimes = Arrays.copyOf(rawTimes, 2 * rawTimes.length);
+					rawValues = Arrays.copyOf(rawValues, rawTimes.length);
+					rawTimes[rawCount] = time;
+					rawValues[rawCount++] = value;
+					return;
+				}
+				// too many samples: switch to decimation
+				long[] times = rawTimes;
+				double[] values = rawValues;
+				rawTimes = null;
+				rawValues = null;
+				for (int i = 0; i < rawCount; i++)
+				{
+					addToColumn(times[i], values[i]);
+				}
+			}
+			addToColumn(time, value);
+		}
+
+		private void addToColumn(long time, double value)
+		{
+			int col = (int) Math.min(columns - 1, (time - startTime) * columns / timeSpan);
+			if (!used[col] || value < minValues[col])
+			{
+				minTimes[col] = time;
+				minValues[col] = value;
+			}
+			if (!used[col] || value > maxValues[col])
+			{
+				maxTimes[col] = time;
+				maxValues[col] = value;
+			}
+			used[col] = true;
+		}
+
+		void addTo(SortedMap<Double, Double> result)
+		{
+			if (rawTimes != null)
+			{
+				for (int i = 0; i < rawCount; i++)
+				{
+					result.put((double) rawTimes[i], rawValues[i]);
+				}
+				return;
+			}
+			result.put((double) firstTime, firstValue);
+			for (int col = 0; col < columns; col++)
+			{
+				if (used[col])
+				{
+					result.put((double) minTimes[col], minValues[col]);
+					result.put((double) maxTimes[col], maxValues[col]);
+				}
+			}
+			result.put((double) lastTime, lastValue);
+		}
+	}
+
+	/**
+	 * get min/max decimated samples of index range
+	 * - caller has to hold the buffer lock
+	 *
+	 * @param from index of first sample
+	 * @param to   index after last sample
+	 * @return decimated samples
+	 */
+	private SortedMap<Double, Double> getDecimated(int from, int to)
+	{
+		int columns = (maxPoints - 2) / 2;
+		long[] times = new long[2 * columns + 2];
+		double[] values = new double[times.length];
+		int n = buffer.decimate(from, to, columns, times, values);
+		TreeMap<Double, Double> result = new TreeMap<>();
+		for (int i = 0; i < n; i++)
+		{
+			result.put((double) times[i], values[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Read-only view on a range of samples
+	 * - samples are addressed by absolute position to stay valid
+	 *   while new samples are added to the buffer
+	 */
+	private class RangeView
+		extends AbstractMap<Double, Double>
+		implements SortedMap<Double, Double>
+	{
+		/** absolute position of first sample */
+		private final long first;
+		/** absolute position after last sample */
+		private final long end;
+
+		RangeView(int from, int to, long offset)
+		{
+			first = offset + from;
+			end = offset + to;
+		}
+
+		/**
+		 * get current buffer index of absolute sample position
+		 *
+		 * @param position absolute sample position
+		 * @return buffer index (limited to valid range)
+		 */
+		private int index(long position)
+		{
+			if (buffer.size() == 0)
+			{
+				throw new NoSuchElementException();
+			}
+			long index = position - buffer.getOffset();
+			return (int) Math.max(0, Math.min(index, buffer.size() - 1));
+		}
+
+		@Override
+		public Set<Entry<Double, Double>> entrySet()
+		{
+			return new AbstractSet<Entry<Double, Double>>()
+			{
+				@Override
+				public Iterator<Entry<Double, Double>> iterator()
+				{
+					return new Iterator<Entry<Double, Double>>()
+					{
+						long position = first;
+
+						@Override
+						public boolean hasNext()
+						{
+							return position < end;
+						}
+
+						@Override
+						public Entry<Double, Double> next()
+						{
+							if (position >= end)
+							{
+								throw new NoSuchElementException();
+							}
+							synchronized (buffer)
+							{
+								int idx = index(position++);
+								return new SimpleImmutableEntry<>((double) buffer.getTime(idx),
+								                                  buffer.getValue(idx));
+							}
+						}
+					};
+				}
+
+				@Override
+				public int size()
+				{
+					return (int) (end - first);
+				}
+			};
+		}
+
+		@Override
+		public Comparator<? super Double> comparator()
+		{
+			return null;
+		}
+
+		@Override
+		public SortedMap<Double, Double> subMap(Double fromKey, Double toKey)
+		{
+			return getRange(fromKey, toKey, false);
+		}
+
+		@Override
+		public SortedMap<Double, Double> headMap(Double toKey)
+		{
+			return subMap(firstKey(), toKey);
+		}
+
+		@Override
+		public SortedMap<Double, Double> tailMap(Double fromKey)
+		{
+			return subMap(fromKey, Double.MAX_VALUE);
+		}
+
+		@Override
+		public Double firstKey()
+		{
+			if (first >= end)
+			{
+				throw new NoSuchElementException();
+			}
+			synchronized (buffer)
+			{
+				return (double) buffer.getTime(index(first));
+			}
+		}
+
+		@Override
+		public Double lastKey()
+		{
+			if (first >= end)
+			{
+				throw new NoSuchElementException();
+			}
+			synchronized (buffer)
+			{
+				return (double) buffer.getTime(index(end - 1));
+			}
+		}
+	}
+}
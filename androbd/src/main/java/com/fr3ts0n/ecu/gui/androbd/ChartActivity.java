@@ -69,6 +69,9 @@ public class ChartActivity extends Activity
 	 */
 	public static final String POSITIONS = "POSITIONS";
 
+	/** max. number of rendered points per horizontal pixel */
+	private static final int POINTS_PER_PIXEL = 2;
+
 	/** Map to uniquely collect PID numbers */
 	private final TreeSet<Integer> pidNumbers = new TreeSet<>();
 
@@ -216,6 +219,7 @@ public class ChartActivity extends Activity
 			{
 				case MainActivity.MESSAGE_UPDATE_VIEW:
 					/* update chart */
+					setMaxPoints(POINTS_PER_PIXEL * chartView.getWidth());
 					chartView.invalidate();
 					break;
 
@@ -275,6 +279,8 @@ public class ChartActivity extends Activity
 			toolBarHider = null;
 		}
 		ObdProt.resetFixedPid();
+		// series are kept beyond chart lifetime, render all points again
+		setMaxPoints(0);
 		// allow sleeping again
 		wakeLock.release();
 		super.onDestroy();
@@ -324,6 +330,23 @@ public class ChartActivity extends Activity
 		super.onStop();
 	}
 
+	/**
+	 * Set max. number of rendered points for all chart series
+	 * - series exceeding this number get decimated for display
+	 *
+	 * @param maxPoints max. number of points, 0 = unlimited
+	 */
+	private void setMaxPoints(int maxPoints)
+	{
+		for (XYSeries series : sensorData.getSeries())
+		{
+			if (series instanceof BufferedXYSeries)
+			{
+				((BufferedXYSeries) series).setMaxPoints(maxPoints);
+			}
+		}
+	}
+
 	/**
 	 * Set up all the charting data series
 	 *
@@ -279,6 +279,11 @@ public class DashBoardActivity extends Activity
 		// Set data item to be customized
 		EcuDataPv pv = adapter.getItem(position);
 		EcuDataItem item = EcuDataItems.byMnemonic.get(pv.get(EcuDataPv.FID_MNEMONIC));
+		// derived items have no conversion to customize raw ranges
+		if (item == null || item.cnv == null)
+		{
+			return false;
+		}
 		PidCustomization.item = item;
 
 		// start customization ...
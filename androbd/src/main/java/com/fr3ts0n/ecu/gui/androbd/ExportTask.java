@@ -30,13 +30,16 @@ import android.widget.Toast;
 import org.achartengine.model.XYMultipleSeriesDataset;
 import org.achartengine.model.XYSeries;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.SortedMap;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,12 +53,32 @@ class ExportTask extends AsyncTask<XYMultipleSeriesDataset, Integer, String>
 
 	private final Activity activity;
 	@SuppressLint("SimpleDateFormat")
-	private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+	private final DateFormat secondFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	/** second of last formatted time stamp */
+	private long lastSecond = 0;
+	/** formatted date/time of last second */
+	private String secondText = null;
+
+	/** export modes */
+	private static final int MODE_HOLD = 0;
+	private static final int MODE_EXACT = 1;
+	private static final int MODE_RESAMPLE = 2;
+	/** preference values of export modes */
+	private static final List<String> MODE_VALUES = Arrays.asList("hold", "exact", "resample");
+
+	/** size of write buffer [chars] */
+	private static final int WRITE_BUFFER_SIZE = 65536;
+	/** min. time between progress updates [ms] */
+	private static final long PROGRESS_INTERVAL = 250;
+	/** default time between resampled rows [ms] */
+	private static final long DEFAULT_RESAMPLE_PERIOD = 1000;
 
 	private static final String OPT_FIELD_DELIM		= "csv_field_delimiter";
 	private static final String OPT_RECORD_DELIM	= "csv_record_delimiter";
 	private static final String OPT_TEXT_QUOTED 	= "csv_text_quoted";
 	private static final String OPT_SEND_EXPORT 	= "send_after_export";
+	private static final String OPT_EXPORT_MODE 	= "csv_export_mode";
+	private static final String OPT_RESAMPLE_PERIOD = "csv_resample_period";
 
 	private static String CSV_FIELD_DELIMITER = ",";
 	private static String CSV_LINE_DELIMITER = "\n";
@@ -65,6 +88,12 @@ class ExportTask extends AsyncTask<XYMultipleSeriesDataset, Integer, String>
 	private static final Logger log = Logger.getLogger(TAG);
 	
 	private final SharedPreferences prefs;
+	/** export mode (one of MODE_xxx) */
+	private final int exportMode;
+	/** time between resampled rows [ms] */
+	private final long resamplePeriod;
+	/** time of export request, samples up to this time are exported [ms] */
+	private final long endTime;
 
 	// file name to be saved
     private final String path;
@@ -73,6 +102,7 @@ class ExportTask extends AsyncTask<XYMultipleSeriesDataset, Integer, String>
 	public ExportTask(Activity activity)
 	{
 		this.activity = activity;
+		endTime = System.currentTimeMillis();
         path = FileHelper.getPath(activity).concat(File.separator+"csv");
 		fileName = path.concat(File.separator+FileHelper.getFileName()
                        .concat(".csv"));
@@ -82,6 +112,18 @@ class ExportTask extends AsyncTask<XYMultipleSeriesDataset, Integer, String>
 		CSV_FIELD_DELIMITER = prefs.getString(OPT_FIELD_DELIM,",");
 		CSV_LINE_DELIMITER  = prefs.getString(OPT_RECORD_DELIM,"\n");
 		CSV_TEXT_QUOTED     = prefs.getBoolean(OPT_TEXT_QUOTED,false);
+		exportMode = Math.max(MODE_HOLD, MODE_VALUES.indexOf(prefs.getString(OPT_EXPORT_MODE, "")));
+		long period = DEFAULT_RESAMPLE_PERIOD;
+		try
+		{
+			period = Long.parseLong(prefs.getString(OPT_RESAMPLE_PERIOD,
+			                                        String.valueOf(DEFAULT_RESAMPLE_PERIOD)));
+		}
+		catch (NumberFormatException ex)
+		{
+			log.warning("Invalid resample period: " + ex.getMessage());
+		}
+		resamplePeriod = Math.max(1, period);
 	}
 
 	private static String quoteStringIfNeeded(String string)
@@ -92,69 +134,225 @@ class ExportTask extends AsyncTask<XYMultipleSeriesDataset, Integer, String>
 	@Override
 	protected String doInBackground(XYMultipleSeriesDataset... params)
 	{
-		double currX;
-		double currY;
-		int maxCounts = 0;
-		int highestResChannel = 0;	/* channel id with highest x-resolution */
+		XYSeries[] series = snapshot(params[0].getSeries());
+
+		//noinspection ResultOfMethodCallIgnored
+		new File(path).mkdirs();
+		try
+		{
+			Writer writer = new BufferedWriter(new FileWriter(new File(fileName)), WRITE_BUFFER_SIZE);
+			try
+			{
+				// create header line
+				StringBuilder row = new StringBuilder();
+				row.append(quoteStringIfNeeded(activity.getString(R.string.time)));
+				row.append(CSV_FIELD_DELIMITER);
+				for (XYSeries sery : series)
+				{
+					row.append(quoteStringIfNeeded(sery.getTitle()));
+					row.append(CSV_FIELD_DELIMITER);
+				}
+				row.append(CSV_LINE_DELIMITER);
+				writer.append(row);
 
-		XYSeries series[] = params[0].getSeries();
+				// generate data
+				writeRows(writer, series);
+			}
+			finally
+			{
+				writer.close();
+			}
+		}
+		catch (IOException e)
+		{
+			log.log(Level.SEVERE, fileName, e);
+		}
+		return fileName;
+	}
 
-		// find channel with highest x-resolution
+	/**
+	 * Create snapshots of all series up to export request time
+	 * - export is not affected by samples added/removed while writing
+	 *
+	 * @param series series to be exported
+	 * @return snapshots of buffered series, other series unchanged
+	 */
+	private XYSeries[] snapshot(XYSeries[] series)
+	{
+		XYSeries[] result = new XYSeries[series.length];
 		for (int i = 0; i < series.length; i++)
 		{
-			if (maxCounts < series[i].getItemCount())
+			result[i] = (series[i] instanceof BufferedXYSeries)
+				? ((BufferedXYSeries) series[i]).snapshot(endTime)
+				: series[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Write data rows of all series in time order
+	 *
+	 * All series are walked in parallel (k-way merge on the next sample time).
+	 * Each row contains one cell per series, according to the export mode:
+	 * - MODE_HOLD: one row per distinct sample time, last known value of each series
+	 * - MODE_EXACT: one row per distinct sample time, only values sampled at this time
+	 * - MODE_RESAMPLE: one row per resample period, last known value of each series
+	 *
+	 * @param writer writer to write rows to
+	 * @param series series to be exported
+	 * @throws IOException on write errors
+	 */
+	private void writeRows(Writer writer, XYSeries[] series) throws IOException
+	{
+		int numSeries = series.length;
+		/* reader of samples for each series, positioned at next sample */
+		BufferedXYSeries.SampleReader[] readers = new BufferedXYSeries.SampleReader[numSeries];
+		/* next sample is available for each series */
+		boolean[] available = new boolean[numSeries];
+		/* formatted last known value for each series, null if unknown */
+		String[] cells = new String[numSeries];
+		double[] lastValues = new double[numSeries];
+		/* series which got a sample at current row time */
+		boolean[] sampled = new boolean[numSeries];
+		long totalCount = 0;
+		long doneCount = 0;
+		double firstTime = Double.MAX_VALUE;
+
+		for (int i = 0; i < numSeries; i++)
+		{
+			readers[i] = new BufferedXYSeries.SampleReader(series[i]);
+			totalCount += readers[i].size();
+			available[i] = readers[i].next();
+			if (available[i])
 			{
-				maxCounts = series[i].getItemCount();
-				highestResChannel = i;
+				firstTime = Math.min(firstTime, readers[i].getX());
 			}
 		}
-		
-		//noinspection ResultOfMethodCallIgnored
-		new File(path).mkdirs();
-		FileWriter writer;
-		try
+		if (totalCount == 0) return;
+
+		StringBuilder row = new StringBuilder();
+		long lastProgress = System.currentTimeMillis();
+		double rowTime = (exportMode == MODE_RESAMPLE) ? firstTime : Double.NaN;
+
+		while (true)
 		{
-			writer = new FileWriter(new File(fileName));
+			// find time of next sample over all series
+			double nextTime = Double.MAX_VALUE;
+			for (int i = 0; i < numSeries; i++)
+			{
+				if (available[i])
+				{
+					nextTime = Math.min(nextTime, readers[i].getX());
+				}
+			}
+			if (nextTime == Double.MAX_VALUE)
+			{
+				break;
+			}
 
-			// create header line
-			writer.append(quoteStringIfNeeded(activity.getString(R.string.time)));
-			writer.append(CSV_FIELD_DELIMITER);
-			for (XYSeries sery : series)
+			if (exportMode == MODE_RESAMPLE)
 			{
-				writer.append(quoteStringIfNeeded(sery.getTitle()));
-				writer.append(CSV_FIELD_DELIMITER);
+				// emit resampled rows until next sample time
+				while (rowTime < nextTime)
+				{
+					appendRow(row, (long) rowTime, cells, null);
+					rowTime += resamplePeriod;
+				}
 			}
-			writer.append(CSV_LINE_DELIMITER);
 
-			// generate data
-			for (int i = 0; i < maxCounts; i++)
+			// consume all samples at next sample time
+			for (int i = 0; i < numSeries; i++)
 			{
-				currX = series[highestResChannel].getX(i);
-				writer.append(dateFormat.format(new Date((long)currX)));
-				writer.append(CSV_FIELD_DELIMITER);
-				for (XYSeries sery : series)
+				sampled[i] = false;
+				while (available[i] && readers[i].getX() == nextTime)
 				{
-					try
-					{
-						SortedMap<Double, Double> map = sery.getRange(currX, currX, true);
-						currY = map.get(map.firstKey());
-						writer.append(String.valueOf(currY));
-						writer.append(CSV_FIELD_DELIMITER);
-					} catch (Exception ex)
+					double value = readers[i].getY();
+					available[i] = readers[i].next();
+					// format value only if it changed
+					if (cells[i] == null || Double.compare(value, lastValues[i]) != 0)
 					{
-						// do nothing, just catch the error
+						cells[i] = String.valueOf(value);
+						lastValues[i] = value;
 					}
+					sampled[i] = true;
+					doneCount++;
 				}
-				writer.append(CSV_LINE_DELIMITER);
-				publishProgress(10000 * i / maxCounts);
 			}
-			writer.close();
+
+			if (exportMode != MODE_RESAMPLE)
+			{
+				appendRow(row, (long) nextTime, cells,
+				          (exportMode == MODE_EXACT) ? sampled : null);
+			}
+
+			// flush rows in chunks
+			if (row.length() >= WRITE_BUFFER_SIZE)
+			{
+				writer.append(row);
+				row.setLength(0);
+			}
+
+			// throttled progress update
+			long now = System.currentTimeMillis();
+			if (now - lastProgress >= PROGRESS_INTERVAL)
+			{
+				publishProgress((int) (10000 * Math.min(doneCount, totalCount) / totalCount));
+				lastProgress = now;
+			}
 		}
-		catch (IOException e)
+
+		// last resampled row contains final values
+		if (exportMode == MODE_RESAMPLE)
 		{
-			e.printStackTrace();
+			appendRow(row, (long) rowTime, cells, null);
 		}
-		return fileName;
+		writer.append(row);
+		publishProgress(10000);
+	}
+
+	/**
+	 * Append a data row to CSV buffer
+	 *
+	 * @param row      CSV buffer
+	 * @param time     row time stamp
+	 * @param cells    formatted values of all series (null = unknown)
+	 * @param selected series to be written, null = all series
+	 */
+	private void appendRow(StringBuilder row, long time, String[] cells, boolean[] selected)
+	{
+		appendTime(row, time);
+		row.append(CSV_FIELD_DELIMITER);
+		for (int i = 0; i < cells.length; i++)
+		{
+			if (cells[i] != null && (selected == null || selected[i]))
+			{
+				row.append(cells[i]);
+			}
+			row.append(CSV_FIELD_DELIMITER);
+		}
+		row.append(CSV_LINE_DELIMITER);
+	}
+
+	/**
+	 * Append formatted time stamp to CSV buffer
+	 * - date/time part is only re-formatted if second changes
+	 *
+	 * @param row  CSV buffer
+	 * @param time time stamp [ms]
+	 */
+	private void appendTime(StringBuilder row, long time)
+	{
+		long second = time / 1000L;
+		if (second != lastSecond || secondText == null)
+		{
+			secondText = secondFormat.format(new Date(second * 1000L));
+			lastSecond = second;
+		}
+		int millis = (int) (time - second * 1000L);
+		row.append(secondText).append('.');
+		if (millis < 100) row.append('0');
+		if (millis < 10) row.append('0');
+		row.append(millis);
 	}
 
 	@Override
@@ -27,16 +27,27 @@ import android.os.Handler;
 import android.os.Looper;
 import android.widget.Toast;
 
+import com.fr3ts0n.ecu.EcuAttributeMapper;
+import com.fr3ts0n.ecu.EcuDataPv;
 import com.fr3ts0n.ecu.prot.obd.ElmProt;
 import com.fr3ts0n.ecu.prot.obd.ObdProt;
+import com.fr3ts0n.pvs.ProcessVar;
 import com.fr3ts0n.pvs.PvList;
+import com.fr3ts0n.pvs.TimeSeriesBuffer;
+import com.fr3ts0n.pvs.io.PvStreamReader;
+import com.fr3ts0n.pvs.io.PvStreamWriter;
 
+import org.achartengine.model.XYSeries;
+
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,11 +62,15 @@ class FileHelper
 	@SuppressLint("SimpleDateFormat")
 	private static final SimpleDateFormat dateFmt = new SimpleDateFormat("yyyy.MM.dd-HH.mm.ss");
 	private static ProgressDialog progress;
+	/** executor for saving data in background (one save at a time) */
+	private static final ExecutorService saveExecutor = Executors.newSingleThreadExecutor();
 
 	private static final Logger log = Logger.getLogger(FileHelper.class.getName());
 	
 	private final Context context;
 	private final ElmProt elm;
+	/** handler to report results on main thread */
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
 	/**
 	 * Initialize static data for static calls
@@ -94,7 +109,9 @@ class FileHelper
 
 
 	/**
-	 * Save all data in a independent thread
+	 * Save all data in background
+	 * - a snapshot of all data is taken immediately,
+	 *   so data acquisition continues while saving
 	 */
 	void saveDataThreaded()
 	{
@@ -111,64 +128,79 @@ class FileHelper
 			mFileName,
 			true);
 
-		Thread saveTask = new Thread()
+		// take consistent snapshot of all data up to now
+		long endTime = System.currentTimeMillis();
+		final int service = elm.getService();
+		final PvList[] lists =
+			{
+				(PvList) ObdProt.PidPvs.snapshot(endTime),
+				(PvList) ObdProt.VidPvs.snapshot(endTime),
+				(PvList) ObdProt.tCodes.snapshot(endTime),
+				(PvList) MainActivity.mPluginPvs.snapshot(endTime),
+			};
+
+		saveExecutor.execute(new Runnable()
 		{
 			public void run()
 			{
-				Looper.prepare();
-				saveData(mPath, mFileName);
-				progress.dismiss();
-				Looper.loop();
+				final String msg = saveData(mPath, mFileName, service, lists);
+				mainHandler.post(new Runnable()
+				{
+					public void run()
+					{
+						progress.dismiss();
+						Toast.makeText(context, msg, Toast.LENGTH_SHORT).show();
+					}
+				});
 			}
-		};
-		saveTask.start();
+		});
 	}
 
 	/**
-	 * Save all data
+	 * Save data snapshot
+	 *
+	 * @param mPath     path to save file in
+	 * @param mFileName name of file to save
+	 * @param service   current OBD service
+	 * @param lists     snapshots of PID, VID, DFC and plugin data lists
+	 * @return result message
 	 */
 	@SuppressWarnings("ResultOfMethodCallIgnored")
-	private synchronized void saveData(String mPath, String mFileName)
+	private String saveData(String mPath, String mFileName, int service, PvList[] lists)
 	{
 		File outFile;
+		String msg;
 
 		// ensure the path is created
 		//noinspection ResultOfMethodCallIgnored
 		new File(mPath).mkdirs();
 		outFile = new File(mFileName);
 
-		// prevent data updates for saving period
-		ObdItemAdapter.allowDataUpdates = false;
-
 		try
 		{
 			outFile.createNewFile();
-			FileOutputStream fStr = new FileOutputStream(outFile);
-			ObjectOutputStream oStr = new ObjectOutputStream(fStr);
-			oStr.writeInt(elm.getService());
-			oStr.writeObject(ObdProt.PidPvs);
-			oStr.writeObject(ObdProt.VidPvs);
-			oStr.writeObject(ObdProt.tCodes);
-			oStr.writeObject(MainActivity.mPluginPvs);
+			PvStreamWriter oStr = new PvStreamWriter(new FileOutputStream(outFile),
+			                                         true,
+			                                         new SessionMapper());
+			oStr.writeObject(service);
+			for (PvList list : lists)
+			{
+				oStr.writeObject(list);
+			}
 
 			oStr.close();
-			fStr.close();
 
-			@SuppressLint("DefaultLocale")
-			String msg = String.format("%s %d Bytes to %s",
+			msg = String.format(Locale.ROOT, "%s %d Bytes to %s",
 				context.getString(R.string.saved),
 				outFile.length(),
 				mPath);
 			log.info(msg);
-			Toast.makeText(context, msg, Toast.LENGTH_SHORT).show();
 		} catch (Exception e)
 		{
-			Toast.makeText(context, e.toString(), Toast.LENGTH_SHORT).show();
-			e.printStackTrace();
+			msg = e.toString();
+			log.log(Level.SEVERE, mFileName, e);
 		}
-
-		// we are done saving, allow data updates again
-		ObdItemAdapter.allowDataUpdates = true;
+		return msg;
 	}
 
 	/**
@@ -216,19 +248,36 @@ class FileHelper
 			inStr = context.getContentResolver().openInputStream(uri);
 			numBytesLoaded = inStr != null ? inStr.available() : 0;
 			msg = context.getString(R.string.loaded).concat(String.format(" %d Bytes", numBytesLoaded));
-			ObjectInputStream oIn = new ObjectInputStream(inStr);
-			/* ensure that measurement page is activated
-			   to avoid deletion of loaded data afterwards */
-			int currService = oIn.readInt();
-			/* if data was saved in mode 0, keep current mode */
-			if(currService != 0) elm.setService(currService, false);
-			/* read in the data */
-			ObdProt.PidPvs = (PvList) oIn.readObject();
-			ObdProt.VidPvs = (PvList) oIn.readObject();
-			ObdProt.tCodes = (PvList) oIn.readObject();
-			MainActivity.mPluginPvs = (PvList) oIn.readObject();
-
-			oIn.close();
+			inStr = new BufferedInputStream(inStr);
+			if (PvStreamReader.isPvStream(inStr))
+			{
+				PvStreamReader oIn = new PvStreamReader(inStr, new SessionMapper());
+				/* ensure that measurement page is activated
+				   to avoid deletion of loaded data afterwards */
+				int currService = (Integer) oIn.readObject();
+				/* if data was saved in mode 0, keep current mode */
+				if(currService != 0) elm.setService(currService, false);
+				/* read in the data */
+				ObdProt.PidPvs = (PvList) oIn.readObject();
+				ObdProt.VidPvs = (PvList) oIn.readObject();
+				ObdProt.tCodes = (PvList) oIn.readObject();
+				MainActivity.mPluginPvs = (PvList) oIn.readObject();
+
+				oIn.close();
+			}
+			else
+			{
+				/* file in previous (java serialized) format */
+				ObjectInputStream oIn = new ObjectInputStream(inStr);
+				int currService = oIn.readInt();
+				if(currService != 0) elm.setService(currService, false);
+				ObdProt.PidPvs = (PvList) oIn.readObject();
+				ObdProt.VidPvs = (PvList) oIn.readObject();
+				ObdProt.tCodes = (PvList) oIn.readObject();
+				MainActivity.mPluginPvs = (PvList) oIn.readObject();
+
+				oIn.close();
+			}
 
 			log.log(Level.INFO, msg);
 			Toast.makeText(context, msg, Toast.LENGTH_SHORT).show();
@@ -239,4 +288,47 @@ class FileHelper
 		}
 		return numBytesLoaded;
 	}
+
+	/**
+	 * Attribute mapper for session files
+	 * - chart data series are stored as their sample buffers
+	 */
+	private static class SessionMapper extends EcuAttributeMapper
+	{
+		@Override
+		public Object toStored(ProcessVar pv, Object key, Object value)
+		{
+			if (ObdItemAdapter.FID_DATA_SERIES.equals(key))
+			{
+				if (value instanceof BufferedXYSeries)
+				{
+					return ((BufferedXYSeries) value).getBuffer();
+				}
+				if (value instanceof XYSeries)
+				{
+					// series loaded from previous file format
+					XYSeries series = (XYSeries) value;
+					TimeSeriesBuffer buffer =
+						new TimeSeriesBuffer(Math.max(1, series.getItemCount()));
+					for (int i = 0; i < series.getItemCount(); i++)
+					{
+						buffer.add((long) series.getX(i), series.getY(i));
+					}
+					return buffer;
+				}
+			}
+			return super.toStored(pv, key, value);
+		}
+
+		@Override
+		public Object fromStored(ProcessVar pv, Object key, Object value)
+		{
+			if (ObdItemAdapter.FID_DATA_SERIES.equals(key) && value instanceof TimeSeriesBuffer)
+			{
+				return new BufferedXYSeries(String.valueOf(pv.get(EcuDataPv.FIELDS[EcuDataPv.FID_DESCRIPT])),
+				                            (TimeSeriesBuffer) value);
+			}
+			return super.fromStored(pv, key, value);
+		}
+	}
 }
@@ -33,6 +33,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.graphics.drawable.Drawable;
+import android.hardware.usb.UsbDevice;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -58,25 +59,36 @@ import androidx.core.content.FileProvider;
 
 import com.fr3ts0n.androbd.plugin.Plugin;
 import com.fr3ts0n.androbd.plugin.mgr.PluginManager;
+import com.fr3ts0n.ecu.AlertRule;
+import com.fr3ts0n.ecu.AlertRules;
 import com.fr3ts0n.ecu.EcuCodeItem;
 import com.fr3ts0n.ecu.EcuDataItem;
 import com.fr3ts0n.ecu.EcuDataItems;
 import com.fr3ts0n.ecu.EcuDataPv;
+import com.fr3ts0n.ecu.TriggerRecorder;
+import com.fr3ts0n.ecu.prot.obd.ConnectionCache;
 import com.fr3ts0n.ecu.prot.obd.ElmProt;
 import com.fr3ts0n.ecu.prot.obd.ObdProt;
+import com.fr3ts0n.ecu.prot.obd.ObdRequest;
 import com.fr3ts0n.pvs.ProcessVar;
 import com.fr3ts0n.pvs.PvChangeEvent;
 import com.fr3ts0n.pvs.PvChangeListener;
 import com.fr3ts0n.pvs.PvList;
+import com.fr3ts0n.pvs.io.PvJournalWriter;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
 import java.util.Timer;
@@ -135,12 +147,17 @@ public class MainActivity extends PluginManager
     private static final String PREF_USE_LAST = "USE_LAST_SETTINGS";
     private static final String PREF_OVERLAY = "toolbar_overlay";
     private static final String PREF_DATA_DISABLE_MAX = "data_disable_max";
+    private static final String PREF_PV_JOURNAL = "pv_journal";
+    private static final String PREF_TRIGGER_CAPTURE = "trigger_capture";
+    /** max. time [ms] to wait for response to single OBD request */
+    private static final long REQUEST_TIMEOUT = 10000;
     private static final int MESSAGE_FILE_WRITTEN = 3;
     private static final int MESSAGE_DATA_ITEMS_CHANGED = 6;
     private static final int MESSAGE_OBD_STATE_CHANGED = 8;
     private static final int MESSAGE_OBD_NUMCODES = 9;
     private static final int MESSAGE_OBD_ECUS = 10;
     private static final int MESSAGE_OBD_NRC = 11;
+    private static final int MESSAGE_OBD_DORMANT_PIDS = 13;
     private static final String TAG = "AndrOBD";
     /**
      * internal Intent request codes
@@ -200,6 +217,37 @@ public class MainActivity extends PluginManager
      * Name of the connected BT device
      */
     private static String mConnectedDeviceName = null;
+    /**
+     * Stable ID of the connected adapter (address of BT/network device, USB IDs)
+     */
+    private static String mConnectedDeviceId = null;
+    /**
+     * File name of connection cache
+     */
+    private static final String CONNECTION_CACHE_FILE = "connections.properties";
+    /**
+     * Connection settings learned per adapter/vehicle
+     */
+    private static final ConnectionCache connectionCache = new ConnectionCache();
+    /**
+     * Journal of data changes while connected
+     */
+    private static PvJournalWriter pvJournal = null;
+    /**
+     * Recorder of data before/after trouble codes and alerts while connected
+     */
+    private static TriggerRecorder triggerRecorder = null;
+    /**
+     * Forward responses of single OBD requests to OBD data lists
+     */
+    private static final ObdRequest.Callback forwardResponse = new ObdRequest.Callback()
+    {
+        @Override
+        public void requestDone(ObdRequest request)
+        {
+            CommService.elm.forwardResponse(request);
+        }
+    };
     /**
      * menu object
      */
@@ -282,6 +330,24 @@ public class MainActivity extends PluginManager
      * current operating mode
      */
     private MODE mode = MODE.OFFLINE;
+    /**
+     * Show raised data item alerts as toast message
+     */
+    private final AlertRules.AlertListener alertListener = new AlertRules.AlertListener()
+    {
+        @Override
+        public void alertChanged(AlertRule rule, boolean active, double value, long time)
+        {
+            if (active)
+            {
+                Message msg = mHandler.obtainMessage(MESSAGE_TOAST);
+                Bundle bundle = new Bundle();
+                bundle.putString(TOAST, rule.getLabel());
+                msg.setData(bundle);
+                mHandler.sendMessage(msg);
+            }
+        }
+    };
     /**
      * Handle message requests
      */
@@ -394,8 +460,7 @@ public class MainActivity extends PluginManager
                         /* Show ELM status only in ONLINE mode */
                         if (getMode() != MODE.DEMO)
                         {
-                            setStatus(getResources().getStringArray(R.array.elmcomm_states)[state
-                                    .ordinal()]);
+                            setObdStatus(state);
                         }
                         // if last selection shall be restored ...
                         if (istRestoreWanted(PRESELECT.LAST_SERVICE))
@@ -406,6 +471,11 @@ public class MainActivity extends PluginManager
                                         null);
                             }
                         }
+                        // identify vehicle without interrupting selected service
+                        if (state == ElmProt.STAT.ECU_DETECTED && getMode() == MODE.ONLINE)
+                        {
+                            readVin();
+                        }
                         break;
 
                     // handle change in number of fault codes
@@ -414,6 +484,15 @@ public class MainActivity extends PluginManager
                         setNumCodes((Integer) evt.getNewValue());
                         break;
 
+                    // handle change in number of dormant PIDs
+                    case MESSAGE_OBD_DORMANT_PIDS:
+                        /* Show ELM status only in ONLINE mode */
+                        if (getMode() != MODE.DEMO)
+                        {
+                            setObdStatus(CommService.elm.getStatus());
+                        }
+                        break;
+
                     // handle ECU detection event
                     case MESSAGE_OBD_ECUS:
                         evt = (PropertyChangeEvent) msg.obj;
@@ -566,6 +645,8 @@ public class MainActivity extends PluginManager
 
         // create file helper instance
         fileHelper = new FileHelper(this);
+        // load connection settings of previous connections
+        loadConnectionCache();
         // set listeners for data structure changes
         setDataListeners();
         // automate elm status display
@@ -963,6 +1044,9 @@ public class MainActivity extends PluginManager
                 // DeviceListActivity returns with a device to connect
                 if (resultCode == Activity.RESULT_OK)
                 {
+                    UsbDevice device = UsbDeviceListActivity.selectedPort.getDriver().getDevice();
+                    mConnectedDeviceId = String.format("usb:%04x/%04x",
+                            device.getVendorId(), device.getProductId());
                     mCommService = new UsbCommService(this, mHandler);
                     mCommService.connect(UsbDeviceListActivity.selectedPort, true);
                 } else
@@ -1130,6 +1214,7 @@ public class MainActivity extends PluginManager
             updatePidColor(key);
             updatePidDisplayRange(key);
             updatePidUpdatePeriod(key);
+            updatePidDeadband(key);
         }
         else
         {
@@ -1140,6 +1225,7 @@ public class MainActivity extends PluginManager
                 updatePidColor(currKey);
                 updatePidDisplayRange(currKey);
                 updatePidUpdatePeriod(currKey);
+                updatePidDeadband(currKey);
             }
         }
     }
@@ -1159,7 +1245,7 @@ public class MainActivity extends PluginManager
             Integer color = prefs.getInt(key, Color.BLACK);
             if(Color.BLACK != color)
             {
-                itm.pv.put(EcuDataPv.FID_COLOR, color);
+                itm.getPv().put(EcuDataPv.FID_COLOR, color);
                 log.info(String.format("PID pref %s=#%08x", key, color));
             }
         }
@@ -1191,7 +1277,7 @@ public class MainActivity extends PluginManager
                     String mnemonic = key.substring(0, pos);
                     EcuDataItem itm = EcuDataItems.byMnemonic.get(mnemonic);
                     // update display range limit in data item
-                    itm.pv.put(field, value);
+                    itm.getPv().put(field, value);
 
                     log.info(String.format("PID pref %s=%f", key, value));
                 }
@@ -1224,6 +1310,31 @@ public class MainActivity extends PluginManager
             }
     }
 
+    /**
+     * Update customized PID deadband from preference
+     * @param key Preference key
+     */
+    private void updatePidDeadband(String key)
+    {
+        int pos = key.indexOf("/".concat(EcuDataPv.FID_DEADBAND));
+        if (pos >= 0)
+        {
+            // Find corresponding data item
+            String mnemonic = key.substring(0, pos);
+            EcuDataItem itm = EcuDataItems.byMnemonic.get(mnemonic);
+            if (itm == null)
+            {
+                return;
+            }
+            // Default -1 is to detect key removal
+            float value = prefs.getFloat(key, -1f);
+            // update deadband of data item, restore configured one on removal
+            itm.deadband = (value >= 0) ? value : itm.defaultDeadband;
+
+            log.info(String.format("PID pref %s=%f", key, itm.deadband));
+        }
+    }
+
     /**
      * Handle long licks on OBD data list items
      */
@@ -1618,6 +1729,7 @@ public class MainActivity extends PluginManager
                 PvChangeEvent.PV_ADDED
                         | PvChangeEvent.PV_CLEARED
         );
+        ObdProt.alertRules.addAlertListener(alertListener);
     }
 
     /**
@@ -1630,6 +1742,7 @@ public class MainActivity extends PluginManager
         ObdProt.VidPvs.removePvChangeListener(this);
         ObdProt.tCodes.removePvChangeListener(this);
         mPluginPvs.removePvChangeListener(this);
+        ObdProt.alertRules.removeAlertListener(alertListener);
     }
 
     /**
@@ -1661,6 +1774,10 @@ public class MainActivity extends PluginManager
             switch (mode)
             {
                 case OFFLINE:
+                    // remember learned connection settings
+                    saveConnectionCache();
+                    stopPvJournal();
+                    stopTriggerRecorder();
                     // update menu item states
                     setMenuItemVisible(R.id.disconnect, false);
                     setMenuItemVisible(R.id.secure_connect_scan, true);
@@ -1918,6 +2035,21 @@ public class MainActivity extends PluginManager
         }
     }
 
+    /**
+     * set OBD protocol status in status bar
+     * - number of dormant PIDs is shown, if any
+     *
+     * @param state OBD protocol status
+     */
+    private void setObdStatus(ElmProt.STAT state)
+    {
+        String status = getResources().getStringArray(R.array.elmcomm_states)[state.ordinal()];
+        int numDormant = CommService.elm.getNumDormantPids();
+        setStatus(numDormant > 0
+                  ? getString(R.string.status_dormant_pids, status, numDormant)
+                  : status);
+    }
+
     /**
      * Select file to be loaded
      */
@@ -1954,6 +2086,7 @@ public class MainActivity extends PluginManager
     {
         // Get the BluetoothDevice object
         BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
+        mConnectedDeviceId = "bt:" + address;
         // Attempt to connect to the device
         mCommService = new BtCommService(this, mHandler);
         mCommService.connect(device, secure);
@@ -1967,6 +2100,7 @@ public class MainActivity extends PluginManager
      */
     private void connectNetworkDevice(String address, int port)
     {
+        mConnectedDeviceId = "net:" + address + ":" + port;
         // Attempt to connect to the device
         mCommService = new NetworkCommService(this, mHandler);
         ((NetworkCommService) mCommService).connect(address, port);
@@ -2007,7 +2141,21 @@ public class MainActivity extends PluginManager
             }
         }
         // set protocol service
-        CommService.elm.setService(newObdService, (getMode() != MODE.FILE && getMode() != MODE.OFFLINE));
+        switch (newObdService)
+        {
+            case ObdProt.OBD_SVC_PENDINGCODES:
+            case ObdProt.OBD_SVC_PERMACODES:
+            case ObdProt.OBD_SVC_READ_CODES:
+                // read codes without interrupting running service
+                if (getMode() == MODE.ONLINE)
+                {
+                    readTroubleCodes();
+                    break;
+                }
+                // no break here ...
+            default:
+                CommService.elm.setService(newObdService, (getMode() != MODE.FILE && getMode() != MODE.OFFLINE));
+        }
         // show / hide freeze frame selector */
         Spinner ff_selector = findViewById(R.id.ff_selector);
         ff_selector.setOnItemSelectedListener(ff_selected);
@@ -2179,8 +2327,130 @@ public class MainActivity extends PluginManager
         setMenuItemEnable(R.id.obd_services, true);
         // display connection status
         setStatus(getString(R.string.title_connected_to, mConnectedDeviceName));
+        // start from settings of previous connection with this adapter
+        CommService.elm.setConnectionCache(connectionCache, mConnectedDeviceId);
         // send RESET to Elm adapter
         CommService.elm.reset();
+        // record data changes of this connection
+        startPvJournal();
+        startTriggerRecorder();
+    }
+
+    /**
+     * Start capturing data around new trouble codes and alerts (if enabled)
+     */
+    private void startTriggerRecorder()
+    {
+        if (triggerRecorder != null || !prefs.getBoolean(PREF_TRIGGER_CAPTURE, false))
+        {
+            return;
+        }
+        File dir = getExternalFilesDir(null);
+        // 10s before and after trigger
+        triggerRecorder = new TriggerRecorder(dir != null ? dir : getFilesDir(), 10000, 10000, 1000);
+        triggerRecorder.record(ObdProt.PidPvs);
+        CommService.elm.addPropertyChangeListener(triggerRecorder);
+        ObdProt.alertRules.addAlertListener(triggerRecorder);
+    }
+
+    /**
+     * Stop capturing data around trouble codes and alerts
+     */
+    private void stopTriggerRecorder()
+    {
+        if (triggerRecorder == null)
+        {
+            return;
+        }
+        ObdProt.alertRules.removeAlertListener(triggerRecorder);
+        CommService.elm.removePropertyChangeListener(triggerRecorder);
+        triggerRecorder.release();
+        triggerRecorder = null;
+    }
+
+    /**
+     * Start journal of data changes (if enabled)
+     * - one journal file per day, which is appended on each connection
+     */
+    private void startPvJournal()
+    {
+        if (pvJournal != null || !prefs.getBoolean(PREF_PV_JOURNAL, false))
+        {
+            return;
+        }
+        String fileName = new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date()) + ".pvj";
+        File dir = getExternalFilesDir(null);
+        try
+        {
+            pvJournal = new PvJournalWriter(new File(dir != null ? dir : getFilesDir(), fileName), true);
+            pvJournal.record(ObdProt.PidPvs);
+            log.info("PV journal started: " + fileName);
+        } catch (IOException e)
+        {
+            log.log(Level.WARNING, "Start PV journal: ", e);
+            pvJournal = null;
+        }
+    }
+
+    /**
+     * Stop journal of data changes
+     */
+    private void stopPvJournal()
+    {
+        if (pvJournal == null)
+        {
+            return;
+        }
+        pvJournal.release(ObdProt.PidPvs);
+        try
+        {
+            pvJournal.close();
+        } catch (IOException e)
+        {
+            log.log(Level.WARNING, "Stop PV journal: ", e);
+        }
+        pvJournal = null;
+    }
+
+    /**
+     * Load connection settings of previous connections
+     */
+    private void loadConnectionCache()
+    {
+        File file = new File(getFilesDir(), CONNECTION_CACHE_FILE);
+        if (!file.exists())
+        {
+            return;
+        }
+        try
+        {
+            InputStream inStr = new FileInputStream(file);
+            connectionCache.load(inStr);
+            inStr.close();
+        } catch (IOException e)
+        {
+            log.log(Level.WARNING, "Load connection cache: ", e);
+        }
+    }
+
+    /**
+     * Save learned connection settings
+     */
+    private void saveConnectionCache()
+    {
+        if (connectionCache.size() == 0)
+        {
+            return;
+        }
+        try
+        {
+            OutputStream outStr = new FileOutputStream(new File(getFilesDir(), CONNECTION_CACHE_FILE));
+            connectionCache.save(outStr);
+            outStr.close();
+        } catch (IOException e)
+        {
+            log.log(Level.WARNING, "Save connection cache: ", e);
+        }
     }
 
     /**
@@ -2230,12 +2500,53 @@ public class MainActivity extends PluginManager
                         Message msg = mHandler.obtainMessage(MESSAGE_OBD_NRC);
                         msg.obj = evt;
                         mHandler.sendMessage(msg);
+                    } else
+                    {
+                        if (ObdProt.PROP_DORMANT_PIDS.equals(evt.getPropertyName()))
+                        {
+                            // forward property change to the UI Activity
+                            Message msg = mHandler.obtainMessage(MESSAGE_OBD_DORMANT_PIDS);
+                            msg.obj = evt;
+                            mHandler.sendMessage(msg);
+                        }
                     }
                 }
             }
         }
     }
 
+    /**
+     * Read vehicle identification number with single request
+     * - running service is not interrupted
+     */
+    private void readVin()
+    {
+        CommService.elm.request(ObdProt.OBD_SVC_VEH_INFO, 0x02,
+                                ObdRequest.Priority.LOW, REQUEST_TIMEOUT)
+                       .addCallback(forwardResponse);
+    }
+
+    /**
+     * Read all OBD fault codes with single requests
+     * - running service (e.g. live data) is not interrupted
+     */
+    private void readTroubleCodes()
+    {
+        ObdProt.tCodes.clear();
+        int[] services = { ObdProt.OBD_SVC_READ_CODES,
+                           ObdProt.OBD_SVC_PENDINGCODES,
+                           ObdProt.OBD_SVC_PERMACODES };
+        for (int service : services)
+        {
+            CommService.elm.request(service, -1, ObdRequest.Priority.NORMAL, REQUEST_TIMEOUT)
+                           .addCallback(forwardResponse);
+        }
+        // read PID number of codes ...
+        CommService.elm.request(ObdProt.OBD_SVC_DATA, 0x01,
+                                ObdRequest.Priority.NORMAL, REQUEST_TIMEOUT)
+                       .addCallback(forwardResponse);
+    }
+
     /**
      * clear OBD fault codes after a warning
      * confirmation dialog is shown and the operation is confirmed
@@ -26,6 +26,7 @@ import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
 import com.fr3ts0n.ecu.EcuDataPv;
+import com.fr3ts0n.ecu.ValueFormat;
 import com.github.anastr.speedviewlib.AwesomeSpeedometer;
 
 import java.text.DecimalFormat;
@@ -107,7 +108,7 @@ class ObdGaugeAdapter extends ArrayAdapter<EcuDataPv>
 		holder.gauge.setTrianglesColor(pidColor);
 		// Use PID specific units and value format
 		holder.gauge.setUnit(currPv.getUnits());
-		holder.gauge.setSpeedTextListener(aFloat -> String.format(format, aFloat));
+		holder.gauge.setSpeedTextListener(aFloat -> ValueFormat.get(format).format(aFloat));
 
 		holder.gauge.setMinSpeed(minValue.floatValue());
 		holder.gauge.setMaxSpeed(maxValue.floatValue());
@@ -33,10 +33,13 @@ import com.fr3ts0n.androbd.plugin.mgr.PluginManager;
 import com.fr3ts0n.ecu.Conversion;
 import com.fr3ts0n.ecu.EcuDataItem;
 import com.fr3ts0n.ecu.EcuDataPv;
+import com.fr3ts0n.ecu.ValueFormat;
+import com.fr3ts0n.pvs.CompressedTimeSeries;
 import com.fr3ts0n.pvs.IndexedProcessVar;
 import com.fr3ts0n.pvs.PvChangeEvent;
 import com.fr3ts0n.pvs.PvChangeListener;
 import com.fr3ts0n.pvs.PvList;
+import com.fr3ts0n.pvs.TimeSeriesBuffer;
 
 import org.achartengine.model.XYSeries;
 
@@ -58,11 +61,23 @@ class ObdItemAdapter extends ArrayAdapter<Object>
     transient PvList pvs;
     final transient LayoutInflater mInflater;
     transient static final String FID_DATA_SERIES = "SERIES";
+    /**
+     * max. number of recent samples per data series
+     */
+    static final int SERIES_CAPACITY = 10000;
+    /**
+     * max. number of older samples per data series, kept compressed
+     */
+    static final int HISTORY_CAPACITY = 1000000;
     /**
      * allow data updates to be handled
      */
     static boolean allowDataUpdates = true;
     private final transient SharedPreferences prefs;
+    /**
+     * buffer for formatting of displayed values (re-used by getView)
+     */
+    private final transient StringBuilder fmtBuffer = new StringBuilder();
 
 
     public ObdItemAdapter(Context context, int resource, PvList pvs)
@@ -184,7 +199,8 @@ class ObdItemAdapter extends ArrayAdapter<Object>
         ProgressBar pb = convertView.findViewById(R.id.bar);
 
         // format value string
-        String fmtText;
+        StringBuilder fmtText = fmtBuffer;
+        fmtText.setLength(0);
         Object colVal = currPv.get(EcuDataPv.FID_VALUE);
         Object cnvObj = currPv.get(EcuDataPv.FID_CNVID);
         Number min = (Number) currPv.get(EcuDataPv.FID_MIN);
@@ -203,13 +219,18 @@ class ObdItemAdapter extends ArrayAdapter<Object>
                 // format throuch assigned conversion
                 Conversion cnv;
                 cnv = ((Conversion[]) cnvObj)[EcuDataItem.cnvSystem];
-                // set formatted text
-                fmtText = cnv.physToPhysFmtString((Number) colVal,
-                                                  (String) currPv.get(EcuDataPv.FID_FORMAT));
+                // append formatted text
+                cnv.physToPhysFmtString(fmtText, (Number) colVal,
+                                        (String) currPv.get(EcuDataPv.FID_FORMAT));
+            } else if (colVal instanceof Number
+                       && currPv.get(EcuDataPv.FID_FORMAT) != null)
+            {
+                // format without conversion (e.g. derived items)
+                ValueFormat.get((String) currPv.get(EcuDataPv.FID_FORMAT)).append(fmtText, colVal);
             } else
             {
                 // plain format
-                fmtText = String.valueOf(colVal);
+                fmtText.append(colVal);
             }
 
             // set progress bar only on numeric values with min/max limits
@@ -227,7 +248,8 @@ class ObdItemAdapter extends ArrayAdapter<Object>
 
         } catch (Exception ex)
         {
-            fmtText = String.valueOf(colVal);
+            fmtText.setLength(0);
+            fmtText.append(colVal);
         }
         // set value
         tvValue.setText(fmtText);
@@ -282,7 +304,10 @@ class ObdItemAdapter extends ArrayAdapter<Object>
             XYSeries series = (XYSeries) pv.get(FID_DATA_SERIES);
             if (series == null)
             {
-                series = new XYSeries(String.valueOf(pv.get(EcuDataPv.FID_DESCRIPT)));
+                TimeSeriesBuffer buffer = new TimeSeriesBuffer(SERIES_CAPACITY);
+                buffer.setHistory(new CompressedTimeSeries(HISTORY_CAPACITY));
+                series = new BufferedXYSeries(String.valueOf(pv.get(EcuDataPv.FID_DESCRIPT)),
+                                              buffer);
                 pv.put(FID_DATA_SERIES, series);
                 pv.addPvChangeListener(dataChangeHandler, PvChangeEvent.PV_MODIFIED);
             }
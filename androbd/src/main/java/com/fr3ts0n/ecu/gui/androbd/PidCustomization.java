@@ -13,6 +13,7 @@ import android.widget.TextView;
 
 import com.fr3ts0n.ecu.EcuDataItem;
 import com.fr3ts0n.ecu.EcuDataPv;
+import com.fr3ts0n.ecu.ValueFormat;
 
 /**
  * Customisation of OBD data item display
@@ -54,6 +55,11 @@ public class PidCustomization
     Number dispMin, dispMax;
     /** expected PID update period [ms]*/
     long updatePeriod;
+    /** Seek bar to set deadband (0-10% of data range) */
+    SeekBar sbDeadband;
+    TextView tvDeadband;
+    /** min. value change to publish new value */
+    double deadband;
 
     Button btnCancel, btnOk, btnReset;
 
@@ -90,6 +96,19 @@ public class PidCustomization
         tvUpdate = findViewById(R.id.txt_update_period);
         sbUpdatePeriod = findViewById(R.id.sb_update_period);
         sbUpdatePeriod.setOnSeekBarChangeListener(sbUpdateChanged);
+
+        tvDeadband = findViewById(R.id.txt_deadband);
+        sbDeadband = findViewById(R.id.sb_deadband);
+        sbDeadband.setOnSeekBarChangeListener(sbDeadbandChanged);
+    }
+
+    /**
+     * get data range of item for deadband selection
+     * @return physical data range
+     */
+    private double getDataRange()
+    {
+        return Math.abs(item.physMax().doubleValue() - item.physMin().doubleValue());
     }
 
     @Override
@@ -97,16 +116,16 @@ public class PidCustomization
     {
         super.onResume();
         TextView tv = findViewById(R.id.data_item);
-        tv.setText((String)item.pv.get(EcuDataPv.FID_DESCRIPT));
+        tv.setText((String)item.getPv().get(EcuDataPv.FID_DESCRIPT));
 
         // Color selection
-        Integer color = ColorAdapter.getItemColor(item.pv);
+        Integer color = ColorAdapter.getItemColor(item.getPv());
         int pos = colorAdapter.getPosition(color);
         spColor.setSelection(pos);
 
         // Display range
         TextView tvUnits = findViewById(R.id.range_units);
-        tvUnits.setText((String)item.pv.get(EcuDataPv.FID_UNITS));
+        tvUnits.setText((String)item.getPv().get(EcuDataPv.FID_UNITS));
 
         long minValue = item.rawMin();
         long maxValue = item.rawMax();
@@ -119,16 +138,20 @@ public class PidCustomization
         sbMax.setMax((int) maxValue);
 
         // Indicate current display range
-        dispMin = (Number) item.pv.get(EcuDataPv.FID_MIN);
+        dispMin = (Number) item.getPv().get(EcuDataPv.FID_MIN);
         if(dispMin == null) dispMin = item.physMin();
         sbMin.setProgress((int) item.rawVal(dispMin));
 
-        dispMax = (Number) item.pv.get(EcuDataPv.FID_MAX);
+        dispMax = (Number) item.getPv().get(EcuDataPv.FID_MAX);
         if(dispMax == null) dispMax = item.physMax();
         sbMax.setProgress((int) item.rawVal(dispMax));
 
         updatePeriod = item.updatePeriod_ms;
         sbUpdatePeriod.setProgress((int)(updatePeriod / 1000));
+
+        deadband = item.deadband;
+        double range = getDataRange();
+        sbDeadband.setProgress(range > 0 ? (int) Math.round(1000 * deadband / range) : 0);
     }
 
     /**
@@ -160,7 +183,7 @@ public class PidCustomization
         {
             SharedPreferences.Editor ed = MainActivity.prefs.edit();
 
-            String mnemonic = (String)item.pv.get(EcuDataPv.FID_MNEMONIC);
+            String mnemonic = (String)item.getPv().get(EcuDataPv.FID_MNEMONIC);
             // Save Color selection
             String prefName = mnemonic.concat("/").concat(EcuDataPv.FID_COLOR);
             ed.putInt(prefName, dispColor);
@@ -174,6 +197,9 @@ public class PidCustomization
             prefName = mnemonic.concat("/").concat(EcuDataPv.FID_UPDT_PERIOD);
             ed.putLong(prefName, updatePeriod);
 
+            prefName = mnemonic.concat("/").concat(EcuDataPv.FID_DEADBAND);
+            ed.putFloat(prefName, (float) deadband);
+
             ed.apply();
 
             finish();
@@ -204,20 +230,24 @@ public class PidCustomization
         {
             SharedPreferences.Editor ed = MainActivity.prefs.edit();
 
-            String mnemonic = (String)item.pv.get(EcuDataPv.FID_MNEMONIC);
+            String mnemonic = (String)item.getPv().get(EcuDataPv.FID_MNEMONIC);
             // Reset Color selection
             String prefName = mnemonic.concat("/").concat(EcuDataPv.FID_COLOR);
             ed.remove(prefName);
-            item.pv.remove(EcuDataPv.FID_COLOR);
+            item.getPv().remove(EcuDataPv.FID_COLOR);
 
             // Reset range selection
             prefName = mnemonic.concat("/").concat(EcuDataPv.FID_MIN);
             ed.remove(prefName);
-            item.pv.remove(EcuDataPv.FID_MIN);
+            item.getPv().remove(EcuDataPv.FID_MIN);
 
             prefName = mnemonic.concat("/").concat(EcuDataPv.FID_MAX);
             ed.remove(prefName);
-            item.pv.remove(EcuDataPv.FID_MAX);
+            item.getPv().remove(EcuDataPv.FID_MAX);
+
+            prefName = mnemonic.concat("/").concat(EcuDataPv.FID_DEADBAND);
+            ed.remove(prefName);
+            item.deadband = item.defaultDeadband;
 
             ed.apply();
 
@@ -235,16 +265,16 @@ public class PidCustomization
         {
             try
             {
-                String format = (String) item.pv.get(EcuDataPv.FID_FORMAT);
+                String format = (String) item.getPv().get(EcuDataPv.FID_FORMAT);
                 if(seekBar == sbMin)
                 {
                     dispMin = item.physVal(progress);
-                    tvMin.setText(String.format(format, dispMin));
+                    tvMin.setText(ValueFormat.get(format).format(dispMin));
                 }
                 else
                 {
                     dispMax = item.physVal(progress);
-                    tvMax.setText(String.format(format, dispMax));
+                    tvMax.setText(ValueFormat.get(format).format(dispMax));
                 }
             }
             catch(Exception ex)
@@ -278,4 +308,34 @@ public class PidCustomization
         @Override
         public void onStopTrackingTouch(SeekBar seekBar) { }
     };
-}
\ No newline at end of file
+
+    /**
+     * Listener for SeekBar deadband changes
+     */
+    SeekBar.OnSeekBarChangeListener sbDeadbandChanged = new SeekBar.OnSeekBarChangeListener()
+    {
+        @Override
+        public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser)
+        {
+            try
+            {
+                // deadband in 0.1% steps of data range
+                deadband = progress * getDataRange() / 1000;
+                String format = (String) item.getPv().get(EcuDataPv.FID_FORMAT);
+                tvDeadband.setText(ValueFormat.get(format).format(deadband)
+                                       .concat(" ")
+                                       .concat(String.valueOf(item.getPv().getUnits())));
+            }
+            catch(Exception ex)
+            {
+                // ignore
+            }
+        }
+
+        @Override
+        public void onStartTrackingTouch(SeekBar seekBar) { }
+
+        @Override
+        public void onStopTrackingTouch(SeekBar seekBar) { }
+    };
+}
@@ -86,8 +86,10 @@ public class UsbCommService extends CommService
 						case 13:
 							try
 							{
+								// acquisition time is reception of terminating character
+								long rxTime = System.nanoTime();
 								if(!message.isEmpty())
-								{ elm.handleTelegram(message.toCharArray()); }
+								{ elm.handleTelegram(message.toCharArray(), rxTime); }
 							}
 							catch (Exception ex)
 							{
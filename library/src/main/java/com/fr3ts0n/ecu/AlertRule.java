@@ -0,0 +1,219 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu;
+
+/**
+ * Alert rule for values of a single data item
+ *
+ * The alert is raised if the condition is violated for at least the
+ * specified duration, and cleared if the value is back within the limit
+ * by more than the hysteresis.
+ *
+ * @author erwin
+ */
+public class AlertRule
+{
+	/** Rule types */
+	public enum Type
+	{
+		ABOVE,      ///< value above limit
+		BELOW,      ///< value below limit
+		RATE_ABOVE, ///< rate of change [1/s] above limit
+		RATE_BELOW  ///< rate of change [1/s] below limit
+	}
+
+	/** mnemonic of checked data item */
+	private final String mnemonic;
+	/** rule type */
+	private final Type type;
+	/** limit value */
+	private final double limit;
+	/** hysteresis to clear alert */
+	private final double hysteresis;
+	/** min. duration of violation to raise alert [ms] */
+	private final long duration;
+	/** descriptive text label */
+	private final String label;
+
+	/** alert is active */
+	private boolean active = false;
+	/** time since limit is violated [ms], -1 if not violated */
+	private long violatedSince = -1;
+	/** last value and time, used for rate of change */
+	private double lastValue = Double.NaN;
+	private long lastTime = 0;
+	/** value which was checked last (value or rate of change) */
+	private double checkedValue = Double.NaN;
+
+	/**
+	 * Create alert rule
+	 *
+	 * @param mnemonic   mnemonic of checked data item
+	 * @param type       rule type
+	 * @param limit      limit value
+	 * @param hysteresis hysteresis to clear alert (>= 0)
+	 * @param duration   min. duration of violation to raise alert [ms]
+	 * @param label      descriptive text label
+	 */
+	public AlertRule(String mnemonic, Type type, double limit, double hysteresis,
+	                 long duration, String label)
+	{
+		this.mnemonic = mnemonic;
+		this.type = type;
+		this.limit = limit;
+		this.hysteresis = Math.abs(hysteresis);
+		this.duration = Math.max(0, duration);
+		this.label = label;
+	}
+
+	/**
+	 * check new value of data item
+	 *
+	 * @param time  time of value [ms]
+	 * @param value new value
+	 * @return true if alert state has changed, false otherwise
+	 */
+	public synchronized boolean update(long time, double value)
+	{
+		double checked = value;
+		if (type == Type.RATE_ABOVE || type == Type.RATE_BELOW)
+		{
+			long interval = time - lastTime;
+			if (Double.isNaN(lastValue) || interval <= 0)
+			{
+				// rate of change needs two values
+				if (Double.isNaN(lastValue) || interval < 0)
+				{
+					lastValue = value;
+					lastTime = time;
+				}
+				return false;
+			}
+			checked = (value - lastValue) * 1000.0 / interval;
+			lastValue = value;
+			lastTime = time;
+		}
+		checkedValue = checked;
+
+		boolean upper = (type == Type.ABOVE || type == Type.RATE_ABOVE);
+		boolean violated = upper ? checked > limit : checked < limit;
+		boolean cleared = upper ? checked < limit - hysteresis : checked > limit + hysteresis;
+
+		if (active)
+		{
+			if (cleared)
+			{
+				active = false;
+				violatedSince = -1;
+				return true;
+			}
+			return false;
+		}
+		if (!violated)
+		{
+			violatedSince = -1;
+			return false;
+		}
+		if (violatedSince < 0)
+		{
+			violatedSince = time;
+		}
+		if (time - violatedSince >= duration)
+		{
+			active = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * check if limit is violated for min. duration without further
+	 * value changes
+	 * - rate of change rules require value changes
+	 *
+	 * @param time current time [ms]
+	 * @return true if alert was raised, false otherwise
+	 */
+	public synchronized boolean checkDuration(long time)
+	{
+		if (!active
+		    && violatedSince >= 0
+		    && (type == Type.ABOVE || type == Type.BELOW)
+		    && time - violatedSince >= duration)
+		{
+			active = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * reset alert state
+	 */
+	public synchronized void reset()
+	{
+		active = false;
+		violatedSince = -1;
+		lastValue = Double.NaN;
+		lastTime = 0;
+		checkedValue = Double.NaN;
+	}
+
+	/** @return true if alert is active */
+	public synchronized boolean isActive()
+	{
+		return active;
+	}
+
+	/** @return value which was checked last (value or rate of change) */
+	public synchronized double getCheckedValue()
+	{
+		return checkedValue;
+	}
+
+	/** @return mnemonic of checked data item */
+	public String getMnemonic()
+	{
+		return mnemonic;
+	}
+
+	/** @return rule type */
+	public Type getType()
+	{
+		return type;
+	}
+
+	/** @return limit value */
+	public double getLimit()
+	{
+		return limit;
+	}
+
+	/** @return descriptive text label */
+	public String getLabel()
+	{
+		return label;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s %s %s %s", label, mnemonic, type, limit);
+	}
+}
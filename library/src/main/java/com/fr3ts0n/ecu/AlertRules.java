@@ -0,0 +1,413 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu;
+
+import com.fr3ts0n.ecu.prot.obd.Messages;
+import com.fr3ts0n.pvs.PvChangeEvent;
+import com.fr3ts0n.pvs.PvChangeListener;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Alert rules for data items, indexed by mnemonic
+ *
+ * Rules are only evaluated on value changes of the data items they
+ * reference, so other data items are not affected by any number of
+ * rules. Alert state changes are published to listeners by a separate
+ * notification thread, so listeners never delay data acquisition.
+ *
+ * @author erwin
+ */
+public class AlertRules
+	implements PvChangeListener
+{
+	/**
+	 * Listener for alert state changes
+	 */
+	public interface AlertListener
+	{
+		/**
+		 * alert state of a rule has changed
+		 *
+		 * @param rule   rule which changed the state
+		 * @param active true if alert was raised, false if it was cleared
+		 * @param value  checked value which changed the state
+		 * @param time   time of value [ms]
+		 */
+		void alertChanged(AlertRule rule, boolean active, double value, long time);
+	}
+
+	/**
+	 * CSV field positions
+	 */
+	enum FLD
+	{
+		MNEMONIC,
+		TYPE,
+		LIMIT,
+		HYSTERESIS,
+		DURATION,
+		LABEL,
+		NUMBEROFFIELDS
+	}
+
+	/**
+	 * pending alert state change
+	 */
+	private static final class Notification
+	{
+		final AlertRule rule;
+		final boolean active;
+		final double value;
+		final long time;
+
+		Notification(AlertRule rule, boolean active, double value, long time)
+		{
+			this.rule = rule;
+			this.active = active;
+			this.value = value;
+			this.time = time;
+		}
+	}
+
+	// the data logger
+	private static final Logger log = Logger.getLogger("data.alerts");
+	/** interval to check duration of unchanged violations [ms] */
+	private static final long CHECK_INTERVAL = 500;
+
+	/** rules by mnemonic of checked data item */
+	private final HashMap<String, AlertRule[]> rules = new HashMap<>();
+	/** registered alert listeners */
+	private final Vector<AlertListener> listeners = new Vector<>();
+	/** pending notifications */
+	private final LinkedBlockingQueue<Notification> pending = new LinkedBlockingQueue<>();
+	/** notification thread, started on first listener */
+	private Thread notifier;
+
+	/**
+	 * Create empty rule set
+	 */
+	public AlertRules()
+	{
+	}
+
+	/**
+	 * Create rules from CSV resource file
+	 * - data items of rules are resolved from already loaded data items
+	 *
+	 * @param resource resource file for alert rules (csv)
+	 */
+	public AlertRules(String resource)
+	{
+		try
+		{
+			loadFromRows(CsvCatalog.readResource(getClass(), resource));
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * read rules from table rows
+	 *
+	 * @param rows table rows (header line excluded)
+	 */
+	private void loadFromRows(String[][] rows)
+	{
+		for (String[] params : rows)
+		{
+			// ignore comment and incomplete lines
+			if (params.length <= FLD.DURATION.ordinal() || params[0].startsWith("#")) //$NON-NLS-1$
+			{
+				continue;
+			}
+			try
+			{
+				String mnemonic = params[FLD.MNEMONIC.ordinal()];
+				String label = params.length > FLD.LABEL.ordinal()
+				               ? params[FLD.LABEL.ordinal()]
+				               : mnemonic;
+				add(new AlertRule(mnemonic,
+				                  AlertRule.Type.valueOf(params[FLD.TYPE.ordinal()]),
+				                  Double.parseDouble(params[FLD.LIMIT.ordinal()]),
+				                  Double.parseDouble(params[FLD.HYSTERESIS.ordinal()]),
+				                  Long.parseLong(params[FLD.DURATION.ordinal()]),
+				                  Messages.getString("alert_" + mnemonic, label)));
+			}
+			catch (IllegalArgumentException ex)
+			{
+				log.warning("Invalid alert rule: " + Arrays.toString(params) + " " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * add rule and start checking values of referenced data item
+	 *
+	 * @param rule rule to add
+	 * @throws IllegalArgumentException if referenced data item is unknown
+	 */
+	public synchronized void add(AlertRule rule)
+	{
+		EcuDataItem item = EcuDataItems.byMnemonic.get(rule.getMnemonic());
+		if (item == null)
+		{
+			throw new IllegalArgumentException("Unknown data item " + rule.getMnemonic());
+		}
+		AlertRule[] itemRules = rules.get(rule.getMnemonic());
+		if (itemRules == null)
+		{
+			itemRules = new AlertRule[]{rule};
+			item.getPv().addPvChangeListener(this, PvChangeEvent.PV_MODIFIED);
+		}
+		else
+		{
+			// rule arrays are immutable, so evaluation does not need a copy
+			itemRules = Arrays.copyOf(itemRules, itemRules.length + 1);
+			itemRules[itemRules.length - 1] = rule;
+		}
+		rules.put(rule.getMnemonic(), itemRules);
+	}
+
+	/**
+	 * remove rule
+	 *
+	 * @param rule rule to remove
+	 */
+	public synchronized void remove(AlertRule rule)
+	{
+		AlertRule[] itemRules = rules.get(rule.getMnemonic());
+		if (itemRules == null)
+		{
+			return;
+		}
+		Vector<AlertRule> remaining = new Vector<>(Arrays.asList(itemRules));
+		remaining.remove(rule);
+		if (remaining.isEmpty())
+		{
+			rules.remove(rule.getMnemonic());
+			EcuDataItem item = EcuDataItems.byMnemonic.get(rule.getMnemonic());
+			if (item != null && item.hasPv())
+			{
+				item.getPv().removePvChangeListener(this);
+			}
+		}
+		else
+		{
+			rules.put(rule.getMnemonic(), remaining.toArray(new AlertRule[0]));
+		}
+	}
+
+	/**
+	 * get rules for a data item
+	 *
+	 * @param mnemonic mnemonic of data item
+	 * @return rules of data item, empty array if none
+	 */
+	public synchronized AlertRule[] getRules(String mnemonic)
+	{
+		AlertRule[] result = rules.get(mnemonic);
+		return result != null ? result : new AlertRule[0];
+	}
+
+	/**
+	 * reset alert state of all rules (e.g. at start of a new trip)
+	 */
+	public synchronized void reset()
+	{
+		for (AlertRule[] itemRules : rules.values())
+		{
+			for (AlertRule rule : itemRules)
+			{
+				rule.reset();
+			}
+		}
+	}
+
+	/**
+	 * add listener for alert state changes
+	 *
+	 * @param listener listener to add
+	 */
+	public synchronized void addAlertListener(AlertListener listener)
+	{
+		if (!listeners.contains(listener))
+		{
+			listeners.add(listener);
+		}
+		if (notifier == null)
+		{
+			notifier = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					notifyListeners();
+				}
+			}, "AlertNotifier");
+			notifier.setDaemon(true);
+			notifier.start();
+		}
+	}
+
+	/**
+	 * remove listener for alert state changes
+	 *
+	 * @param listener listener to remove
+	 */
+	public void removeAlertListener(AlertListener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Check rules of data item on value change
+	 *
+	 * @param event change event of data item process var
+	 */
+	@Override
+	public void pvChanged(PvChangeEvent event)
+	{
+		if (!EcuDataPv.FIELDS[EcuDataPv.FID_VALUE].equals(event.getKey())
+		    || !(event.getValue() instanceof Number))
+		{
+			return;
+		}
+		Object mnemonic = ((EcuDataPv) event.getSource()).get(EcuDataPv.FID_MNEMONIC);
+		AlertRule[] itemRules;
+		synchronized (this)
+		{
+			itemRules = rules.get(mnemonic);
+		}
+		if (itemRules == null)
+		{
+			return;
+		}
+		// limits are defined for metric values
+		EcuDataItem item = EcuDataItems.byMnemonic.get(mnemonic);
+		double value = (item != null)
+		               ? item.metricValue((Number) event.getValue())
+		               : ((Number) event.getValue()).doubleValue();
+		long time = event.getTime();
+		for (AlertRule rule : itemRules)
+		{
+			if (rule.update(time, value))
+			{
+				publish(rule, time);
+			}
+		}
+	}
+
+	/**
+	 * publish alert state change of a rule
+	 *
+	 * @param rule rule which changed the state
+	 * @param time time of state change [ms]
+	 */
+	private void publish(AlertRule rule, long time)
+	{
+		boolean active = rule.isActive();
+		log.info(String.format("Alert %s: %s (%s)",
+		                       active ? "raised" : "cleared",
+		                       rule, rule.getCheckedValue()));
+		if (!listeners.isEmpty())
+		{
+			pending.add(new Notification(rule, active, rule.getCheckedValue(), time));
+		}
+	}
+
+	/**
+	 * raise alerts of rules which are violated for min. duration,
+	 * but did not get any further value change
+	 * (unchanged values do not cause change events)
+	 *
+	 * @param time current time [ms]
+	 */
+	private void checkDurations(long time)
+	{
+		AlertRule[][] allRules;
+		synchronized (this)
+		{
+			allRules = rules.values().toArray(new AlertRule[0][]);
+		}
+		for (AlertRule[] itemRules : allRules)
+		{
+			for (AlertRule rule : itemRules)
+			{
+				if (rule.checkDuration(time))
+				{
+					publish(rule, time);
+				}
+			}
+		}
+	}
+
+	/**
+	 * notify listeners about pending alert state changes
+	 * (loop of notification thread)
+	 */
+	private void notifyListeners()
+	{
+		long nextCheck = System.currentTimeMillis() + CHECK_INTERVAL;
+		while (true)
+		{
+			try
+			{
+				// check durations on a fixed schedule, even if notifications are pending
+				long now = System.currentTimeMillis();
+				if (now >= nextCheck)
+				{
+					checkDurations(now);
+					nextCheck = now + CHECK_INTERVAL;
+				}
+				Notification notification = pending.poll(nextCheck - now, TimeUnit.MILLISECONDS);
+				if (notification == null)
+				{
+					continue;
+				}
+				for (AlertListener listener : listeners.toArray(new AlertListener[0]))
+				{
+					try
+					{
+						listener.alertChanged(notification.rule,
+						                      notification.active,
+						                      notification.value,
+						                      notification.time);
+					}
+					catch (Exception ex)
+					{
+						log.warning("Alert listener: " + ex);
+					}
+				}
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+		}
+	}
+}
@@ -111,6 +111,14 @@ public class BitmapConversion extends NumericConversion
 		StringBuilder result = null;
 		long val = physVal.longValue();
 
+		// texts of known values are taken from cache
+		boolean cacheable = isCacheable(physVal);
+		String cached;
+		if (cacheable && (cached = getTextCache().get(val, format)) != null)
+		{
+			return cached;
+		}
+
 		for(Map.Entry<Long,String> item : hashData.entrySet())
 		{
 			// if this is NOT the first entry, then add a new line
@@ -119,12 +127,17 @@ public class BitmapConversion extends NumericConversion
 			else
 				result.append(System.lineSeparator());
 			// now add the result
-			result.append(String.format("%s  %s",
-				((val & item.getKey()) != 0) ? "(*)" : "(  )",
-				item.getValue()));
+			result.append(((val & item.getKey()) != 0) ? "(*)" : "(  )")
+			      .append("  ")
+			      .append(item.getValue());
 		}
 		// if we haven't found a string representation, return numeric value
 		if (result == null) result = new StringBuilder(super.physToPhysFmtString(physVal, format));
-		return (result.toString());
+		cached = result.toString();
+		if (cacheable)
+		{
+			getTextCache().put(val, format, cached);
+		}
+		return (cached);
 	}
 }
@@ -0,0 +1,75 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu;
+
+import com.fr3ts0n.common.UTF8Control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ListResourceBundle;
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+/**
+ * Resource bundle control which prefers precompiled catalogs of properties bundles
+ * - catalog of a bundle is the properties resource + CsvCatalog.CATALOG_EXT
+ * - properties resource is read (UTF-8) if no catalog is available
+ *
+ * @author erwin
+ */
+public class CatalogBundleControl extends UTF8Control
+{
+	/**
+	 * Bundle of precompiled catalog rows [key, value]
+	 */
+	private static class CatalogBundle extends ListResourceBundle
+	{
+		private final Object[][] contents;
+
+		CatalogBundle(String[][] rows)
+		{
+			contents = new Object[rows.length][];
+			for (int i = 0; i < rows.length; i++)
+			{
+				// empty values are not part of split rows
+				contents[i] = new Object[]{rows[i][0], rows[i].length > 1 ? rows[i][1] : ""};
+			}
+		}
+
+		@Override
+		protected Object[][] getContents()
+		{
+			return contents;
+		}
+	}
+
+	@Override
+	public ResourceBundle newBundle
+		(String baseName, Locale locale, String format, ClassLoader loader, boolean reload)
+		throws IOException
+	{
+		String resourceName = toResourceName(toBundleName(baseName, locale), "properties");
+		InputStream stream = loader.getResourceAsStream(resourceName + CsvCatalog.CATALOG_EXT);
+		if (stream != null)
+		{
+			return new CatalogBundle(CsvCatalog.readCatalog(stream));
+		}
+		return super.newBundle(baseName, locale, format, loader, reload);
+	}
+}
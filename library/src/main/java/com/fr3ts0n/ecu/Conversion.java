@@ -52,6 +52,16 @@ public interface Conversion extends Serializable
 	 */
 	String physToPhysFmtString(Number physVal, String format);
 
+	/**
+	 * append a numerical physical value as formatted string to a buffer
+	 *
+	 * @param out     buffer to append formatted value to
+	 * @param physVal physical value
+	 * @param format  formatting pattern for text display
+	 * @return buffer
+	 */
+	StringBuilder physToPhysFmtString(StringBuilder out, Number physVal, String format);
+
 	/**
 	 * convert measurement item from storage format to physical value
 	 *
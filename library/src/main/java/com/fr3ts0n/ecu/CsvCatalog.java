@@ -0,0 +1,312 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Tab delimited CSV tables (PIDs, conversions), properties bundles (DTCs)
+ * and their precompiled binary representation (catalog).
+ *
+ * The catalog is created at build time from the CSV resources and contains
+ * the already split table rows with a shared string pool:
+ * <pre>
+ * int    MAGIC
+ * short  VERSION
+ * int    number of strings, followed by strings (modified UTF-8)
+ * int    number of rows, followed by rows:
+ *        short number of fields, followed by string pool indices (short)
+ * </pre>
+ * The header line of the CSV file is not part of the catalog.
+ * Properties are stored as rows of [key, value], sorted by key.
+ *
+ * @author erwin
+ */
+public final class CsvCatalog
+{
+	/** file extension of precompiled catalog resources */
+	public static final String CATALOG_EXT = ".bin";
+	/** catalog file identifier "OBDC" */
+	private static final int MAGIC = 0x4F424443;
+	/** catalog format version */
+	private static final short VERSION = 1;
+	/** CSV field delimiter */
+	private static final char DELIMITER = '\t';
+	/** optional CSV quote character */
+	private static final char QUOTE = '"';
+
+	private CsvCatalog()
+	{
+	}
+
+	/**
+	 * split a CSV line into fields
+	 * - optional quotes are removed
+	 * - trailing empty fields are removed (same as String.split)
+	 *
+	 * @param line CSV line to be split
+	 * @return array of fields
+	 */
+	public static String[] splitLine(String line)
+	{
+		// empty line results in one empty field (same as String.split)
+		if (line.length() == 0)
+		{
+			return new String[]{line};
+		}
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		int numFields = 0;
+		for (int i = 0; i <= line.length(); i++)
+		{
+			char c = (i < line.length()) ? line.charAt(i) : DELIMITER;
+			if (c == DELIMITER)
+			{
+				fields.add(field.toString());
+				// remember number of fields up to last non-empty field
+				if (field.length() > 0)
+				{
+					numFields = fields.size();
+				}
+				field.setLength(0);
+			}
+			else if (c != QUOTE)
+			{
+				field.append(c);
+			}
+		}
+		return fields.subList(0, numFields).toArray(new String[numFields]);
+	}
+
+	/**
+	 * read all rows of a CSV table
+	 * - header line is skipped
+	 *
+	 * @param rdr reader to read CSV table from
+	 * @return all table rows, split into fields
+	 * @throws IOException on read errors
+	 */
+	public static String[][] readCsv(Reader rdr) throws IOException
+	{
+		List<String[]> rows = new ArrayList<>();
+		BufferedReader bufRdr = new BufferedReader(rdr);
+		String currLine;
+		// ignore header line
+		if (bufRdr.readLine() != null)
+		{
+			while ((currLine = bufRdr.readLine()) != null)
+			{
+				rows.add(splitLine(currLine));
+			}
+		}
+		bufRdr.close();
+		return rows.toArray(new String[0][]);
+	}
+
+	/**
+	 * read all rows of a CSV table from stream (default charset)
+	 *
+	 * @param inStr stream to read CSV table from
+	 * @return all table rows, split into fields
+	 * @throws IOException on read errors
+	 */
+	public static String[][] readCsv(InputStream inStr) throws IOException
+	{
+		return readCsv(new InputStreamReader(inStr));
+	}
+
+	/**
+	 * read all entries of a properties file as table rows [key, value]
+	 * - rows are sorted by key
+	 *
+	 * @param rdr reader to read properties from
+	 * @return all properties as table rows
+	 * @throws IOException on read errors
+	 */
+	public static String[][] readProperties(Reader rdr) throws IOException
+	{
+		Properties props = new Properties();
+		try
+		{
+			props.load(rdr);
+		}
+		finally
+		{
+			rdr.close();
+		}
+		List<String[]> rows = new ArrayList<>();
+		for (String key : new TreeSet<>(props.stringPropertyNames()))
+		{
+			rows.add(new String[]{key, props.getProperty(key)});
+		}
+		return rows.toArray(new String[0][]);
+	}
+
+	/**
+	 * read all rows of a precompiled catalog
+	 *
+	 * @param inStr stream to read catalog from
+	 * @return all table rows, split into fields
+	 * @throws IOException on read errors or invalid catalog
+	 */
+	public static String[][] readCatalog(InputStream inStr) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(inStr, 0x4000));
+		try
+		{
+			if (in.readInt() != MAGIC || in.readShort() != VERSION)
+			{
+				throw new IOException("Invalid catalog format");
+			}
+			// string pool
+			String[] strings = new String[in.readInt()];
+			for (int i = 0; i < strings.length; i++)
+			{
+				strings[i] = in.readUTF();
+			}
+			// table rows
+			String[][] rows = new String[in.readInt()][];
+			for (int i = 0; i < rows.length; i++)
+			{
+				String[] fields = new String[in.readUnsignedShort()];
+				for (int j = 0; j < fields.length; j++)
+				{
+					fields[j] = strings[in.readUnsignedShort()];
+				}
+				rows[i] = fields;
+			}
+			return rows;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * write table rows as precompiled catalog
+	 *
+	 * @param rows   table rows to be written
+	 * @param outStr stream to write catalog to
+	 * @throws IOException on write errors or too many strings
+	 */
+	public static void writeCatalog(String[][] rows, OutputStream outStr) throws IOException
+	{
+		// build string pool
+		HashMap<String, Integer> poolIndex = new HashMap<>();
+		List<String> pool = new ArrayList<>();
+		for (String[] row : rows)
+		{
+			for (String field : row)
+			{
+				if (!poolIndex.containsKey(field))
+				{
+					poolIndex.put(field, pool.size());
+					pool.add(field);
+				}
+			}
+		}
+		if (pool.size() > 0xFFFF)
+		{
+			throw new IOException("Too many strings for catalog: " + pool.size());
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outStr));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeInt(pool.size());
+			for (String str : pool)
+			{
+				out.writeUTF(str);
+			}
+			out.writeInt(rows.length);
+			for (String[] row : rows)
+			{
+				out.writeShort(row.length);
+				for (String field : row)
+				{
+					out.writeShort(poolIndex.get(field));
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * read table rows of a resource
+	 * - precompiled catalog (resource + CATALOG_EXT) is preferred
+	 * - CSV resource is used if no catalog is available
+	 *
+	 * @param cls      class to load resource for
+	 * @param resource name of CSV resource
+	 * @return all table rows, split into fields
+	 * @throws IOException on read errors
+	 */
+	public static String[][] readResource(Class<?> cls, String resource) throws IOException
+	{
+		URL catalog = cls.getResource(resource + CATALOG_EXT);
+		if (catalog != null)
+		{
+			return readCatalog(catalog.openStream());
+		}
+		return readCsv(cls.getResource(resource).openStream());
+	}
+
+	/**
+	 * Compile CSV tables and properties files into precompiled catalogs (build time)
+	 *
+	 * @param args pairs of [CSV/properties input file] [catalog output file]
+	 * @throws IOException on read/write errors
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			Reader rdr = new InputStreamReader(new FileInputStream(args[i]),
+			                                   Charset.forName("UTF-8"));
+			String[][] rows = args[i].endsWith(".properties")
+			                  ? readProperties(rdr)
+			                  : readCsv(rdr);
+			writeCatalog(rows, new FileOutputStream(args[i + 1]));
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu;
+
+import com.fr3ts0n.pvs.PvChangeEvent;
+import com.fr3ts0n.pvs.PvChangeListener;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Data item which is calculated from other data items (virtual PID)
+ *
+ * The value is re-calculated whenever the value of one of the input
+ * items changes, and published in the process var of this item like
+ * any other data item value.
+ * Expressions are evaluated on metric input values independent of the
+ * selected conversion system, so results always match their units.
+ *
+ * @author erwin
+ */
+public class DerivedDataItem extends EcuDataItem
+	implements PvChangeListener
+{
+	/** compiled expression */
+	private final Expression expression;
+	/** input data items, index matches variable index of expression */
+	private final EcuDataItem[] inputs;
+	/** current input values, NaN if not received yet */
+	private final double[] values;
+	/** units of result */
+	private final String units;
+
+	/**
+	 * Creates a new derived data item
+	 *
+	 * @param pid        virtual PID of item
+	 * @param expression compiled expression
+	 * @param format     formatting string for text representation
+	 * @param minValue   minimum physical value to display/scale
+	 * @param maxValue   maximum physical value to display/scale
+	 * @param units      units of result
+	 * @param labelText  descriptive text label
+	 * @param mnemonic   unique textual mnemonic
+	 * @param inputs     data items of expression variables (same order)
+	 */
+	DerivedDataItem(int pid,
+	                Expression expression,
+	                String format,
+	                Number minValue,
+	                Number maxValue,
+	                String units,
+	                String labelText,
+	                String mnemonic,
+	                EcuDataItem[] inputs)
+	{
+		super(pid, 0, 0, 0, 32, 0xFFFFFFFF, null, format, minValue, maxValue,
+		      0, labelText, mnemonic);
+		this.expression = expression;
+		this.inputs = inputs;
+		this.units = units;
+		values = new double[inputs.length];
+		Arrays.fill(values, Double.NaN);
+	}
+
+	/**
+	 * get input data items of this item
+	 *
+	 * @return input data items
+	 */
+	public List<EcuDataItem> getInputs()
+	{
+		return Arrays.asList(inputs);
+	}
+
+	/**
+	 * get expression of this item
+	 *
+	 * @return compiled expression
+	 */
+	public Expression getExpression()
+	{
+		return expression;
+	}
+
+	/**
+	 * start calculation on changes of input values
+	 */
+	void attach()
+	{
+		for (EcuDataItem input : inputs)
+		{
+			input.getPv().addPvChangeListener(this, PvChangeEvent.PV_MODIFIED);
+		}
+	}
+
+	/**
+	 * stop calculation on changes of input values
+	 */
+	void detach()
+	{
+		for (EcuDataItem input : inputs)
+		{
+			input.getPv().removePvChangeListener(this);
+		}
+	}
+
+	@Override
+	public synchronized EcuDataPv getPv()
+	{
+		boolean created = !hasPv();
+		EcuDataPv pv = super.getPv();
+		// no conversion to take units from, so set them on creation
+		if (created)
+		{
+			pv.put(EcuDataPv.FID_UNITS, units);
+		}
+		return pv;
+	}
+
+	/**
+	 * Re-calculate value on change of an input value
+	 *
+	 * @param event change event of input process var
+	 */
+	@Override
+	public void pvChanged(PvChangeEvent event)
+	{
+		if (!EcuDataPv.FIELDS[EcuDataPv.FID_VALUE].equals(event.getKey())
+		    || !(event.getValue() instanceof Number))
+		{
+			return;
+		}
+		double result;
+		synchronized (values)
+		{
+			Object source = event.getSource();
+			for (int i = 0; i < inputs.length; i++)
+			{
+				if (inputs[i].hasPv() && inputs[i].getPv() == source)
+				{
+					// expressions are defined for metric values
+					values[i] = inputs[i].metricValue((Number) event.getValue());
+				}
+			}
+			result = expression.evaluate(values);
+		}
+		// incomplete inputs or invalid operations (e.g. division by zero)
+		if (Double.isNaN(result) || Double.isInfinite(result))
+		{
+			return;
+		}
+		EcuDataPv pv = getPv();
+		pv.putTimed(EcuDataPv.FID_VALUE, Float.valueOf((float) result), event.getNanoTime());
+		pv.getStatistics().add(event.getTime(), result);
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu;
+
+import com.fr3ts0n.ecu.prot.obd.Messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+import java.util.logging.Logger;
+
+/**
+ * Collection of derived data items (virtual PIDs)
+ *
+ * Items are defined by an expression over mnemonics of other data items.
+ * Inputs have to be defined before they are used, so every item may use
+ * regular data items and derived items defined above it.
+ *
+ * @author erwin
+ */
+public class DerivedDataItems extends Vector<DerivedDataItem>
+{
+	private static final long serialVersionUID = -3458238472153960125L;
+
+	/**
+	 * CSV field positions
+	 */
+	enum FLD
+	{
+		PID,
+		MNEMONIC,
+		EXPRESSION,
+		FORMAT,
+		MIN,
+		MAX,
+		UNITS,
+		LABEL,
+		DESCRIPTION,
+		NUMBEROFFIELDS
+	}
+
+	// the data logger
+	private static final Logger log = Logger.getLogger("data.items");
+
+	/**
+	 * Create derived data items from CSV resource file
+	 * - input items are resolved from already loaded data items
+	 *
+	 * @param resource resource file for derived items (csv)
+	 */
+	public DerivedDataItems(String resource)
+	{
+		try
+		{
+			loadFromRows(CsvCatalog.readResource(getClass(), resource));
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * read data from table rows into data structure
+	 *
+	 * @param rows table rows (header line excluded)
+	 */
+	private void loadFromRows(String[][] rows)
+	{
+		for (String[] params : rows)
+		{
+			// ignore comment and incomplete lines
+			if (params.length <= FLD.UNITS.ordinal() || params[0].startsWith("#")) //$NON-NLS-1$
+			{
+				continue;
+			}
+			String mnemonic = params[FLD.MNEMONIC.ordinal()];
+			try
+			{
+				add(createItem(params));
+			}
+			catch (IllegalArgumentException ex)
+			{
+				log.warning(String.format("Derived item %s: %s", mnemonic, ex.getMessage())); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/**
+	 * create derived item from table row
+	 *
+	 * @param params table row
+	 * @return new derived item
+	 * @throws IllegalArgumentException on invalid expressions or unknown inputs
+	 */
+	private DerivedDataItem createItem(String[] params)
+	{
+		String mnemonic = params[FLD.MNEMONIC.ordinal()];
+		if (EcuDataItems.byMnemonic.containsKey(mnemonic))
+		{
+			throw new IllegalArgumentException("Duplicate mnemonic");
+		}
+		List<String> variables = new ArrayList<>();
+		Expression expression = new Expression(params[FLD.EXPRESSION.ordinal()], variables);
+
+		EcuDataItem[] inputs = new EcuDataItem[variables.size()];
+		for (int i = 0; i < inputs.length; i++)
+		{
+			inputs[i] = EcuDataItems.byMnemonic.get(variables.get(i));
+			if (inputs[i] == null)
+			{
+				throw new IllegalArgumentException("Unknown input " + variables.get(i));
+			}
+		}
+
+		// try to use MIN/MAX values from CSV
+		Float minVal = null;
+		Float maxVal = null;
+		try {	minVal = Float.parseFloat(params[FLD.MIN.ordinal()]);	}
+		catch(NumberFormatException ex) {	/* ignore */ }
+		try {	maxVal = Float.parseFloat(params[FLD.MAX.ordinal()]);	}
+		catch(NumberFormatException ex) { /* ignore */	}
+
+		String label = params.length > FLD.LABEL.ordinal()
+		               ? params[FLD.LABEL.ordinal()]
+		               : mnemonic;
+		DerivedDataItem newItm = new DerivedDataItem(Integer.decode(params[FLD.PID.ordinal()]),
+		                                             expression,
+		                                             params[FLD.FORMAT.ordinal()],
+		                                             minVal,
+		                                             maxVal,
+		                                             params[FLD.UNITS.ordinal()],
+		                                             Messages.getString(mnemonic, label),
+		                                             mnemonic,
+		                                             inputs);
+		// Add item to mnemonic map, so it may be used as input of following items
+		EcuDataItems.byMnemonic.put(mnemonic, newItm);
+		newItm.attach();
+		return newItm;
+	}
+
+	/**
+	 * get derived items which may be calculated from available process vars
+	 *
+	 * @param pvs process vars of available data items
+	 * @return derived items with all inputs available (in order of definition)
+	 */
+	public List<DerivedDataItem> getAvailableItems(Collection<EcuDataPv> pvs)
+	{
+		List<DerivedDataItem> result = new ArrayList<>();
+		// process vars are maps, so compare by identity
+		Set<EcuDataPv> available =
+			Collections.newSetFromMap(new IdentityHashMap<EcuDataPv, Boolean>());
+		available.addAll(pvs);
+		for (DerivedDataItem item : this)
+		{
+			boolean complete = true;
+			for (EcuDataItem input : item.getInputs())
+			{
+				complete &= input.hasPv() && available.contains(input.getPv());
+			}
+			if (complete)
+			{
+				result.add(item);
+				available.add(item.getPv());
+			}
+		}
+		return result;
+	}
+}
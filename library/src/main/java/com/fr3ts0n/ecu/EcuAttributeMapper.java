@@ -0,0 +1,58 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu;
+
+import com.fr3ts0n.pvs.ProcessVar;
+import com.fr3ts0n.pvs.io.PvAttributeMapper;
+
+/**
+ * Attribute mapper for ECU data process variables
+ *
+ * Conversions of data items are not stored, but referenced by the
+ * mnemonic of the data item within the data item catalog.
+ *
+ * @author erwin
+ */
+public class EcuAttributeMapper implements PvAttributeMapper
+{
+	@Override
+	public Object toStored(ProcessVar pv, Object key, Object value)
+	{
+		if (EcuDataPv.FID_CNVID.equals(key))
+		{
+			// reference conversions by data item mnemonic
+			Object mnemonic = pv.get(EcuDataPv.FID_MNEMONIC);
+			EcuDataItem item = EcuDataItems.byMnemonic.get(mnemonic);
+			return (item != null && item.cnv == value) ? mnemonic : null;
+		}
+		return value;
+	}
+
+	@Override
+	public Object fromStored(ProcessVar pv, Object key, Object value)
+	{
+		if (EcuDataPv.FID_CNVID.equals(key))
+		{
+			// resolve conversions from data item catalog
+			EcuDataItem item = EcuDataItems.byMnemonic.get(value);
+			return (item != null) ? item.cnv : null;
+		}
+		return value;
+	}
+}
@@ -18,26 +18,44 @@
 
 package com.fr3ts0n.ecu;
 
-import com.fr3ts0n.common.UTF8Bundle;
 import com.fr3ts0n.ecu.prot.obd.Messages;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 import java.util.Set;
 
 /**
  * Vehicle fault code list
  *
+ * Codes are looked up in a sorted numeric code index, which is created
+ * on first use. Descriptions are taken from the resource bundle on first
+ * access of a code and share a common string pool.
+ *
  * @author erwin
  */
 public class EcuCodeList
 	implements Conversion
 {
 	private static final long serialVersionUID = 219865459629423028L;
+	/** bundle control to prefer precompiled code catalogs */
+	private static final ResourceBundle.Control bundleControl = new CatalogBundleControl();
 	private final transient ResourceBundle codes;
 	private transient int radix = 10;
 
+	/** sorted numeric codes (created on first use) */
+	private transient int[] codeIndex;
+	/** resource keys in order of code index */
+	private transient String[] codeKeys;
+	/** descriptions in order of code index (null until first use) */
+	private transient String[] descriptions;
+	/** pool of shared description strings */
+	private transient HashMap<String, String> stringPool;
+	/** all known descriptions (created on first use) */
+	private transient Set<String> values;
+
 	/**
 	 * construct a new code list
 	 */
@@ -53,7 +71,7 @@ public class EcuCodeList
 	 */
 	public EcuCodeList(String resourceBundleName)
 	{
-		codes = UTF8Bundle.getBundle(resourceBundleName);
+		codes = ResourceBundle.getBundle(resourceBundleName, bundleControl);
 	}
 
 	/**
@@ -73,21 +91,117 @@ public class EcuCodeList
 		return(Long.toString(value.longValue(),radix));
 	}
 
+	/**
+	 * get numeric code from code string (resource key)
+	 *
+	 * @param code code string
+	 * @return numeric code
+	 * @throws NumberFormatException if code string is not a valid code
+	 */
+	protected int getNumericCode(String code)
+	{
+		return Integer.parseInt(code, radix);
+	}
+
+	/**
+	 * create sorted code index from resource keys
+	 * - only keys which map to a numeric code (and back) are indexed
+	 */
+	private void createIndex()
+	{
+		HashMap<Integer, String> keys = new HashMap<>();
+		for (String key : codes.keySet())
+		{
+			try
+			{
+				int numCode = getNumericCode(key);
+				if (key.equals(getCode(numCode)))
+				{
+					keys.put(numCode, key);
+				}
+			}
+			catch (RuntimeException ex)
+			{
+				// no valid code -> not part of index
+			}
+		}
+		int[] index = new int[keys.size()];
+		int i = 0;
+		for (Integer numCode : keys.keySet())
+		{
+			index[i++] = numCode;
+		}
+		Arrays.sort(index);
+		codeKeys = new String[index.length];
+		for (i = 0; i < index.length; i++)
+		{
+			codeKeys[i] = keys.get(index[i]);
+		}
+		descriptions = new String[index.length];
+		stringPool = new HashMap<>();
+		codeIndex = index;
+	}
+
+	/**
+	 * load description of a code from resource bundle
+	 *
+	 * @param idx index of code in code index
+	 * @return pooled description
+	 */
+	private String loadDescription(int idx)
+	{
+		String descr = codes.getString(codeKeys[idx]);
+		String pooled = stringPool.get(descr);
+		if (pooled == null)
+		{
+			stringPool.put(descr, descr);
+			pooled = descr;
+		}
+		descriptions[idx] = pooled;
+		return pooled;
+	}
+
+	/**
+	 * get description of a numeric code
+	 *
+	 * @param value numeric code
+	 * @return description of code, or null if code is unknown
+	 */
+	public synchronized String getDescription(Number value)
+	{
+		if (codes == null)
+		{
+			return null;
+		}
+		if (codeIndex == null)
+		{
+			createIndex();
+		}
+		long code = value.longValue();
+		if (code < Integer.MIN_VALUE || code > Integer.MAX_VALUE)
+		{
+			return null;
+		}
+		int idx = Arrays.binarySearch(codeIndex, (int) code);
+		if (idx < 0)
+		{
+			return null;
+		}
+		String descr = descriptions[idx];
+		return (descr != null) ? descr : loadDescription(idx);
+	}
+
 	public EcuCodeItem get(Number value)
 	{
 		EcuCodeItem result = null;
 		if (codes != null)
 		{
-			String key = getCode(value);
-			try
-			{
-				result = new EcuCodeItem(key, codes.getString(key));
-			} catch (MissingResourceException e)
+			String descr = getDescription(value);
+			if (descr == null)
 			{
-				result = new EcuCodeItem(key,
-				                         Messages.getString(
-					                         "customer.specific.trouble.code.see.manual"));
+				descr = Messages.getString("customer.specific.trouble.code.see.manual");
 			}
+			result = new EcuCodeItem(getCode(value), descr);
 		}
 		return result;
 	}
@@ -96,12 +210,16 @@ public class EcuCodeList
 	 * return all known values
 	 * @return all known ressource values
 	 */
-	public Set<String> values()
+	public synchronized Set<String> values()
 	{
-		Set<String> values = new HashSet<String>();
-		for( String key : codes.keySet())
+		if (values == null)
 		{
-			values.add(codes.getString(key));
+			Set<String> newValues = new HashSet<String>();
+			for( String key : codes.keySet())
+			{
+				newValues.add(codes.getString(key));
+			}
+			values = Collections.unmodifiableSet(newValues);
 		}
 		return values;
 	}
@@ -136,4 +254,10 @@ public class EcuCodeList
 	{
 		return (get(value).toString());
 	}
+
+	@Override
+	public StringBuilder physToPhysFmtString(StringBuilder out, Number value, String format)
+	{
+		return out.append(physToPhysFmtString(value, format));
+	}
 }
@@ -18,10 +18,8 @@
 
 package com.fr3ts0n.ecu;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.logging.Logger;
 
@@ -89,133 +87,134 @@ public class EcuConversions extends HashMap<String, Conversion[]>
 		loadFromResource(resource);
 	}
 
+	/**
+	 * load conversion list from input stream (tab delimited csv)
+	 *
+	 * @param inStr the csv input stream
+	 */
 	public void loadFromStream(InputStream inStr)
 	{
-		BufferedReader rdr;
-		String currLine;
-		String[] params;
+		try
+		{
+			loadFromRows(CsvCatalog.readCsv(inStr));
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * load conversion list from table rows
+	 *
+	 * @param rows table rows (header line excluded)
+	 */
+	private void loadFromRows(String[][] rows)
+	{
 		Conversion[] currCnvSet;
 		Conversion newCnv;
-		int line = 0;
 
-		try
+		// loop through all rows of the table ...
+		for (String[] params : rows)
 		{
-			rdr = new BufferedReader(new InputStreamReader(inStr));
-			// loop through all lines of the file ...
-			while ((currLine = rdr.readLine()) != null)
+			if (params[FLD_TYPE].equals(CNV_TYPE_LINEAR))
 			{
-				// ignore line 1
-				if (++line == 1)
+				if(params.length > FLD_PARAMETERS)
 				{
-					continue;
-				}
-
-				// replace all optional quotes from CSV code list
-				currLine = currLine.replaceAll("\"", "");
-				// split CSV line into parameters
-				params = currLine.split("\t");
-				if (params[FLD_TYPE].equals(CNV_TYPE_LINEAR))
-				{
-					if(params.length > FLD_PARAMETERS)
-					{
-						// create linear conversion (w/ dynamic parameters)
-						newCnv = new LinearConversion(Integer.parseInt(params[FLD_FACTOR]),
-													  Integer.parseInt(params[FLD_DIVIDER]),
-													  Integer.parseInt(params[FLD_OFFSET]),
-													  Integer.parseInt(params[FLD_PHOFFSET]),
-													  params[FLD_UNITS],
-													  params[FLD_PARAMETERS]);
-					}
-					else
-					{
-						// create linear conversion (w/o dynamic parameter)
-						newCnv = new LinearConversion(Integer.parseInt(params[FLD_FACTOR]),
-													  Integer.parseInt(params[FLD_DIVIDER]),
-													  Integer.parseInt(params[FLD_OFFSET]),
-													  Integer.parseInt(params[FLD_PHOFFSET]),
-													  params[FLD_UNITS]);
-					}
-				}
-				else if (params[FLD_TYPE].equals(CNV_TYPE_HASH))
-				{
-					// create HashConversion based on CSV data
-					newCnv = new HashConversion( String.valueOf(params[FLD_PARAMETERS]).split(";") );
-				}
-				else if (params[FLD_TYPE].equals(CNV_TYPE_BITMAP))
-				{
-					// create BitmapConversion based on CSV parameters
-					newCnv = new BitmapConversion( String.valueOf(params[FLD_PARAMETERS]).split(";") );
-				}
-				else if (params[FLD_TYPE].equals(CNV_TYPE_CODELIST))
-				{
-					// create ECU code list based on ResourceBundle
-					codeList = new EcuCodeList( String.valueOf(params[FLD_PARAMETERS]));
-					newCnv = codeList;
-				}
-				else if (params[FLD_TYPE].equals(CNV_TYPE_PCODELIST))
-				{
-					// create OBD code list based on ResourceBundle
-					codeList = new ObdCodeList( String.valueOf(params[FLD_PARAMETERS]));
-					newCnv = codeList;
-				}
-				else if (params[FLD_TYPE].equals(CNV_TYPE_VAG))
-				{
-					// create VAG conversion
-					newCnv = new VagConversion(Integer.parseInt(params[FLD_VARIANT]),
-						Double.parseDouble(params[FLD_FACTOR]) / Integer.parseInt(params[FLD_DIVIDER]),
-						Double.parseDouble(params[FLD_OFFSET]),
-						params[FLD_UNITS]);
-				}
-				else if (params[FLD_TYPE].equals(CNV_TYPE_ASCII))
-				{
-					newCnv = null;
-				}
-				else if (params[FLD_TYPE].equals(CNV_TYPE_INT))
-				{
-					newCnv = dfltCnv;
+					// create linear conversion (w/ dynamic parameters)
+					newCnv = new LinearConversion(Integer.parseInt(params[FLD_FACTOR]),
+												  Integer.parseInt(params[FLD_DIVIDER]),
+												  Integer.parseInt(params[FLD_OFFSET]),
+												  Integer.parseInt(params[FLD_PHOFFSET]),
+												  params[FLD_UNITS],
+												  params[FLD_PARAMETERS]);
 				}
 				else
 				{
-					newCnv = dfltCnv;
+					// create linear conversion (w/o dynamic parameter)
+					newCnv = new LinearConversion(Integer.parseInt(params[FLD_FACTOR]),
+												  Integer.parseInt(params[FLD_DIVIDER]),
+												  Integer.parseInt(params[FLD_OFFSET]),
+												  Integer.parseInt(params[FLD_PHOFFSET]),
+												  params[FLD_UNITS]);
 				}
+			}
+			else if (params[FLD_TYPE].equals(CNV_TYPE_HASH))
+			{
+				// create HashConversion based on CSV data
+				newCnv = new HashConversion( String.valueOf(params[FLD_PARAMETERS]).split(";") );
+			}
+			else if (params[FLD_TYPE].equals(CNV_TYPE_BITMAP))
+			{
+				// create BitmapConversion based on CSV parameters
+				newCnv = new BitmapConversion( String.valueOf(params[FLD_PARAMETERS]).split(";") );
+			}
+			else if (params[FLD_TYPE].equals(CNV_TYPE_CODELIST))
+			{
+				// create ECU code list based on ResourceBundle
+				codeList = new EcuCodeList( String.valueOf(params[FLD_PARAMETERS]));
+				newCnv = codeList;
+			}
+			else if (params[FLD_TYPE].equals(CNV_TYPE_PCODELIST))
+			{
+				// create OBD code list based on ResourceBundle
+				codeList = new ObdCodeList( String.valueOf(params[FLD_PARAMETERS]));
+				newCnv = codeList;
+			}
+			else if (params[FLD_TYPE].equals(CNV_TYPE_VAG))
+			{
+				// create VAG conversion
+				newCnv = new VagConversion(Integer.parseInt(params[FLD_VARIANT]),
+					Double.parseDouble(params[FLD_FACTOR]) / Integer.parseInt(params[FLD_DIVIDER]),
+					Double.parseDouble(params[FLD_OFFSET]),
+					params[FLD_UNITS]);
+			}
+			else if (params[FLD_TYPE].equals(CNV_TYPE_ASCII))
+			{
+				newCnv = null;
+			}
+			else if (params[FLD_TYPE].equals(CNV_TYPE_INT))
+			{
+				newCnv = dfltCnv;
+			}
+			else
+			{
+				newCnv = dfltCnv;
+			}
 
-				// insert fault code element
-				currCnvSet = get(params[FLD_NAME]);
-				// if this conversion does not exist yet ...
-				if (currCnvSet == null)
+			// insert fault code element
+			currCnvSet = get(params[FLD_NAME]);
+			// if this conversion does not exist yet ...
+			if (currCnvSet == null)
+			{
+				// create new set for metric and imperial
+				currCnvSet = new Conversion[EcuDataItem.SYSTEM_TYPES];
+				// and initialize both systems with this data
+				for (int i = 0; i < EcuDataItem.SYSTEM_TYPES; i++)
 				{
-					// create new set for metric and imperial
-					currCnvSet = new Conversion[EcuDataItem.SYSTEM_TYPES];
-					// and initialize both systems with this data
-					for (int i = 0; i < EcuDataItem.SYSTEM_TYPES; i++)
-					{
-						currCnvSet[i] = newCnv;
-						log.finer("+" + params[FLD_NAME] + "/" + params[FLD_SYSTEM] + " - " + String.valueOf(newCnv));
-					}
-				} else
+					currCnvSet[i] = newCnv;
+					log.finer("+" + params[FLD_NAME] + "/" + params[FLD_SYSTEM] + " - " + String.valueOf(newCnv));
+				}
+			} else
+			{
+				// if it is known already, then only update the matching system
+				for (int i = 0; i < EcuDataItem.SYSTEM_TYPES; i++)
 				{
-					// if it is known already, then only update the matching system
-					for (int i = 0; i < EcuDataItem.SYSTEM_TYPES; i++)
+					if (EcuDataItem.cnvSystems[i].equals(params[FLD_SYSTEM]))
 					{
-						if (EcuDataItem.cnvSystems[i].equals(params[FLD_SYSTEM]))
-						{
-							currCnvSet[i] = newCnv;
-							log.finer("+" + params[FLD_NAME] + "/" + params[FLD_SYSTEM] + " - " + newCnv.toString());
-						}
+						currCnvSet[i] = newCnv;
+						log.finer("+" + params[FLD_NAME] + "/" + params[FLD_SYSTEM] + " - " + newCnv.toString());
 					}
 				}
-				// (re-)enter the updated conversion set into map
-				put(params[FLD_NAME], currCnvSet);
 			}
-			rdr.close();
-		} catch (IOException e)
-		{
-			e.printStackTrace();
+			// (re-)enter the updated conversion set into map
+			put(params[FLD_NAME], currCnvSet);
 		}
 	}
 
 	/**
 	 * load conversion list from resource file (tab delimited)
+	 * - precompiled catalog of resource is used if available
 	 *
 	 * @param resource name of resource to be loaded
 	 */
@@ -223,7 +222,7 @@ public class EcuConversions extends HashMap<String, Conversion[]>
 	{
 		try
 		{
-			loadFromStream(getClass().getResource(resource).openStream());
+			loadFromRows(CsvCatalog.readResource(getClass(), resource));
 		}
 		catch(IOException ex)
 		{
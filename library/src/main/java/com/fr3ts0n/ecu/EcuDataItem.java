@@ -20,7 +20,9 @@ package com.fr3ts0n.ecu;
 
 import com.fr3ts0n.prot.ProtUtils;
 import com.fr3ts0n.prot.ProtoHeader;
+import com.fr3ts0n.pvs.PvChangeEvent;
 
+import java.util.Locale;
 import java.util.logging.Logger;
 
 /**
@@ -45,6 +47,10 @@ public class EcuDataItem
 	public static int cnvSystem = SYSTEM_METRIC;
 	// maximum number of conversion errors before disabling data item
     public static int MAX_ERROR_COUNT = 3;
+	// default max. time without publishing a value if deadband is set [ms]
+	public static long DEFAULT_MAX_SILENCE_MS = 5000;
+	// weight of newest sample in smoothed change rate
+	private static final double RATE_WEIGHT = 0.3;
 
 	public int pid;             ///< pid
 	public int ofs;             ///< Offset within message
@@ -56,9 +62,27 @@ public class EcuDataItem
 	private String fmt;                 ///< Format for text output
 	public String label;        ///< text label
 	private String mnemonic;     ///< unique textual mnemonic
-	public EcuDataPv pv;        ///< the process variable for displaying
+	private Number minValue;     ///< configured MIN value (null = from conversion)
+	private Number maxValue;     ///< configured MAX value (null = from conversion)
+	private EcuDataPv pv;       ///< the process variable for displaying (created on first use)
+	private String key;         ///< cached item key (PID.OFS.BIT_OFS)
+	private int keyPid;         ///< PID the cached key was created for
+	private int keyOfs;         ///< offset the cached key was created for
 	private int currErrorCount = 0;     ///< current number of consecutive conversion errors
 	public long updatePeriod_ms = 0; ///< Minimum update period in ms
+	public double deadband = 0;      ///< min. value change to publish new value (0 = publish all values)
+	public double defaultDeadband = 0; ///< deadband as configured in item definition
+	public long maxSilence_ms = DEFAULT_MAX_SILENCE_MS; ///< max. time without publishing a value in ms (0 = unlimited)
+	private double publishedValue = Double.NaN; ///< last published numeric value
+	private long publishedTime = 0;      ///< acquisition time [ns] of last published value
+	private int publishedCnvSystem = -1; ///< conversion system of last published units
+	private double rateValue = Double.NaN; ///< last value used for change rate
+	private long rateTime = 0;           ///< acquisition time [ns] of last value used for change rate
+	private double changeRate = Double.NaN; ///< smoothed change rate [fraction of data range per s]
+	private double sampleRate = Double.NaN; ///< change rate of latest value [fraction of data range per s]
+	private boolean changing = false;    ///< latest value exceeded deadband
+	private double dataRange = Double.NaN; ///< cached data range of item
+	private int rangeCnvSystem = -1;     ///< conversion system of cached data range
 
 	// Logger object
 	private static final Logger log = Logger.getLogger("data.ecu");
@@ -119,22 +143,61 @@ public class EcuDataItem
 		updatePeriod_ms = minUpdatePeriod;
 		label = labelText;
 		mnemonic = _mnemonic;
-		pv = new EcuDataPv();
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+	}
+
+	/**
+	 * get process variable of this data item
+	 * - the process variable is created on first use
+	 *
+	 * @return process variable of this data item
+	 */
+	public synchronized EcuDataPv getPv()
+	{
+		if (pv == null)
+		{
+			pv = createPv();
+		}
+		return pv;
+	}
+
+	/**
+	 * check if process variable of this data item has been created already
+	 *
+	 * @return true if process variable is created, false otherwise
+	 */
+	public synchronized boolean hasPv()
+	{
+		return pv != null;
+	}
+
+	/**
+	 * create process variable for this data item
+	 * initialized with current item definition
+	 *
+	 * @return new process variable
+	 */
+	private EcuDataPv createPv()
+	{
+		EcuDataPv newPv = new EcuDataPv();
 
 		// initialize new PID with current data
-		pv.put(EcuDataPv.FID_PID, Integer.valueOf(pid));
-		pv.put(EcuDataPv.FID_OFS, Integer.valueOf(ofs));
-		pv.put(EcuDataPv.FID_BIT_OFS, Integer.valueOf(bitOffset));
-		pv.put(EcuDataPv.FID_DESCRIPT, label);
-		pv.put(EcuDataPv.FID_MNEMONIC, mnemonic);
-		pv.put(EcuDataPv.FID_UNITS,
+		newPv.put(EcuDataPv.FID_PID, Integer.valueOf(pid));
+		newPv.put(EcuDataPv.FID_OFS, Integer.valueOf(ofs));
+		newPv.put(EcuDataPv.FID_BIT_OFS, Integer.valueOf(bitOffset));
+		newPv.put(EcuDataPv.FID_DESCRIPT, label);
+		newPv.put(EcuDataPv.FID_MNEMONIC, mnemonic);
+		newPv.put(EcuDataPv.FID_UNITS,
 		       (cnv != null && cnv[cnvSystem] != null)
 		       ? cnv[cnvSystem].getUnits()
 		       : "");
-		pv.put(EcuDataPv.FID_VALUE, Float.valueOf(0));
-		pv.put(EcuDataPv.FID_FORMAT, fmt);
-		pv.put(EcuDataPv.FID_CNVID, cnv);
-		updateLimits(minValue, maxValue);
+		newPv.put(EcuDataPv.FID_VALUE, Float.valueOf(0));
+		newPv.put(EcuDataPv.FID_FORMAT, fmt);
+		newPv.put(EcuDataPv.FID_CNVID, cnv);
+		newPv.put(EcuDataPv.FID_MIN, getMinLimit(minValue));
+		newPv.put(EcuDataPv.FID_MAX, getMaxLimit(maxValue));
+		return newPv;
 	}
 
 	/**
@@ -144,27 +207,54 @@ public class EcuDataItem
 	 * - if NOT specified the MIN/MAX range is calculated from the data range using the given conversion
 	 *
 	 * This update is required on:
-	 * - Initialisation
 	 * - Update of dynamic conversion factors
+	 * (PVs which are not created yet get their limits on creation)
 	 *
 	 * @param minValue	Specific MIN value or NULL if not specified
 	 * @param maxValue	Specific MAX value or NULL if not specified
 	 */
-	protected void updateLimits(Number minValue, Number maxValue)
+	protected synchronized void updateLimits(Number minValue, Number maxValue)
+	{
+		// conversion may have changed, so data range needs to be re-calculated
+		rangeCnvSystem = -1;
+		// Update limits of existing PV only, new PVs get initialized on creation
+		if (pv != null)
+		{
+			pv.put(EcuDataPv.FID_MIN, getMinLimit(minValue));
+			pv.put(EcuDataPv.FID_MAX, getMaxLimit(maxValue));
+		}
+	}
+
+	/**
+	 * get effective MIN limit
+	 * - if not specified the MIN value is calculated from the data range using the given conversion
+	 *
+	 * @param minValue Specific MIN value or NULL if not specified
+	 * @return effective MIN limit
+	 */
+	private Number getMinLimit(Number minValue)
+	{
+		if (minValue == null && cnv != null && cnv[cnvSystem] != null)
+		{
+			minValue = physMin();
+		}
+		return minValue;
+	}
+
+	/**
+	 * get effective MAX limit
+	 * - if not specified the MAX value is calculated from the data range using the given conversion
+	 *
+	 * @param maxValue Specific MAX value or NULL if not specified
+	 * @return effective MAX limit
+	 */
+	private Number getMaxLimit(Number maxValue)
 	{
-		// set specified values
-		Number minVal = minValue;
-		Number maxVal = maxValue;
-		// Check conversion
-		if(cnv != null && cnv[cnvSystem] != null)
+		if (maxValue == null && cnv != null && cnv[cnvSystem] != null)
 		{
-			// If MIN/MAX value un-specified. calculate from data range conversion
-			if(minVal == null) minVal = physMin();
-			if(maxVal == null) maxVal = physMax();
+			maxValue = physMax();
 		}
-		// Update limits ...
-		pv.put(EcuDataPv.FID_MIN, minVal);
-		pv.put(EcuDataPv.FID_MAX, maxVal);
+		return maxValue;
 	}
 
 	/**
@@ -213,6 +303,25 @@ public class EcuDataItem
 		return cnv[cnvSystem].physToMem(physVal).longValue();
 	}
 
+	/**
+	 * Return metric physical value from physical value of current conversion system
+	 *
+	 * @param physVal physical value of current conversion system
+	 * @return metric physical value
+	 */
+	public double metricValue(Number physVal)
+	{
+		if (cnvSystem == SYSTEM_METRIC
+		    || cnv == null
+		    || cnv[cnvSystem] == null
+		    || cnv[SYSTEM_METRIC] == null)
+		{
+			return physVal.doubleValue();
+		}
+		long raw = Math.round(cnv[cnvSystem].physToMem(physVal).doubleValue());
+		return cnv[SYSTEM_METRIC].memToPhys(raw).doubleValue();
+	}
+
 	/**
 	 * Return physically minimum value
 	 * - Value is calculated from bit width and data conversion
@@ -235,10 +344,59 @@ public class EcuDataItem
 		return physVal(rawMax());
 	}
 
+	/**
+	 * get unique item key for PID/offset/bit offset combination
+	 * - same result as String.format("%02X.%d.%d", ...), but without format parsing
+	 *
+	 * @param pid    PID of data item
+	 * @param ofs    offset within PID data
+	 * @param bitOfs bit offset of data item
+	 * @return item key string
+	 */
+	public static String itemKey(int pid, int ofs, int bitOfs)
+	{
+		StringBuilder sb = new StringBuilder(12);
+		if (pid >= 0 && pid < 0x10)
+		{
+			sb.append('0');
+		}
+		sb.append(Integer.toHexString(pid).toUpperCase(Locale.ROOT));
+		sb.append('.').append(ofs).append('.').append(bitOfs);
+		return sb.toString();
+	}
+
 	@Override
 	public String toString()
 	{
-		return (String.format("%02X.%d.%d", pid, ofs, bitOffset));
+		// pid/ofs may be re-assigned (VAG groups), so verify cached key
+		if (key == null || keyPid != pid || keyOfs != ofs)
+		{
+			keyPid = pid;
+			keyOfs = ofs;
+			key = itemKey(pid, ofs, bitOffset);
+		}
+		return key;
+	}
+
+	/**
+	 * get unique textual mnemonic
+	 *
+	 * @return mnemonic of this data item
+	 */
+	public String getMnemonic()
+	{
+		return mnemonic;
+	}
+
+	/**
+	 * get physical value from buffer without updating the process variable
+	 *
+	 * @param buffer communication buffer content
+	 * @return physical value
+	 */
+	public Object getValue(char[] buffer)
+	{
+		return physFromBuffer(buffer);
 	}
 
 	/**
@@ -293,8 +451,20 @@ public class EcuDataItem
 	 * @param buffer communication buffer content
 	 * @return Next expected update period
 	 */
-	@SuppressWarnings("DefaultLocale")
 	public long updatePvFomBuffer(char[] buffer)
+	{
+		return updatePvFomBuffer(buffer, System.nanoTime());
+	}
+
+	/**
+	 * Update process var from Buffer value
+	 *
+	 * @param buffer communication buffer content
+	 * @param rxTime acquisition time [ns] of buffer (System.nanoTime() time base)
+	 * @return Next expected update period
+	 */
+	@SuppressWarnings("DefaultLocale")
+	public long updatePvFomBuffer(char[] buffer, long rxTime)
 	{
 		// process data item
 		try
@@ -304,8 +474,32 @@ public class EcuDataItem
 			// if consecutive conversion error counter not exceeded
 			if(currErrorCount < MAX_ERROR_COUNT)
 			{
-				pv.put(EcuDataPv.FID_VALUE, result);
-				pv.put(EcuDataPv.FID_UNITS, pv.getUnits());
+				EcuDataPv pv = getPv();
+				boolean unitsChanged = (publishedCnvSystem != cnvSystem);
+				if (result instanceof Number)
+				{
+					double value = ((Number) result).doubleValue();
+					pv.getStatistics().add(PvChangeEvent.toWallTime(rxTime), value);
+					updateChangeRate(value, rxTime);
+					// suppress publishing of insignificant changes
+					if (!unitsChanged && !isPublishDue(value, rxTime))
+					{
+						return updatePeriod_ms;
+					}
+					publishedValue = value;
+					publishedTime = rxTime;
+				}
+				else
+				{
+					publishedValue = Double.NaN;
+				}
+				pv.putTimed(EcuDataPv.FID_VALUE, result, rxTime);
+				// units only change with conversion system
+				if (unitsChanged)
+				{
+					publishedCnvSystem = cnvSystem;
+					pv.putTimed(EcuDataPv.FID_UNITS, pv.getUnits(), rxTime);
+				}
 				log.fine(String.format("%02X %-30s %16s %s",
 										pid,
 										label,
@@ -329,6 +523,119 @@ public class EcuDataItem
 		return updatePeriod_ms;
 	}
 
+	/**
+	 * check if a new value needs to be published
+	 * - if it differs from last published value by more than the deadband, or
+	 * - if the last value was published more than max. silence time ago
+	 *
+	 * @param value  new value
+	 * @param rxTime acquisition time [ns] of new value
+	 * @return true if value needs to be published
+	 */
+	private boolean isPublishDue(double value, long rxTime)
+	{
+		return deadband <= 0
+		       || Double.isNaN(publishedValue)
+		       || Math.abs(value - publishedValue) > deadband
+		       || (maxSilence_ms > 0 && rxTime - publishedTime >= maxSilence_ms * 1000000L);
+	}
+
+	/**
+	 * reset published value and change rate
+	 * - next received value is published regardless of deadband
+	 */
+	public void resetPublished()
+	{
+		publishedValue = Double.NaN;
+		publishedTime = 0;
+		publishedCnvSystem = -1;
+		rateValue = Double.NaN;
+		rateTime = 0;
+		changeRate = Double.NaN;
+		sampleRate = Double.NaN;
+		changing = false;
+	}
+
+	/**
+	 * check if item is disabled due to consecutive conversion errors
+	 * - a successful conversion enables the item again
+	 *
+	 * @return true if item is disabled
+	 */
+	public boolean isDisabled()
+	{
+		return currErrorCount >= MAX_ERROR_COUNT;
+	}
+
+	/**
+	 * get data range of item in current conversion system
+	 * - range is cached until conversion system or conversion changes
+	 *
+	 * @return physical data range
+	 */
+	private double getDataRange()
+	{
+		if (rangeCnvSystem != cnvSystem)
+		{
+			dataRange = Math.abs(physMax().doubleValue() - physMin().doubleValue());
+			rangeCnvSystem = cnvSystem;
+		}
+		return dataRange;
+	}
+
+	/**
+	 * update smoothed change rate with new value
+	 * - change rate is relative to data range of item, so rates of all
+	 *   items are comparable
+	 * - item is changing if value differs from last published value
+	 *   by more than the deadband
+	 *
+	 * @param value  new value
+	 * @param rxTime acquisition time [ns] of new value
+	 */
+	private void updateChangeRate(double value, long rxTime)
+	{
+		changing = deadband > 0
+		           && !Double.isNaN(publishedValue)
+		           && Math.abs(value - publishedValue) > deadband;
+		long interval = rxTime - rateTime;
+		if (!Double.isNaN(rateValue) && interval > 0)
+		{
+			double range = getDataRange();
+			if (range > 0)
+			{
+				sampleRate = Math.abs(value - rateValue) / range * 1e9 / interval;
+				changeRate = Double.isNaN(changeRate)
+				             ? sampleRate
+				             : changeRate + RATE_WEIGHT * (sampleRate - changeRate);
+			}
+		}
+		rateValue = value;
+		rateTime = rxTime;
+	}
+
+	/**
+	 * get change rate of item values
+	 * - smoothed change rate, or change rate of latest value if higher,
+	 *   so sudden changes are not delayed by smoothing
+	 *
+	 * @return change rate [fraction of data range per s], NaN if unknown
+	 */
+	public double getChangeRate()
+	{
+		return Math.max(changeRate, sampleRate);
+	}
+
+	/**
+	 * check if latest value changed by more than the deadband
+	 *
+	 * @return true if latest value exceeded deadband
+	 */
+	public boolean isChanging()
+	{
+		return changing;
+	}
+
 	@Override
 	public Object clone()
 	{
@@ -336,7 +643,10 @@ public class EcuDataItem
 		try
 		{
 			result = (EcuDataItem) super.clone();
-			result.pv = (EcuDataPv) pv.clone();
+			if (pv != null)
+			{
+				result.pv = (EcuDataPv) pv.clone();
+			}
 		} catch (CloneNotSupportedException ex)
 		{
 			ex.printStackTrace();
@@ -20,10 +20,8 @@ package com.fr3ts0n.ecu;
 
 import com.fr3ts0n.ecu.prot.obd.Messages;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Vector;
 import java.util.logging.Logger;
@@ -70,6 +68,10 @@ public class EcuDataItems extends HashMap<Integer, HashMap<Integer, Vector<EcuDa
 		MNEMONIC,
 		LABEL,
 		DESCRIPTION,
+		FORMULA_REMARK,
+		OPTIONS,
+		REMARK2,
+		DEADBAND,
 		NUMBEROFFIELDS
 	}
 
@@ -80,6 +82,15 @@ public class EcuDataItems extends HashMap<Integer, HashMap<Integer, Vector<EcuDa
 	// map of MNEMONIC data item
 	public static final HashMap<String, EcuDataItem> byMnemonic = new HashMap<>();
 
+	/** size of dense lookup index (services/PIDs 0x00 - 0xFF) */
+	private static final int INDEX_SIZE = 0x100;
+	/**
+	 * dense lookup index [service][pid] -> data items
+	 * - item arrays are immutable, they get replaced on every append
+	 * - services/PIDs outside index range are served from hash map only
+	 */
+	private transient EcuDataItem[][][] pidIndex = new EcuDataItem[INDEX_SIZE][][];
+
 	/**
 	 * Create data items from default CSV pidResource files
 	 * (prot/obd/res/pids.csv, prot/obd/res/conversions.csv)
@@ -106,6 +117,7 @@ public class EcuDataItems extends HashMap<Integer, HashMap<Integer, Vector<EcuDa
 
 	/**
 	 * read data from resource file into data structure
+	 * - precompiled catalog of resource is used if available
 	 *
 	 * @param resource the resource file (csv)
 	 */
@@ -113,7 +125,7 @@ public class EcuDataItems extends HashMap<Integer, HashMap<Integer, Vector<EcuDa
 	{
 		try
 		{
-			loadFromStream(getClass().getResource(resource).openStream());
+			loadFromRows(CsvCatalog.readResource(getClass(), resource));
 		}
 		catch (IOException e)
 		{
@@ -128,77 +140,85 @@ public class EcuDataItems extends HashMap<Integer, HashMap<Integer, Vector<EcuDa
 	 */
 	public void loadFromStream(InputStream inStr)
 	{
-		BufferedReader rdr;
-		String currLine;
-		String[] params;
+		try
+		{
+			loadFromRows(CsvCatalog.readCsv(inStr));
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * read data from table rows into data structure
+	 *
+	 * @param rows table rows (header line excluded)
+	 */
+	private void loadFromRows(String[][] rows)
+	{
 		Conversion[] currCnvSet;
 		EcuDataItem newItm;
-		int line = 0;
-		try
+		// loop through all rows of the table ...
+		for (String[] params : rows)
 		{
-			rdr = new BufferedReader(new InputStreamReader(inStr));
-			// loop through all lines of the file ...
-			while ((currLine = rdr.readLine()) != null)
+			// ignore comment lines
+			if (params.length > 0 && params[0].startsWith("#")) //$NON-NLS-1$
 			{
-				// ignore first line
-				if (++line == 1 || currLine.startsWith("#")) //$NON-NLS-1$
-				{
-					continue;
-				}
-				// repalce all optional quotes from CSV code list
-				currLine = currLine.replaceAll("\"", ""); //$NON-NLS-1$ //$NON-NLS-2$
-				// split CSV line into parameters
-				params = currLine.split("\t"); //$NON-NLS-1$
+				continue;
+			}
 
-				currCnvSet = cnv.get(params[FLD.FORMULA.ordinal()]);
-				if (currCnvSet == null)
-				{
-					log.warning("Conversion not found: " + params[FLD.FORMULA.ordinal()] + " " + currLine); //$NON-NLS-1$ //$NON-NLS-2$
-				}
-				// try to use MIN/MAX values from CSV
-				Float minVal = null;
-				Float maxVal = null;
-				try {	minVal = Float.parseFloat(params[FLD.MIN.ordinal()]);	}
-				catch(NumberFormatException ex) {	/* ignore */ }
-				try {	maxVal = Float.parseFloat(params[FLD.MAX.ordinal()]);	}
-				catch(NumberFormatException e) { /* ignore */	}
-
-				long updateVal = 0;
-				try {	updateVal = Long.parseLong(params[FLD.UPDATE_MIN.ordinal()]);	}
-				catch(NumberFormatException ex) { updateVal = 0; }
-
-				String label = Messages.getString(params[FLD.MNEMONIC.ordinal()],
-				                                  params[FLD.LABEL.ordinal()]);
-				// create linear conversion
-				newItm = new EcuDataItem(Integer.decode(params[FLD.PID.ordinal()]),
-										 Integer.parseInt(params[FLD.OFS.ordinal()]),
-										 Integer.parseInt(params[FLD.LEN.ordinal()]),
-									     Integer.parseInt(params[FLD.BIT_OFS.ordinal()]),
-									     Integer.parseInt(params[FLD.BIT_LEN.ordinal()]),
-										 Long.decode(params[FLD.BIT_MASK.ordinal()]),
-									     currCnvSet,
-										 params[FLD.FORMAT.ordinal()],
-										 minVal,
-										 maxVal,
-										 updateVal,
-										 label,
-					                     params[FLD.MNEMONIC.ordinal()]);
-
-				// Add item to mnemonic map
-				byMnemonic.put(params[FLD.MNEMONIC.ordinal()], newItm);
-
-				// enter data item for all specified services
-				String[] services = params[FLD.SVC.ordinal()].split(","); //$NON-NLS-1$
-				for (String service : services)
-				{
-					int svcId = Integer.decode(service);
-					appendItemToService(svcId, newItm);
-				}
+			currCnvSet = cnv.get(params[FLD.FORMULA.ordinal()]);
+			if (currCnvSet == null)
+			{
+				log.warning("Conversion not found: " + params[FLD.FORMULA.ordinal()] + " " + params[FLD.MNEMONIC.ordinal()]); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			// try to use MIN/MAX values from CSV
+			Float minVal = null;
+			Float maxVal = null;
+			try {	minVal = Float.parseFloat(params[FLD.MIN.ordinal()]);	}
+			catch(NumberFormatException ex) {	/* ignore */ }
+			try {	maxVal = Float.parseFloat(params[FLD.MAX.ordinal()]);	}
+			catch(NumberFormatException e) { /* ignore */	}
+
+			long updateVal = 0;
+			try {	updateVal = Long.parseLong(params[FLD.UPDATE_MIN.ordinal()]);	}
+			catch(NumberFormatException ex) { updateVal = 0; }
+
+			String label = Messages.getString(params[FLD.MNEMONIC.ordinal()],
+			                                  params[FLD.LABEL.ordinal()]);
+			// create linear conversion
+			newItm = new EcuDataItem(Integer.decode(params[FLD.PID.ordinal()]),
+									 Integer.parseInt(params[FLD.OFS.ordinal()]),
+									 Integer.parseInt(params[FLD.LEN.ordinal()]),
+								     Integer.parseInt(params[FLD.BIT_OFS.ordinal()]),
+								     Integer.parseInt(params[FLD.BIT_LEN.ordinal()]),
+									 Long.decode(params[FLD.BIT_MASK.ordinal()]),
+								     currCnvSet,
+									 params[FLD.FORMAT.ordinal()],
+									 minVal,
+									 maxVal,
+									 updateVal,
+									 label,
+				                     params[FLD.MNEMONIC.ordinal()]);
+
+			// optional deadband to suppress insignificant value changes
+			if (params.length > FLD.DEADBAND.ordinal())
+			{
+				try {	newItm.deadband = newItm.defaultDeadband = Double.parseDouble(params[FLD.DEADBAND.ordinal()]);	}
+				catch(NumberFormatException ex) { /* ignore */	}
+			}
+
+			// Add item to mnemonic map
+			byMnemonic.put(params[FLD.MNEMONIC.ordinal()], newItm);
+
+			// enter data item for all specified services
+			String[] services = params[FLD.SVC.ordinal()].split(","); //$NON-NLS-1$
+			for (String service : services)
+			{
+				int svcId = Integer.decode(service);
+				appendItemToService(svcId, newItm);
 			}
-			rdr.close();
-		} catch (IOException e)
-		{
-			e.printStackTrace();
 		}
 	}
 
@@ -220,6 +240,38 @@ public class EcuDataItems extends HashMap<Integer, HashMap<Integer, Vector<EcuDa
 		return (currVec);
 	}
 
+	/**
+	 * get all data items for selected service and PID from dense lookup index
+	 * - returned array must not be modified by caller
+	 *
+	 * @param service service to search data items for
+	 * @param pid     pid to search data items for
+	 * @return array of data items - or null if no data items exist
+	 */
+	public EcuDataItem[] getPidItems(int service, int pid)
+	{
+		if (isIndexed(service, pid))
+		{
+			EcuDataItem[][] svcItems = pidIndex[service];
+			return (svcItems != null ? svcItems[pid] : null);
+		}
+		// outside of index range -> use hash map
+		Vector<EcuDataItem> currVec = getPidDataItems(service, pid);
+		return (currVec != null ? currVec.toArray(new EcuDataItem[0]) : null);
+	}
+
+	/**
+	 * check if service/PID combination is covered by dense lookup index
+	 *
+	 * @param service service to check
+	 * @param pid     pid to check
+	 * @return true if combination is covered by index
+	 */
+	private static boolean isIndexed(int service, int pid)
+	{
+		return ((service | pid) & ~(INDEX_SIZE - 1)) == 0;
+	}
+
 	/**
 	 * get all data items for selected service
 	 *
@@ -240,6 +292,28 @@ public class EcuDataItems extends HashMap<Integer, HashMap<Integer, Vector<EcuDa
 		return (result);
 	}
 
+	/**
+	 * reset running statistics of all data items (e.g. at start of a new trip)
+	 * - published values are reset as well, so first values are published again
+	 */
+	public void resetStatistics()
+	{
+		for (HashMap<Integer, Vector<EcuDataItem>> currSvc : values())
+		{
+			for (Vector<EcuDataItem> currVec : currSvc.values())
+			{
+				for (EcuDataItem item : currVec)
+				{
+					item.resetPublished();
+					if (item.hasPv())
+					{
+						item.getPv().getStatistics().reset();
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * Notify about a change of conversion factors
 	 *
@@ -253,7 +327,7 @@ public class EcuDataItems extends HashMap<Integer, HashMap<Integer, Vector<EcuDa
 		for (EcuDataItem item : byMnemonic.values())
 		{
 			// If item uses specified conversion ...
-			if(item.cnv[EcuDataItem.cnvSystem] == conversion)
+			if(item.cnv != null && item.cnv[EcuDataItem.cnvSystem] == conversion)
 			{
 				// update MIN/MAX limits of item
 				item.updateLimits(null, null);
@@ -292,6 +366,17 @@ public class EcuDataItems extends HashMap<Integer, HashMap<Integer, Vector<EcuDa
 		currSvc.put(newItem.pid, currVec);
 		// update map of services
 		put(service, currSvc);
+		// update dense lookup index with new (immutable) item array
+		if (isIndexed(service, newItem.pid))
+		{
+			EcuDataItem[][] svcItems = pidIndex[service];
+			if (svcItems == null)
+			{
+				svcItems = new EcuDataItem[INDEX_SIZE][];
+				pidIndex[service] = svcItems;
+			}
+			svcItems[newItem.pid] = currVec.toArray(new EcuDataItem[0]);
+		}
 		// debug message of new enty
 		log.finer("+" + service + "/" + String.format("0x%02X", newItem.pid) + " - " + currVec); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 	}
@@ -305,20 +390,107 @@ public class EcuDataItems extends HashMap<Integer, HashMap<Integer, Vector<EcuDa
 	 * @return Next expected update interval
 	 */
 	public long updateDataItems(int service, int pid, char[] buffer)
+	{
+		return updateDataItems(service, pid, buffer, System.nanoTime());
+	}
+
+	/**
+	 * Update all EcuDataItems with new data from buffer
+	 * - all items of the buffer share the same acquisition time
+	 *
+	 * @param service service of current data
+	 * @param pid     pid of current data
+	 * @param buffer  data buffer to do conversions on
+	 * @param rxTime  acquisition time [ns] of buffer (System.nanoTime() time base)
+	 * @return Next expected update interval
+	 */
+	public long updateDataItems(int service, int pid, char[] buffer, long rxTime)
 	{
 		long nextUpdate = 0;
 
-		Vector<EcuDataItem> currItms = getPidDataItems(service, pid);
+		EcuDataItem[] currItms = getPidItems(service, pid);
 		if(currItms != null)
 		{
 			for (EcuDataItem currItm : currItms)
 			{
-				long currItmUpdate = currItm.updatePvFomBuffer(buffer);
+				long currItmUpdate = currItm.updatePvFomBuffer(buffer, rxTime);
 				nextUpdate = Math.max(nextUpdate, currItmUpdate);
 			}
 		}
 		return nextUpdate;
 	}
 
+	/**
+	 * check if all data items for selected service and PID are disabled
+	 *
+	 * @param service service of data items
+	 * @param pid     pid of data items
+	 * @return true if data items exist and all of them are disabled
+	 */
+	public boolean isPidDisabled(int service, int pid)
+	{
+		EcuDataItem[] currItms = getPidItems(service, pid);
+		if (currItms == null || currItms.length == 0)
+		{
+			return false;
+		}
+		for (EcuDataItem currItm : currItms)
+		{
+			if (!currItm.isDisabled())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * get max. change rate of all data items for selected service and PID
+	 *
+	 * @param service service of data items
+	 * @param pid     pid of data items
+	 * @return max. change rate [fraction of data range per s], NaN if unknown
+	 */
+	public double getChangeRate(int service, int pid)
+	{
+		double result = Double.NaN;
+		EcuDataItem[] currItms = getPidItems(service, pid);
+		if (currItms != null)
+		{
+			for (EcuDataItem currItm : currItms)
+			{
+				double rate = currItm.getChangeRate();
+				if (!Double.isNaN(rate) && (Double.isNaN(result) || rate > result))
+				{
+					result = rate;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * check if any data item of selected service and PID changed by more than its deadband
+	 *
+	 * @param service service of data items
+	 * @param pid     pid of data items
+	 * @return true if any latest item value exceeded its deadband
+	 */
+	public boolean isChanging(int service, int pid)
+	{
+		EcuDataItem[] currItms = getPidItems(service, pid);
+		if (currItms != null)
+		{
+			for (EcuDataItem currItm : currItms)
+			{
+				if (currItm.isChanging())
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 }
 
@@ -19,6 +19,7 @@
 package com.fr3ts0n.ecu;
 
 import com.fr3ts0n.pvs.IndexedProcessVar;
+import com.fr3ts0n.pvs.PvStatistics;
 
 /**
  * Process variable which contains a single OBD data item
@@ -45,6 +46,8 @@ public class EcuDataPv extends IndexedProcessVar
 	public static final String FID_MNEMONIC = "MNEMONIC";
 	public static final String FID_COLOR = "COLOR";
 	public static final String FID_UPDT_PERIOD = "PERIOD";
+	public static final String FID_DEADBAND = "DEADBAND";
+	public static final String FID_STATS = "STATS";
 
 	public static final String[] FIELDS =
 		{
@@ -101,6 +104,23 @@ public class EcuDataPv extends IndexedProcessVar
 		return result;
 	}
 
+	/**
+	 * get running statistics of numeric values
+	 * - statistics are created on first use
+	 *
+	 * @return statistics of values since last reset
+	 */
+	public synchronized PvStatistics getStatistics()
+	{
+		PvStatistics result = (PvStatistics) get(FID_STATS);
+		if (result == null)
+		{
+			result = new PvStatistics();
+			put(FID_STATS, result);
+		}
+		return result;
+	}
+
 	public Object getRenderingComponent()
 	{
 		return renderingComponent;
@@ -113,6 +133,15 @@ public class EcuDataPv extends IndexedProcessVar
 
 	public String toString()
 	{
-		return (String.format("%02X.%d.%d", get(FID_PID), get(FID_OFS), get(FID_BIT_OFS)));
+		Object pid = get(FID_PID);
+		Object ofs = get(FID_OFS);
+		Object bitOfs = get(FID_BIT_OFS);
+		if (pid instanceof Number && ofs instanceof Number && bitOfs instanceof Number)
+		{
+			return EcuDataItem.itemKey(((Number) pid).intValue(),
+			                           ((Number) ofs).intValue(),
+			                           ((Number) bitOfs).intValue());
+		}
+		return (String.format("%02X.%d.%d", pid, ofs, bitOfs));
 	}
 }
@@ -0,0 +1,378 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu;
+
+import java.util.List;
+
+/**
+ * Arithmetic expression over named variables
+ *
+ * The expression is parsed once into a tree of evaluation nodes,
+ * constant sub-expressions are folded. Evaluation does not allocate
+ * any objects.
+ *
+ * Syntax:
+ * - numbers (e.g. 3.6, 1e-3) and variable names (e.g. vehicle_speed)
+ * - operators + - * / ^ with usual precedence, unary minus, parentheses
+ * - functions min(a,b), max(a,b), abs(a), sqrt(a)
+ *
+ * @author erwin
+ */
+public class Expression
+{
+	/** root node of evaluation tree */
+	private final Node root;
+	/** expression text */
+	private final String text;
+
+	/** parser state */
+	private int pos;
+
+	/**
+	 * Evaluation node
+	 */
+	private abstract static class Node
+	{
+		abstract double eval(double[] values);
+
+		boolean isConstant()
+		{
+			return false;
+		}
+	}
+
+	/** constant value */
+	private static final class Constant extends Node
+	{
+		final double value;
+
+		Constant(double value)
+		{
+			this.value = value;
+		}
+
+		@Override
+		double eval(double[] values)
+		{
+			return value;
+		}
+
+		@Override
+		boolean isConstant()
+		{
+			return true;
+		}
+	}
+
+	/** variable value */
+	private static final class Variable extends Node
+	{
+		final int index;
+
+		Variable(int index)
+		{
+			this.index = index;
+		}
+
+		@Override
+		double eval(double[] values)
+		{
+			return values[index];
+		}
+	}
+
+	/** operator or function with one or two operands */
+	private static final class Operation extends Node
+	{
+		final char op;
+		final Node left;
+		final Node right;
+
+		Operation(char op, Node left, Node right)
+		{
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		double eval(double[] values)
+		{
+			double a = left.eval(values);
+			switch (op)
+			{
+				case '+': return a + right.eval(values);
+				case '-': return a - right.eval(values);
+				case '*': return a * right.eval(values);
+				case '/': return a / right.eval(values);
+				case '^': return Math.pow(a, right.eval(values));
+				case '<': return Math.min(a, right.eval(values));
+				case '>': return Math.max(a, right.eval(values));
+				case 'n': return -a;
+				case 'a': return Math.abs(a);
+				case 's': return Math.sqrt(a);
+				default: return Double.NaN;
+			}
+		}
+	}
+
+	/**
+	 * Parse expression
+	 *
+	 * @param text      expression text
+	 * @param variables list of variable names, new variables are appended.
+	 *                  The position within this list is the index of the
+	 *                  variable's value for evaluation.
+	 * @throws IllegalArgumentException on syntax errors
+	 */
+	public Expression(String text, List<String> variables)
+	{
+		this.text = text;
+		pos = 0;
+		Node node = parseSum(variables);
+		skipBlanks();
+		if (pos < text.length())
+		{
+			throw error("Unexpected character");
+		}
+		root = node;
+	}
+
+	/**
+	 * evaluate expression
+	 *
+	 * @param values values of variables
+	 * @return result of expression
+	 */
+	public double evaluate(double[] values)
+	{
+		return root.eval(values);
+	}
+
+	@Override
+	public String toString()
+	{
+		return text;
+	}
+
+	/**
+	 * sum := product (('+'|'-') product)*
+	 */
+	private Node parseSum(List<String> variables)
+	{
+		Node node = parseProduct(variables);
+		while (true)
+		{
+			char c = peek();
+			if (c != '+' && c != '-')
+			{
+				return node;
+			}
+			pos++;
+			node = operation(c, node, parseProduct(variables));
+		}
+	}
+
+	/**
+	 * product := unary (('*'|'/') unary)*
+	 */
+	private Node parseProduct(List<String> variables)
+	{
+		Node node = parseUnary(variables);
+		while (true)
+		{
+			char c = peek();
+			if (c != '*' && c != '/')
+			{
+				return node;
+			}
+			pos++;
+			node = operation(c, node, parseUnary(variables));
+		}
+	}
+
+	/**
+	 * unary := '-' unary | power
+	 */
+	private Node parseUnary(List<String> variables)
+	{
+		if (peek() == '-')
+		{
+			pos++;
+			return operation('n', parseUnary(variables), null);
+		}
+		return parsePower(variables);
+	}
+
+	/**
+	 * power := primary ('^' unary)?
+	 */
+	private Node parsePower(List<String> variables)
+	{
+		Node node = parsePrimary(variables);
+		if (peek() == '^')
+		{
+			pos++;
+			node = operation('^', node, parseUnary(variables));
+		}
+		return node;
+	}
+
+	/**
+	 * primary := number | function '(' args ')' | variable | '(' sum ')'
+	 */
+	private Node parsePrimary(List<String> variables)
+	{
+		char c = peek();
+		if (c == '(')
+		{
+			pos++;
+			Node node = parseSum(variables);
+			expect(')');
+			return node;
+		}
+		int start = pos;
+		if (Character.isDigit(c) || c == '.')
+		{
+			while (pos < text.length()
+			       && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.'))
+			{
+				pos++;
+			}
+			// exponent
+			if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E'))
+			{
+				pos++;
+				if (pos < text.length() && (text.charAt(pos) == '-' || text.charAt(pos) == '+'))
+				{
+					pos++;
+				}
+				while (pos < text.length() && Character.isDigit(text.charAt(pos)))
+				{
+					pos++;
+				}
+			}
+			try
+			{
+				return new Constant(Double.parseDouble(text.substring(start, pos)));
+			}
+			catch (NumberFormatException e)
+			{
+				pos = start;
+				throw error("Invalid number");
+			}
+		}
+		if (Character.isLetter(c) || c == '_')
+		{
+			while (pos < text.length()
+			       && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_'))
+			{
+				pos++;
+			}
+			String name = text.substring(start, pos);
+			if (peek() == '(')
+			{
+				return parseFunction(name, variables);
+			}
+			int index = variables.indexOf(name);
+			if (index < 0)
+			{
+				index = variables.size();
+				variables.add(name);
+			}
+			return new Variable(index);
+		}
+		throw error("Operand expected");
+	}
+
+	/**
+	 * function := name '(' sum (',' sum)? ')'
+	 */
+	private Node parseFunction(String name, List<String> variables)
+	{
+		expect('(');
+		Node arg = parseSum(variables);
+		Node node;
+		if ("min".equals(name) || "max".equals(name))
+		{
+			expect(',');
+			node = operation("min".equals(name) ? '<' : '>', arg, parseSum(variables));
+		}
+		else if ("abs".equals(name))
+		{
+			node = operation('a', arg, null);
+		}
+		else if ("sqrt".equals(name))
+		{
+			node = operation('s', arg, null);
+		}
+		else
+		{
+			throw error("Unknown function " + name);
+		}
+		expect(')');
+		return node;
+	}
+
+	/**
+	 * create operation node, constant operations are folded
+	 */
+	private static Node operation(char op, Node left, Node right)
+	{
+		Node node = new Operation(op, left, right);
+		if (left.isConstant() && (right == null || right.isConstant()))
+		{
+			node = new Constant(node.eval(null));
+		}
+		return node;
+	}
+
+	/**
+	 * get next non blank character without consuming it
+	 *
+	 * @return next character, 0 at end of text
+	 */
+	private char peek()
+	{
+		skipBlanks();
+		return pos < text.length() ? text.charAt(pos) : 0;
+	}
+
+	private void skipBlanks()
+	{
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+		{
+			pos++;
+		}
+	}
+
+	private void expect(char c)
+	{
+		if (peek() != c)
+		{
+			throw error("'" + c + "' expected");
+		}
+		pos++;
+	}
+
+	private IllegalArgumentException error(String message)
+	{
+		return new IllegalArgumentException(String.format("%s at %d: %s", message, pos, text));
+	}
+}
@@ -112,7 +112,18 @@ public class HashConversion extends NumericConversion
 		String result = hashData.get(physVal.longValue());
 		// if we haven't found a string representation, return numeric value
 		if (result == null)
+		{
+			boolean cacheable = isCacheable(physVal);
+			if (cacheable && (result = getTextCache().get(physVal.longValue(), format)) != null)
+			{
+				return result;
+			}
 			result = "Unknown state: "+super.physToPhysFmtString(physVal, format);
+			if (cacheable)
+			{
+				getTextCache().put(physVal.longValue(), format, result);
+			}
+		}
 
 		return (result);
 	}
@@ -44,6 +44,6 @@ public class IntConversion
 	public String physToPhysFmtString(Number physVal, String format)
 	{
 		long val = physVal.longValue();
-		return String.format(format, val);
+		return ValueFormat.get(format).format(val);
 	}
 }
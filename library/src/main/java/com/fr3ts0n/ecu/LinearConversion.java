@@ -115,10 +115,11 @@ public class LinearConversion extends NumericConversion
 		{
 			// Get data item of dynamic conversion factor
 			EcuDataItem newFactItm = EcuDataItems.byMnemonic.get(factMnemonic);
-			if (newFactItm != null)
+			// factor is only known if it has been received already
+			if (newFactItm != null && newFactItm.hasPv())
 			{
 				// Get value of dynamic conversion factor
-				Number factVal = (Number)newFactItm.pv.get(EcuDataPv.FID_VALUE);
+				Number factVal = (Number)newFactItm.getPv().get(EcuDataPv.FID_VALUE);
 				// If there is a valid value, update factor with dynamic factor
 				if (    factVal != null                 // Factor defined
                      && factVal.intValue() > 0          // and specified ...
@@ -160,4 +161,11 @@ public class LinearConversion extends NumericConversion
 		return ((long) java.lang.Math.round((value.floatValue() - offsetPhys)
 			* divider / factor - offset));
 	}
+
+	@Override
+	public StringBuilder physToPhysFmtString(StringBuilder out, Number physVal, String format)
+	{
+		// linear values are formatted directly into buffer
+		return ValueFormat.get(format).append(out, physVal);
+	}
 }
@@ -34,17 +34,51 @@ public abstract class NumericConversion implements Conversion
 
 	/** physical units of data item */
 	String units = "";
+	/** cache of display texts (created on first use) */
+	private transient TextCache textCache;
 
 	@Override
 	public String physToPhysFmtString(Number physVal, String format)
 	{
-		return String.format(format, physVal);
+		return ValueFormat.get(format).format(physVal);
+	}
+
+	@Override
+	public StringBuilder physToPhysFmtString(StringBuilder out, Number physVal, String format)
+	{
+		return out.append(physToPhysFmtString(physVal, format));
 	}
 
 	NumericConversion()
 	{
 	}
 
+	/**
+	 * get cache of display texts for this conversion
+	 *
+	 * @return cache of display texts
+	 */
+	synchronized TextCache getTextCache()
+	{
+		if (textCache == null)
+		{
+			textCache = new TextCache();
+		}
+		return textCache;
+	}
+
+	/**
+	 * check if display text of value may be cached
+	 * - only integral values are cached
+	 *
+	 * @param physVal physical value
+	 * @return true if display text may be cached
+	 */
+	static boolean isCacheable(Number physVal)
+	{
+		return (physVal instanceof Long || physVal instanceof Integer);
+	}
+
 	/**
 	 * return physical units of measurement
 	 *
@@ -54,4 +54,10 @@ public class ObdCodeList
 	{
 		return ObdCodeItem.getPCode(value.intValue());
 	}
+
+	@Override
+	protected int getNumericCode(String code)
+	{
+		return ObdCodeItem.getNumericCode(code);
+	}
 }
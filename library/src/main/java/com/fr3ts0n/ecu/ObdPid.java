@@ -7,14 +7,37 @@ import java.util.Comparator;
  * - Allow prioritization of PID requests by providing:
  *   - timestamp (ms) of next expected request
  *   - sort algorithm by request timestamp for PID Collections
+ * - Adapt request period to activity of PID values:
+ *   - stable PIDs are requested with stretched periods (up to a max. period)
+ *   - request period snaps back to the base period on value changes
+ * - Suppress requests of dormant PIDs (PIDs which do not deliver data):
+ *   - dormant PIDs are re-probed with exponential backoff
  */
 public class ObdPid
     extends Number
 {
+    /** min. stretched request period [ms] */
+    public static long MIN_STRETCH_MS = 250;
+    /** max. stretched request period [ms] */
+    public static long MAX_STRETCH_MS = 4000;
+    /** change rate [fraction of data range per s] up to which PID values are stable */
+    public static double STABLE_RATE = 0.005;
+
+    /** initial re-probe delay of dormant PIDs [ms] */
+    public static long DORMANT_MIN_MS = 1000;
+    /** max. re-probe delay of dormant PIDs [ms] */
+    public static long DORMANT_MAX_MS = 30000;
+
     /** The PID value itself */
     private final int pid;
     /** Timestamp (system ms) for next expected data request */
     private long nextRequest_ms = 0;
+    /** current stretched request period [ms], 0 if not stretched */
+    private long stretch_ms = 0;
+    /** number of consecutive requests without data, 0 if PID is not dormant */
+    private int failures = 0;
+    /** PID has delivered data at least once */
+    private boolean answered = false;
 
     public ObdPid(int pidCode)
     {
@@ -64,6 +87,84 @@ public class ObdPid
         return nextRequest_ms;
     }
 
+    /**
+     * Adapt request period to activity of PID values
+     * - period is doubled with every stable response, up to MAX_STRETCH_MS
+     * - period snaps back to base period if values are changing
+     *
+     * @param basePeriod base request period [ms] of PID
+     * @param changeRate change rate of PID values [fraction of data range per s]
+     *                   NaN if unknown
+     * @param changing   true if PID values changed by more than their deadband
+     * @return effective request period [ms]
+     */
+    public long adaptRequestPeriod(long basePeriod, double changeRate, boolean changing)
+    {
+        if (changing || Double.isNaN(changeRate) || changeRate > STABLE_RATE)
+        {
+            stretch_ms = 0;
+        }
+        else
+        {
+            stretch_ms = (stretch_ms == 0)
+                         ? MIN_STRETCH_MS
+                         : Math.min(2 * stretch_ms, MAX_STRETCH_MS);
+        }
+        return Math.max(basePeriod, stretch_ms);
+    }
+
+    /**
+     * Get current stretched request period
+     * @return stretched request period [ms], 0 if not stretched
+     */
+    public long getStretchPeriod()
+    {
+        return stretch_ms;
+    }
+
+    /**
+     * Mark PID as dormant since last request did not deliver data
+     * - next request is delayed by re-probe delay
+     * - re-probe delay is doubled with every failure, up to DORMANT_MAX_MS
+     *
+     * @param now current timestamp [ms]
+     * @return re-probe delay [ms]
+     */
+    public long setDormant(long now)
+    {
+        long delay = Math.min(DORMANT_MIN_MS << Math.min(failures, 16), DORMANT_MAX_MS);
+        failures++;
+        nextRequest_ms = now + delay;
+        return delay;
+    }
+
+    /**
+     * Mark PID as alive since last request delivered data
+     */
+    public void setAlive()
+    {
+        failures = 0;
+        answered = true;
+    }
+
+    /**
+     * Is PID dormant?
+     * @return true if PID is dormant
+     */
+    public boolean isDormant()
+    {
+        return failures > 0;
+    }
+
+    /**
+     * Has PID delivered data at least once?
+     * @return true if PID has delivered data
+     */
+    public boolean hasAnswered()
+    {
+        return answered;
+    }
+
     /**
      * Comparator to allow list / vector sorting by next request
      */
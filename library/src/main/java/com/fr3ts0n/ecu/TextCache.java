@@ -0,0 +1,105 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu;
+
+import com.fr3ts0n.ecu.prot.obd.Messages;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bounded cache of display texts of a conversion, keyed by raw value
+ *
+ * - least recently used texts are dropped if cache is full
+ * - cache is cleared if locale or messages change
+ * - texts are cached for the format the cache was (re-)validated with,
+ *   other formats bypass the cache
+ *
+ * @author erwin
+ */
+class TextCache
+{
+	/** max. number of cached texts */
+	private static final int MAX_ENTRIES = 32;
+
+	/** cached texts by raw value (access order) */
+	private final LinkedHashMap<Long, String> texts = new LinkedHashMap<Long, String>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, String> eldest)
+		{
+			return size() > MAX_ENTRIES;
+		}
+	};
+	/** messages generation of cached texts */
+	private int generation = -1;
+	/** locale of cached texts */
+	private Locale locale = null;
+	/** format of cached texts */
+	private String format = null;
+
+	/**
+	 * get cached text for raw value
+	 *
+	 * @param value  raw value
+	 * @param format format pattern used for display
+	 * @return cached text, or null if not cached
+	 */
+	synchronized String get(long value, String format)
+	{
+		if (generation != Messages.getGeneration() || locale != Locale.getDefault())
+		{
+			texts.clear();
+			generation = Messages.getGeneration();
+			locale = Locale.getDefault();
+			this.format = format;
+			return null;
+		}
+		return isCachedFormat(format) ? texts.get(value) : null;
+	}
+
+	/**
+	 * enter text for raw value into cache
+	 *
+	 * @param value  raw value
+	 * @param format format pattern used for display
+	 * @param text   display text
+	 */
+	synchronized void put(long value, String format, String text)
+	{
+		if (isCachedFormat(format))
+		{
+			texts.put(value, text);
+		}
+	}
+
+	/**
+	 * check if texts of format are cached
+	 *
+	 * @param format format pattern to check
+	 * @return true if texts of format are cached
+	 */
+	private boolean isCachedFormat(String format)
+	{
+		return (format == null) ? this.format == null : format.equals(this.format);
+	}
+}
@@ -0,0 +1,403 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu;
+
+import com.fr3ts0n.ecu.prot.obd.ObdProt;
+import com.fr3ts0n.pvs.PvChangeEvent;
+import com.fr3ts0n.pvs.PvChangeListener;
+import com.fr3ts0n.pvs.PvList;
+import com.fr3ts0n.pvs.TimeSeriesBuffer;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Triggered recorder for data item values
+ *
+ * The values of selected data items are kept in short ring buffers.
+ * On a trigger (new trouble code, raised alert or manual trigger) the
+ * values before the trigger are frozen, and the values after the trigger
+ * are captured. With the first value after the post trigger time, the
+ * capture is written to a standalone file:
+ * - comment line: # trigger, trigger time [ms], trigger reason
+ * - header line
+ * - one line per sample: time relative to trigger [ms], mnemonic, value
+ *
+ * Further triggers are ignored while a capture is in progress.
+ *
+ * @author erwin
+ */
+public class TriggerRecorder
+	implements PvChangeListener, PropertyChangeListener, AlertRules.AlertListener
+{
+	/** Logger object */
+	private static final Logger log = Logger.getLogger("data.trigger");
+
+	/** output directory for captures */
+	private final File directory;
+	/** time captured before trigger [ms] */
+	private final long preTime;
+	/** time captured after trigger [ms] */
+	private final long postTime;
+	/** max. number of samples per data item */
+	private final int capacity;
+
+	/** recorded lists of process vars */
+	private final List<PvList> lists = new ArrayList<>();
+	/** ring buffers of recorded process vars */
+	private final Map<EcuDataPv, TimeSeriesBuffer> buffers = new IdentityHashMap<>();
+	/** frozen buffers of current capture, null if no capture is in progress */
+	private Map<EcuDataPv, TimeSeriesBuffer> frozen = null;
+	/** time of current trigger [ms] */
+	private long triggerTime;
+	/** reason of current trigger */
+	private String triggerReason;
+	/** last written capture file */
+	private File lastCapture;
+
+	/**
+	 * Create trigger recorder
+	 *
+	 * @param directory output directory for captures
+	 * @param preTime   time captured before trigger [ms]
+	 * @param postTime  time captured after trigger [ms]
+	 * @param capacity  max. number of samples per data item (pre + post trigger)
+	 */
+	public TriggerRecorder(File directory, long preTime, long postTime, int capacity)
+	{
+		this.directory = directory;
+		this.preTime = preTime;
+		this.postTime = postTime;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * start recording values of a process var
+	 *
+	 * @param pv process var of data item
+	 */
+	public synchronized void record(EcuDataPv pv)
+	{
+		if (!buffers.containsKey(pv))
+		{
+			buffers.put(pv, new TimeSeriesBuffer(capacity, preTime + postTime));
+			pv.addPvChangeListener(this, PvChangeEvent.PV_MODIFIED);
+		}
+	}
+
+	/**
+	 * start recording values of all process vars in list
+	 * - process vars added to the list later on will be recorded as well
+	 *
+	 * @param list list of data item process vars
+	 */
+	public void record(PvList list)
+	{
+		synchronized (this)
+		{
+			if (!lists.contains(list))
+			{
+				lists.add(list);
+				list.addPvChangeListener(this, PvChangeEvent.PV_ADDED);
+			}
+		}
+		for (Object pv : list.values().toArray())
+		{
+			if (pv instanceof EcuDataPv)
+			{
+				record((EcuDataPv) pv);
+			}
+		}
+	}
+
+	/**
+	 * stop recording values of all process vars
+	 * - a capture in progress is discarded
+	 */
+	public synchronized void release()
+	{
+		for (PvList list : lists)
+		{
+			list.removePvChangeListener(this);
+		}
+		lists.clear();
+		for (EcuDataPv pv : buffers.keySet())
+		{
+			pv.removePvChangeListener(this);
+		}
+		buffers.clear();
+		frozen = null;
+	}
+
+	/**
+	 * trigger a capture
+	 *
+	 * @param reason trigger reason
+	 * @return true if capture was started, false if a capture is in progress
+	 */
+	public synchronized boolean trigger(String reason)
+	{
+		if (frozen != null)
+		{
+			return false;
+		}
+		triggerTime = System.currentTimeMillis();
+		triggerReason = reason;
+		// freeze pre trigger values
+		frozen = new IdentityHashMap<>();
+		for (Map.Entry<EcuDataPv, TimeSeriesBuffer> entry : buffers.entrySet())
+		{
+			frozen.put(entry.getKey(), entry.getValue().snapshot(triggerTime));
+		}
+		log.info("Capture triggered: " + reason);
+		return true;
+	}
+
+	/**
+	 * check if a capture is in progress
+	 *
+	 * @return true if capture is in progress
+	 */
+	public synchronized boolean isCapturing()
+	{
+		return frozen != null;
+	}
+
+	/**
+	 * get last written capture file
+	 *
+	 * @return last capture file, null if none
+	 */
+	public synchronized File getLastCapture()
+	{
+		return lastCapture;
+	}
+
+	/**
+	 * Record value change of data item
+	 * - data items added to recorded lists are recorded as well
+	 *
+	 * @param event change event of data item process var
+	 */
+	@Override
+	public void pvChanged(PvChangeEvent event)
+	{
+		if (event.getSource() instanceof PvList)
+		{
+			if (event.getType() == PvChangeEvent.PV_ADDED)
+			{
+				if (event.getValue() instanceof EcuDataPv)
+				{
+					record((EcuDataPv) event.getValue());
+				}
+				else if (event.getValue() instanceof Object[])
+				{
+					// multiple data items added at once (putAll)
+					for (Object pv : (Object[]) event.getValue())
+					{
+						if (pv instanceof EcuDataPv)
+						{
+							record((EcuDataPv) pv);
+						}
+					}
+				}
+			}
+			return;
+		}
+		if (!EcuDataPv.FIELDS[EcuDataPv.FID_VALUE].equals(event.getKey())
+		    || !(event.getValue() instanceof Number))
+		{
+			return;
+		}
+		long time = event.getTime();
+		synchronized (this)
+		{
+			TimeSeriesBuffer buffer = buffers.get(event.getSource());
+			if (buffer != null)
+			{
+				buffer.add(time, ((Number) event.getValue()).doubleValue());
+			}
+			if (frozen != null && time > triggerTime + postTime)
+			{
+				finishCapture();
+			}
+		}
+	}
+
+	/**
+	 * Trigger capture on new trouble codes
+	 */
+	@Override
+	public void propertyChange(PropertyChangeEvent evt)
+	{
+		if (ObdProt.PROP_NUM_CODES.equals(evt.getPropertyName())
+		    && evt.getNewValue() instanceof Integer
+		    && evt.getOldValue() instanceof Integer
+		    && (Integer) evt.getNewValue() > (Integer) evt.getOldValue())
+		{
+			trigger("DTC " + evt.getNewValue());
+		}
+	}
+
+	/**
+	 * Trigger capture on raised alerts
+	 */
+	@Override
+	public void alertChanged(AlertRule rule, boolean active, double value, long time)
+	{
+		if (active)
+		{
+			trigger(rule.getLabel());
+		}
+	}
+
+	/**
+	 * finish current capture and write it in background
+	 */
+	private void finishCapture()
+	{
+		final List<EcuDataPv> pvs = new ArrayList<>(frozen.keySet());
+		final List<TimeSeriesBuffer> pre = new ArrayList<>();
+		final List<TimeSeriesBuffer> post = new ArrayList<>();
+		long endTime = triggerTime + postTime;
+		for (EcuDataPv pv : pvs)
+		{
+			pre.add(frozen.get(pv));
+			TimeSeriesBuffer buffer = buffers.get(pv);
+			post.add(buffer != null ? buffer.snapshot(endTime) : new TimeSeriesBuffer(1));
+		}
+		final long time = triggerTime;
+		final String reason = triggerReason;
+		frozen = null;
+
+		// write capture without blocking data acquisition
+		new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				File file = new File(directory,
+				                     String.format(Locale.ROOT, "capture_%tY%<tm%<td_%<tH%<tM%<tS.csv", time));
+				try
+				{
+					Writer writer = new BufferedWriter(new FileWriter(file));
+					try
+					{
+						writeCapture(writer, time, reason, pvs, pre, post);
+					}
+					finally
+					{
+						writer.close();
+					}
+					synchronized (TriggerRecorder.this)
+					{
+						lastCapture = file;
+					}
+					log.info("Capture written: " + file);
+				}
+				catch (IOException e)
+				{
+					log.severe("Capture write error: " + e);
+				}
+			}
+		}, "CaptureWriter").start();
+	}
+
+	/**
+	 * write capture
+	 * - pre trigger samples are taken from frozen buffers, post trigger
+	 *   samples from current buffers
+	 *
+	 * @param writer output
+	 * @param time   trigger time [ms]
+	 * @param reason trigger reason
+	 * @param pvs    recorded process vars
+	 * @param pre    frozen buffers of process vars
+	 * @param post   current buffers of process vars
+	 * @throws IOException on write errors
+	 */
+	void writeCapture(Writer writer, long time, String reason,
+	                  List<EcuDataPv> pvs,
+	                  List<TimeSeriesBuffer> pre,
+	                  List<TimeSeriesBuffer> post) throws IOException
+	{
+		writer.write(String.format(Locale.ROOT, "# trigger\t%d\t%s\n", time, reason));
+		writer.write("time_ms\tmnemonic\tvalue\n");
+		int numPvs = pvs.size();
+		// read positions within pre and post trigger buffers
+		int[] prePos = new int[numPvs];
+		int[] postPos = new int[numPvs];
+		for (int i = 0; i < numPvs; i++)
+		{
+			prePos[i] = pre.get(i).lowerBound(time - preTime);
+			postPos[i] = post.get(i).upperBound(time);
+		}
+		// merge samples of all process vars in time order
+		while (true)
+		{
+			int next = -1;
+			long nextTime = Long.MAX_VALUE;
+			for (int i = 0; i < numPvs; i++)
+			{
+				long sampleTime = Long.MAX_VALUE;
+				if (prePos[i] < pre.get(i).size())
+				{
+					sampleTime = pre.get(i).getTime(prePos[i]);
+				}
+				else if (postPos[i] < post.get(i).size())
+				{
+					sampleTime = post.get(i).getTime(postPos[i]);
+				}
+				if (sampleTime < nextTime)
+				{
+					next = i;
+					nextTime = sampleTime;
+				}
+			}
+			if (next < 0 || nextTime > time + postTime)
+			{
+				break;
+			}
+			double value;
+			if (prePos[next] < pre.get(next).size())
+			{
+				value = pre.get(next).getValue(prePos[next]++);
+			}
+			else
+			{
+				value = post.get(next).getValue(postPos[next]++);
+			}
+			writer.write(String.format(Locale.ROOT, "%d\t%s\t%s\n",
+			                           nextTime - time,
+			                           pvs.get(next).get(EcuDataPv.FID_MNEMONIC),
+			                           value));
+		}
+	}
+}
@@ -0,0 +1,497 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormatSymbols;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Compiled printf style value format
+ *
+ * Format patterns of data items (e.g. "%.1f", "%d", "%#08x", "%s") are
+ * parsed once and then formatted without java.util.Formatter.
+ * Supported is a single conversion f, d, x, X or s with flags '0' / '#',
+ * width and precision, surrounded by optional literal text.
+ * All other patterns (and argument types) are formatted with String.format.
+ *
+ * Floating point values are rounded half up on their decimal representation,
+ * numbers use decimal separator and zero digit of the default locale
+ * (same as String.format).
+ *
+ * @author erwin
+ */
+public final class ValueFormat
+{
+	/** conversion types */
+	private static final int TYPE_FORMATTER = 0;
+	private static final int TYPE_FLOAT     = 1;
+	private static final int TYPE_DECIMAL   = 2;
+	private static final int TYPE_HEX       = 3;
+	private static final int TYPE_STRING    = 4;
+
+	/** default precision of floating point conversion */
+	private static final int DEFAULT_PRECISION = 6;
+	/** max supported precision of floating point conversion */
+	private static final int MAX_PRECISION = 15;
+	/** max. scaled floating point value for fast formatting */
+	private static final double MAX_SCALED = 9.0e18;
+	/** powers of 10 */
+	private static final long[] POW10 = new long[MAX_PRECISION + 1];
+	static
+	{
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++)
+		{
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	/** all compiled formats */
+	private static final HashMap<String, ValueFormat> formats = new HashMap<>();
+	/** number symbols of current default locale */
+	private static volatile Symbols symbols = new Symbols(Locale.getDefault());
+
+	/** original format pattern */
+	private final String pattern;
+	/** conversion type */
+	private int type = TYPE_FORMATTER;
+	/** literal text before conversion */
+	private String prefix = "";
+	/** literal text after conversion */
+	private String suffix = "";
+	/** minimum field width */
+	private int width = 0;
+	/** precision (-1 = not specified) */
+	private int precision = -1;
+	/** flag '0': zero padding */
+	private boolean zeroPad = false;
+	/** flag '#': alternate form */
+	private boolean alternate = false;
+	/** upper case conversion */
+	private boolean upperCase = false;
+	/** reusable buffer for String results */
+	private final StringBuilder buffer = new StringBuilder(32);
+
+	/**
+	 * Number symbols of a locale
+	 */
+	private static final class Symbols
+	{
+		final Locale locale;
+		final char decimalSeparator;
+		final char zeroDigit;
+
+		Symbols(Locale locale)
+		{
+			DecimalFormatSymbols dfs = DecimalFormatSymbols.getInstance(locale);
+			this.locale = locale;
+			decimalSeparator = dfs.getDecimalSeparator();
+			zeroDigit = dfs.getZeroDigit();
+		}
+	}
+
+	/**
+	 * get compiled format for a format pattern
+	 * - formats are compiled on first use only
+	 *
+	 * @param pattern format pattern
+	 * @return compiled format
+	 */
+	public static ValueFormat get(String pattern)
+	{
+		synchronized (formats)
+		{
+			ValueFormat result = formats.get(pattern);
+			if (result == null)
+			{
+				result = new ValueFormat(pattern);
+				formats.put(pattern, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Create compiled format
+	 *
+	 * @param pattern format pattern
+	 */
+	private ValueFormat(String pattern)
+	{
+		this.pattern = pattern;
+		if (pattern != null)
+		{
+			compile();
+		}
+	}
+
+	/**
+	 * parse format pattern
+	 * - any unsupported pattern remains TYPE_FORMATTER
+	 */
+	private void compile()
+	{
+		int start = pattern.indexOf('%');
+		if (start < 0)
+		{
+			return;
+		}
+		int pos = start + 1;
+		int len = pattern.length();
+		// flags
+		while (pos < len)
+		{
+			char c = pattern.charAt(pos);
+			if (c == '0') zeroPad = true;
+			else if (c == '#') alternate = true;
+			else break;
+			pos++;
+		}
+		// width
+		while (pos < len && Character.isDigit(pattern.charAt(pos)))
+		{
+			width = width * 10 + (pattern.charAt(pos++) - '0');
+		}
+		// precision
+		if (pos < len && pattern.charAt(pos) == '.')
+		{
+			pos++;
+			precision = 0;
+			int digits = 0;
+			while (pos < len && Character.isDigit(pattern.charAt(pos)))
+			{
+				precision = precision * 10 + (pattern.charAt(pos++) - '0');
+				digits++;
+			}
+			if (digits == 0) return;
+		}
+		if (pos >= len) return;
+		// only one conversion is supported
+		String rest = pattern.substring(pos + 1);
+		if (rest.indexOf('%') >= 0) return;
+		// zero padding requires width
+		if (zeroPad && width == 0) return;
+
+		int newType;
+		switch (pattern.charAt(pos))
+		{
+			case 'f':
+				if (alternate || precision > MAX_PRECISION) return;
+				if (precision < 0) precision = DEFAULT_PRECISION;
+				newType = TYPE_FLOAT;
+				break;
+
+			case 'd':
+				if (alternate || precision >= 0) return;
+				newType = TYPE_DECIMAL;
+				break;
+
+			case 'X':
+				upperCase = true;
+				// fall through
+			case 'x':
+				if (precision >= 0) return;
+				newType = TYPE_HEX;
+				break;
+
+			case 's':
+				if (alternate || zeroPad || width > 0 || precision >= 0) return;
+				newType = TYPE_STRING;
+				break;
+
+			default:
+				return;
+		}
+		prefix = pattern.substring(0, start);
+		suffix = rest;
+		type = newType;
+	}
+
+	/**
+	 * get current number symbols
+	 *
+	 * @return number symbols of current default locale
+	 */
+	private static Symbols getSymbols()
+	{
+		Symbols result = symbols;
+		Locale locale = Locale.getDefault();
+		if (result.locale != locale && !result.locale.equals(locale))
+		{
+			result = new Symbols(locale);
+			symbols = result;
+		}
+		return result;
+	}
+
+	/**
+	 * format value into String
+	 *
+	 * @param value value to be formatted
+	 * @return formatted value
+	 */
+	public String format(Object value)
+	{
+		if (type == TYPE_FORMATTER)
+		{
+			return String.format(pattern, value);
+		}
+		synchronized (buffer)
+		{
+			buffer.setLength(0);
+			append(buffer, value);
+			return buffer.toString();
+		}
+	}
+
+	/**
+	 * append formatted value to buffer
+	 *
+	 * @param out   buffer to append formatted value to
+	 * @param value value to be formatted
+	 * @return buffer
+	 */
+	public StringBuilder append(StringBuilder out, Object value)
+	{
+		switch (type)
+		{
+			case TYPE_FLOAT:
+				if (value instanceof Float || value instanceof Double)
+				{
+					return appendFloat(out, ((Number) value).doubleValue());
+				}
+				break;
+
+			case TYPE_DECIMAL:
+			case TYPE_HEX:
+				int bits = integerBits(value);
+				if (bits > 0)
+				{
+					long val = ((Number) value).longValue();
+					return (type == TYPE_DECIMAL)
+						? appendDecimal(out, val)
+						: appendHex(out, val, bits);
+				}
+				break;
+
+			case TYPE_STRING:
+				if (value instanceof Number || value instanceof String)
+				{
+					return out.append(prefix).append(value).append(suffix);
+				}
+				break;
+		}
+		// not supported by compiled format
+		return out.append(String.format(pattern, value));
+	}
+
+	/**
+	 * get number of bits of integer value types
+	 *
+	 * @param value value to check
+	 * @return number of bits, 0 if value is no supported integer type
+	 */
+	private static int integerBits(Object value)
+	{
+		if (value instanceof Integer) return Integer.SIZE;
+		if (value instanceof Long) return Long.SIZE;
+		if (value instanceof Short) return Short.SIZE;
+		if (value instanceof Byte) return Byte.SIZE;
+		return 0;
+	}
+
+	/**
+	 * append formatted floating point value
+	 *
+	 * @param out   buffer to append formatted value to
+	 * @param value value to be formatted
+	 * @return buffer
+	 */
+	public StringBuilder appendFloat(StringBuilder out, double value)
+	{
+		double scaled = (type == TYPE_FLOAT) ? Math.abs(value) * POW10[precision] : Double.NaN;
+		// NaN, infinite and huge values are left to String.format
+		if (!(scaled < MAX_SCALED))
+		{
+			return out.append(String.format(pattern, value));
+		}
+		Symbols sym = getSymbols();
+		long digits = (long) Math.floor(scaled + 0.5);
+		// close to rounding boundary: round decimal representation (same as Formatter)
+		if (Math.abs(scaled - Math.floor(scaled) - 0.5) <= 4 * Math.ulp(scaled))
+		{
+			digits = new BigDecimal(Double.toString(Math.abs(value)))
+				.setScale(precision, RoundingMode.HALF_UP)
+				.unscaledValue().longValue();
+		}
+		boolean negative = Double.doubleToRawLongBits(value) < 0;
+		int length = numDigits(digits / POW10[precision]) + (precision > 0 ? precision + 1 : 0);
+
+		out.append(prefix);
+		appendPadding(out, sym, negative, length);
+		appendDigits(out, sym, digits / POW10[precision], 1);
+		if (precision > 0)
+		{
+			out.append(sym.decimalSeparator);
+			appendDigits(out, sym, digits % POW10[precision], precision);
+		}
+		return out.append(suffix);
+	}
+
+	/**
+	 * append formatted decimal value
+	 *
+	 * @param out   buffer to append formatted value to
+	 * @param value value to be formatted
+	 * @return buffer
+	 */
+	private StringBuilder appendDecimal(StringBuilder out, long value)
+	{
+		if (value == Long.MIN_VALUE)
+		{
+			return out.append(String.format(pattern, value));
+		}
+		Symbols sym = getSymbols();
+		long abs = Math.abs(value);
+
+		out.append(prefix);
+		appendPadding(out, sym, value < 0, numDigits(abs));
+		appendDigits(out, sym, abs, 1);
+		return out.append(suffix);
+	}
+
+	/**
+	 * append formatted hexadecimal value
+	 *
+	 * @param out   buffer to append formatted value to
+	 * @param value value to be formatted
+	 * @param bits  number of bits of value type
+	 * @return buffer
+	 */
+	private StringBuilder appendHex(StringBuilder out, long value, int bits)
+	{
+		// negative values are shown as unsigned value of their type
+		if (bits < Long.SIZE)
+		{
+			value &= (1L << bits) - 1;
+		}
+		int numDigits = 1;
+		while (numDigits < 16 && (value >>> (4 * numDigits)) != 0)
+		{
+			numDigits++;
+		}
+		int length = numDigits + (alternate ? 2 : 0);
+
+		out.append(prefix);
+		if (!zeroPad)
+		{
+			for (int i = length; i < width; i++) out.append(' ');
+		}
+		if (alternate)
+		{
+			out.append(upperCase ? "0X" : "0x");
+		}
+		if (zeroPad)
+		{
+			for (int i = length; i < width; i++) out.append('0');
+		}
+		for (int i = numDigits - 1; i >= 0; i--)
+		{
+			int digit = (int) (value >>> (4 * i)) & 0x0F;
+			out.append((char) (digit < 10 ? '0' + digit : (upperCase ? 'A' : 'a') + digit - 10));
+		}
+		return out.append(suffix);
+	}
+
+	/**
+	 * append sign and padding up to field width
+	 *
+	 * @param out      buffer to append to
+	 * @param sym      number symbols
+	 * @param negative value is negative
+	 * @param length   length of digits (w/o sign)
+	 */
+	private void appendPadding(StringBuilder out, Symbols sym, boolean negative, int length)
+	{
+		if (negative) length++;
+		if (!zeroPad)
+		{
+			for (int i = length; i < width; i++) out.append(' ');
+		}
+		if (negative) out.append('-');
+		if (zeroPad)
+		{
+			for (int i = length; i < width; i++) out.append(sym.zeroDigit);
+		}
+	}
+
+	/**
+	 * append decimal digits of a non-negative value
+	 *
+	 * @param out       buffer to append to
+	 * @param sym       number symbols
+	 * @param value     value to append
+	 * @param minDigits minimum number of digits (leading zeros)
+	 */
+	private static void appendDigits(StringBuilder out, Symbols sym, long value, int minDigits)
+	{
+		// append digits in reverse order ...
+		int start = out.length();
+		int numDigits = 0;
+		do
+		{
+			out.append((char) (sym.zeroDigit + (int) (value % 10)));
+			value /= 10;
+			numDigits++;
+		} while (value != 0 || numDigits < minDigits);
+		// ... and reverse them in place
+		for (int i = start, j = out.length() - 1; i < j; i++, j--)
+		{
+			char c = out.charAt(i);
+			out.setCharAt(i, out.charAt(j));
+			out.setCharAt(j, c);
+		}
+	}
+
+	/**
+	 * get number of decimal digits of a non-negative value
+	 *
+	 * @param value value to check
+	 * @return number of digits
+	 */
+	private static int numDigits(long value)
+	{
+		int result = 1;
+		while (value >= 10)
+		{
+			value /= 10;
+			result++;
+		}
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		return pattern;
+	}
+}
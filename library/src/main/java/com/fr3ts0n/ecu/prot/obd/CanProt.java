@@ -220,7 +220,7 @@ public abstract class CanProt extends ProtoHeader
 					if (pv != null)
 					{
 						// now store all changes to PV
-						pv.put(EcuDataPv.FIELDS[EcuDataPv.FID_VALUE], Float.valueOf(value));
+						pv.putTimed(EcuDataPv.FID_VALUE, Float.valueOf(value), getRxTime());
 					}
 				}
 				retValue = params.size();
@@ -0,0 +1,334 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu.prot.obd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.logging.Logger;
+
+/**
+ * Cache of connection settings learned per adapter and vehicle
+ *
+ * Settings which are learned by a full discovery (protocol, ECU responses,
+ * supported PIDs, message timeout, unsupported adapter commands) are
+ * remembered, so the next connection with the same adapter may start from
+ * the learned settings and only has to verify them.
+ *
+ * @author erwin
+ */
+public class ConnectionCache
+{
+	/** Logger object */
+	private static final Logger log = Logger.getLogger("com.fr3ts0n.prot");
+
+	/** max. number of cached connections */
+	static final int MAX_ENTRIES = 16;
+
+	/** property key prefix of cache entries */
+	private static final String KEY_ENTRY = "entry.";
+
+	/**
+	 * Settings of a single adapter/vehicle connection
+	 */
+	public static class Entry
+	{
+		/** ID of adapter */
+		final String adapter;
+		/** vehicle identification number, empty if unknown */
+		String vin = "";
+		/** ELM protocol ID, -1 if unknown */
+		int protocol = -1;
+		/** ELM message timeout [ms], 0 if unknown */
+		int timeout = 0;
+		/** responses to PID 0100 by ECU address */
+		final TreeMap<Integer, String> ecus = new TreeMap<>();
+		/** supported PID bitmasks of service 01 by start PID */
+		final TreeMap<Integer, Long> pidMasks = new TreeMap<>();
+		/** adapter commands which are not supported by the adapter */
+		final TreeSet<String> unsupportedCmds = new TreeSet<>();
+		/** time of last use [ms] */
+		long lastUsed = 0;
+
+		/**
+		 * create empty entry
+		 *
+		 * @param adapter ID of adapter
+		 */
+		public Entry(String adapter)
+		{
+			this.adapter = adapter;
+		}
+
+		/**
+		 * create copy of entry
+		 *
+		 * @param entry entry to be copied
+		 */
+		Entry(Entry entry)
+		{
+			this(entry.adapter);
+			vin = entry.vin;
+			protocol = entry.protocol;
+			timeout = entry.timeout;
+			ecus.putAll(entry.ecus);
+			pidMasks.putAll(entry.pidMasks);
+			unsupportedCmds.addAll(entry.unsupportedCmds);
+			lastUsed = entry.lastUsed;
+		}
+
+		/**
+		 * check if entry contains a usable connection
+		 *
+		 * @return true if protocol and ECU responses are known
+		 */
+		boolean isComplete()
+		{
+			return protocol >= 0 && !ecus.isEmpty();
+		}
+
+		/**
+		 * check if entry represents the same adapter and vehicle
+		 * - an entry without VIN is the same as an entry with VIN,
+		 *   if the ECUs respond equally
+		 *
+		 * @param entry entry to check
+		 * @return true if adapter and vehicle are equal
+		 */
+		boolean isSameConnection(Entry entry)
+		{
+			return adapter.equals(entry.adapter)
+			       && (vin.equals(entry.vin) || (vin.isEmpty() && ecus.equals(entry.ecus)));
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%s/%s: prot=%d, ecus=%s, timeout=%d",
+			                     adapter, vin, protocol, ecus.keySet(), timeout);
+		}
+	}
+
+	/** cached entries */
+	private final Vector<Entry> entries = new Vector<>();
+
+	/**
+	 * get most recently used complete entry of adapter
+	 *
+	 * @param adapter ID of adapter
+	 * @return copy of cached entry, null if there is none
+	 */
+	public synchronized Entry get(String adapter)
+	{
+		Entry result = null;
+		for (Entry entry : entries)
+		{
+			if (entry.adapter.equals(adapter)
+			    && entry.isComplete()
+			    && (result == null || entry.lastUsed > result.lastUsed))
+			{
+				result = entry;
+			}
+		}
+		return result != null ? new Entry(result) : null;
+	}
+
+	/**
+	 * get most recently used complete entry of adapter with matching ECU responses
+	 * (i.e. a vehicle which was connected with this adapter before)
+	 *
+	 * @param adapter  ID of adapter
+	 * @param protocol ELM protocol ID of current connection
+	 * @param ecus     responses to PID 0100 by ECU address
+	 * @return copy of cached entry, null if there is none
+	 */
+	public synchronized Entry get(String adapter, int protocol, Map<Integer, String> ecus)
+	{
+		Entry result = null;
+		for (Entry entry : entries)
+		{
+			if (entry.adapter.equals(adapter)
+			    && entry.isComplete()
+			    && entry.protocol == protocol
+			    && entry.ecus.equals(ecus)
+			    && (result == null || entry.lastUsed > result.lastUsed))
+			{
+				result = entry;
+			}
+		}
+		return result != null ? new Entry(result) : null;
+	}
+
+	/**
+	 * add or update entry
+	 * - an entry of the same adapter and vehicle is replaced
+	 * - least recently used entries are dropped if cache is full
+	 *
+	 * @param entry entry to be stored
+	 */
+	public synchronized void put(Entry entry)
+	{
+		Entry newEntry = new Entry(entry);
+		newEntry.lastUsed = System.currentTimeMillis();
+		Iterator<Entry> it = entries.iterator();
+		while (it.hasNext())
+		{
+			if (it.next().isSameConnection(newEntry))
+			{
+				it.remove();
+			}
+		}
+		entries.add(newEntry);
+		while (entries.size() > MAX_ENTRIES)
+		{
+			Entry oldest = entries.firstElement();
+			for (Entry curr : entries)
+			{
+				if (curr.lastUsed < oldest.lastUsed)
+				{
+					oldest = curr;
+				}
+			}
+			entries.remove(oldest);
+		}
+		log.fine("Connection cached: " + newEntry);
+	}
+
+	/**
+	 * remove all cached entries
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+
+	/**
+	 * get number of cached entries
+	 *
+	 * @return number of cached entries
+	 */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * load cached entries from stream
+	 *
+	 * @param inStream stream to read from
+	 * @throws IOException on read errors
+	 */
+	public synchronized void load(InputStream inStream)
+		throws IOException
+	{
+		Properties props = new Properties();
+		props.load(inStream);
+		entries.clear();
+		for (int i = 0; props.containsKey(KEY_ENTRY + i + ".adapter"); i++)
+		{
+			String prefix = KEY_ENTRY + i + ".";
+			try
+			{
+				Entry entry = new Entry(props.getProperty(prefix + "adapter"));
+				entry.vin = props.getProperty(prefix + "vin", "");
+				entry.protocol = Integer.parseInt(props.getProperty(prefix + "protocol", "-1"));
+				entry.timeout = Integer.parseInt(props.getProperty(prefix + "timeout", "0"));
+				entry.lastUsed = Long.parseLong(props.getProperty(prefix + "lastUsed", "0"));
+				for (String ecu : split(props.getProperty(prefix + "ecus")))
+				{
+					String[] fields = ecu.split("=");
+					entry.ecus.put(Integer.valueOf(fields[0], 16), fields[1]);
+				}
+				for (String mask : split(props.getProperty(prefix + "pidMasks")))
+				{
+					String[] fields = mask.split("=");
+					entry.pidMasks.put(Integer.valueOf(fields[0], 16), Long.valueOf(fields[1], 16));
+				}
+				for (String cmd : split(props.getProperty(prefix + "unsupportedCmds")))
+				{
+					entry.unsupportedCmds.add(cmd);
+				}
+				entries.add(entry);
+			}
+			catch (RuntimeException ex)
+			{
+				log.warning(String.format("Invalid cache entry %d: %s", i, ex.toString()));
+			}
+		}
+		log.info(String.format("Connection cache loaded: %d entries", entries.size()));
+	}
+
+	/**
+	 * save cached entries to stream
+	 *
+	 * @param outStream stream to write to
+	 * @throws IOException on write errors
+	 */
+	public synchronized void save(OutputStream outStream)
+		throws IOException
+	{
+		Properties props = new Properties();
+		int i = 0;
+		for (Entry entry : entries)
+		{
+			String prefix = KEY_ENTRY + i++ + ".";
+			StringBuilder ecus = new StringBuilder();
+			for (Map.Entry<Integer, String> ecu : entry.ecus.entrySet())
+			{
+				ecus.append(String.format("%X=%s,", ecu.getKey(), ecu.getValue()));
+			}
+			StringBuilder masks = new StringBuilder();
+			for (Map.Entry<Integer, Long> mask : entry.pidMasks.entrySet())
+			{
+				masks.append(String.format("%X=%X,", mask.getKey(), mask.getValue()));
+			}
+			StringBuilder cmds = new StringBuilder();
+			for (String cmd : entry.unsupportedCmds)
+			{
+				cmds.append(cmd).append(',');
+			}
+			props.setProperty(prefix + "adapter", entry.adapter);
+			props.setProperty(prefix + "vin", entry.vin);
+			props.setProperty(prefix + "protocol", String.valueOf(entry.protocol));
+			props.setProperty(prefix + "timeout", String.valueOf(entry.timeout));
+			props.setProperty(prefix + "lastUsed", String.valueOf(entry.lastUsed));
+			props.setProperty(prefix + "ecus", ecus.toString());
+			props.setProperty(prefix + "pidMasks", masks.toString());
+			props.setProperty(prefix + "unsupportedCmds", cmds.toString());
+		}
+		props.store(outStream, "AndrOBD connection cache");
+	}
+
+	/**
+	 * split comma separated list
+	 *
+	 * @param list comma separated list (may be null)
+	 * @return list elements
+	 */
+	private static String[] split(String list)
+	{
+		return (list == null || list.isEmpty()) ? new String[0] : list.split(",");
+	}
+}
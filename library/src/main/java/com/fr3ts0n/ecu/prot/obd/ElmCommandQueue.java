@@ -0,0 +1,287 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu.prot.obd;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Vector;
+import java.util.logging.Logger;
+
+/**
+ * Queue of commands to be sent to the ELM adapter
+ *
+ * Commands are sent in reverse order of queueing (last in, first out),
+ * which is the explicit ordering the protocol handlers rely on.
+ *
+ * The queue tracks the settings of the adapter (echo, headers, timeout,
+ * RX filter, protocol, ...) from all commands which are sent:
+ * - a setting of the same kind which is queued later (and thus sent
+ *   earlier) is dropped, as long as no other request is queued in between,
+ *   since the setting which was queued first ends up to be in effect
+ * - a setting which is already in effect when it is due, is dropped
+ *   instead of costing an adapter round trip
+ *
+ * @author erwin
+ */
+public class ElmCommandQueue
+{
+	/** Logger object */
+	private static final Logger log = Logger.getLogger("com.fr3ts0n.prot");
+
+	/** commands which reset all adapter settings */
+	private static final ElmProt.CMD[] RESET_COMMANDS =
+		{
+			ElmProt.CMD.RESET,
+			ElmProt.CMD.WARMSTART,
+			ElmProt.CMD.DEFAULTS
+		};
+
+	/** adapter setting commands */
+	private static final ElmProt.CMD[] SETTING_COMMANDS =
+		{
+			ElmProt.CMD.ECHO,
+			ElmProt.CMD.SETLINEFEED,
+			ElmProt.CMD.SETSPACES,
+			ElmProt.CMD.SETHEADER,
+			ElmProt.CMD.SETPROT,
+			ElmProt.CMD.SETPROTAUTO,
+			ElmProt.CMD.ADAPTTIMING,
+			ElmProt.CMD.SETTIMEOUT,
+			ElmProt.CMD.SETTXHDR,
+			ElmProt.CMD.SETCANRXFLT,
+			ElmProt.CMD.CLRCANRXFLT
+		};
+
+	/** queued commands, next command to be sent is the last element */
+	private final Vector<String> commands = new Vector<>();
+	/** known adapter settings: setting key -> command which is in effect */
+	private final HashMap<String, String> settings = new HashMap<>();
+	/** number of commands which were dropped since they were already in effect */
+	private int numDropped = 0;
+
+	/**
+	 * queue a command
+	 *
+	 * @param command command to be sent
+	 */
+	public synchronized void add(String command)
+	{
+		String key = getSettingKey(command);
+		if (key != null)
+		{
+			// queued setting would override this one before the next request
+			for (int i = commands.size() - 1; i >= 0; i--)
+			{
+				String queuedKey = getSettingKey(commands.get(i));
+				if (queuedKey == null)
+				{
+					break;
+				}
+				if (queuedKey.equals(key))
+				{
+					log.fine("ELM setting overridden by queued setting: " + command);
+					return;
+				}
+			}
+		}
+		else if (!commands.isEmpty() && commands.lastElement().equals(command))
+		{
+			// same request is already next to be sent
+			return;
+		}
+		commands.add(command);
+	}
+
+	/**
+	 * queue a list of commands
+	 *
+	 * @param commandList commands to be sent
+	 */
+	public synchronized void addAll(Collection<String> commandList)
+	{
+		for (String command : commandList)
+		{
+			add(command);
+		}
+	}
+
+	/**
+	 * get next command to be sent and remove it from queue
+	 * - settings which are already in effect are dropped
+	 *
+	 * @return next command to be sent, null if there is none
+	 */
+	public synchronized String poll()
+	{
+		while (!commands.isEmpty())
+		{
+			String command = commands.remove(commands.size() - 1);
+			String key = getSettingKey(command);
+			if (key != null && normalize(command).equals(settings.get(key)))
+			{
+				numDropped++;
+				log.fine("ELM setting already in effect: " + command);
+				continue;
+			}
+			return command;
+		}
+		return null;
+	}
+
+	/**
+	 * update known adapter settings with a command which was sent
+	 *
+	 * @param command command which was sent to the adapter
+	 */
+	public synchronized void sent(String command)
+	{
+		String cmd = normalize(command);
+		for (ElmProt.CMD resetCmd : RESET_COMMANDS)
+		{
+			if (cmd.equals(resetCmd.toString()))
+			{
+				settings.clear();
+				return;
+			}
+		}
+		// protocol close requires protocol to be selected again
+		if (cmd.equals(ElmProt.CMD.PROTOCLOSE.toString()))
+		{
+			settings.remove(ElmProt.CMD.SETPROT.name());
+			return;
+		}
+		String key = getSettingKey(cmd);
+		if (key != null)
+		{
+			settings.put(key, cmd);
+		}
+	}
+
+	/**
+	 * forget known adapter setting of a command, since it was rejected
+	 *
+	 * @param command command which was rejected by the adapter
+	 */
+	public synchronized void rejected(String command)
+	{
+		String key = getSettingKey(command);
+		if (key != null)
+		{
+			settings.remove(key);
+		}
+	}
+
+	/**
+	 * forget all known adapter settings (e.g. after adapter reset)
+	 */
+	public synchronized void invalidate()
+	{
+		settings.clear();
+	}
+
+	/**
+	 * remove all queued commands and forget all known adapter settings
+	 */
+	public synchronized void clear()
+	{
+		commands.clear();
+		settings.clear();
+	}
+
+	/**
+	 * get number of queued commands
+	 *
+	 * @return number of queued commands
+	 */
+	public synchronized int size()
+	{
+		return commands.size();
+	}
+
+	/**
+	 * get number of commands which were dropped since they were already in effect
+	 *
+	 * @return number of dropped commands
+	 */
+	public synchronized int getNumDropped()
+	{
+		return numDropped;
+	}
+
+	/**
+	 * normalize command for comparison (upper case, no spaces)
+	 *
+	 * @param command command to normalize
+	 * @return normalized command
+	 */
+	private static String normalize(String command)
+	{
+		return command.replace(" ", "").toUpperCase(Locale.ROOT);
+	}
+
+	/**
+	 * get key of adapter setting which is changed by a command
+	 * - settings of the same kind share one key (e.g. set/clear RX filter)
+	 *
+	 * @param command command to check
+	 * @return setting key, null if command is no adapter setting
+	 */
+	static String getSettingKey(String command)
+	{
+		String cmd = normalize(command);
+		for (ElmProt.CMD setting : SETTING_COMMANDS)
+		{
+			String name = setting.toString();
+			if (cmd.startsWith(name)
+			    && cmd.length() == name.length() + setting.paramDigits
+			    && isHex(cmd.substring(name.length())))
+			{
+				switch (setting)
+				{
+					case SETPROTAUTO:
+						return ElmProt.CMD.SETPROT.name();
+					case CLRCANRXFLT:
+						return ElmProt.CMD.SETCANRXFLT.name();
+					default:
+						return setting.name();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * check if parameter only contains hex digits
+	 *
+	 * @param param parameter to check
+	 * @return true if all characters are hex digits
+	 */
+	private static boolean isHex(String param)
+	{
+		for (int i = 0; i < param.length(); i++)
+		{
+			if (Character.digit(param.charAt(i), 16) < 0)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -18,14 +18,21 @@
 
 package com.fr3ts0n.ecu.prot.obd;
 
+import com.fr3ts0n.ecu.ObdPid;
+import com.fr3ts0n.prot.LatencyHistogram;
 import com.fr3ts0n.prot.TelegramListener;
 import com.fr3ts0n.prot.TelegramWriter;
 
 import java.beans.PropertyChangeEvent;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
 
@@ -80,10 +87,54 @@ public class ElmProt
 	 * list of identified ECU addresses
 	 */
 	private final TreeSet<Integer> ecuAddresses = new TreeSet<Integer>();
+	/**
+	 * responses to PID 0100 by ECU address
+	 */
+	private final TreeMap<Integer, String> ecuResponses = new TreeMap<Integer, String>();
 	/**
 	 * selected ECU address
 	 */
 	private int selectedEcuAddress = 0;
+	/**
+	 * cache of connection settings learned per adapter/vehicle
+	 */
+	private ConnectionCache connectionCache = null;
+	/**
+	 * ID of connected adapter
+	 */
+	private String adapterId = "";
+	/**
+	 * connection settings of current connection (null if not cached)
+	 */
+	private ConnectionCache.Entry learnedEntry = null;
+	/**
+	 * connection is started from cached settings, which are not verified yet
+	 */
+	private boolean warmStart = false;
+	/**
+	 * detected protocol was requested from adapter
+	 */
+	private boolean protocolQueried = false;
+	/**
+	 * adapter commands which were rejected once
+	 */
+	private final Set<String> rejectedCmds = new HashSet<String>();
+	/**
+	 * pending single requests (in order of creation)
+	 */
+	private final Vector<ObdRequest> pendingRequests = new Vector<ObdRequest>();
+	/**
+	 * single request which is waiting for response
+	 */
+	private ObdRequest activeRequest = null;
+	/**
+	 * number of poll slots, used to interleave single requests by priority
+	 */
+	private int pollSlot = 0;
+	/**
+	 * last prompt did not trigger any request
+	 */
+	private boolean idle = false;
 	/**
 	 * custom ELM initialisation commands
 	 */
@@ -210,6 +261,7 @@ public class ElmProt
 		SETSPACES("S", 1, true), ///< enable/disable spaces
 		SETHEADER("H", 1, true), ///< enable/disable header response
 		GETPROT("DP", 0, true), ///< get protocol
+		GETPROTNUM("DPN", 0, true), ///< get protocol number
 		SETPROT("SP", 1, true), ///< set protocol
 		CANMONITOR("MA", 0, true), ///< monitor CAN messages
 		SETPROTAUTO("SPA", 1, true), ///< set protocol auto
@@ -275,6 +327,10 @@ public class ElmProt
 	/**
 	 * Adaptive ELM timing handler
 	 * * optimizes ELM message timeout at runtime
+	 * * SOFTWARE mode measures the latency of every request
+	 *   (TX of request to reception of first response) and keeps a rolling
+	 *   latency histogram per protocol/ECU. The timeout is set to a high
+	 *   percentile of latencies plus a safety margin.
 	 */
 	public class AdaptiveTiming
 	{
@@ -294,13 +350,29 @@ public class ElmProt
 		 */
 		private static final int ELM_TIMEOUT_RES = 4;
 		/**
-		 * minimum ELM timeout
+		 * latency percentile which has to be covered by ELM message timeout
 		 */
-		int ELM_TIMEOUT_MIN = 12;
+		private static final double ELM_TIMEOUT_PERCENTILE = 0.98;
+		/**
+		 * safety margin added to latency percentile [ms]
+		 */
+		private static final int ELM_TIMEOUT_MARGIN = 16;
+		/**
+		 * number of most recent latencies kept in histogram
+		 */
+		private static final int LATENCY_WINDOW = 200;
+		/**
+		 * min. number of latencies to derive timeout from histogram
+		 */
+		private static final int LATENCY_MIN_SAMPLES = 20;
 		/**
-		 * minimum ELM timeout (learned from vehicle)
+		 * number of new latencies before timeout is re-evaluated
 		 */
-		int ELM_TIMEOUT_LRN_LOW = 12;
+		private static final int LATENCY_ADAPT_SAMPLES = 10;
+		/**
+		 * minimum ELM timeout
+		 */
+		int ELM_TIMEOUT_MIN = 12;
 		/**
 		 * ELM message timeout: defaults to approx 200 [ms]
 		 */
@@ -310,6 +382,22 @@ public class ElmProt
 		 * adaptive timing handling enabled?
 		 */
 		private AdaptTimingMode mode = AdaptTimingMode.OFF;
+		/**
+		 * latency histograms by protocol/ECU
+		 */
+		private final HashMap<String, LatencyHistogram> histograms = new HashMap<>();
+		/**
+		 * latency histogram of current protocol/ECU
+		 */
+		private LatencyHistogram histogram;
+		/**
+		 * number of latencies since last timeout evaluation
+		 */
+		private int newSamples = 0;
+		/**
+		 * TX time [ns] of pending request, 0 if no request is pending
+		 */
+		private long requestTime = 0;
 		
 		public AdaptTimingMode getMode()
 		{
@@ -349,76 +437,125 @@ public class ElmProt
 			ELM_TIMEOUT_MIN = elmTimeoutMin;
 		}
 		
+		/**
+		 * Get latency histogram of current protocol/ECU
+		 *
+		 * @return latency histogram [ms], null if not in SOFTWARE mode
+		 */
+		public LatencyHistogram getLatencyHistogram()
+		{
+			return histogram;
+		}
+		
 		/**
 		 * Initialize timing hadler
 		 */
 		void initialize()
 		{
+			requestTime = 0;
 			if (mode == AdaptTimingMode.SOFTWARE)
 			{
-				// ... reset learned minimum timeout ...
-				setElmTimeoutLrnLow(getElmTimeoutMin());
-				// set default timeout
-				setElmMsgTimeout(ELM_TIMEOUT_DEFAULT);
+				// ... select latencies of current protocol/ECU ...
+				selectHistogram();
+				// set timeout from known latencies, cached connection or default
+				int cachedTimeout = (learnedEntry != null) ? learnedEntry.timeout : 0;
+				setElmMsgTimeout(histogram.getCount() >= LATENCY_MIN_SAMPLES
+				                 ? getLatencyTimeout()
+				                 : (cachedTimeout > 0 ? cachedTimeout : ELM_TIMEOUT_DEFAULT));
 				// switch OFF ELM internal adaptive timing
 				pushCommand(CMD.ADAPTTIMING, 0);
 			}
 			else
 			{
+				histogram = null;
 				pushCommand(CMD.ADAPTTIMING, mode.ordinal());
 			}
 		}
 		
 		/**
-		 * Adapt ELM message timeout
-		 *
-		 * @param increaseTimeout increase/decrease timeout
+		 * select latency histogram of current protocol/ECU
 		 */
-		void adapt(boolean increaseTimeout)
+		void selectHistogram()
 		{
 			if (mode != AdaptTimingMode.SOFTWARE) { return; }
-			if (increaseTimeout)
-			{
-				// increase OBD timeout since we may expect answers too fast
-				if ((elmMsgTimeout + ELM_TIMEOUT_RES) < ELM_TIMEOUT_MAX)
-				{
-					// increase timeout, since we have just timed out
-					setElmMsgTimeout(elmMsgTimeout + ELM_TIMEOUT_RES);
-					// ... and limit MIN timeout for this session
-					setElmTimeoutLrnLow(elmMsgTimeout);
-				}
-			}
-			else
+			String key = preferredProtocol + "/" + Integer.toHexString(selectedEcuAddress);
+			histogram = histograms.get(key);
+			if (histogram == null)
 			{
-				// reduce OBD timeout towards minimum limit
-				if ((elmMsgTimeout - ELM_TIMEOUT_RES) >= getElmTimeoutLrnLow())
-				{
-					setElmMsgTimeout(elmMsgTimeout - ELM_TIMEOUT_RES);
-				}
-				
+				histogram = new LatencyHistogram(ELM_TIMEOUT_RES, ELM_TIMEOUT_MAX, LATENCY_WINDOW);
+				histograms.put(key, histogram);
 			}
+			newSamples = 0;
 		}
 		
 		/**
-		 * LOW Learn value ELM Message Timeout
+		 * Remember TX time of a vehicle request
+		 */
+		void requestSent()
+		{
+			requestTime = System.nanoTime();
+		}
+		
+		/**
+		 * Handle first response to pending request
 		 *
-		 * @return currently learned timout value [ms]
+		 * @param rxTime reception time [ns] of response
+		 */
+		void responseReceived(long rxTime)
+		{
+			if (requestTime == 0) { return; }
+			long latency = (rxTime - requestTime) / 1000000L;
+			requestTime = 0;
+			addLatency(latency);
+		}
+		
+		/**
+		 * Handle missing response (NO DATA) to pending request
+		 * - timeout was too short, so it is raised immediately
 		 */
-		private int getElmTimeoutLrnLow()
+		void responseMissing()
 		{
-			return ELM_TIMEOUT_LRN_LOW;
+			requestTime = 0;
+			if (mode != AdaptTimingMode.SOFTWARE) { return; }
+			// latency was at least the current timeout
+			histogram.add(elmMsgTimeout);
+			setElmMsgTimeout(Math.min(elmMsgTimeout + ELM_TIMEOUT_MARGIN, ELM_TIMEOUT_MAX));
 		}
 		
 		/**
-		 * set LOW Learn value ELM Message Timeout
+		 * Add measured request latency and adapt ELM message timeout
 		 *
-		 * @param elmTimeoutLrnLow new learn value [ms]
+		 * @param latency request latency [ms]
 		 */
-		private void setElmTimeoutLrnLow(int elmTimeoutLrnLow)
+		void addLatency(long latency)
 		{
-			log.info(String.format("ELM learn timeout: %d -> %d",
-				ELM_TIMEOUT_LRN_LOW, elmTimeoutLrnLow));
-			ELM_TIMEOUT_LRN_LOW = elmTimeoutLrnLow;
+			if (mode != AdaptTimingMode.SOFTWARE) { return; }
+			histogram.add(latency);
+			if (++newSamples >= LATENCY_ADAPT_SAMPLES
+			    && histogram.getCount() >= LATENCY_MIN_SAMPLES)
+			{
+				newSamples = 0;
+				int timeout = getLatencyTimeout();
+				// raise immediately, reduce only on significant changes
+				if (timeout > elmMsgTimeout
+				    || timeout < elmMsgTimeout - 2 * ELM_TIMEOUT_RES)
+				{
+					setElmMsgTimeout(timeout);
+				}
+			}
+		}
+		
+		/**
+		 * Get ELM message timeout which covers latency percentile
+		 *
+		 * @return ELM message timeout [ms]
+		 */
+		private int getLatencyTimeout()
+		{
+			long timeout = histogram.getPercentile(ELM_TIMEOUT_PERCENTILE) + ELM_TIMEOUT_MARGIN;
+			// round up to ELM timeout resolution
+			timeout = ((timeout + ELM_TIMEOUT_RES - 1) / ELM_TIMEOUT_RES) * ELM_TIMEOUT_RES;
+			return (int) Math.max(getElmTimeoutMin(), Math.min(timeout, ELM_TIMEOUT_MAX));
 		}
 		
 		/**
@@ -437,6 +574,12 @@ public class ElmProt
 				elmMsgTimeout = newTimeout;
 				// queue the new timeout message
 				pushCommand(CMD.SETTIMEOUT, newTimeout / 4);
+				// remember learned timeout for next connection
+				if (learnedEntry != null)
+				{
+					learnedEntry.timeout = newTimeout;
+					cacheConnection();
+				}
 			}
 		}
 	}
@@ -468,6 +611,8 @@ public class ElmProt
 	{
 		log.info(String.format("Set ECU address: 0x%x", ecuAddress));
 		selectedEcuAddress = ecuAddress;
+		// latencies depend on selected ECU
+		mAdaptiveTiming.selectHistogram();
 		// ensure headers are off
 		pushCommand(CMD.SETHEADER, 0);
 		// set/clear RX filter
@@ -475,6 +620,33 @@ public class ElmProt
 			selectedEcuAddress);
 	}
 	
+	/**
+	 * set cache of connection settings to start new connections from
+	 * - the most recent cached connection of the adapter is verified with
+	 *   a single request
+	 * - if the responding ECUs do not match, a cached connection of another
+	 *   vehicle with matching ECUs is used, otherwise full discovery is done
+	 *
+	 * @param cache     connection cache, null to always do full discovery
+	 * @param adapterId ID of connected adapter
+	 */
+	public void setConnectionCache(ConnectionCache cache, String adapterId)
+	{
+		connectionCache = cache;
+		this.adapterId = (adapterId != null) ? adapterId : "";
+	}
+	
+	/**
+	 * store settings of current connection to connection cache
+	 */
+	private void cacheConnection()
+	{
+		if (connectionCache != null && learnedEntry != null && learnedEntry.isComplete())
+		{
+			connectionCache.put(learnedEntry);
+		}
+	}
+	
 	/**
 	 * disable a set of ELM commands ELM commands from preference
 	 *
@@ -499,7 +671,8 @@ public class ElmProt
 	private String createCommand(CMD cmdID, int param)
 	{
 		String cmd = null;
-		if (cmdID.isEnabled())
+		if (cmdID.isEnabled()
+		    && (learnedEntry == null || !learnedEntry.unsupportedCmds.contains(cmdID.name())))
 		{
 			cmd = cmdID.toString();
 			// if parameter is required and provided, add parameter to command
@@ -513,6 +686,51 @@ public class ElmProt
 		return cmd;
 	}
 	
+	/**
+	 * get ID of ELM command from command string
+	 *
+	 * @param command command string
+	 * @return ID of ELM command, null if this is no ELM command
+	 */
+	private static CMD getCommandId(String command)
+	{
+		String cmd = command.replace(" ", "").toUpperCase(Locale.ROOT);
+		for (CMD cmdID : CMD.values())
+		{
+			String name = cmdID.toString();
+			if (cmd.startsWith(name) && cmd.length() == name.length() + cmdID.paramDigits)
+			{
+				return cmdID;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * handle command which was rejected by the adapter
+	 * - a command which is rejected twice is not supported by the adapter,
+	 *   and will not be sent to this adapter any more
+	 *
+	 * @param command rejected command
+	 */
+	private void commandRejected(String command)
+	{
+		// rejected command is not in effect
+		cmdQueue.rejected(command);
+		
+		CMD cmdID = getCommandId(command);
+		if (cmdID == null || !cmdID.isDisablingAllowed() || learnedEntry == null)
+		{
+			return;
+		}
+		if (!rejectedCmds.add(cmdID.name()))
+		{
+			log.info(String.format("ELM command '%s' not supported by adapter", cmdID));
+			learnedEntry.unsupportedCmds.add(cmdID.name());
+			cacheConnection();
+		}
+	}
+	
 	/**
 	 * send command to ELM adapter
 	 *
@@ -543,6 +761,14 @@ public class ElmProt
 	{
 		log.fine(this.toString() + " TX:'" + String.valueOf(buffer) + "'");
 		lastCommand = buffer;
+		idle = false;
+		// keep track of adapter settings
+		cmdQueue.sent(String.valueOf(buffer));
+		// measure latency of vehicle requests (no adapter commands)
+		if (buffer.length > 0 && !String.valueOf(buffer).toUpperCase().startsWith("AT"))
+		{
+			mAdaptiveTiming.requestSent();
+		}
 		super.sendTelegram(buffer);
 	}
 	
@@ -581,6 +807,10 @@ public class ElmProt
 	{
 		// reset all learned protocol data
 		super.reset();
+		learnedEntry = null;
+		warmStart = false;
+		// pending single requests will not be answered any more
+		cancelRequests();
 		// either RESET or INFO command needs to be enabled
 		if (CMD.RESET.isEnabled())
 		{ sendCommand(CMD.RESET, 0); }
@@ -599,6 +829,7 @@ public class ElmProt
 		
 		// clear all identified ECU addresses
 		ecuAddresses.clear();
+		ecuResponses.clear();
 		// clear selected ECU
 		selectedEcuAddress = 0;
 		// remember to disable headers again
@@ -614,11 +845,18 @@ public class ElmProt
 		// set status to INITIALIZING
 		setStatus(STAT.INITIALIZING);
 		
+		// adapter settings are unknown after adapter reset
+		cmdQueue.invalidate();
+		
+		// start from cached connection of this adapter, if available
+		startConnection(connectionCache != null ? connectionCache.get(adapterId) : null);
+		
 		// push custom init commands
 		cmdQueue.addAll(customInitCommands);
 		
-		// set to preferred protocol
-		pushCommand(CMD.SETPROT, preferredProtocol.ordinal());
+		// set to preferred protocol (or protocol of cached connection)
+		pushCommand(CMD.SETPROT,
+		            warmStart ? learnedEntry.protocol : preferredProtocol.ordinal());
 		
 		// initialize adaptive timing handler
 		mAdaptiveTiming.initialize();
@@ -631,6 +869,332 @@ public class ElmProt
 		pushCommand(CMD.ECHO, 0);
 	}
 	
+	/**
+	 * start learning settings of a new connection
+	 *
+	 * @param cachedEntry cached settings to start from, null for full discovery
+	 */
+	private void startConnection(ConnectionCache.Entry cachedEntry)
+	{
+		protocolQueried = false;
+		rejectedCmds.clear();
+		setKnownPidMasks(null);
+		// a cached protocol must not override a configured one
+		warmStart = cachedEntry != null
+		            && (preferredProtocol == PROT.ELM_PROT_AUTO
+		                || cachedEntry.protocol == preferredProtocol.ordinal());
+		if (warmStart)
+		{
+			log.info("Starting from cached connection: " + cachedEntry);
+			learnedEntry = cachedEntry;
+		}
+		else if (connectionCache != null)
+		{
+			ConnectionCache.Entry entry = new ConnectionCache.Entry(adapterId);
+			// adapter capabilities do not depend on vehicle
+			if (learnedEntry != null)
+			{
+				entry.unsupportedCmds.addAll(learnedEntry.unsupportedCmds);
+			}
+			else if (cachedEntry != null)
+			{
+				entry.unsupportedCmds.addAll(cachedEntry.unsupportedCmds);
+			}
+			if (preferredProtocol != PROT.ELM_PROT_AUTO)
+			{
+				entry.protocol = preferredProtocol.ordinal();
+			}
+			learnedEntry = entry;
+		}
+		else
+		{
+			learnedEntry = null;
+		}
+	}
+	
+	/**
+	 * discard cached settings which do not match the vehicle
+	 * and start full discovery
+	 */
+	private void discardWarmStart()
+	{
+		log.info("Cached connection does not match -> full discovery");
+		startConnection(null);
+		setStatus(STAT.INITIALIZING);
+		// queue setting to preferred protocol
+		pushCommand(CMD.SETPROT, preferredProtocol.ordinal());
+		// Initialize adaptive timing
+		mAdaptiveTiming.initialize();
+		// immediately close current protocol
+		sendCommand(CMD.PROTOCLOSE, 0);
+	}
+	
+	/**
+	 * finish ECU detection with respect to cached connection settings
+	 * - verify cached settings against responses of detected ECUs
+	 * - request detected protocol to be cached
+	 *
+	 * @return true if detection is finished, false if further requests are pending
+	 */
+	private boolean finishEcuDetection()
+	{
+		if (learnedEntry == null)
+		{
+			return true;
+		}
+		if (warmStart)
+		{
+			if (!learnedEntry.ecus.equals(ecuResponses))
+			{
+				// another vehicle, which was connected with this adapter before?
+				ConnectionCache.Entry entry = connectionCache.get(adapterId,
+				                                                  learnedEntry.protocol,
+				                                                  ecuResponses);
+				if (entry == null)
+				{
+					discardWarmStart();
+					return false;
+				}
+				// adapter capabilities do not depend on vehicle
+				entry.unsupportedCmds.addAll(learnedEntry.unsupportedCmds);
+				learnedEntry = entry;
+			}
+			log.info("Cached connection verified: " + learnedEntry);
+			warmStart = false;
+			// PIDs supported by the vehicle are known already
+			if (!learnedEntry.pidMasks.isEmpty())
+			{
+				setKnownPidMasks(learnedEntry.pidMasks);
+			}
+		}
+		else
+		{
+			// request detected protocol once
+			if (learnedEntry.protocol < 0 && !protocolQueried)
+			{
+				protocolQueried = true;
+				String cmd = createCommand(CMD.GETPROTNUM, 0);
+				if (cmd != null)
+				{
+					sendTelegram(cmd.toCharArray());
+					return false;
+				}
+			}
+			learnedEntry.ecus.clear();
+			learnedEntry.ecus.putAll(ecuResponses);
+		}
+		cacheConnection();
+		return true;
+	}
+	
+	/**
+	 * handle response to protocol number request
+	 * (prefix 'A' indicates automatically detected protocol)
+	 *
+	 * @param response response of adapter
+	 */
+	private void handleProtocolNumber(String response)
+	{
+		int protocol = Character.digit(response.charAt(response.length() - 1), 16);
+		if (learnedEntry != null && protocol > 0 && protocol < PROT.values().length)
+		{
+			log.info("Detected protocol: " + PROT.values()[protocol]);
+			learnedEntry.protocol = protocol;
+		}
+	}
+	
+	@Override
+	protected void supportedPidsKnown(SortedMap<Integer, Long> bitmasks)
+	{
+		if (learnedEntry != null)
+		{
+			learnedEntry.pidMasks.clear();
+			learnedEntry.pidMasks.putAll(bitmasks);
+			cacheConnection();
+		}
+	}
+	
+	@Override
+	protected void vinKnown(String vin)
+	{
+		if (learnedEntry != null && !vin.equals(learnedEntry.vin))
+		{
+			log.info("VIN: " + vin);
+			learnedEntry.vin = vin;
+			cacheConnection();
+		}
+	}
+	
+	/**
+	 * send single request to vehicle, interleaved into running service loop
+	 * - the current service and its data lists stay untouched
+	 * - the response is not forwarded to the current service
+	 *
+	 * @param service  OBD service
+	 * @param pid      PID, -1 for services without PID
+	 * @param priority request priority
+	 * @param timeout  max. time [ms] to wait for response, 0 = no timeout
+	 * @return pending request
+	 */
+	public synchronized ObdRequest request(int service, int pid,
+	                                       ObdRequest.Priority priority, long timeout)
+	{
+		ObdRequest request = new ObdRequest(service, pid, priority, timeout);
+		log.fine("Request queued: " + request.getCommand());
+		pendingRequests.add(request);
+		// nothing is running -> send immediately
+		if (idle)
+		{
+			sendNextRequest();
+		}
+		return request;
+	}
+	
+	/**
+	 * forward positive response of single request to OBD protocol,
+	 * as if it was received within the service loop
+	 * - updates data items (e.g. VIN) and trouble code list
+	 *
+	 * @param request finished single request
+	 */
+	public synchronized void forwardResponse(ObdRequest request)
+	{
+		for (String response : request.getResponses())
+		{
+			super.handleTelegram(response.toCharArray());
+		}
+	}
+	
+	/**
+	 * send next due single request
+	 *
+	 * @return true if a request was sent, false otherwise
+	 */
+	private boolean sendNextRequest()
+	{
+		// requests only interrupt continuous services
+		boolean polling = service == OBD_SVC_DATA
+		                  || service == OBD_SVC_FREEZEFRAME
+		                  || (service == OBD_SVC_VEH_INFO && !pidsWrapped);
+		long now = System.currentTimeMillis();
+		ObdRequest next = null;
+		for (ObdRequest request : pendingRequests.toArray(new ObdRequest[0]))
+		{
+			if (request.isExpired(now))
+			{
+				request.complete(ObdRequest.Result.TIMEOUT, null, 0);
+			}
+			if (request.isDone())
+			{
+				pendingRequests.remove(request);
+			}
+			else if (next == null || request.priority.compareTo(next.priority) < 0)
+			{
+				next = request;
+			}
+		}
+		pollSlot++;
+		if (next == null
+		    || (polling && pollSlot % next.priority.interval != 0))
+		{
+			return false;
+		}
+		pendingRequests.remove(next);
+		activeRequest = next;
+		sendTelegram(next.getCommand().toCharArray());
+		return true;
+	}
+	
+	/**
+	 * handle response message to active single request
+	 * - all responses up to the prompt are collected (multiple ECUs and
+	 *   response lines), the request is finished on reception of the prompt
+	 *
+	 * @param message response message
+	 * @return true if message belongs to active request, false otherwise
+	 */
+	private boolean handleRequestResponse(String message)
+	{
+		try
+		{
+			int msgService = Integer.parseInt(message.substring(0, 2), 16);
+			if (msgService == 0x7F)
+			{
+				// negative response
+				if (Integer.parseInt(message.substring(2, 4), 16) != activeRequest.service)
+				{
+					return false;
+				}
+				activeRequest.addNegativeResponse(Integer.parseInt(message.substring(4, 6), 16));
+				return true;
+			}
+			if (msgService != (activeRequest.service | 0x40))
+			{
+				return false;
+			}
+			int ofs = 2;
+			if (activeRequest.pid >= 0)
+			{
+				if (Integer.parseInt(message.substring(2, 4), 16) != activeRequest.pid)
+				{
+					return false;
+				}
+				ofs = 4;
+			}
+			activeRequest.addResponse(hexToBytes(message.substring(ofs)));
+			return true;
+		}
+		catch (RuntimeException ex)
+		{
+			// no OBD response
+			return false;
+		}
+	}
+	
+	/**
+	 * finish active single request on end of response
+	 */
+	private void finishActiveRequest()
+	{
+		// handle pending multiline response now
+		if (responsePending)
+		{
+			responsePending = false;
+			handleDataMessage(lastRxMsg);
+		}
+		ObdRequest request = activeRequest;
+		activeRequest = null;
+		RSP_ID rspId = getResponseId(lastRxMsg);
+		if (rspId == RSP_ID.NODATA)
+		{
+			request.finish(ObdRequest.Result.NODATA);
+			// missing data of single request does not affect service loop
+			lastRxMsg = RSP_ID.OK.toString();
+		}
+		else
+		{
+			request.finish(ObdRequest.Result.ERROR);
+		}
+		log.fine("Request finished: " + request);
+	}
+	
+	/**
+	 * cancel all pending single requests
+	 */
+	private void cancelRequests()
+	{
+		for (ObdRequest request : pendingRequests.toArray(new ObdRequest[0]))
+		{
+			request.cancel();
+		}
+		pendingRequests.clear();
+		if (activeRequest != null)
+		{
+			activeRequest.cancel();
+			activeRequest = null;
+		}
+	}
+	
 	/**
 	 * Implementation of TelegramListener
 	 */
@@ -677,6 +1241,12 @@ public class ElmProt
 				setStatus(status != STAT.ECU_DETECT ? STAT.CONNECTING : status);
 				// NO break here
 			case QMARK:
+				// rejected command is not in effect
+				if (lastCommand != null && getResponseId(bufferStr) == RSP_ID.QMARK)
+				{
+					commandRejected(String.valueOf(lastCommand));
+				}
+				// NO break here
 			case NODATA:
 			case OK:
 			case ERROR:
@@ -710,6 +1280,12 @@ public class ElmProt
 			
 			// received a PROMPT, what was the last response?
 			case PROMPT:
+				idle = true;
+				// response to single request is complete
+				if (activeRequest != null)
+				{
+					finishActiveRequest();
+				}
 				// check for last received message
 				switch (getResponseId(lastRxMsg))
 				{
@@ -722,6 +1298,12 @@ public class ElmProt
 					case BUSINIERR3:
 					case BUSBUSY:
 					case FBERROR:
+						// cached protocol does not work -> full discovery
+						if (warmStart && status == STAT.ECU_DETECT)
+						{
+							discardWarmStart();
+							break;
+						}
 						setStatus(STAT.DISCONNECTED);
 						// re-queue last command
 						cmdQueue.add(String.valueOf(lastCommand));
@@ -751,6 +1333,8 @@ public class ElmProt
 
 					case NODATA:
 						setStatus(STAT.NODATA);
+						// requested PID did not deliver data -> re-probe later
+						ObdPid dormantPid = markPidDormant(lastTxMsg);
 						// re-queue next data item
 						if (service != OBD_SVC_NONE)
 						{
@@ -760,7 +1344,11 @@ public class ElmProt
 							);
 						}
 						// increase OBD timeout since we may expect answers too fast
-						mAdaptiveTiming.adapt(true);
+						// (PIDs which never answered are dead, not too slow)
+						if (dormantPid == null || dormantPid.hasAnswered())
+						{
+							mAdaptiveTiming.responseMissing();
+						}
 						// set to preferred protocol
 						pushCommand(CMD.SETPROT, preferredProtocol.ordinal());
 						// NO break here since reaction is only quqeued
@@ -781,12 +1369,9 @@ public class ElmProt
 						}
 						
 						// queued commands will be sent first
-						if (cmdQueue.size() > 0)
+						String cmd = cmdQueue.poll();
+						if (cmd != null)
 						{
-							// get last command
-							String cmd = cmdQueue.lastElement();
-							// and remove it from list
-							cmdQueue.remove(cmd);
 							// send the command
 							sendTelegram(cmd.toCharArray());
 						}
@@ -803,8 +1388,18 @@ public class ElmProt
 							}
 							
 							// all queued commands are sent -> we are done detecting ECUs
+							if (status == STAT.ECU_DETECT && !finishEcuDetection())
+							{
+								break;
+							}
 							setStatus(status == STAT.ECU_DETECT ? STAT.ECU_DETECTED : status);
 							
+							// single requests take over poll slots
+							if (sendNextRequest())
+							{
+								break;
+							}
+							
 							switch (service)
 							{
 								case OBD_SVC_VEH_INFO:
@@ -820,8 +1415,6 @@ public class ElmProt
 								{
 									// otherwise the next PID will be requested
 									writeTelegram(emptyBuffer, service, getNextSupportedPid());
-									// reduce OBD timeout towards minimum limit
-									mAdaptiveTiming.adapt(false);
 								}
 								break;
 								
@@ -835,6 +1428,16 @@ public class ElmProt
 			
 			// handle data response
 			default:
+				// response to protocol number request
+				if (lastCommand != null
+				    && CMD.GETPROTNUM.toString().equalsIgnoreCase(String.valueOf(lastCommand)))
+				{
+					handleProtocolNumber(bufferStr);
+					lastRxMsg = bufferStr;
+					return result;
+				}
+				// first response to request determines latency
+				mAdaptiveTiming.responseReceived(getRxTime());
 				// if we are still initializing check for address entries
 				switch (status)
 				{
@@ -892,6 +1495,7 @@ public class ElmProt
 							log.fine(String.format("Found ECU address: 0x%s", address));
 							// and add to list of addresses
 							ecuAddresses.add(Integer.valueOf(address, 16));
+							ecuResponses.put(Integer.valueOf(address, 16), bufferStr.substring(adrEnd));
 						}
 						return lastRxMsg.length();
 					}
@@ -926,8 +1530,9 @@ public class ElmProt
 				{
 					final int[] dfcServices = {OBD_SVC_READ_CODES, OBD_SVC_PENDINGCODES, OBD_SVC_PERMACODES};
 					int msgService = Integer.valueOf(bufferStr.substring(0, 2), 0x10) & ~0x40;
-					// If response to current service and no DFC response ...
-					if(msgService == getService()
+					// If response to current service (or request) and no DFC response ...
+					if((msgService == getService()
+					    || (activeRequest != null && msgService == activeRequest.service))
 					   && Arrays.binarySearch(dfcServices, msgService) < 0)
 					{
 						// Use header on 1st response, cut from continuation messages
@@ -1000,6 +1605,12 @@ public class ElmProt
 	{
 		int result = 0;
 		
+		// response to single request is not forwarded to current service
+		if (activeRequest != null && handleRequestResponse(lastRxMsg))
+		{
+			return lastRxMsg.length();
+		}
+		
 		// otherwise process response
 		switch (service)
 		{
@@ -1008,7 +1619,7 @@ public class ElmProt
 				break;
 			
 			case OBD_SVC_CAN_MONITOR:
-				result = canProt.handleTelegram(lastRxMsg.toCharArray());
+				result = canProt.handleTelegram(lastRxMsg.toCharArray(), getRxTime());
 				break;
 			
 			default:
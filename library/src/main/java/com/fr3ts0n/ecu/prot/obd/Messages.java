@@ -9,6 +9,8 @@ public class Messages
 {
 	private static final String BUNDLE_NAME = "com.fr3ts0n.ecu.prot.obd.res.messages"; //$NON-NLS-1$
 	private static ResourceBundle RESOURCE_BUNDLE;
+	/** generation of messages, incremented on every (re-)initialisation */
+	private static volatile int generation = 0;
 
 	public Messages()
 	{
@@ -23,6 +25,18 @@ public class Messages
 	public static void init(String bundleName)
 	{
         RESOURCE_BUNDLE = UTF8Bundle.getBundle(bundleName);
+        generation++;
+	}
+
+	/**
+	 * get generation of messages
+	 * - allows users to detect changes of messages
+	 *
+	 * @return generation of messages
+	 */
+	public static int getGeneration()
+	{
+		return generation;
 	}
 
 	public static String getString(String key, String defaultString)
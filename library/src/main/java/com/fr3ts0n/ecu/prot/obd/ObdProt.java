@@ -19,7 +19,10 @@
 
 package com.fr3ts0n.ecu.prot.obd;
 
+import com.fr3ts0n.ecu.AlertRules;
 import com.fr3ts0n.ecu.Conversion;
+import com.fr3ts0n.ecu.DerivedDataItem;
+import com.fr3ts0n.ecu.DerivedDataItems;
 import com.fr3ts0n.ecu.EcuCodeItem;
 import com.fr3ts0n.ecu.EcuCodeList;
 import com.fr3ts0n.ecu.EcuConversions;
@@ -38,6 +41,9 @@ import java.beans.PropertyChangeEvent;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.Vector;
 
 /**
@@ -168,6 +174,8 @@ public class ObdProt extends ProtoHeader
     /** property name "number of codes" */
     public static final String PROP_NUM_CODES = "numCodes";
     public static final String PROP_NRC = "NRC";
+    /** property name "number of dormant PIDs" */
+    public static final String PROP_DORMANT_PIDS = "dormantPids";
 
     // current supported PID
     private static int currSupportedPid = 0;
@@ -184,6 +192,12 @@ public class ObdProt extends ProtoHeader
 
     /** List of PIDs supported by the vehicle */
     private static final Vector<ObdPid> pidSupported = new Vector<ObdPid>();
+    /** supported PID bitmasks of service 01 received from vehicle by start PID */
+    private final TreeMap<Integer, Long> supportedPidMasks = new TreeMap<Integer, Long>();
+    /** known supported PID bitmasks of service 01 (null = request from vehicle) */
+    private SortedMap<Integer, Long> knownPidMasks = null;
+    /** mnemonic of vehicle identification number */
+    static final String MNEMONIC_VIN = "vehicle_identification_number";
 
     /** positive response fields */
     private static final int ID_OBD_SVC = 0;
@@ -257,6 +271,11 @@ public class ObdProt extends ProtoHeader
 
     /** new style data items */
     public static final EcuDataItems dataItems = new EcuDataItems();
+    /** derived data items (virtual PIDs) calculated from OBD data items */
+    public static final DerivedDataItems derivedItems =
+        new DerivedDataItems("prot/obd/res/derived_pids.csv");
+    /** alert rules for OBD data items */
+    public static final AlertRules alertRules = new AlertRules("prot/obd/res/alerts.csv");
 
     /** OBD data items */
     public static PvList PidPvs = new PvList();
@@ -267,7 +286,7 @@ public class ObdProt extends ProtoHeader
     /** list of known fault codes */
     private static final EcuCodeList knownCodes = EcuConversions.codeList;
     /** queue of ELM commands to be sent */
-    static final Vector<String> cmdQueue = new Vector<String>();
+    static final ElmCommandQueue cmdQueue = new ElmCommandQueue();
     /** freeze frame ID to request */
     private int freezeFrame_Id = 0;
     /** perform reset on NRC reception */
@@ -412,7 +431,7 @@ public class ObdProt extends ProtoHeader
         HashMap<String, EcuDataPv> newList = new HashMap<String, EcuDataPv>();
         for (ObdPid currPid : pidSupported)
         {
-            Vector<EcuDataItem> items = dataItems.getPidDataItems(obdService, currPid.intValue());
+            EcuDataItem[] items = dataItems.getPidItems(obdService, currPid.intValue());
             // if no items defined, create dummy item
             if (items == null)
             {
@@ -428,17 +447,25 @@ public class ObdProt extends ProtoHeader
                 dataItems.appendItemToService(obdService, newItem);
 
                 // re-load data items for this PID
-                items = dataItems.getPidDataItems(obdService, currPid.intValue());
+                items = dataItems.getPidItems(obdService, currPid.intValue());
             }
             // loop through all items found ...
             for (EcuDataItem pidPv : items)
             {
                 if (pidPv != null)
                 {
-                    newList.put(pidPv.toString(), pidPv.pv);
+                    newList.put(pidPv.toString(), pidPv.getPv());
                 }
             }
         }
+        // add derived items which may be calculated from supported data items
+        if (obdService == OBD_SVC_DATA)
+        {
+            for (DerivedDataItem item : derivedItems.getAvailableItems(newList.values()))
+            {
+                newList.put(item.toString(), item.getPv());
+            }
+        }
         pvList.putAll(newList, PvChangeEvent.PV_ADDED, false);
     }
 
@@ -456,20 +483,22 @@ public class ObdProt extends ProtoHeader
         if( start == 0)
         {
             pidSupported.clear();
+            supportedPidMasks.clear();
         }
 
         // loop through bits and mark corresponding PIDs as supported
-        for (int i = 0; i < 0x1F; i++)
+        addSupportedPids(start, bitmask);
+        // remember bitmasks of service 01 (multiple ECUs may respond)
+        if (obdService == OBD_SVC_DATA)
         {
-            if ((bitmask & (0x80000000L >> i)) != 0)
-            {
-                pidSupported.add(new ObdPid(i + start + 1));
-            }
+            Long known = supportedPidMasks.get(start);
+            supportedPidMasks.put(start, (known != null) ? known | bitmask : bitmask);
         }
 
         log.fine(Long.toHexString(bitmask).toUpperCase()
                      + "(" + Long.toHexString(start) + "):"
                      + pidSupported);
+        updateNumDormantPids();
 
         // if next block may be requested
         if ((bitmask & 1) != 0)
@@ -481,11 +510,102 @@ public class ObdProt extends ProtoHeader
         {
             // setup PID PVs
             preparePidPvs(obdService, pvList);
+            if (obdService == OBD_SVC_DATA)
+            {
+                supportedPidsKnown(new TreeMap<Integer, Long>(supportedPidMasks));
+            }
+        }
+    }
+
+    /**
+     * add PIDs which are indicated as supported by a bitmask
+     * @param start Start PID (multiple of 0x20) to process bitmask for
+     * @param bitmask 32-Bit bitmask which indicates support for the next 32 PIDs
+     */
+    private static void addSupportedPids(int start, long bitmask)
+    {
+        for (int i = 0; i < 0x1F; i++)
+        {
+            if ((bitmask & (0x80000000L >> i)) != 0)
+            {
+                pidSupported.add(new ObdPid(i + start + 1));
+            }
+        }
+    }
+
+    /**
+     * restore PIDs supported by the vehicle from known bitmasks
+     * (instead of requesting them from the vehicle)
+     * @param obdService OBD service to restore PIDs for
+     * @param bitmasks supported PID bitmasks by start PID
+     * @param pvList list of process vars
+     */
+    private synchronized void restoreSupportedPids(int obdService,
+                                                   SortedMap<Integer, Long> bitmasks,
+                                                   PvList pvList)
+    {
+        currSupportedPid = 0;
+        pidSupported.clear();
+        for (Map.Entry<Integer, Long> mask : bitmasks.entrySet())
+        {
+            addSupportedPids(mask.getKey(), mask.getValue());
+        }
+        log.info("Supported PIDs restored: " + pidSupported);
+        updateNumDormantPids();
+        preparePidPvs(obdService, pvList);
+    }
+
+    /**
+     * Set known supported PID bitmasks of service 01
+     * - service 01 will use these instead of requesting them from the vehicle
+     * @param bitmasks supported PID bitmasks by start PID, null to request them
+     */
+    void setKnownPidMasks(SortedMap<Integer, Long> bitmasks)
+    {
+        knownPidMasks = bitmasks;
+    }
+
+    /**
+     * supported PIDs of service 01 have been received from vehicle
+     * @param bitmasks supported PID bitmasks by start PID
+     */
+    protected void supportedPidsKnown(SortedMap<Integer, Long> bitmasks)
+    {
+    }
+
+    /**
+     * vehicle identification number has been received from vehicle
+     * @param vin vehicle identification number
+     */
+    protected void vinKnown(String vin)
+    {
+    }
+
+    /**
+     * check if vehicle identification number was received with PID
+     * @param pid PID of service 09 which was received
+     */
+    private void checkVin(int pid)
+    {
+        EcuDataItem[] items = dataItems.getPidItems(OBD_SVC_VEH_INFO, pid);
+        if (items == null) { return; }
+        for (EcuDataItem item : items)
+        {
+            if (item != null && MNEMONIC_VIN.equals(item.getPv().get(EcuDataPv.FID_MNEMONIC)))
+            {
+                Object vin = item.getPv().get(EcuDataPv.FID_VALUE);
+                if (vin != null && String.valueOf(vin).trim().length() > 0)
+                {
+                    vinKnown(String.valueOf(vin).trim());
+                }
+            }
         }
     }
 
     /** Holds value of property numCodes. */
     private int numCodes;
+    /** Holds value of property numDormantPids. */
+    private int numDormantPids;
 
     /** fixed PIDs to limit PID loop to single access */
     private static final Vector<ObdPid> fixedPids = new Vector<ObdPid>();
@@ -597,6 +717,9 @@ public class ObdProt extends ProtoHeader
                             break;
                             
                         case SKIP:
+                            // requested PID is not available -> re-probe later
+                            markPidDormant(lastTxMsg);
+                            // no break here ...
                         case IGNORE:
                         default:
                             // Intentionally do noting
@@ -643,15 +766,31 @@ public class ObdProt extends ProtoHeader
                                     dataItems.updateDataItems(msgService,
                                                             msgPid,
                                                             hexToBytes(String.valueOf(
-                                                                    getPayLoad(buffer))));
+                                                                    getPayLoad(buffer))),
+                                                            getRxTime());
+                                double changeRate = dataItems.getChangeRate(msgService, msgPid);
+                                boolean changing = dataItems.isChanging(msgService, msgPid);
+                                /* PIDs with all items disabled do not deliver data */
+                                boolean disabled = dataItems.isPidDisabled(msgService, msgPid);
                                 /* Update expected request timestamp for PID */
                                 for( ObdPid pid : pidSupported)
                                 {
                                     if(pid.intValue()==msgPid)
                                     {
-                                        pid.setNextRequest(System.currentTimeMillis()+updatePeriod);
+                                        if (disabled)
+                                        {
+                                            pid.setDormant(System.currentTimeMillis());
+                                            continue;
+                                        }
+                                        pid.setAlive();
+                                        /* explicitly selected PIDs keep their base period */
+                                        long period = fixedPids.contains(pid)
+                                                      ? updatePeriod
+                                                      : pid.adaptRequestPeriod(updatePeriod, changeRate, changing);
+                                        pid.setNextRequest(System.currentTimeMillis()+period);
                                     }
                                 }
+                                updateNumDormantPids();
                                 break;
                         }
                         break;
@@ -681,7 +820,8 @@ public class ObdProt extends ProtoHeader
                                     dataItems.updateDataItems(msgService,
                                                                 msgPid,
                                                                 hexToBytes(String.valueOf(
-                                                                        getPayLoad(buffer))));
+                                                                        getPayLoad(buffer))),
+                                                                getRxTime());
                                 /* Update expected request timestamp for PID */
                                 for( ObdPid pid : pidSupported)
                                 {
@@ -690,6 +830,10 @@ public class ObdProt extends ProtoHeader
                                         pid.setNextRequest(System.currentTimeMillis()+updatePeriod);
                                     }
                                 }
+                                if (msgService == OBD_SVC_VEH_INFO)
+                                {
+                                    checkVin(msgPid);
+                                }
                                 break;
                         }
                         break;
@@ -775,6 +919,78 @@ public class ObdProt extends ProtoHeader
         super.sendTelegram(buffer);
     }
 
+    /**
+     * mark requested PID as dormant since the request did not deliver data
+     *
+     * @param request request telegram which did not deliver data
+     * @return dormant PID, or null if request was no PID data request
+     */
+    synchronized ObdPid markPidDormant(String request)
+    {
+        ObdPid result = null;
+        if (request.length() >= 4
+            && (service == OBD_SVC_DATA || service == OBD_SVC_FREEZEFRAME))
+        {
+            try
+            {
+                int svc = Integer.parseInt(request.substring(0, 2), 16);
+                int pidCode = Integer.parseInt(request.substring(2, 4), 16);
+                if (svc == service)
+                {
+                    for (ObdPid pid : pidSupported)
+                    {
+                        if (pid.intValue() == pidCode)
+                        {
+                            long delay = pid.setDormant(System.currentTimeMillis());
+                            log.fine(String.format("PID %s dormant, re-probe in %d ms", pid, delay));
+                            result = pid;
+                        }
+                    }
+                }
+            }
+            catch (NumberFormatException ex)
+            {
+                /* no data request */
+            }
+        }
+        updateNumDormantPids();
+        return result;
+    }
+
+    /**
+     * Getter for property numDormantPids.
+     * @return number of currently dormant PIDs
+     */
+    public int getNumDormantPids()
+    {
+        return numDormantPids;
+    }
+
+    /**
+     * update property numDormantPids from list of supported PIDs
+     */
+    private void updateNumDormantPids()
+    {
+        int old = numDormantPids;
+        int count = 0;
+        for (ObdPid pid : pidSupported)
+        {
+            if (pid.isDormant())
+            {
+                count++;
+            }
+        }
+        numDormantPids = count;
+        if (count != old)
+        {
+            log.info(String.format("Dormant PIDs: %d/%d", count, pidSupported.size()));
+            firePropertyChange(new PropertyChangeEvent(this,
+                                                       PROP_DORMANT_PIDS,
+                                                       Integer.valueOf(old),
+                                                       Integer.valueOf(count)));
+        }
+    }
+
     /**
      * Getter for property numCodes.
      * @return Value of property numCodes.
@@ -818,12 +1034,23 @@ public class ObdProt extends ProtoHeader
         cmdQueue.clear();
         // clear supported PIDs
         pidSupported.clear();
+        knownPidMasks = null;
         // reset fixed PIDs
         resetFixedPid();
         // Clear data items
         PidPvs.clear();
         tCodes.clear();
         VidPvs.clear();
+        // start new trip statistics
+        dataItems.resetStatistics();
+        alertRules.reset();
+        for (DerivedDataItem item : derivedItems)
+        {
+            if (item.hasPv())
+            {
+                item.getPv().getStatistics().reset();
+            }
+        }
     }
 
     /**
@@ -882,6 +1109,14 @@ public class ObdProt extends ProtoHeader
                 break;
 
             case OBD_SVC_DATA:
+                // supported PIDs are already known -> request data immediately
+                if (knownPidMasks != null && clearLists)
+                {
+                    restoreSupportedPids(obdService, knownPidMasks, PidPvs);
+                    writeTelegram(emptyBuffer, obdService, getNextSupportedPid());
+                    break;
+                }
+                // no break here ...
             case OBD_SVC_FREEZEFRAME:
             case OBD_SVC_CTRL_MODE:
             case OBD_SVC_VEH_INFO:
@@ -0,0 +1,404 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.ecu.prot.obd;
+
+import com.fr3ts0n.ecu.EcuDataItem;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Single OBD request which is interleaved into the running service loop
+ *
+ * The request is answered asynchronously, the result may be waited for
+ * with {@link #get(long)}, or handled by a callback.
+ * Callbacks are called by the communication thread and shall return quickly.
+ *
+ * @author erwin
+ */
+public class ObdRequest
+{
+	/**
+	 * Request priority (lane)
+	 * - requests are sent in poll slots of the running service loop
+	 */
+	public enum Priority
+	{
+		HIGH(1),   ///< sent in next poll slot
+		NORMAL(2), ///< sent in every 2nd poll slot
+		LOW(4);    ///< sent in every 4th poll slot
+
+		/** poll slot interval for this priority */
+		final int interval;
+
+		Priority(int interval)
+		{
+			this.interval = interval;
+		}
+	}
+
+	/** Request results */
+	public enum Result
+	{
+		OK,        ///< positive response received
+		NEGATIVE,  ///< negative response received, see NRC
+		NODATA,    ///< no response from vehicle
+		ERROR,     ///< error response from adapter
+		TIMEOUT,   ///< request was not answered in time
+		CANCELLED  ///< request was cancelled
+	}
+
+	/**
+	 * Callback for finished requests
+	 */
+	public interface Callback
+	{
+		/**
+		 * Request has been finished
+		 *
+		 * @param request finished request
+		 */
+		void requestDone(ObdRequest request);
+	}
+
+	/** OBD service */
+	final int service;
+	/** PID, -1 for services without PID */
+	final int pid;
+	/** request priority */
+	final Priority priority;
+	/** time [ms] until request has to be answered, 0 = no timeout */
+	private final long deadline;
+	/** request result, null as long as request is pending */
+	private Result result = null;
+	/** response payload (data bytes after service and PID) */
+	private char[] payload = null;
+	/** negative response code */
+	private int nrc = 0;
+	/** payloads of all positive responses (e.g. of multiple ECUs) */
+	private final Vector<char[]> payloads = new Vector<>();
+	/** negative response code received while request is pending, 0 if none */
+	private int pendingNrc = 0;
+	/** callbacks to be notified on finished request */
+	private final Vector<Callback> callbacks = new Vector<>();
+
+	/**
+	 * create new request
+	 *
+	 * @param service  OBD service
+	 * @param pid      PID, -1 for services without PID
+	 * @param priority request priority
+	 * @param timeout  max. time [ms] to wait for response, 0 = no timeout
+	 */
+	ObdRequest(int service, int pid, Priority priority, long timeout)
+	{
+		this.service = service;
+		this.pid = pid;
+		this.priority = priority;
+		deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : 0;
+	}
+
+	/**
+	 * get request command to be sent
+	 *
+	 * @return request command
+	 */
+	String getCommand()
+	{
+		return (pid >= 0) ? String.format("%02X%02X", service, pid)
+		                  : String.format("%02X", service);
+	}
+
+	/**
+	 * check if request has timed out
+	 *
+	 * @param time current time [ms]
+	 * @return true if request was not answered in time
+	 */
+	boolean isExpired(long time)
+	{
+		return deadline != 0 && time > deadline;
+	}
+
+	/**
+	 * add positive response of pending request
+	 *
+	 * @param payload response payload
+	 */
+	synchronized void addResponse(char[] payload)
+	{
+		if (result == null)
+		{
+			payloads.add(payload);
+		}
+	}
+
+	/**
+	 * add negative response of pending request
+	 *
+	 * @param nrc negative response code
+	 */
+	synchronized void addNegativeResponse(int nrc)
+	{
+		if (result == null && pendingNrc == 0)
+		{
+			pendingNrc = nrc;
+		}
+	}
+
+	/**
+	 * finish request with all received responses
+	 * - positive responses take precedence over negative responses
+	 *
+	 * @param noResponse result if no response was received
+	 * @return true if request was finished, false if it was finished already
+	 */
+	boolean finish(Result noResponse)
+	{
+		Result finalResult = noResponse;
+		char[] firstPayload = null;
+		int finalNrc = 0;
+		synchronized (this)
+		{
+			if (!payloads.isEmpty())
+			{
+				finalResult = Result.OK;
+				firstPayload = payloads.firstElement();
+			}
+			else if (pendingNrc != 0)
+			{
+				finalResult = Result.NEGATIVE;
+				finalNrc = pendingNrc;
+			}
+		}
+		return complete(finalResult, firstPayload, finalNrc);
+	}
+
+	/**
+	 * finish request with result
+	 *
+	 * @param result  request result
+	 * @param payload response payload
+	 * @param nrc     negative response code
+	 * @return true if request was finished, false if it was finished already
+	 */
+	boolean complete(Result result, char[] payload, int nrc)
+	{
+		Callback[] notify;
+		synchronized (this)
+		{
+			if (this.result != null)
+			{
+				return false;
+			}
+			this.result = result;
+			this.payload = payload;
+			this.nrc = nrc;
+			notifyAll();
+			notify = callbacks.toArray(new Callback[0]);
+		}
+		for (Callback callback : notify)
+		{
+			callback.requestDone(this);
+		}
+		return true;
+	}
+
+	/**
+	 * add callback to be notified on finished request
+	 * - callback is called immediately if request is already finished
+	 *
+	 * @param callback callback to be notified
+	 */
+	public void addCallback(Callback callback)
+	{
+		synchronized (this)
+		{
+			if (result == null)
+			{
+				callbacks.add(callback);
+				return;
+			}
+		}
+		callback.requestDone(this);
+	}
+
+	/**
+	 * cancel pending request
+	 *
+	 * @return true if request was cancelled, false if it was finished already
+	 */
+	public boolean cancel()
+	{
+		return complete(Result.CANCELLED, null, 0);
+	}
+
+	/**
+	 * wait for request to be finished
+	 * - request is finished with TIMEOUT if request timeout expires
+	 *
+	 * @param timeout max. time [ms] to wait
+	 * @return request result, null if request is still pending
+	 * @throws InterruptedException if waiting thread was interrupted
+	 */
+	public Result get(long timeout)
+		throws InterruptedException
+	{
+		synchronized (this)
+		{
+			long now = System.currentTimeMillis();
+			long end = now + timeout;
+			if (deadline != 0)
+			{
+				end = Math.min(end, deadline);
+			}
+			while (result == null && now < end)
+			{
+				wait(end - now);
+				now = System.currentTimeMillis();
+			}
+			if (result != null || !isExpired(now))
+			{
+				return result;
+			}
+		}
+		complete(Result.TIMEOUT, null, 0);
+		return getResult();
+	}
+
+	/** @return true if request is finished */
+	public synchronized boolean isDone()
+	{
+		return result != null;
+	}
+
+	/** @return request result, null as long as request is pending */
+	public synchronized Result getResult()
+	{
+		return result;
+	}
+
+	/** @return response payload (data bytes after service and PID), null if none */
+	public synchronized char[] getPayload()
+	{
+		return payload;
+	}
+
+	/**
+	 * get response message of positive result
+	 * (service and PID followed by payload, as received from vehicle)
+	 *
+	 * @return response message of first response, null if there is no payload
+	 */
+	public synchronized String getResponse()
+	{
+		return (payload != null) ? toMessage(payload) : null;
+	}
+
+	/**
+	 * get all response messages of positive result
+	 * - one message per response line (e.g. multiple ECUs or trouble code lines)
+	 *
+	 * @return response messages, empty if result is not positive
+	 */
+	public synchronized List<String> getResponses()
+	{
+		List<String> responses = new ArrayList<>();
+		if (result == Result.OK)
+		{
+			for (char[] data : payloads)
+			{
+				responses.add(toMessage(data));
+			}
+		}
+		return responses;
+	}
+
+	/**
+	 * create response message from payload
+	 *
+	 * @param data response payload
+	 * @return response message (service and PID followed by payload)
+	 */
+	private String toMessage(char[] data)
+	{
+		StringBuilder response = new StringBuilder(String.format("%02X", service | 0x40));
+		if (pid >= 0)
+		{
+			response.append(String.format("%02X", pid));
+		}
+		for (char value : data)
+		{
+			response.append(String.format("%02X", (int) value));
+		}
+		return response.toString();
+	}
+
+	/** @return negative response code of NEGATIVE result */
+	public synchronized int getNrc()
+	{
+		return nrc;
+	}
+
+	/** @return OBD service */
+	public int getService()
+	{
+		return service;
+	}
+
+	/** @return PID, -1 for services without PID */
+	public int getPid()
+	{
+		return pid;
+	}
+
+	/**
+	 * get physical values of response
+	 *
+	 * @return values of known data items by mnemonic, empty if there are none
+	 */
+	public Map<String, Object> getValues()
+	{
+		Map<String, Object> values = new LinkedHashMap<>();
+		char[] data = getPayload();
+		EcuDataItem[] items = (data != null && pid >= 0)
+		                      ? ObdProt.dataItems.getPidItems(service, pid)
+		                      : null;
+		if (items != null)
+		{
+			for (EcuDataItem item : items)
+			{
+				if (item != null)
+				{
+					values.put(item.getMnemonic(), item.getValue(data));
+				}
+			}
+		}
+		return values;
+	}
+
+	@Override
+	public String toString()
+	{
+		return getCommand() + ":" + getResult();
+	}
+}
@@ -259,8 +259,8 @@ public class Kw1281Prot extends ProtoHeader
 									EcuDataItem itm = (EcuDataItem) it.next().clone();
 									itm.pid = frmNum;
 									itm.ofs = i - 1;
-									itm.pv.put(EcuDataPv.FID_PID, Integer.valueOf(itm.pid));
-									itm.pv.put(EcuDataPv.FID_OFS, Integer.valueOf(itm.ofs));
+									itm.getPv().put(EcuDataPv.FID_PID, Integer.valueOf(itm.pid));
+									itm.getPv().put(EcuDataPv.FID_OFS, Integer.valueOf(itm.ofs));
 									grpVec.add(itm);
 								}
 							}
@@ -614,7 +614,7 @@ public class Kw1281Prot extends ProtoHeader
 			while (itItm.hasNext())
 			{
 				EcuDataItem itm = itItm.next();
-				PidPvs.put(itm.pv.toString(), itm.pv);
+				PidPvs.put(itm.getPv().toString(), itm.getPv());
 			}
 		}
 	}
@@ -689,8 +689,8 @@ public class Kw1281Prot extends ProtoHeader
 								// set specific values for this item
 								currItm.pid = (int) getCurrDataGroup();
 								currItm.ofs += fldId;
-								currItm.pv.put(EcuDataPv.FID_PID, Integer.valueOf(currItm.pid));
-								currItm.pv.put(EcuDataPv.FID_OFS, Integer.valueOf(currItm.ofs));
+								currItm.getPv().put(EcuDataPv.FID_PID, Integer.valueOf(currItm.pid));
+								currItm.getPv().put(EcuDataPv.FID_OFS, Integer.valueOf(currItm.ofs));
 								// ensure there are enough elements in list
 								while (currGrpItems.size() <= fldId)
 									currGrpItems.add(null);
@@ -774,8 +774,8 @@ public class Kw1281Prot extends ProtoHeader
 								// set specific values for this item
 								currItm.pid = (int) getCurrDataGroup();
 								currItm.ofs += i / 3;
-								currItm.pv.put(EcuDataPv.FID_PID, Integer.valueOf(currItm.pid));
-								currItm.pv.put(EcuDataPv.FID_OFS, Integer.valueOf(currItm.ofs));
+								currItm.getPv().put(EcuDataPv.FID_PID, Integer.valueOf(currItm.pid));
+								currItm.getPv().put(EcuDataPv.FID_OFS, Integer.valueOf(currItm.ofs));
 								// ensure there are enough elements in list
 								while (currGrpItems.size() < (i / 3))
 									currGrpItems.add(null);
@@ -0,0 +1,132 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.prot;
+
+import java.util.Arrays;
+
+/**
+ * Rolling latency histogram
+ * - latencies of the most recent samples are counted in fixed width bins
+ * - when the window is full, the oldest sample is removed with every new
+ *   sample, so percentiles follow shifts of the latency distribution
+ *
+ * @author erwin
+ */
+public class LatencyHistogram
+{
+	/** width of a histogram bin */
+	private final int binWidth;
+	/** sample counts per bin, last bin counts all latencies above range */
+	private final int[] bins;
+	/** bin indices of samples within window (ring buffer) */
+	private final int[] window;
+	/** position of oldest sample within window */
+	private int head = 0;
+	/** number of samples within window */
+	private int count = 0;
+
+	/**
+	 * Create latency histogram
+	 *
+	 * @param binWidth   width of a histogram bin
+	 * @param maxLatency max. latency covered by bins
+	 * @param windowSize number of most recent samples to be kept
+	 */
+	public LatencyHistogram(int binWidth, int maxLatency, int windowSize)
+	{
+		this.binWidth = binWidth;
+		bins = new int[(maxLatency + binWidth - 1) / binWidth + 1];
+		window = new int[windowSize];
+	}
+
+	/**
+	 * add latency sample
+	 *
+	 * @param latency latency of sample (negative values are ignored)
+	 */
+	public synchronized void add(long latency)
+	{
+		if (latency < 0)
+		{
+			return;
+		}
+		int bin = (int) Math.min(latency / binWidth, bins.length - 1);
+		if (count == window.length)
+		{
+			// remove oldest sample
+			bins[window[head]]--;
+			window[head] = bin;
+			head = (head + 1) % window.length;
+		}
+		else
+		{
+			window[(head + count) % window.length] = bin;
+			count++;
+		}
+		bins[bin]++;
+	}
+
+	/**
+	 * get number of samples within window
+	 *
+	 * @return number of samples
+	 */
+	public synchronized int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * get latency percentile
+	 * - result is the upper limit of the bin which contains the percentile
+	 *
+	 * @param quantile quantile of percentile (0.0 ... 1.0)
+	 * @return latency percentile, -1 if there are no samples
+	 */
+	public synchronized long getPercentile(double quantile)
+	{
+		if (count == 0)
+		{
+			return -1;
+		}
+		long target = Math.max(1, (long) Math.ceil(quantile * count));
+		long sum = 0;
+		int bin = 0;
+		while (bin < bins.length - 1)
+		{
+			sum += bins[bin];
+			if (sum >= target)
+			{
+				break;
+			}
+			bin++;
+		}
+		return (long) (bin + 1) * binWidth;
+	}
+
+	/**
+	 * remove all samples
+	 */
+	public synchronized void clear()
+	{
+		Arrays.fill(bins, 0);
+		head = 0;
+		count = 0;
+	}
+}
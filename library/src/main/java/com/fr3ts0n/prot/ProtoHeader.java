@@ -94,6 +94,8 @@ public abstract class ProtoHeader
 	protected static char paddingChr = ' ';
 	/** check if telegram listeners have to be notified on empty payload */
 	private final boolean isNotificationOnEmptyPayloadAllowed = false;
+	/** acquisition time [ns] of telegram currently handled (0 = unknown) */
+	private long rxTime = 0;
 
 	/**
 	 * list of parameters for specific protocol
@@ -933,6 +935,40 @@ public abstract class ProtoHeader
 		return (cnt);
 	}
 
+	/**
+	 * handle incoming protocol telegram with known acquisition time
+	 * the acquisition time is available via {@link #getRxTime()} while
+	 * the telegram is handled
+	 *
+	 * @param buffer - telegram buffer
+	 * @param rxTime - acquisition time of telegram [ns] (System.nanoTime() time base)
+	 * @return number of listeners notified
+	 */
+	public synchronized int handleTelegram(char[] buffer, long rxTime)
+	{
+		long oldRxTime = this.rxTime;
+		this.rxTime = rxTime;
+		try
+		{
+			return (handleTelegram(buffer));
+		}
+		finally
+		{
+			this.rxTime = oldRxTime;
+		}
+	}
+
+	/**
+	 * get acquisition time of telegram currently handled
+	 * if no acquisition time is known, the current time is returned
+	 *
+	 * @return acquisition time [ns] (System.nanoTime() time base)
+	 */
+	protected long getRxTime()
+	{
+		return (rxTime != 0 ? rxTime : System.nanoTime());
+	}
+
 	/**
 	 * create an empy telegram header
 	 *
@@ -1025,6 +1061,8 @@ public abstract class ProtoHeader
 		// if there is anything to be notified about
 		if (buffer.length > 0 || isNotificationOnEmptyPayloadAllowed)
 		{
+			// all listeners share the acquisition time of this telegram
+			long acqTime = getRxTime();
 			// loop through all listeners ...
 			Iterator it = TelegramListeners.iterator();
 			Object currListener;
@@ -1035,7 +1073,7 @@ public abstract class ProtoHeader
 				if (currListener instanceof TelegramListener)
 				{
 					// ... and tell them about it
-					((TelegramListener) currListener).handleTelegram(buffer);
+					((TelegramListener) currListener).handleTelegram(buffer, acqTime);
 				}
 			}
 		}
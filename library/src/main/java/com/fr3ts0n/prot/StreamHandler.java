@@ -145,8 +145,10 @@ public class StreamHandler implements TelegramWriter, Runnable
 			case 13:
 				try
 				{
+					// acquisition time is reception of terminating character
+					long rxTime = System.nanoTime();
 					if (messageHandler != null && !message.isEmpty())
-					{ messageHandler.handleTelegram(message.toCharArray()); }
+					{ messageHandler.handleTelegram(message.toCharArray(), rxTime); }
 				}
 				catch (Exception ex)
 				{
@@ -33,4 +33,13 @@ public interface TelegramListener extends EventListener
 	 * @return number of listeners notified
 	 */
 	int handleTelegram(char[] buffer);
+
+	/**
+	 * handle incoming protocol telegram with known acquisition time
+	 *
+	 * @param buffer - telegram buffer
+	 * @param rxTime - acquisition time of telegram [ns] (System.nanoTime() time base)
+	 * @return number of listeners notified
+	 */
+	int handleTelegram(char[] buffer, long rxTime);
 }
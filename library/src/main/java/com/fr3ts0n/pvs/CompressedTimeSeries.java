@@ -0,0 +1,758 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.pvs;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compressed time series of numeric process variable values
+ * for long term history with low memory footprint
+ *
+ * Samples are collected in a mutable tail of CHUNK_SIZE samples.
+ * A full tail is sealed into an immutable, compressed chunk:
+ * - sample times as delta-of-delta values in variable bit lengths
+ * - sample values XOR'ed with previous value, only meaningful bits stored
+ *
+ * For slowly varying signals with regular sample intervals, a sample
+ * typically takes 1-2 bytes instead of 16 bytes.
+ *
+ * Chunks are addressed by index (0 = oldest chunk, the tail being the
+ * last one), and decoded either by chunk, or sample by sample with a Reader.
+ * If capacity or retention time is exceeded, the oldest chunk is dropped.
+ *
+ * @author erwin
+ */
+public class CompressedTimeSeries implements Serializable, PvSnapshotSupport
+{
+	private static final long serialVersionUID = -2297383315562932563L;
+
+	/** number of samples per chunk */
+	public static final int CHUNK_SIZE = 256;
+
+	/** max. number of sealed chunks */
+	private final int maxChunks;
+	/** max. age of samples relative to newest sample [ms], 0 = unlimited */
+	private final long retentionTime;
+
+	/** sealed chunks, oldest first */
+	private final ArrayList<Chunk> chunks;
+	/** number of chunks dropped since creation */
+	private long chunkOffset = 0;
+	/** samples of mutable tail */
+	private long[] tailTimes = new long[CHUNK_SIZE];
+	private double[] tailValues = new double[CHUNK_SIZE];
+	/** number of samples in tail */
+	private int tailCount = 0;
+	/** number of samples in sealed chunks */
+	private long sealedCount = 0;
+
+	/**
+	 * Sealed chunk of compressed samples
+	 */
+	private static final class Chunk implements Serializable
+	{
+		private static final long serialVersionUID = 5466420945716006856L;
+
+		/** number of samples */
+		final int count;
+		/** time of first and last sample */
+		final long firstTime;
+		final long lastTime;
+		/** min/max of values */
+		final double minValue;
+		final double maxValue;
+		/** compressed samples */
+		final byte[] data;
+
+		Chunk(int count, long firstTime, long lastTime,
+		      double minValue, double maxValue, byte[] data)
+		{
+			this.count = count;
+			this.firstTime = firstTime;
+			this.lastTime = lastTime;
+			this.minValue = minValue;
+			this.maxValue = maxValue;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Create compressed time series without retention time
+	 *
+	 * @param capacity max. number of samples (rounded up to full chunks)
+	 */
+	public CompressedTimeSeries(int capacity)
+	{
+		this(capacity, 0);
+	}
+
+	/**
+	 * Create compressed time series
+	 *
+	 * @param capacity      max. number of samples (rounded up to full chunks)
+	 * @param retentionTime max. age of samples relative to newest sample [ms], 0 = unlimited
+	 */
+	public CompressedTimeSeries(int capacity, long retentionTime)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("capacity < 1");
+		}
+		maxChunks = (capacity + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		this.retentionTime = retentionTime;
+		chunks = new ArrayList<>();
+	}
+
+	/**
+	 * Create snapshot of a compressed time series
+	 * - sealed chunks are immutable and therefore shared
+	 *
+	 * @param source series to create snapshot of
+	 * @param endTime only samples up to this time are included [ms]
+	 */
+	private CompressedTimeSeries(CompressedTimeSeries source, long endTime)
+	{
+		maxChunks = source.maxChunks;
+		retentionTime = source.retentionTime;
+		chunks = new ArrayList<>(source.chunks);
+		chunkOffset = source.chunkOffset;
+		sealedCount = source.sealedCount;
+		tailCount = source.tailCount;
+		System.arraycopy(source.tailTimes, 0, tailTimes, 0, tailCount);
+		System.arraycopy(source.tailValues, 0, tailValues, 0, tailCount);
+		// drop samples after end time
+		while (tailCount > 0 && tailTimes[tailCount - 1] > endTime)
+		{
+			tailCount--;
+		}
+		while (tailCount == 0 && !chunks.isEmpty() && chunks.get(chunks.size() - 1).lastTime > endTime)
+		{
+			// re-open last chunk as tail
+			Chunk chunk = chunks.remove(chunks.size() - 1);
+			sealedCount -= chunk.count;
+			tailCount = decode(chunk, tailTimes, tailValues);
+			while (tailCount > 0 && tailTimes[tailCount - 1] > endTime)
+			{
+				tailCount--;
+			}
+		}
+	}
+
+	/**
+	 * create snapshot of series contents
+	 *
+	 * @param endTime only samples up to this time are included [ms]
+	 * @return snapshot of series
+	 */
+	@Override
+	public synchronized CompressedTimeSeries snapshot(long endTime)
+	{
+		return new CompressedTimeSeries(this, endTime);
+	}
+
+	/**
+	 * get retention time
+	 *
+	 * @return max. age of samples relative to newest sample [ms], 0 = unlimited
+	 */
+	public long getRetentionTime()
+	{
+		return retentionTime;
+	}
+
+	/**
+	 * add a new sample
+	 * - a sample time before the newest sample is corrected to the newest sample time
+	 *
+	 * @param time  sample time [ms]
+	 * @param value sample value
+	 */
+	public synchronized void add(long time, double value)
+	{
+		if (tailCount > 0)
+		{
+			time = Math.max(time, tailTimes[tailCount - 1]);
+		}
+		else if (!chunks.isEmpty())
+		{
+			time = Math.max(time, chunks.get(chunks.size() - 1).lastTime);
+		}
+		tailTimes[tailCount] = time;
+		tailValues[tailCount] = value;
+		if (++tailCount == CHUNK_SIZE)
+		{
+			seal();
+		}
+		// drop chunks which exceeded capacity or retention time
+		while (chunks.size() > maxChunks
+		       || (retentionTime > 0
+		           && !chunks.isEmpty()
+		           && time - chunks.get(0).lastTime > retentionTime))
+		{
+			sealedCount -= chunks.remove(0).count;
+			chunkOffset++;
+		}
+	}
+
+	/**
+	 * remove all samples
+	 */
+	public synchronized void clear()
+	{
+		chunkOffset += chunks.size() + 1;
+		chunks.clear();
+		sealedCount = 0;
+		tailCount = 0;
+	}
+
+	/**
+	 * get number of samples in series
+	 *
+	 * @return number of samples
+	 */
+	public synchronized long size()
+	{
+		return sealedCount + tailCount;
+	}
+
+	/**
+	 * get number of chunks in series (incl. tail)
+	 *
+	 * @return number of chunks
+	 */
+	public synchronized int getChunkCount()
+	{
+		return chunks.size() + 1;
+	}
+
+	/**
+	 * get number of chunks dropped since creation
+	 * - index of a chunk changes by the difference of offsets
+	 *
+	 * @return number of dropped chunks
+	 */
+	public synchronized long getChunkOffset()
+	{
+		return chunkOffset;
+	}
+
+	/**
+	 * get time of first sample within chunk
+	 *
+	 * @param index chunk index
+	 * @return time of first sample [ms], Long.MAX_VALUE if chunk is empty
+	 */
+	public synchronized long getChunkTime(int index)
+	{
+		if (index < chunks.size())
+		{
+			return chunks.get(index).firstTime;
+		}
+		checkChunk(index);
+		return tailCount > 0 ? tailTimes[0] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * find chunk which contains samples at specified time
+	 *
+	 * @param time time [ms]
+	 * @return index of last chunk which starts at, or before specified time (0 if none)
+	 */
+	public synchronized int findChunk(long time)
+	{
+		int lo = 0;
+		int hi = chunks.size();
+		// binary search in sealed chunks, tail is last
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			long start = mid < chunks.size() ? chunks.get(mid).firstTime : Long.MAX_VALUE;
+			if (start <= time)
+			{
+				lo = mid + 1;
+			}
+			else
+			{
+				hi = mid;
+			}
+		}
+		if (lo == chunks.size() && tailCount > 0 && tailTimes[0] <= time)
+		{
+			return lo;
+		}
+		return Math.max(0, lo - 1);
+	}
+
+	/**
+	 * decode samples of a chunk
+	 *
+	 * @param index     chunk index
+	 * @param timesOut  buffer for sample times (min. CHUNK_SIZE)
+	 * @param valuesOut buffer for sample values (min. CHUNK_SIZE)
+	 * @return number of samples decoded
+	 */
+	public int decodeChunk(int index, long[] timesOut, double[] valuesOut)
+	{
+		Chunk chunk;
+		synchronized (this)
+		{
+			if (index >= chunks.size())
+			{
+				checkChunk(index);
+				System.arraycopy(tailTimes, 0, timesOut, 0, tailCount);
+				System.arraycopy(tailValues, 0, valuesOut, 0, tailCount);
+				return tailCount;
+			}
+			chunk = chunks.get(index);
+		}
+		// sealed chunks are immutable, so decode without lock
+		return decode(chunk, timesOut, valuesOut);
+	}
+
+	/**
+	 * get number of bytes used for sample storage
+	 *
+	 * @return size of compressed chunks and tail [bytes]
+	 */
+	public synchronized long getStorageSize()
+	{
+		long result = 16L * CHUNK_SIZE;
+		for (Chunk chunk : chunks)
+		{
+			result += chunk.data.length;
+		}
+		return result;
+	}
+
+	/**
+	 * get min. value of all samples
+	 *
+	 * @return min. value, NaN if series is empty
+	 */
+	public synchronized double getMinValue()
+	{
+		double result = Double.NaN;
+		for (Chunk chunk : chunks)
+		{
+			if (!(chunk.minValue >= result)) result = chunk.minValue;
+		}
+		for (int i = 0; i < tailCount; i++)
+		{
+			if (!(tailValues[i] >= result)) result = tailValues[i];
+		}
+		return result;
+	}
+
+	/**
+	 * get max. value of all samples
+	 *
+	 * @return max. value, NaN if series is empty
+	 */
+	public synchronized double getMaxValue()
+	{
+		double result = Double.NaN;
+		for (Chunk chunk : chunks)
+		{
+			if (!(chunk.maxValue <= result)) result = chunk.maxValue;
+		}
+		for (int i = 0; i < tailCount; i++)
+		{
+			if (!(tailValues[i] <= result)) result = tailValues[i];
+		}
+		return result;
+	}
+
+	/**
+	 * create reader for samples of series
+	 *
+	 * @param startTime time of first sample to read [ms]
+	 * @return new reader positioned before first sample at, or after start time
+	 */
+	public Reader reader(long startTime)
+	{
+		return new Reader(startTime);
+	}
+
+	/**
+	 * Sequential reader of samples
+	 * - chunks are decoded one by one
+	 * - chunks which are dropped while reading are skipped
+	 */
+	public class Reader
+	{
+		private final long[] times = new long[CHUNK_SIZE];
+		private final double[] values = new double[CHUNK_SIZE];
+		/** absolute number of next chunk to be decoded */
+		private long nextChunk;
+		/** samples of current chunk */
+		private int count = 0;
+		private int pos = 0;
+		/** current sample is within tail */
+		private boolean inTail = false;
+		private long time;
+		private double value;
+
+		private Reader(long startTime)
+		{
+			synchronized (CompressedTimeSeries.this)
+			{
+				nextChunk = chunkOffset + findChunk(startTime);
+			}
+			// skip samples before start time
+			while (next())
+			{
+				if (time >= startTime)
+				{
+					pos--;
+					break;
+				}
+			}
+		}
+
+		/**
+		 * advance to next sample
+		 *
+		 * @return true if sample is available
+		 */
+		public boolean next()
+		{
+			while (pos >= count)
+			{
+				if (!decodeNext())
+				{
+					return false;
+				}
+			}
+			time = times[pos];
+			value = values[pos++];
+			return true;
+		}
+
+		/** @return time of current sample [ms] */
+		public long getTime()
+		{
+			return time;
+		}
+
+		/** @return value of current sample */
+		public double getValue()
+		{
+			return value;
+		}
+
+		/**
+		 * decode next chunk
+		 *
+		 * @return true if a chunk was decoded
+		 */
+		private boolean decodeNext()
+		{
+			Chunk chunk;
+			int first;
+			synchronized (CompressedTimeSeries.this)
+			{
+				int index = (int) Math.max(0, nextChunk - chunkOffset);
+				if (index >= chunks.size())
+				{
+					// tail: continue after samples already read
+					first = (inTail && index == chunks.size()) ? count : 0;
+					if (first >= tailCount)
+					{
+						return false;
+					}
+					System.arraycopy(tailTimes, 0, times, 0, tailCount);
+					System.arraycopy(tailValues, 0, values, 0, tailCount);
+					nextChunk = chunkOffset + chunks.size();
+					inTail = true;
+					pos = first;
+					count = tailCount;
+					return true;
+				}
+				// tail may have been sealed meanwhile: skip samples already read
+				first = (inTail && nextChunk == chunkOffset + index) ? count : 0;
+				chunk = chunks.get(index);
+				nextChunk = chunkOffset + index + 1;
+			}
+			inTail = false;
+			count = decode(chunk, times, values);
+			pos = first;
+			return true;
+		}
+	}
+
+	/**
+	 * seal tail into compressed chunk
+	 */
+	private void seal()
+	{
+		double min = tailValues[0];
+		double max = tailValues[0];
+		for (int i = 1; i < tailCount; i++)
+		{
+			min = Math.min(min, tailValues[i]);
+			max = Math.max(max, tailValues[i]);
+		}
+		chunks.add(new Chunk(tailCount, tailTimes[0], tailTimes[tailCount - 1],
+		                     min, max, encode(tailTimes, tailValues, tailCount)));
+		sealedCount += tailCount;
+		tailCount = 0;
+		// readers/snapshots may still refer to previous tail
+		tailTimes = new long[CHUNK_SIZE];
+		tailValues = new double[CHUNK_SIZE];
+	}
+
+	/**
+	 * check if chunk index is valid
+	 *
+	 * @param index chunk index
+	 */
+	private void checkChunk(int index)
+	{
+		if (index < 0 || index > chunks.size())
+		{
+			throw new IndexOutOfBoundsException("Chunk: " + index + ", Chunks: " + (chunks.size() + 1));
+		}
+	}
+
+	/**
+	 * compress samples
+	 *
+	 * @param times  sample times
+	 * @param values sample values
+	 * @param count  number of samples
+	 * @return compressed samples
+	 */
+	static byte[] encode(long[] times, double[] values, int count)
+	{
+		BitWriter out = new BitWriter(count * 4 + 16);
+		long prevTime = times[0];
+		long prevDelta = 0;
+		long prevBits = Double.doubleToRawLongBits(values[0]);
+		int prevLeading = -1;
+		int prevTrailing = 0;
+		out.write(prevTime, 64);
+		out.write(prevBits, 64);
+		for (int i = 1; i < count; i++)
+		{
+			// delta of delta of time
+			long delta = times[i] - prevTime;
+			long dod = delta - prevDelta;
+			if (dod == 0)
+			{
+				out.write(0, 1);
+			}
+			else if (dod >= -63 && dod <= 64)
+			{
+				out.write(0x2, 2);
+				out.write(dod + 63, 7);
+			}
+			else if (dod >= -255 && dod <= 256)
+			{
+				out.write(0x6, 3);
+				out.write(dod + 255, 9);
+			}
+			else if (dod >= -2047 && dod <= 2048)
+			{
+				out.write(0xE, 4);
+				out.write(dod + 2047, 12);
+			}
+			else
+			{
+				out.write(0xF, 4);
+				out.write(dod, 64);
+			}
+			prevTime = times[i];
+			prevDelta = delta;
+
+			// XOR of value with previous value
+			long bits = Double.doubleToRawLongBits(values[i]);
+			long xor = bits ^ prevBits;
+			if (xor == 0)
+			{
+				out.write(0, 1);
+			}
+			else
+			{
+				int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+				int trailing = Long.numberOfTrailingZeros(xor);
+				if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing)
+				{
+					// meaningful bits fit into previous window
+					out.write(0x2, 2);
+					out.write(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+				}
+				else
+				{
+					int length = 64 - leading - trailing;
+					out.write(0x3, 2);
+					out.write(leading, 5);
+					out.write(length & 0x3F, 6);
+					out.write(xor >>> trailing, length);
+					prevLeading = leading;
+					prevTrailing = trailing;
+				}
+			}
+			prevBits = bits;
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * decompress samples of a chunk
+	 *
+	 * @param chunk     chunk to decode
+	 * @param timesOut  buffer for sample times
+	 * @param valuesOut buffer for sample values
+	 * @return number of samples decoded
+	 */
+	private static int decode(Chunk chunk, long[] timesOut, double[] valuesOut)
+	{
+		BitReader in = new BitReader(chunk.data);
+		long time = in.read(64);
+		long delta = 0;
+		long bits = in.read(64);
+		int leading = 0;
+		int trailing = 0;
+		timesOut[0] = time;
+		valuesOut[0] = Double.longBitsToDouble(bits);
+		for (int i = 1; i < chunk.count; i++)
+		{
+			long dod;
+			if (in.read(1) == 0)
+			{
+				dod = 0;
+			}
+			else if (in.read(1) == 0)
+			{
+				dod = in.read(7) - 63;
+			}
+			else if (in.read(1) == 0)
+			{
+				dod = in.read(9) - 255;
+			}
+			else if (in.read(1) == 0)
+			{
+				dod = in.read(12) - 2047;
+			}
+			else
+			{
+				dod = in.read(64);
+			}
+			delta += dod;
+			time += delta;
+			timesOut[i] = time;
+
+			if (in.read(1) != 0)
+			{
+				if (in.read(1) != 0)
+				{
+					leading = (int) in.read(5);
+					int length = (int) in.read(6);
+					if (length == 0)
+					{
+						length = 64;
+					}
+					trailing = 64 - leading - length;
+				}
+				bits ^= in.read(64 - leading - trailing) << trailing;
+			}
+			valuesOut[i] = Double.longBitsToDouble(bits);
+		}
+		return chunk.count;
+	}
+
+	/**
+	 * Writer of bit stream, most significant bits first
+	 */
+	private static final class BitWriter
+	{
+		private byte[] buffer;
+		private int bitPos = 0;
+
+		BitWriter(int size)
+		{
+			buffer = new byte[size];
+		}
+
+		/**
+		 * write the lowest bits of a value
+		 *
+		 * @param value   value to write
+		 * @param numBits number of bits (1..64)
+		 */
+		void write(long value, int numBits)
+		{
+			if (((bitPos + numBits + 7) >> 3) > buffer.length)
+			{
+				buffer = Arrays.copyOf(buffer, 2 * buffer.length + 8);
+			}
+			while (numBits > 0)
+			{
+				int free = 8 - (bitPos & 7);
+				int n = Math.min(free, numBits);
+				int part = (int) (value >>> (numBits - n)) & ((1 << n) - 1);
+				buffer[bitPos >> 3] |= (byte) (part << (free - n));
+				bitPos += n;
+				numBits -= n;
+			}
+		}
+
+		byte[] toByteArray()
+		{
+			return Arrays.copyOf(buffer, (bitPos + 7) >> 3);
+		}
+	}
+
+	/**
+	 * Reader of bit stream, most significant bits first
+	 */
+	private static final class BitReader
+	{
+		private final byte[] buffer;
+		private int bitPos = 0;
+
+		BitReader(byte[] buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		/**
+		 * read bits
+		 *
+		 * @param numBits number of bits (1..64)
+		 * @return bits read
+		 */
+		long read(int numBits)
+		{
+			long result = 0;
+			while (numBits > 0)
+			{
+				int avail = 8 - (bitPos & 7);
+				int n = Math.min(avail, numBits);
+				int part = (buffer[bitPos >> 3] >>> (avail - n)) & ((1 << n) - 1);
+				result = (result << n) | part;
+				bitPos += n;
+				numBits -= n;
+			}
+			return result;
+		}
+	}
+}
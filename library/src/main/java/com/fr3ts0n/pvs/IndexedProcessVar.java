@@ -56,6 +56,18 @@ public abstract class IndexedProcessVar extends ProcessVar
 		put(getFields()[fieldID], newValue);
 	}
 
+	/**
+	 * indexed put for specified field id with known acquisition time
+	 *
+	 * @param fieldID  index to key of attribute
+	 * @param newValue value of attribute
+	 * @param acqTime  acquisition time [ns] of value (System.nanoTime() time base)
+	 */
+	public void putTimed(int fieldID, Object newValue, long acqTime)
+	{
+		putTimed(getFields()[fieldID], newValue, acqTime);
+	}
+
 	/**
 	 * get attribute of selected key
 	 * overridden method to allow synchronized access
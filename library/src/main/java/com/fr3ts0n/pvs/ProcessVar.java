@@ -59,7 +59,7 @@ public class ProcessVar
 	private transient Map<PvChangeListener, Integer> PvChangeListeners =
 		Collections.synchronizedMap(new HashMap<PvChangeListener, Integer>());
 	/** Map of attribute changes */
-	private final Map<Object, PvChangeEvent> changes =
+	private Map<Object, PvChangeEvent> changes =
 		Collections.synchronizedMap(new HashMap<Object, PvChangeEvent>());
 	/** The logger object */
 	public static final Logger log = Logger.getLogger(ProcessVar.class.getPackage().getName());
@@ -167,8 +167,23 @@ public class ProcessVar
 	 * @param action type of action event @see PvChangeEvent
 	 * @return previous value of attribute
 	 */
-	@SuppressWarnings("unchecked")
 	public synchronized Object put(Object key, Object value, int action)
+	{
+		return (put(key, value, action, System.nanoTime()));
+	}
+
+	/**
+	 * set attribute of selected key to selected value
+	 * overridden method to allow notification of process var changes
+	 *
+	 * @param key     key of attribute
+	 * @param value   value of attribute
+	 * @param action  type of action event @see PvChangeEvent
+	 * @param acqTime acquisition time [ns] of value (System.nanoTime() time base)
+	 * @return previous value of attribute
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized Object put(Object key, Object value, int action, long acqTime)
 	{
 		Object oldvalue;
 
@@ -221,7 +236,7 @@ public class ProcessVar
 			}
 		}
 
-		firePvChanged(new PvChangeEvent(this, key, value, action));
+		firePvChanged(new PvChangeEvent(this, key, value, action, acqTime));
 
 		// .. and return
 		return (oldvalue);
@@ -237,11 +252,25 @@ public class ProcessVar
 	 */
 	@Override
 	public synchronized Object put(Object key, Object value)
+	{
+		return (putTimed(key, value, System.nanoTime()));
+	}
+
+	/**
+	 * set attribute of selected key to selected value with known acquisition time
+	 * - change events are stamped with the acquisition time instead of creation time
+	 *
+	 * @param key     key of attribute
+	 * @param value   value of attribute
+	 * @param acqTime acquisition time [ns] of value (System.nanoTime() time base)
+	 * @return previous value of attribute
+	 */
+	public synchronized Object putTimed(Object key, Object value, long acqTime)
 	{
 		// find out the type of the action
 		int action = containsKey(key) ? defaultAction : PvChangeEvent.PV_ADDED;
 		// and perform the put operation
-		return (put(key, value, action));
+		return (put(key, value, action, acqTime));
 	}
 
 	/**
@@ -332,6 +361,46 @@ public class ProcessVar
 		firePvChanged(new PvChangeEvent(this, null, null, PvChangeEvent.PV_CLEARED));
 	}
 
+	/**
+	 * create point-in-time snapshot of this process variable
+	 * - attributes are copied under lock of this PV
+	 * - child process variables and attribute values which implement
+	 *   PvSnapshotSupport (e.g. time series) are snapshot recursively
+	 * - the snapshot is of the same class, has no change listeners and
+	 *   is not affected by later changes of this PV
+	 *
+	 * @param endTime time limit of contained histories [ms]
+	 * @return snapshot of this process variable
+	 */
+	@SuppressWarnings("unchecked")
+	public ProcessVar snapshot(long endTime)
+	{
+		ProcessVar result;
+		synchronized (this)
+		{
+			// shallow copy of attributes without change notifications
+			result = (ProcessVar) super.clone();
+		}
+		result.PvChangeListeners = null;
+		result.allowEvents = false;
+		result.changes = Collections.synchronizedMap(new HashMap<Object, PvChangeEvent>());
+		// snapshot of child PVs and mutable values
+		for (Object entry : result.entrySet())
+		{
+			Map.Entry attribute = (Map.Entry) entry;
+			Object value = attribute.getValue();
+			if (value instanceof ProcessVar)
+			{
+				attribute.setValue(((ProcessVar) value).snapshot(endTime));
+			}
+			else if (value instanceof PvSnapshotSupport)
+			{
+				attribute.setValue(((PvSnapshotSupport) value).snapshot(endTime));
+			}
+		}
+		return result;
+	}
+
 	/** get object/name of key attribute */
 	public Object getKeyAttribute()
 	{
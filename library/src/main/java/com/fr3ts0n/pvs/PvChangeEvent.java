@@ -47,14 +47,44 @@ public class PvChangeEvent extends EventObject
 	private int type = PV_MODIFIED;
 	private Object key = ProcessVar.DEF_KEYNAME;
 	private Object value = ProcessVar.DEF_KEYNAME;
-	private long time = System.currentTimeMillis();
+	private long time;
+	/** acquisition time [ns] (System.nanoTime() time base) */
+	private long nanoTime;
 
 	public PvChangeEvent(Object source, Object Key, Object Value, int Type)
+	{
+		this(source, Key, Value, Type, System.nanoTime());
+	}
+
+	/**
+	 * Create change event with known acquisition time
+	 *
+	 * @param source  source of event
+	 * @param Key     key of changed attribute
+	 * @param Value   new value of changed attribute
+	 * @param Type    type of change
+	 * @param acqTime acquisition time [ns] (System.nanoTime() time base)
+	 */
+	public PvChangeEvent(Object source, Object Key, Object Value, int Type, long acqTime)
 	{
 		super(source);
 		setType(Type);
 		setKey(Key);
 		setValue(Value);
+		setNanoTime(acqTime);
+	}
+
+	/**
+	 * convert monotonic acquisition time into wall clock time
+	 * - conversion is relative to current time, since the monotonic clock
+	 *   may stop during deep sleep and the wall clock may be corrected
+	 *
+	 * @param nanoTime acquisition time [ns] (System.nanoTime() time base)
+	 * @return wall clock time [ms]
+	 */
+	public static long toWallTime(long nanoTime)
+	{
+		return System.currentTimeMillis() - (System.nanoTime() - nanoTime) / 1000000L;
 	}
 
 	public int getType()
@@ -108,4 +138,26 @@ public class PvChangeEvent extends EventObject
 	{
 		this.time = time;
 	}
+
+	/**
+	 * get acquisition time of event
+	 *
+	 * @return acquisition time [ns] (System.nanoTime() time base)
+	 */
+	public long getNanoTime()
+	{
+		return nanoTime;
+	}
+
+	/**
+	 * set acquisition time of event
+	 * - wall clock time is updated accordingly
+	 *
+	 * @param nanoTime acquisition time [ns] (System.nanoTime() time base)
+	 */
+	public void setNanoTime(long nanoTime)
+	{
+		this.nanoTime = nanoTime;
+		this.time = toWallTime(nanoTime);
+	}
 }
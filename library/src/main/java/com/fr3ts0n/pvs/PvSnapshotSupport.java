@@ -0,0 +1,38 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.pvs;
+
+/**
+ * Mutable attribute value which supports point-in-time snapshots
+ * - snapshots are taken by ProcessVar.snapshot for all attributes
+ *   which implement this interface
+ *
+ * @author erwin
+ */
+public interface PvSnapshotSupport
+{
+	/**
+	 * create snapshot of current value
+	 * - the snapshot is not affected by later changes of the value
+	 *
+	 * @param endTime time limit of contained history [ms]
+	 * @return snapshot of value
+	 */
+	Object snapshot(long endTime);
+}
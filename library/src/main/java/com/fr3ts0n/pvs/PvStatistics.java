@@ -0,0 +1,278 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.pvs;
+
+import java.io.Serializable;
+
+/**
+ * Running statistics of numeric process variable values
+ *
+ * Statistics are updated incrementally with each value, so all results
+ * are available at constant cost without scanning any history:
+ * - count, min, max
+ * - mean and variance (Welford's algorithm)
+ * - time weighted mean (each value is held until the next value)
+ * - quantiles (estimated by a QuantileSketch)
+ *
+ * @author erwin
+ */
+public class PvStatistics implements Serializable, PvSnapshotSupport
+{
+	private static final long serialVersionUID = -1795718574460342539L;
+
+	/** number of values */
+	private long count = 0;
+	/** min/max value */
+	private double minValue = Double.NaN;
+	private double maxValue = Double.NaN;
+	/** running mean */
+	private double mean = 0;
+	/** running sum of squared differences from mean */
+	private double m2 = 0;
+	/** time of first and last value, last value */
+	private long firstTime = 0;
+	private long lastTime = 0;
+	private double lastValue = Double.NaN;
+	/** integral of values over time [value * ms] */
+	private double integral = 0;
+	/** time covered by integral [ms] */
+	private long duration = 0;
+	/** quantile estimation */
+	private final QuantileSketch sketch;
+
+	/**
+	 * Create empty statistics
+	 */
+	public PvStatistics()
+	{
+		sketch = new QuantileSketch();
+	}
+
+	/**
+	 * Create copy of statistics
+	 *
+	 * @param source statistics to copy
+	 */
+	public PvStatistics(PvStatistics source)
+	{
+		synchronized (source)
+		{
+			count = source.count;
+			minValue = source.minValue;
+			maxValue = source.maxValue;
+			mean = source.mean;
+			m2 = source.m2;
+			firstTime = source.firstTime;
+			lastTime = source.lastTime;
+			lastValue = source.lastValue;
+			integral = source.integral;
+			duration = source.duration;
+			sketch = new QuantileSketch(source.sketch);
+		}
+	}
+
+	/**
+	 * add a value (NaN and infinite values are ignored)
+	 * - a time before the last value time is corrected to the last value time
+	 *
+	 * @param time  time of value [ms]
+	 * @param value value to add
+	 */
+	public synchronized void add(long time, double value)
+	{
+		if (Double.isNaN(value) || Double.isInfinite(value))
+		{
+			return;
+		}
+		if (count == 0)
+		{
+			firstTime = time;
+			minValue = value;
+			maxValue = value;
+		}
+		else
+		{
+			time = Math.max(time, lastTime);
+			integral += lastValue * (time - lastTime);
+			duration += time - lastTime;
+			if (value < minValue) minValue = value;
+			if (value > maxValue) maxValue = value;
+		}
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		lastTime = time;
+		lastValue = value;
+		sketch.add(value);
+	}
+
+	/**
+	 * merge statistics of another (e.g. later) period into this one
+	 * - time weighted means of both periods are weighted by their durations
+	 *
+	 * @param other statistics to merge
+	 */
+	public void merge(PvStatistics other)
+	{
+		PvStatistics source = new PvStatistics(other);
+		synchronized (this)
+		{
+			if (source.count == 0)
+			{
+				return;
+			}
+			if (count == 0)
+			{
+				firstTime = source.firstTime;
+				lastTime = source.lastTime;
+				lastValue = source.lastValue;
+				minValue = source.minValue;
+				maxValue = source.maxValue;
+			}
+			else
+			{
+				minValue = Math.min(minValue, source.minValue);
+				maxValue = Math.max(maxValue, source.maxValue);
+				if (source.lastTime >= lastTime)
+				{
+					lastTime = source.lastTime;
+					lastValue = source.lastValue;
+				}
+				firstTime = Math.min(firstTime, source.firstTime);
+			}
+			// parallel variance algorithm (Chan et al.)
+			long total = count + source.count;
+			double delta = source.mean - mean;
+			m2 += source.m2 + delta * delta * count * source.count / total;
+			mean += delta * source.count / total;
+			count = total;
+			integral += source.integral;
+			duration += source.duration;
+			sketch.merge(source.sketch);
+		}
+	}
+
+	/**
+	 * remove all values (e.g. at start of a new trip)
+	 */
+	public synchronized void reset()
+	{
+		count = 0;
+		minValue = Double.NaN;
+		maxValue = Double.NaN;
+		mean = 0;
+		m2 = 0;
+		firstTime = 0;
+		lastTime = 0;
+		lastValue = Double.NaN;
+		integral = 0;
+		duration = 0;
+		sketch.clear();
+	}
+
+	/**
+	 * create copy of current statistics
+	 *
+	 * @param endTime not used, statistics always include all values so far
+	 * @return copy of statistics
+	 */
+	@Override
+	public PvStatistics snapshot(long endTime)
+	{
+		return new PvStatistics(this);
+	}
+
+	/** @return number of values */
+	public synchronized long getCount()
+	{
+		return count;
+	}
+
+	/** @return min. value, NaN if no values */
+	public synchronized double getMinValue()
+	{
+		return minValue;
+	}
+
+	/** @return max. value, NaN if no values */
+	public synchronized double getMaxValue()
+	{
+		return maxValue;
+	}
+
+	/** @return mean of values, NaN if no values */
+	public synchronized double getMean()
+	{
+		return count > 0 ? mean : Double.NaN;
+	}
+
+	/** @return sample variance of values, NaN if less than 2 values */
+	public synchronized double getVariance()
+	{
+		return count > 1 ? m2 / (count - 1) : Double.NaN;
+	}
+
+	/** @return sample standard deviation of values, NaN if less than 2 values */
+	public double getStdDev()
+	{
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * get time weighted mean
+	 * - each value is weighted with the time until the next value
+	 *
+	 * @return time weighted mean, last value if no time elapsed, NaN if no values
+	 */
+	public synchronized double getTimeWeightedMean()
+	{
+		return duration > 0 ? integral / duration : lastValue;
+	}
+
+	/** @return time of first value [ms] */
+	public synchronized long getFirstTime()
+	{
+		return firstTime;
+	}
+
+	/** @return time of last value [ms] */
+	public synchronized long getLastTime()
+	{
+		return lastTime;
+	}
+
+	/**
+	 * estimate quantile of values
+	 *
+	 * @param quantile quantile (0..1, e.g. 0.5 for median)
+	 * @return estimated quantile (relative accuracy 1%), NaN if no values
+	 */
+	public double getQuantile(double quantile)
+	{
+		return sketch.getQuantile(quantile);
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format("n=%d min=%s max=%s mean=%s",
+		                     count, minValue, maxValue, getMean());
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.pvs;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch with relative accuracy
+ *
+ * Values are counted in logarithmic buckets, so any quantile is estimated
+ * with a relative error of max. the configured accuracy. Memory is bounded
+ * by the max. number of buckets: if exceeded, the buckets closest to zero
+ * are collapsed. Sketches with the same accuracy can be merged.
+ *
+ * @author erwin
+ */
+public class QuantileSketch implements Serializable
+{
+	private static final long serialVersionUID = -6044007432542633017L;
+
+	/** default relative accuracy */
+	public static final double DEFAULT_ACCURACY = 0.01;
+	/** max. number of buckets per sign */
+	private static final int MAX_BUCKETS = 512;
+	/** number of spare buckets allocated on range extensions */
+	private static final int SPARE_BUCKETS = 16;
+	/** values with smaller magnitude are counted as zero */
+	private static final double MIN_MAGNITUDE = 1e-9;
+
+	/** relative accuracy */
+	private final double accuracy;
+	/** bucket growth factor */
+	private final double gamma;
+	private final double logGamma;
+	/** buckets of positive and negative values */
+	private final Buckets positive = new Buckets();
+	private final Buckets negative = new Buckets();
+	/** number of zero values */
+	private long zeroCount = 0;
+
+	/**
+	 * Counts of logarithmic buckets
+	 */
+	private static final class Buckets implements Serializable
+	{
+		private static final long serialVersionUID = 4210924519201617485L;
+
+		/** bucket counts */
+		long[] counts = new long[0];
+		/** bucket index of counts[0] */
+		int offset = 0;
+		/** range of used bucket indices */
+		int minIndex = 0;
+		int maxIndex = 0;
+		/** total count */
+		long total = 0;
+
+		/**
+		 * add to bucket count
+		 * - if max. number of buckets is exceeded, lowest buckets are collapsed
+		 *
+		 * @param index bucket index
+		 * @param count count to add
+		 */
+		void add(int index, long count)
+		{
+			if (total == 0)
+			{
+				counts = new long[2 * SPARE_BUCKETS];
+				offset = index - SPARE_BUCKETS;
+				minIndex = index;
+				maxIndex = index;
+			}
+			maxIndex = Math.max(maxIndex, index);
+			int newMin = Math.max(Math.min(minIndex, index), maxIndex - MAX_BUCKETS + 1);
+			index = Math.max(index, newMin);
+			if (newMin < offset || maxIndex >= offset + counts.length)
+			{
+				// re-allocate with spare buckets on both sides
+				int newOffset = newMin - SPARE_BUCKETS;
+				long[] newCounts = new long[maxIndex - newMin + 1 + 2 * SPARE_BUCKETS];
+				for (int i = 0; i < counts.length; i++)
+				{
+					if (counts[i] != 0)
+					{
+						newCounts[Math.max(offset + i, newMin) - newOffset] += counts[i];
+					}
+				}
+				counts = newCounts;
+				offset = newOffset;
+			}
+			else
+			{
+				// collapse buckets below new min. index
+				for (int i = minIndex; i < newMin; i++)
+				{
+					counts[newMin - offset] += counts[i - offset];
+					counts[i - offset] = 0;
+				}
+			}
+			minIndex = newMin;
+			counts[index - offset] += count;
+			total += count;
+		}
+	}
+
+	/**
+	 * Create quantile sketch with default accuracy
+	 */
+	public QuantileSketch()
+	{
+		this(DEFAULT_ACCURACY);
+	}
+
+	/**
+	 * Create quantile sketch
+	 *
+	 * @param accuracy relative accuracy of quantiles (0..1)
+	 */
+	public QuantileSketch(double accuracy)
+	{
+		if (!(accuracy > 0 && accuracy < 1))
+		{
+			throw new IllegalArgumentException("accuracy: " + accuracy);
+		}
+		this.accuracy = accuracy;
+		gamma = (1 + accuracy) / (1 - accuracy);
+		logGamma = Math.log(gamma);
+	}
+
+	/**
+	 * Create copy of a quantile sketch
+	 *
+	 * @param source sketch to copy
+	 */
+	public QuantileSketch(QuantileSketch source)
+	{
+		this(source.accuracy);
+		merge(source);
+	}
+
+	/**
+	 * get relative accuracy
+	 *
+	 * @return relative accuracy of quantiles
+	 */
+	public double getAccuracy()
+	{
+		return accuracy;
+	}
+
+	/**
+	 * add a value (NaN and infinite values are ignored)
+	 *
+	 * @param value value to add
+	 */
+	public synchronized void add(double value)
+	{
+		if (Double.isNaN(value) || Double.isInfinite(value))
+		{
+			return;
+		}
+		if (value > MIN_MAGNITUDE)
+		{
+			positive.add(bucketIndex(value), 1);
+		}
+		else if (value < -MIN_MAGNITUDE)
+		{
+			negative.add(bucketIndex(-value), 1);
+		}
+		else
+		{
+			zeroCount++;
+		}
+	}
+
+	/**
+	 * merge counts of another sketch into this one
+	 *
+	 * @param other sketch with same accuracy
+	 */
+	public void merge(QuantileSketch other)
+	{
+		if (other.accuracy != accuracy)
+		{
+			throw new IllegalArgumentException("accuracy mismatch");
+		}
+		Buckets pos;
+		Buckets neg;
+		long zeros;
+		synchronized (other)
+		{
+			pos = copy(other.positive);
+			neg = copy(other.negative);
+			zeros = other.zeroCount;
+		}
+		synchronized (this)
+		{
+			mergeBuckets(positive, pos);
+			mergeBuckets(negative, neg);
+			zeroCount += zeros;
+		}
+	}
+
+	/**
+	 * get number of values
+	 *
+	 * @return number of values
+	 */
+	public synchronized long getCount()
+	{
+		return positive.total + negative.total + zeroCount;
+	}
+
+	/**
+	 * remove all values
+	 */
+	public synchronized void clear()
+	{
+		positive.counts = new long[0];
+		positive.total = 0;
+		negative.counts = new long[0];
+		negative.total = 0;
+		zeroCount = 0;
+	}
+
+	/**
+	 * estimate quantile
+	 *
+	 * @param quantile quantile (0..1, e.g. 0.5 for median)
+	 * @return estimated value of quantile, NaN if sketch is empty
+	 */
+	public synchronized double getQuantile(double quantile)
+	{
+		long count = getCount();
+		if (count == 0)
+		{
+			return Double.NaN;
+		}
+		long rank = (long) (Math.max(0, Math.min(1, quantile)) * (count - 1));
+		// negative values: largest magnitude first
+		if (rank < negative.total)
+		{
+			long sum = 0;
+			for (int i = negative.counts.length - 1; i >= 0; i--)
+			{
+				sum += negative.counts[i];
+				if (sum > rank)
+				{
+					return -bucketValue(negative.offset + i);
+				}
+			}
+		}
+		rank -= negative.total;
+		if (rank < zeroCount)
+		{
+			return 0;
+		}
+		rank -= zeroCount;
+		long sum = 0;
+		for (int i = 0; i < positive.counts.length; i++)
+		{
+			sum += positive.counts[i];
+			if (sum > rank)
+			{
+				return bucketValue(positive.offset + i);
+			}
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * get bucket index of a positive value
+	 *
+	 * @param value value (> 0)
+	 * @return bucket index
+	 */
+	private int bucketIndex(double value)
+	{
+		return (int) Math.ceil(Math.log(value) / logGamma);
+	}
+
+	/**
+	 * get representative value of a bucket
+	 *
+	 * @param index bucket index
+	 * @return value with min. relative error to all values of bucket
+	 */
+	private double bucketValue(int index)
+	{
+		return 2 * Math.pow(gamma, index) / (gamma + 1);
+	}
+
+	/**
+	 * copy buckets
+	 */
+	private static Buckets copy(Buckets source)
+	{
+		Buckets result = new Buckets();
+		result.counts = Arrays.copyOf(source.counts, source.counts.length);
+		result.offset = source.offset;
+		result.minIndex = source.minIndex;
+		result.maxIndex = source.maxIndex;
+		result.total = source.total;
+		return result;
+	}
+
+	/**
+	 * add bucket counts to target buckets
+	 */
+	private static void mergeBuckets(Buckets target, Buckets source)
+	{
+		for (int i = 0; i < source.counts.length; i++)
+		{
+			if (source.counts[i] != 0)
+			{
+				target.add(source.offset + i, source.counts[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,764 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.pvs;
+
+import java.io.Serializable;
+
+/**
+ * Bounded time series of numeric process variable values
+ *
+ * Samples (time, value) are kept in primitive ring arrays:
+ * - storage grows on demand up to the configured capacity
+ * - if capacity is reached, the oldest sample is replaced
+ * - samples older than retention time (relative to newest sample) are dropped
+ * - sample times are kept in ascending order to allow binary searches
+ *
+ * Samples are addressed by index, 0 being the oldest sample in buffer.
+ * The offset (number of samples dropped so far) allows to track indices
+ * across modifications.
+ *
+ * Snapshots share the sample arrays with the buffer (copy on write):
+ * the arrays are copied only if a shared sample is about to be overwritten.
+ *
+ * Optionally, samples which are dropped because of capacity or retention
+ * time are moved to a compressed history, which keeps the full history
+ * at a fraction of the memory.
+ *
+ * @author erwin
+ */
+public class TimeSeriesBuffer implements Serializable, PvSnapshotSupport
+{
+	private static final long serialVersionUID = 3270487263957730914L;
+
+	/** initial storage size */
+	private static final int INITIAL_SIZE = 256;
+
+	/** max. number of samples */
+	private final int capacity;
+	/** max. age of samples relative to newest sample [ms], 0 = unlimited */
+	private final long retentionTime;
+
+	/** sample times [ms] */
+	private long[] times;
+	/** sample values */
+	private double[] values;
+	/** array position of oldest sample */
+	private int head = 0;
+	/** number of samples in buffer */
+	private int count = 0;
+	/** number of samples dropped since creation */
+	private long offset = 0;
+
+	/** min/max of all values in buffer */
+	private double minValue = Double.NaN;
+	private double maxValue = Double.NaN;
+	/** min/max need to be re-calculated */
+	private boolean limitsDirty = false;
+	/** compressed history of dropped samples, null if none */
+	private CompressedTimeSeries history = null;
+	/** multi-resolution aggregates, created on first decimation */
+	private transient TimeSeriesPyramid pyramid = null;
+	/** sample arrays are shared with a snapshot */
+	private transient boolean shared = false;
+	/** array position of first shared sample */
+	private transient int sharedHead = 0;
+	/** number of shared samples */
+	private transient int sharedCount = 0;
+
+	/**
+	 * Create time series buffer without retention time
+	 *
+	 * @param capacity max. number of samples
+	 */
+	public TimeSeriesBuffer(int capacity)
+	{
+		this(capacity, 0);
+	}
+
+	/**
+	 * Create time series buffer
+	 *
+	 * @param capacity      max. number of samples
+	 * @param retentionTime max. age of samples relative to newest sample [ms], 0 = unlimited
+	 */
+	public TimeSeriesBuffer(int capacity, long retentionTime)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("capacity < 1");
+		}
+		this.capacity = capacity;
+		this.retentionTime = retentionTime;
+		int size = Math.min(capacity, INITIAL_SIZE);
+		times = new long[size];
+		values = new double[size];
+	}
+
+	/**
+	 * Create snapshot of a time series buffer
+	 *
+	 * @param source buffer to create snapshot of
+	 * @param count  number of (oldest) samples to include
+	 */
+	private TimeSeriesBuffer(TimeSeriesBuffer source, int count)
+	{
+		capacity = source.capacity;
+		retentionTime = source.retentionTime;
+		times = source.times;
+		values = source.values;
+		head = source.head;
+		offset = source.offset;
+		this.count = count;
+		limitsDirty = true;
+		// any modification of the snapshot requires a copy of the arrays
+		shared = true;
+		sharedHead = 0;
+		sharedCount = times.length;
+	}
+
+	/**
+	 * create snapshot of buffer contents
+	 * - the snapshot shares the sample arrays with this buffer,
+	 *   so taking a snapshot is cheap
+	 * - the snapshot is not affected by later changes of this buffer
+	 *
+	 * @param endTime only samples up to this time are included [ms]
+	 * @return snapshot of buffer
+	 */
+	@Override
+	public synchronized TimeSeriesBuffer snapshot(long endTime)
+	{
+		TimeSeriesBuffer result = new TimeSeriesBuffer(this, upperBound(endTime));
+		if (history != null)
+		{
+			result.history = history.snapshot(endTime);
+		}
+		if (shared)
+		{
+			// extend shared range up to newest sample
+			int length = times.length;
+			sharedCount = Math.min(length, Math.max(sharedCount,
+			                                        ((head - sharedHead + length) % length) + count));
+		}
+		else
+		{
+			shared = true;
+			sharedHead = head;
+			sharedCount = count;
+		}
+		return result;
+	}
+
+	/**
+	 * get max. number of samples
+	 *
+	 * @return max. number of samples
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * get retention time
+	 *
+	 * @return max. age of samples relative to newest sample [ms], 0 = unlimited
+	 */
+	public long getRetentionTime()
+	{
+		return retentionTime;
+	}
+
+	/**
+	 * set compressed history for samples which are dropped from buffer
+	 *
+	 * @param history compressed history, null to discard dropped samples
+	 */
+	public synchronized void setHistory(CompressedTimeSeries history)
+	{
+		this.history = history;
+	}
+
+	/**
+	 * get compressed history of samples dropped from buffer
+	 * - all history samples are older than the samples in buffer
+	 *
+	 * @return compressed history, null if none
+	 */
+	public synchronized CompressedTimeSeries getHistory()
+	{
+		return history;
+	}
+
+	/**
+	 * add a new sample
+	 * - a sample time before the newest sample is corrected to the newest sample time
+	 *
+	 * @param time  sample time [ms]
+	 * @param value sample value
+	 */
+	public synchronized void add(long time, double value)
+	{
+		if (count > 0)
+		{
+			time = Math.max(time, times[physical(count - 1)]);
+		}
+		if (count == times.length)
+		{
+			if (count < capacity)
+			{
+				grow();
+			}
+			else
+			{
+				moveToHistory();
+			}
+		}
+		int pos = physical(count);
+		if (shared && (pos - sharedHead + times.length) % times.length < sharedCount)
+		{
+			// sample is shared with snapshot, detach from snapshot
+			times = times.clone();
+			values = values.clone();
+			shared = false;
+		}
+		times[pos] = time;
+		values[pos] = value;
+		count++;
+		// drop samples which exceeded retention time
+		if (retentionTime > 0)
+		{
+			while (count > 1 && time - times[head] > retentionTime)
+			{
+				moveToHistory();
+			}
+		}
+		if (pyramid != null)
+		{
+			pyramid.add(offset + count - 1, value);
+		}
+		// update limits
+		if (!limitsDirty)
+		{
+			if (count == 1 || value < minValue) minValue = value;
+			if (count == 1 || value > maxValue) maxValue = value;
+		}
+	}
+
+	/**
+	 * insert a sample at specified index
+	 * - the sample time is limited to the times of the neighbouring samples
+	 *   to keep samples in time order
+	 * - if capacity is reached, the oldest sample is dropped
+	 *
+	 * @param index index to insert sample at (size() appends sample)
+	 * @param time  sample time [ms]
+	 * @param value sample value
+	 */
+	public synchronized void add(int index, long time, double value)
+	{
+		if (index < 0 || index > count)
+		{
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+		if (index == count)
+		{
+			add(time, value);
+			return;
+		}
+		time = Math.min(time, times[physical(index)]);
+		if (index > 0)
+		{
+			time = Math.max(time, times[physical(index - 1)]);
+		}
+		if (count == times.length)
+		{
+			if (count < capacity)
+			{
+				grow();
+			}
+			else if (index == 0)
+			{
+				// inserted sample would be the oldest one to be dropped
+				if (history != null)
+				{
+					history.add(time, value);
+				}
+				offset++;
+				return;
+			}
+			else
+			{
+				moveToHistory();
+				index--;
+			}
+		}
+		detach();
+		// move newer samples up by one
+		for (int i = count; i > index; i--)
+		{
+			int to = physical(i);
+			int from = physical(i - 1);
+			times[to] = times[from];
+			values[to] = values[from];
+		}
+		int pos = physical(index);
+		times[pos] = time;
+		values[pos] = value;
+		count++;
+		// aggregates refer to sample positions
+		pyramid = null;
+		if (!limitsDirty)
+		{
+			if (count == 1 || value < minValue) minValue = value;
+			if (count == 1 || value > maxValue) maxValue = value;
+		}
+	}
+
+	/**
+	 * remove sample at specified index
+	 *
+	 * @param index sample index (0 = oldest)
+	 */
+	public synchronized void remove(int index)
+	{
+		checkIndex(index);
+		if (index == 0)
+		{
+			dropOldest();
+		}
+		else
+		{
+			double value = values[physical(index)];
+			if (value <= minValue || value >= maxValue)
+			{
+				limitsDirty = true;
+			}
+			detach();
+			// move newer samples down by one
+			for (int i = index; i < count - 1; i++)
+			{
+				int to = physical(i);
+				int from = physical(i + 1);
+				times[to] = times[from];
+				values[to] = values[from];
+			}
+			count--;
+		}
+		// aggregates refer to sample positions
+		pyramid = null;
+	}
+
+	/**
+	 * remove all samples
+	 */
+	public synchronized void clear()
+	{
+		if (history != null)
+		{
+			history.clear();
+		}
+		offset += count;
+		head = 0;
+		count = 0;
+		minValue = Double.NaN;
+		maxValue = Double.NaN;
+		limitsDirty = false;
+		pyramid = null;
+	}
+
+	/**
+	 * get number of samples in buffer
+	 *
+	 * @return number of samples
+	 */
+	public synchronized int size()
+	{
+		return count;
+	}
+
+	/**
+	 * get number of samples dropped since creation
+	 * - index of a sample changes by the difference of offsets
+	 *
+	 * @return number of dropped samples
+	 */
+	public synchronized long getOffset()
+	{
+		return offset;
+	}
+
+	/**
+	 * get sample time
+	 *
+	 * @param index sample index (0 = oldest)
+	 * @return sample time [ms]
+	 */
+	public synchronized long getTime(int index)
+	{
+		checkIndex(index);
+		return times[physical(index)];
+	}
+
+	/**
+	 * get sample value
+	 *
+	 * @param index sample index (0 = oldest)
+	 * @return sample value
+	 */
+	public synchronized double getValue(int index)
+	{
+		checkIndex(index);
+		return values[physical(index)];
+	}
+
+	/**
+	 * copy samples into arrays
+	 *
+	 * @param index     index of first sample to copy
+	 * @param timesOut  sample times
+	 * @param valuesOut sample values
+	 * @param maxCount  max. number of samples to copy
+	 * @return number of copied samples
+	 */
+	public synchronized int copy(int index, long[] timesOut, double[] valuesOut, int maxCount)
+	{
+		int n = Math.max(0, Math.min(maxCount, count - index));
+		for (int i = 0; i < n; i++)
+		{
+			int pos = physical(index + i);
+			timesOut[i] = times[pos];
+			valuesOut[i] = values[pos];
+		}
+		return n;
+	}
+
+	/**
+	 * get index of first sample with time &gt;= specified time
+	 *
+	 * @param time time to search for [ms]
+	 * @return index of sample, size() if all samples are older
+	 */
+	public synchronized int lowerBound(long time)
+	{
+		int lo = 0;
+		int hi = count;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (times[physical(mid)] < time)
+			{
+				lo = mid + 1;
+			}
+			else
+			{
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * get index of first sample with time &gt; specified time
+	 *
+	 * @param time time to search for [ms]
+	 * @return index of sample, size() if no sample is newer
+	 */
+	public synchronized int upperBound(long time)
+	{
+		int lo = 0;
+		int hi = count;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (times[physical(mid)] <= time)
+			{
+				lo = mid + 1;
+			}
+			else
+			{
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * get minimum value of all samples in buffer
+	 *
+	 * @return minimum value, NaN if buffer is empty
+	 */
+	public synchronized double getMinValue()
+	{
+		updateLimits();
+		return minValue;
+	}
+
+	/**
+	 * get maximum value of all samples in buffer
+	 *
+	 * @return maximum value, NaN if buffer is empty
+	 */
+	public synchronized double getMaxValue()
+	{
+		updateLimits();
+		return maxValue;
+	}
+
+	/**
+	 * get mean value of samples within index range [from, to)
+	 *
+	 * @param from index of first sample
+	 * @param to   index after last sample
+	 * @return mean value, NaN if range is empty
+	 */
+	public synchronized double getMeanValue(int from, int to)
+	{
+		if (from >= to)
+		{
+			return Double.NaN;
+		}
+		checkIndex(from);
+		checkIndex(to - 1);
+		getPyramid().query(this, offset + from, offset + to);
+		return pyramid.sum / (to - from);
+	}
+
+	/**
+	 * get decimated samples within index range [from, to)
+	 *
+	 * The time span of the range is split into equal columns,
+	 * for each column the min and max sample are returned in time order.
+	 * The first and last sample of the range are always returned.
+	 * If the range contains no more than (2 * columns + 2) samples,
+	 * all samples are returned.
+	 *
+	 * @param from       index of first sample
+	 * @param to         index after last sample
+	 * @param columns    number of columns (e.g. horizontal pixels)
+	 * @param timesOut   sample times, size &gt;= (2 * columns + 2)
+	 * @param valuesOut  sample values, size &gt;= (2 * columns + 2)
+	 * @return number of returned samples
+	 */
+	public synchronized int decimate(int from, int to, int columns,
+	                                 long[] timesOut, double[] valuesOut)
+	{
+		if (from >= to)
+		{
+			return 0;
+		}
+		checkIndex(from);
+		checkIndex(to - 1);
+		int n = 0;
+		// small ranges are returned unchanged
+		if (to - from <= 2 * columns + 2)
+		{
+			for (int i = from; i < to; i++, n++)
+			{
+				timesOut[n] = times[physical(i)];
+				valuesOut[n] = values[physical(i)];
+			}
+			return n;
+		}
+		TimeSeriesPyramid aggregates = getPyramid();
+		long startTime = times[physical(from)];
+		long timeSpan = times[physical(to - 1)] - startTime;
+		// first sample
+		timesOut[n] = startTime;
+		valuesOut[n++] = values[physical(from)];
+		// min/max of each column, excluding first/last sample
+		int colStart = from + 1;
+		for (int col = 1; col <= columns && colStart < to - 1; col++)
+		{
+			int colEnd = to - 1;
+			if (col < columns)
+			{
+				long colEndTime = startTime + (long) ((double) timeSpan * col / columns);
+				colEnd = Math.max(colStart, Math.min(colEnd, lowerBound(colEndTime)));
+			}
+			if (colEnd > colStart)
+			{
+				aggregates.query(this, offset + colStart, offset + colEnd);
+				long first = Math.min(aggregates.minPos, aggregates.maxPos);
+				long last = Math.max(aggregates.minPos, aggregates.maxPos);
+				n = addDecimated((int) (first - offset), n, timesOut, valuesOut);
+				if (last != first)
+				{
+					n = addDecimated((int) (last - offset), n, timesOut, valuesOut);
+				}
+				colStart = colEnd;
+			}
+		}
+		// last sample
+		return addDecimated(to - 1, n, timesOut, valuesOut);
+	}
+
+	/**
+	 * add sample to decimation result
+	 *
+	 * @param index     sample index
+	 * @param n         number of samples in result
+	 * @param timesOut  sample times
+	 * @param valuesOut sample values
+	 * @return new number of samples in result
+	 */
+	private int addDecimated(int index, int n, long[] timesOut, double[] valuesOut)
+	{
+		timesOut[n] = times[physical(index)];
+		valuesOut[n] = values[physical(index)];
+		return n + 1;
+	}
+
+	/**
+	 * get multi-resolution aggregates, create them if required
+	 *
+	 * @return aggregates of all samples in buffer
+	 */
+	private TimeSeriesPyramid getPyramid()
+	{
+		if (pyramid == null)
+		{
+			pyramid = new TimeSeriesPyramid(capacity, offset);
+			for (int i = 0; i < count; i++)
+			{
+				pyramid.add(offset + i, values[physical(i)]);
+			}
+		}
+		return pyramid;
+	}
+
+	/**
+	 * get sample value by absolute position
+	 * - caller has to hold the buffer lock
+	 *
+	 * @param position absolute sample position (offset + index)
+	 * @return sample value
+	 */
+	double valueAt(long position)
+	{
+		return values[physical((int) (position - offset))];
+	}
+
+	/**
+	 * get array position of sample index
+	 *
+	 * @param index sample index
+	 * @return array position
+	 */
+	private int physical(int index)
+	{
+		int pos = head + index;
+		return (pos < times.length) ? pos : pos - times.length;
+	}
+
+	/**
+	 * check validity of sample index
+	 *
+	 * @param index sample index
+	 */
+	private void checkIndex(int index)
+	{
+		if (index < 0 || index >= count)
+		{
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+	}
+
+	/**
+	 * increase storage size (up to capacity)
+	 */
+	private void grow()
+	{
+		int size = (int) Math.min(capacity, 2L * times.length);
+		long[] newTimes = new long[size];
+		double[] newValues = new double[size];
+		// copy samples in ascending order
+		int firstPart = Math.min(count, times.length - head);
+		System.arraycopy(times, head, newTimes, 0, firstPart);
+		System.arraycopy(values, head, newValues, 0, firstPart);
+		System.arraycopy(times, 0, newTimes, firstPart, count - firstPart);
+		System.arraycopy(values, 0, newValues, firstPart, count - firstPart);
+		times = newTimes;
+		values = newValues;
+		head = 0;
+		shared = false;
+	}
+
+	/**
+	 * copy sample arrays if they are shared with a snapshot
+	 */
+	private void detach()
+	{
+		if (shared)
+		{
+			times = times.clone();
+			values = values.clone();
+			shared = false;
+		}
+	}
+
+	/**
+	 * drop oldest sample, and move it to history (if any)
+	 */
+	private void moveToHistory()
+	{
+		if (history != null)
+		{
+			history.add(times[head], values[head]);
+		}
+		dropOldest();
+	}
+
+	/**
+	 * drop oldest sample
+	 */
+	private void dropOldest()
+	{
+		double value = values[head];
+		// dropping a limit value requires re-calculation of limits
+		if (value <= minValue || value >= maxValue)
+		{
+			limitsDirty = true;
+		}
+		head = physical(1);
+		count--;
+		offset++;
+	}
+
+	/**
+	 * re-calculate min/max limits if required
+	 * - limits are taken from the aggregates, so dropping a limit value
+	 *   does not require a scan of all samples
+	 */
+	private void updateLimits()
+	{
+		if (limitsDirty)
+		{
+			minValue = Double.NaN;
+			maxValue = Double.NaN;
+			if (count > 0)
+			{
+				getPyramid().query(this, offset, offset + count);
+				minValue = pyramid.min;
+				maxValue = pyramid.max;
+			}
+			limitsDirty = false;
+		}
+	}
+}
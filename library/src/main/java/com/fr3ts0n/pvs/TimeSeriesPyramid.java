@@ -0,0 +1,198 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.pvs;
+
+/**
+ * Multi-resolution min/max/sum aggregates of a TimeSeriesBuffer
+ *
+ * Samples are addressed by absolute position (buffer offset + index).
+ * Level 0 aggregates buckets of 16 samples, each further level aggregates
+ * 4 times as many samples. Buckets are kept in rings which are large enough
+ * to cover the whole buffer capacity, and are updated on each added sample.
+ *
+ * Aggregates of any position range are calculated from the largest buckets
+ * which fit into the range, so the cost of a query does not depend on
+ * the length of the range.
+ *
+ * @author erwin
+ */
+final class TimeSeriesPyramid
+{
+	/** bucket size of level 0 (2^n samples) */
+	private static final int BASE_SHIFT = 4;
+	/** bucket size factor between levels (2^n) */
+	private static final int LEVEL_SHIFT = 2;
+
+	/** bucket size of each level (2^n samples) */
+	private final int[] shifts;
+	/** min value of each bucket */
+	private final double[][] minValues;
+	/** max value of each bucket */
+	private final double[][] maxValues;
+	/** sum of values of each bucket */
+	private final double[][] sums;
+	/** position of min value of each bucket */
+	private final long[][] minPositions;
+	/** position of max value of each bucket */
+	private final long[][] maxPositions;
+	/** position of first sample added */
+	private final long start;
+
+	/** results of last range query */
+	double min;
+	double max;
+	double sum;
+	long minPos;
+	long maxPos;
+
+	/**
+	 * Create aggregates
+	 *
+	 * @param capacity max. number of samples in buffer
+	 * @param start    position of first sample to be added
+	 */
+	TimeSeriesPyramid(int capacity, long start)
+	{
+		int levels = 0;
+		for (int shift = BASE_SHIFT; (1L << shift) <= capacity; shift += LEVEL_SHIFT)
+		{
+			levels++;
+		}
+		shifts = new int[levels];
+		minValues = new double[levels][];
+		maxValues = new double[levels][];
+		sums = new double[levels][];
+		minPositions = new long[levels][];
+		maxPositions = new long[levels][];
+		for (int level = 0; level < levels; level++)
+		{
+			shifts[level] = BASE_SHIFT + level * LEVEL_SHIFT;
+			// buffer contents may span over one incomplete bucket on each end
+			int size = (capacity >> shifts[level]) + 2;
+			minValues[level] = new double[size];
+			maxValues[level] = new double[size];
+			sums[level] = new double[size];
+			minPositions[level] = new long[size];
+			maxPositions[level] = new long[size];
+		}
+		this.start = start;
+	}
+
+	/**
+	 * add sample to aggregates
+	 *
+	 * @param position absolute sample position
+	 * @param value    sample value
+	 */
+	void add(long position, double value)
+	{
+		for (int level = 0; level < shifts.length; level++)
+		{
+			int shift = shifts[level];
+			int slot = (int) ((position >> shift) % sums[level].length);
+			if ((position & ((1L << shift) - 1)) == 0 || position == start)
+			{
+				// first sample of bucket
+				minValues[level][slot] = value;
+				maxValues[level][slot] = value;
+				sums[level][slot] = value;
+				minPositions[level][slot] = position;
+				maxPositions[level][slot] = position;
+			}
+			else
+			{
+				if (value < minValues[level][slot])
+				{
+					minValues[level][slot] = value;
+					minPositions[level][slot] = position;
+				}
+				if (value > maxValues[level][slot])
+				{
+					maxValues[level][slot] = value;
+					maxPositions[level][slot] = position;
+				}
+				sums[level][slot] += value;
+			}
+		}
+	}
+
+	/**
+	 * calculate aggregates of position range [from, to)
+	 * - results are stored in min, max, sum, minPos, maxPos
+	 * - caller has to hold the buffer lock
+	 *
+	 * @param buffer buffer providing raw samples
+	 * @param from   first absolute position of range
+	 * @param to     absolute position after range (&gt; from)
+	 */
+	void query(TimeSeriesBuffer buffer, long from, long to)
+	{
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+		sum = 0;
+		long position = from;
+		while (position < to)
+		{
+			// find largest bucket starting at position which fits into range
+			int level = shifts.length - 1;
+			while (level >= 0
+			       && ((position & ((1L << shifts[level]) - 1)) != 0
+			           || position + (1L << shifts[level]) > to))
+			{
+				level--;
+			}
+			if (level >= 0)
+			{
+				int slot = (int) ((position >> shifts[level]) % sums[level].length);
+				merge(minValues[level][slot], minPositions[level][slot],
+				      maxValues[level][slot], maxPositions[level][slot],
+				      sums[level][slot]);
+				position += 1L << shifts[level];
+			}
+			else
+			{
+				// no bucket fits, use raw sample
+				double value = buffer.valueAt(position);
+				merge(value, position, value, position, value);
+				position++;
+			}
+		}
+	}
+
+	/**
+	 * merge aggregates into query results
+	 * - on equal values the first position is kept
+	 */
+	private void merge(double minValue, long minPosition,
+	                   double maxValue, long maxPosition,
+	                   double valueSum)
+	{
+		if (minValue < min)
+		{
+			min = minValue;
+			minPos = minPosition;
+		}
+		if (maxValue > max)
+		{
+			max = maxValue;
+			maxPos = maxPosition;
+		}
+		sum += valueSum;
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.pvs.io;
+
+import com.fr3ts0n.pvs.ProcessVar;
+
+/**
+ * Mapping of process variable attributes for binary streams
+ *
+ * Allows to store attributes which are not directly supported by the
+ * stream format, e.g. as references into a catalog.
+ *
+ * @author erwin
+ */
+public interface PvAttributeMapper
+{
+	/**
+	 * map attribute value for writing
+	 *
+	 * @param pv    process variable which owns the attribute
+	 * @param key   attribute key
+	 * @param value attribute value
+	 * @return value to be stored, null to skip attribute
+	 */
+	Object toStored(ProcessVar pv, Object key, Object value);
+
+	/**
+	 * map stored attribute value after reading
+	 * - all other attributes of the process variable are already restored
+	 *
+	 * @param pv    process variable which owns the attribute
+	 * @param key   attribute key
+	 * @param value stored value
+	 * @return value to be set, null to skip attribute
+	 */
+	Object fromStored(ProcessVar pv, Object key, Object value);
+}
@@ -0,0 +1,431 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.pvs.io;
+
+import com.fr3ts0n.pvs.ProcessVar;
+import com.fr3ts0n.pvs.PvList;
+import com.fr3ts0n.pvs.TimeSeriesBuffer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Reader for process variable change journals written by PvJournalWriter
+ *
+ * Change records are read one by one with next(). The journal ends at
+ * the first incomplete or corrupted frame, which is reported by
+ * isTruncated().
+ *
+ * @author erwin
+ */
+public class PvJournalReader implements Closeable
+{
+	/** Logger object */
+	private static final Logger log = Logger.getLogger("pvs.io");
+
+	/** journal input */
+	private final DataInputStream in;
+	/** checksum of frames */
+	private final CRC32 crc = new CRC32();
+	/** defined items: id -> {PV key value, attribute key} */
+	private final List<Object[]> items = new ArrayList<>();
+
+	/** payload of current frame */
+	private byte[] frame = new byte[65536];
+	/** length of current frame */
+	private int frameLength = 0;
+	/** read position within current frame */
+	private int pos = 0;
+	/** base time of current frame [ms] */
+	private long frameTime;
+	/** journal end is reached */
+	private boolean finished = false;
+	/** journal ended with incomplete/corrupted frame */
+	private boolean truncated = false;
+
+	/** current change record */
+	private long time;
+	private Object[] item;
+	private Object value;
+
+	/**
+	 * Create reader and read journal header
+	 *
+	 * @param inStream input stream
+	 * @throws IOException on read errors, or if stream is not a journal
+	 */
+	public PvJournalReader(InputStream inStream) throws IOException
+	{
+		in = new DataInputStream(new BufferedInputStream(inStream, 65536));
+		if (in.readInt() != PvJournalWriter.MAGIC)
+		{
+			throw new IOException("No PV journal");
+		}
+		int version = in.readShort();
+		if (version > PvJournalWriter.VERSION)
+		{
+			throw new IOException("Unsupported PV journal version: " + version);
+		}
+	}
+
+	/**
+	 * advance to next change record
+	 *
+	 * @return true if a change record is available, false at end of journal
+	 * @throws IOException on read errors, or corrupted records
+	 */
+	public boolean next() throws IOException
+	{
+		while (true)
+		{
+			if (pos >= frameLength && !readFrame())
+			{
+				return false;
+			}
+			try
+			{
+				int type = frame[pos++] & 0xFF;
+				switch (type)
+				{
+					case PvJournalWriter.R_SESSION:
+						items.clear();
+						break;
+
+					case PvJournalWriter.R_DEFINE:
+					{
+						int id = (int) readVarLong();
+						Object pvKey = readValue(frame[pos++] & 0xFF);
+						Object attribute = readValue(frame[pos++] & 0xFF);
+						if (id != items.size() || pos > frameLength)
+						{
+							throw new IOException("Invalid item id: " + id);
+						}
+						items.add(new Object[]{pvKey, attribute});
+						break;
+					}
+
+					default:
+					{
+						time += unzigzag(readVarLong());
+						int id = (int) readVarLong();
+						if (id >= items.size())
+						{
+							throw new IOException("Undefined item id: " + id);
+						}
+						item = items.get(id);
+						value = readValue(type);
+						if (pos > frameLength)
+						{
+							throw new IOException("Corrupted journal record");
+						}
+						return true;
+					}
+				}
+			}
+			catch (ArrayIndexOutOfBoundsException e)
+			{
+				throw new IOException("Corrupted journal record", e);
+			}
+		}
+	}
+
+	/** @return time of current change [ms] */
+	public long getTime()
+	{
+		return time;
+	}
+
+	/** @return key value of changed PV */
+	public Object getPvKey()
+	{
+		return item[0];
+	}
+
+	/** @return key of changed attribute */
+	public Object getAttribute()
+	{
+		return item[1];
+	}
+
+	/** @return new value of changed attribute */
+	public Object getValue()
+	{
+		return value;
+	}
+
+	/**
+	 * check if journal ended with an incomplete or corrupted frame
+	 * (i.e. recording was interrupted by a crash)
+	 *
+	 * @return true if journal was truncated
+	 */
+	public boolean isTruncated()
+	{
+		return truncated;
+	}
+
+	/**
+	 * replay changes into list of process variables
+	 * - PVs which are not within the list are created
+	 *
+	 * @param target  list of process variables to apply changes to
+	 * @param endTime time [ms] up to which changes are applied
+	 * @return number of changes applied
+	 * @throws IOException on read errors
+	 */
+	public int replay(PvList target, long endTime) throws IOException
+	{
+		int count = 0;
+		while (next())
+		{
+			if (time > endTime)
+			{
+				// following frames are all later
+				if (frameTime > endTime)
+				{
+					break;
+				}
+				continue;
+			}
+			ProcessVar pv = (ProcessVar) target.get(getPvKey());
+			if (pv == null)
+			{
+				pv = new ProcessVar();
+				pv.setKeyValue(getPvKey());
+				target.put(getPvKey(), pv);
+			}
+			pv.put(getAttribute(), value);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * read numeric changes of a single item into a time series
+	 *
+	 * @param pvKey     key value of PV
+	 * @param attribute key of attribute
+	 * @param startTime start time [ms] of series
+	 * @param endTime   end time [ms] of series
+	 * @param series    series to add values to
+	 * @return number of values added
+	 * @throws IOException on read errors
+	 */
+	public int readSeries(Object pvKey, Object attribute, long startTime, long endTime,
+	                      TimeSeriesBuffer series) throws IOException
+	{
+		int count = 0;
+		while (next())
+		{
+			if (time > endTime)
+			{
+				if (frameTime > endTime)
+				{
+					break;
+				}
+				continue;
+			}
+			if (time >= startTime
+			    && value instanceof Number
+			    && equals(pvKey, getPvKey())
+			    && equals(attribute, getAttribute()))
+			{
+				series.add(time, ((Number) value).doubleValue());
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * close reader and underlying stream
+	 *
+	 * @throws IOException on errors
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	/**
+	 * read next complete frame
+	 *
+	 * @return true if frame was read, false at end of journal
+	 * @throws IOException on read errors
+	 */
+	private boolean readFrame() throws IOException
+	{
+		if (finished)
+		{
+			return false;
+		}
+		int first = in.read();
+		if (first < 0)
+		{
+			// clean end of journal
+			finished = true;
+			return false;
+		}
+		try
+		{
+			int length = (first << 24) | (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+			if (length < 8 || length > PvJournalWriter.MAX_FRAME_SIZE)
+			{
+				throw new EOFException("Invalid frame length: " + length);
+			}
+			if (length > frame.length)
+			{
+				frame = new byte[length];
+			}
+			in.readFully(frame, 0, length);
+			int checksum = in.readInt();
+			crc.reset();
+			crc.update(frame, 0, length);
+			if ((int) crc.getValue() != checksum)
+			{
+				throw new EOFException("Frame checksum error");
+			}
+			frameLength = length;
+		}
+		catch (EOFException e)
+		{
+			// incomplete or corrupted frame terminates the journal
+			log.warning("PV journal truncated: " + e.getMessage());
+			finished = true;
+			truncated = true;
+			return false;
+		}
+		// frame time base
+		long base = 0;
+		for (int i = 0; i < 8; i++)
+		{
+			base = (base << 8) | (frame[i] & 0xFF);
+		}
+		frameTime = base;
+		time = base;
+		pos = 8;
+		return true;
+	}
+
+	/**
+	 * read value of specified type from frame
+	 *
+	 * @param type value type
+	 * @return value read
+	 * @throws IOException on unknown value types
+	 */
+	private Object readValue(int type) throws IOException
+	{
+		switch (type)
+		{
+			case PvStreamWriter.T_NULL:
+				return null;
+			case PvStreamWriter.T_FALSE:
+				return Boolean.FALSE;
+			case PvStreamWriter.T_TRUE:
+				return Boolean.TRUE;
+			case PvStreamWriter.T_INT:
+				return (int) unzigzag(readVarLong());
+			case PvStreamWriter.T_LONG:
+				return unzigzag(readVarLong());
+			case PvStreamWriter.T_FLOAT:
+				return Float.intBitsToFloat((int) readBits(4));
+			case PvStreamWriter.T_DOUBLE:
+				return Double.longBitsToDouble(readBits(8));
+			case PvStreamWriter.T_STRING:
+			{
+				int length = (int) readVarLong();
+				if (pos + length > frameLength)
+				{
+					throw new IOException("Invalid string length: " + length);
+				}
+				String result = new String(frame, pos, length, PvStreamWriter.UTF8);
+				pos += length;
+				return result;
+			}
+			default:
+				throw new IOException("Unknown value type: " + type);
+		}
+	}
+
+	/**
+	 * read big endian bits from frame
+	 *
+	 * @param numBytes number of bytes
+	 * @return bits read
+	 */
+	private long readBits(int numBytes)
+	{
+		long bits = 0;
+		for (int i = 0; i < numBytes; i++)
+		{
+			bits = (bits << 8) | (frame[pos++] & 0xFF);
+		}
+		return bits;
+	}
+
+	/**
+	 * read unsigned variable length value (7 bits per byte) from frame
+	 *
+	 * @return value read
+	 * @throws IOException on invalid varints
+	 */
+	private long readVarLong() throws IOException
+	{
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			int b = frame[pos++];
+			result |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return result;
+			}
+		}
+		throw new IOException("Invalid varint");
+	}
+
+	/**
+	 * zigzag decoding of signed value
+	 *
+	 * @param value encoded value
+	 * @return signed value
+	 */
+	private static long unzigzag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * null safe equality of keys
+	 */
+	private static boolean equals(Object a, Object b)
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+}
@@ -0,0 +1,718 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.pvs.io;
+
+import com.fr3ts0n.pvs.ProcessVar;
+import com.fr3ts0n.pvs.PvChangeEvent;
+import com.fr3ts0n.pvs.PvChangeListener;
+import com.fr3ts0n.pvs.PvList;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of process variable changes
+ *
+ * The journal writer records every change of a simple attribute value
+ * (number, string, boolean) of the process variables of recorded lists
+ * as a compact change record. Records are collected in memory and
+ * appended to the journal in group commits, either if the commit size
+ * is reached, or if the commit interval has elapsed. Commits are done by
+ * a background thread, so writing and syncing the journal never blocks
+ * the thread which changes the process variables.
+ *
+ * Journal layout:
+ * - header: magic (int), format version (short)
+ * - frames: payload length (int), payload, CRC32 of payload (int)
+ *
+ * Frame payload:
+ * - base time [ms] (long) of first record in frame
+ * - records, each starting with a record type byte:
+ *   - R_SESSION: start of a writer session, item ids are reset
+ *   - R_DEFINE: item id (varint), PV key value, attribute key
+ *   - value type: time delta [ms] to previous record (zigzag varint),
+ *     item id (varint), value
+ *
+ * A frame which is incomplete, or has an invalid checksum (i.e. it was
+ * written while the app crashed) terminates the journal. All previously
+ * committed frames remain readable. When appending to an existing journal
+ * file, such a frame is removed before new frames are appended.
+ *
+ * @author erwin
+ */
+public class PvJournalWriter implements PvChangeListener, Closeable
+{
+	/** journal magic "PVJ1" */
+	static final int MAGIC = 0x50564A31;
+	/** current format version */
+	static final short VERSION = 1;
+
+	/** record types, values are typed as in PvStreamWriter */
+	static final int R_SESSION = 0x7E;
+	static final int R_DEFINE = 0x7F;
+
+	/** max. size of a frame payload */
+	static final int MAX_FRAME_SIZE = 0x100000;
+
+	/** events which are recorded */
+	private static final int RECORD_EVENTS = PvChangeEvent.PV_ADDED | PvChangeEvent.PV_MODIFIED;
+
+	/** Logger object */
+	private static final Logger log = Logger.getLogger("pvs.io");
+
+	/** journal output */
+	private final DataOutputStream out;
+	/** file output to be synced on commit, null if no sync */
+	private final FileOutputStream syncOut;
+	/** records of current (uncommitted) frame */
+	private final ByteArrayOutputStream frameBytes = new ByteArrayOutputStream(65536);
+	private final DataOutputStream frame = new DataOutputStream(frameBytes);
+	/** checksum of frames */
+	private final CRC32 crc = new CRC32();
+	/** item ids: PV key value -> attribute key -> id */
+	private final Map<Object, Map<Object, Integer>> itemIds = new HashMap<>();
+	/** number of defined items */
+	private int numItems = 0;
+	/** recorded process variables */
+	private final Set<ProcessVar> recorded
+		= Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<ProcessVar, Boolean>()));
+
+	/** time of last record [ms] */
+	private long lastTime;
+	/** time of first record in current frame [ms] */
+	private long frameStartTime;
+	/** commit interval [ms] */
+	private long commitInterval = 1000;
+	/** commit size [bytes] */
+	private int commitSize = 32768;
+	/** session marker is pending */
+	private boolean newSession = true;
+	/** journal is closed, or failed with write error */
+	private boolean closed = false;
+
+	/** background thread for timed and size triggered commits */
+	private final Thread committer = new Thread(new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				while (waitForCommit())
+				{
+					commit();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				log.fine("Journal commit thread stopped");
+			}
+			catch (IOException e)
+			{
+				log.log(Level.SEVERE, "Journal commit failed", e);
+			}
+		}
+	}, "PvJournal");
+
+	/**
+	 * Create journal writer on output stream
+	 *
+	 * @param outStream output stream
+	 * @throws IOException on write errors
+	 */
+	public PvJournalWriter(OutputStream outStream) throws IOException
+	{
+		this(outStream, true, null);
+	}
+
+	/**
+	 * Create journal writer which appends to journal file
+	 * - a new journal is created if file does not exist or is empty
+	 * - an incomplete or corrupted frame at the end of the journal is removed
+	 *
+	 * @param file journal file
+	 * @param sync sync file to storage device on each commit
+	 * @throws IOException on write errors, or if file is not a journal
+	 */
+	public PvJournalWriter(File file, boolean sync) throws IOException
+	{
+		this(new FileOutputStream(file, truncateJournal(file) > 0), file.length() == 0, sync);
+	}
+
+	/**
+	 * Create journal writer on file output stream
+	 */
+	private PvJournalWriter(FileOutputStream outStream, boolean writeHeader, boolean sync)
+		throws IOException
+	{
+		this(outStream, writeHeader, sync ? outStream : null);
+	}
+
+	/**
+	 * Create journal writer
+	 *
+	 * @param outStream   output stream
+	 * @param writeHeader write journal header
+	 * @param syncOut     file output to be synced on commit, null if no sync
+	 * @throws IOException on write errors
+	 */
+	private PvJournalWriter(OutputStream outStream, boolean writeHeader, FileOutputStream syncOut)
+		throws IOException
+	{
+		this.syncOut = syncOut;
+		out = new DataOutputStream(new BufferedOutputStream(outStream, 65536));
+		if (writeHeader)
+		{
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+		}
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * truncate journal file to it's last valid frame
+	 *
+	 * @param file journal file
+	 * @return length of valid journal [bytes], 0 if there is no valid header
+	 * @throws IOException on read/write errors, or if file is not a journal
+	 */
+	static long truncateJournal(File file) throws IOException
+	{
+		if (!file.exists())
+		{
+			return 0;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			long fileLength = raf.length();
+			long length = 0;
+			if (fileLength >= 6)
+			{
+				if (raf.readInt() != MAGIC)
+				{
+					throw new IOException("No PV journal: " + file);
+				}
+				raf.readShort();
+				length = 6;
+				CRC32 frameCrc = new CRC32();
+				byte[] payload = new byte[0];
+				while (length + 8 <= fileLength)
+				{
+					int frameLength = raf.readInt();
+					if (frameLength < 8
+					    || frameLength > MAX_FRAME_SIZE
+					    || length + 8 + frameLength > fileLength)
+					{
+						break;
+					}
+					if (frameLength > payload.length)
+					{
+						payload = new byte[frameLength];
+					}
+					raf.readFully(payload, 0, frameLength);
+					frameCrc.reset();
+					frameCrc.update(payload, 0, frameLength);
+					if ((int) frameCrc.getValue() != raf.readInt())
+					{
+						break;
+					}
+					length += 8 + frameLength;
+				}
+			}
+			if (length < fileLength)
+			{
+				log.warning(String.format("PV journal truncated: %s %d -> %d bytes",
+				                          file, fileLength, length));
+				raf.setLength(length);
+			}
+			return length;
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/**
+	 * set commit limits
+	 *
+	 * @param interval max. time [ms] between commits
+	 * @param size     max. size of records [bytes] between commits
+	 */
+	public synchronized void setCommitLimits(long interval, int size)
+	{
+		commitInterval = interval;
+		commitSize = Math.min(size, MAX_FRAME_SIZE / 2);
+	}
+
+	/**
+	 * start recording of all process variables within a list
+	 * - current attribute values are recorded immediately
+	 * - process variables added to the list later on will be recorded as well
+	 *
+	 * @param list list of process variables to be recorded
+	 */
+	public void record(PvList list)
+	{
+		Object[] pvs;
+		synchronized (list)
+		{
+			list.addPvChangeListener(this, PvChangeEvent.PV_ADDED);
+			pvs = list.values().toArray();
+		}
+		for (Object pv : pvs)
+		{
+			if (pv instanceof ProcessVar)
+			{
+				record((ProcessVar) pv);
+			}
+		}
+	}
+
+	/**
+	 * start recording of a single process variable
+	 * - current attribute values are recorded immediately
+	 *
+	 * @param pv process variable to be recorded
+	 */
+	public void record(ProcessVar pv)
+	{
+		if (!recorded.add(pv))
+		{
+			return;
+		}
+		Object[] keys;
+		Object[] values;
+		synchronized (pv)
+		{
+			pv.addPvChangeListener(this, RECORD_EVENTS);
+			keys = pv.keySet().toArray();
+			values = new Object[keys.length];
+			for (int i = 0; i < keys.length; i++)
+			{
+				values[i] = pv.get(keys[i]);
+			}
+		}
+		long time = System.currentTimeMillis();
+		for (int i = 0; i < keys.length; i++)
+		{
+			writeChange(time, pv.getKeyValue(), keys[i], values[i]);
+		}
+	}
+
+	/**
+	 * stop recording of a list and all of it's process variables
+	 *
+	 * @param list list of process variables
+	 */
+	public void release(PvList list)
+	{
+		Object[] pvs;
+		synchronized (list)
+		{
+			list.removePvChangeListener(this);
+			pvs = list.values().toArray();
+		}
+		for (Object pv : pvs)
+		{
+			if (pv instanceof ProcessVar && recorded.remove(pv))
+			{
+				((ProcessVar) pv).removePvChangeListener(this);
+			}
+		}
+	}
+
+	/**
+	 * Implementation of PvChangeListener
+	 * - changes of recorded PVs are written as change records
+	 * - PVs added to recorded lists are recorded as well
+	 */
+	@Override
+	public void pvChanged(PvChangeEvent event)
+	{
+		if (event.isChildEvent() || (event.getType() & RECORD_EVENTS) == 0)
+		{
+			return;
+		}
+		ProcessVar source = (ProcessVar) event.getSource();
+		if (source instanceof PvList)
+		{
+			if (event.getValue() instanceof ProcessVar)
+			{
+				record((ProcessVar) event.getValue());
+			}
+			else if (event.getValue() instanceof Object[])
+			{
+				// multiple PVs added at once (putAll)
+				for (Object pv : (Object[]) event.getValue())
+				{
+					if (pv instanceof ProcessVar)
+					{
+						record((ProcessVar) pv);
+					}
+				}
+			}
+		}
+		else
+		{
+			writeChange(event.getTime(), source.getKeyValue(), event.getKey(), event.getValue());
+		}
+	}
+
+	/**
+	 * write change record
+	 * - changes of unsupported value types are ignored
+	 * - commit thread is notified if commit size is reached
+	 * - frame is committed immediately only if commit thread can't keep up
+	 *
+	 * @param time      time of change [ms]
+	 * @param pvKey     key value of changed PV
+	 * @param attribute key of changed attribute
+	 * @param value     new value
+	 */
+	private void writeChange(long time, Object pvKey, Object attribute, Object value)
+	{
+		if (!isSupported(pvKey) || !isSupported(attribute) || !isSupported(value))
+		{
+			return;
+		}
+		try
+		{
+			if (appendChange(time, pvKey, attribute, value))
+			{
+				commit();
+			}
+		}
+		catch (IOException e)
+		{
+			log.log(Level.SEVERE, "Journal write failed", e);
+			synchronized (this)
+			{
+				closed = true;
+			}
+		}
+	}
+
+	/**
+	 * append change record to current frame
+	 *
+	 * @param time      time of change [ms]
+	 * @param pvKey     key value of changed PV
+	 * @param attribute key of changed attribute
+	 * @param value     new value
+	 * @return true if frame exceeds max. frame size and has to be committed immediately
+	 * @throws IOException on write errors
+	 */
+	private synchronized boolean appendChange(long time, Object pvKey, Object attribute, Object value)
+		throws IOException
+	{
+		if (closed)
+		{
+			return false;
+		}
+		if (frameBytes.size() == 0)
+		{
+			// first record in frame defines the time base
+			frame.writeLong(time);
+			lastTime = time;
+			frameStartTime = System.currentTimeMillis();
+		}
+		if (newSession)
+		{
+			frame.writeByte(R_SESSION);
+			newSession = false;
+		}
+		int id = getItemId(pvKey, attribute);
+		writeValueType(value);
+		writeVarLong(zigzag(time - lastTime));
+		writeVarLong(id);
+		writeValueData(value);
+		lastTime = time;
+
+		if (frameBytes.size() >= commitSize)
+		{
+			notifyAll();
+		}
+		return frameBytes.size() >= MAX_FRAME_SIZE / 2 + commitSize;
+	}
+
+	/**
+	 * wait until current frame is due to be committed
+	 *
+	 * @return true if frame shall be committed, false if journal is closed
+	 * @throws InterruptedException if waiting thread is interrupted
+	 */
+	private synchronized boolean waitForCommit() throws InterruptedException
+	{
+		while (!closed)
+		{
+			long delay = commitInterval;
+			if (frameBytes.size() >= commitSize)
+			{
+				delay = 0;
+			}
+			else if (frameBytes.size() > 0)
+			{
+				delay = commitInterval - (System.currentTimeMillis() - frameStartTime);
+			}
+			if (delay <= 0)
+			{
+				return true;
+			}
+			wait(delay);
+		}
+		return false;
+	}
+
+	/**
+	 * get id of item, define new item on first use
+	 *
+	 * @param pvKey     key value of PV
+	 * @param attribute key of attribute
+	 * @return item id
+	 * @throws IOException on write errors
+	 */
+	private int getItemId(Object pvKey, Object attribute) throws IOException
+	{
+		Map<Object, Integer> attributes = itemIds.get(pvKey);
+		if (attributes == null)
+		{
+			attributes = new HashMap<>();
+			itemIds.put(pvKey, attributes);
+		}
+		Integer id = attributes.get(attribute);
+		if (id == null)
+		{
+			id = numItems++;
+			attributes.put(attribute, id);
+			frame.writeByte(R_DEFINE);
+			writeVarLong(id);
+			writeValueType(pvKey);
+			writeValueData(pvKey);
+			writeValueType(attribute);
+			writeValueData(attribute);
+		}
+		return id;
+	}
+
+	/**
+	 * commit all pending records to journal
+	 * - new records may be written while the frame is written and synced
+	 *
+	 * @throws IOException on write errors
+	 */
+	public void commit() throws IOException
+	{
+		synchronized (out)
+		{
+			byte[] payload;
+			synchronized (this)
+			{
+				if (closed || frameBytes.size() == 0)
+				{
+					return;
+				}
+				payload = frameBytes.toByteArray();
+				frameBytes.reset();
+			}
+			try
+			{
+				crc.reset();
+				crc.update(payload, 0, payload.length);
+				out.writeInt(payload.length);
+				out.write(payload);
+				out.writeInt((int) crc.getValue());
+				out.flush();
+				if (syncOut != null)
+				{
+					syncOut.getFD().sync();
+				}
+			}
+			catch (IOException e)
+			{
+				synchronized (this)
+				{
+					closed = true;
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * commit pending records and close journal
+	 *
+	 * @throws IOException on write errors
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (out)
+		{
+			try
+			{
+				commit();
+			}
+			finally
+			{
+				synchronized (this)
+				{
+					closed = true;
+					notifyAll();
+				}
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * check if value type can be recorded
+	 *
+	 * @param value value to be checked
+	 * @return true if value type is supported
+	 */
+	private static boolean isSupported(Object value)
+	{
+		return value == null
+		       || value instanceof String
+		       || value instanceof Integer
+		       || value instanceof Long
+		       || value instanceof Float
+		       || value instanceof Double
+		       || value instanceof Short
+		       || value instanceof Byte
+		       || value instanceof Boolean;
+	}
+
+	/**
+	 * write type byte of value
+	 *
+	 * @param value value to be written
+	 * @throws IOException on write errors
+	 */
+	private void writeValueType(Object value) throws IOException
+	{
+		int type;
+		if (value == null)
+		{
+			type = PvStreamWriter.T_NULL;
+		}
+		else if (value instanceof String)
+		{
+			type = PvStreamWriter.T_STRING;
+		}
+		else if (value instanceof Long)
+		{
+			type = PvStreamWriter.T_LONG;
+		}
+		else if (value instanceof Float)
+		{
+			type = PvStreamWriter.T_FLOAT;
+		}
+		else if (value instanceof Double)
+		{
+			type = PvStreamWriter.T_DOUBLE;
+		}
+		else if (value instanceof Boolean)
+		{
+			type = (Boolean) value ? PvStreamWriter.T_TRUE : PvStreamWriter.T_FALSE;
+		}
+		else
+		{
+			type = PvStreamWriter.T_INT;
+		}
+		frame.writeByte(type);
+	}
+
+	/**
+	 * write data of value (type is written separately)
+	 *
+	 * @param value value to be written
+	 * @throws IOException on write errors
+	 */
+	private void writeValueData(Object value) throws IOException
+	{
+		if (value instanceof String)
+		{
+			byte[] bytes = ((String) value).getBytes(PvStreamWriter.UTF8);
+			writeVarLong(bytes.length);
+			frame.write(bytes);
+		}
+		else if (value instanceof Float)
+		{
+			frame.writeFloat((Float) value);
+		}
+		else if (value instanceof Double)
+		{
+			frame.writeDouble((Double) value);
+		}
+		else if (value instanceof Long)
+		{
+			writeVarLong(zigzag((Long) value));
+		}
+		else if (value instanceof Number)
+		{
+			writeVarLong(zigzag(((Number) value).intValue()));
+		}
+	}
+
+	/**
+	 * zigzag encoding of signed value
+	 *
+	 * @param value signed value
+	 * @return encoded value (small magnitudes give small values)
+	 */
+	private static long zigzag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * write unsigned variable length value (7 bits per byte)
+	 *
+	 * @param value value to be written
+	 * @throws IOException on write errors
+	 */
+	private void writeVarLong(long value) throws IOException
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			frame.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		frame.writeByte((int) value);
+	}
+}
@@ -0,0 +1,367 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.pvs.io;
+
+import com.fr3ts0n.pvs.ProcessVar;
+import com.fr3ts0n.pvs.PvList;
+import com.fr3ts0n.pvs.TimeSeriesBuffer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reader for process variables in compact binary stream format
+ * written by PvStreamWriter
+ *
+ * Values are read one by one from the stream, so stream size is not
+ * limited by available memory. Process variables are re-created by
+ * class name, unknown classes are replaced by a generic PV/PvList.
+ *
+ * @author erwin
+ */
+public class PvStreamReader implements Closeable
+{
+	/** Logger object */
+	private static final Logger log = Logger.getLogger("pvs.io");
+
+	/** data input */
+	private final DataInputStream in;
+	/** inflater of compressed stream, null if not compressed */
+	private final Inflater inflater;
+	/** attribute mapper, null if none */
+	private final PvAttributeMapper mapper;
+	/** format version of stream */
+	private final int version;
+	/** string pool: index -> string */
+	private final List<String> strings = new ArrayList<>();
+	/** buffers of series blocks */
+	private final long[] blockTimes = new long[PvStreamWriter.BLOCK_SIZE];
+	private final byte[] blockBytes = new byte[PvStreamWriter.BLOCK_SIZE * 18];
+
+	/**
+	 * Create reader and read stream header
+	 *
+	 * @param inStream input stream
+	 * @param mapper   mapper of attribute values, null if none
+	 * @throws IOException on read errors, or if stream is not in PV stream format
+	 */
+	public PvStreamReader(InputStream inStream, PvAttributeMapper mapper)
+		throws IOException
+	{
+		this.mapper = mapper;
+		DataInputStream header = new DataInputStream(inStream);
+		if (header.readInt() != PvStreamWriter.MAGIC)
+		{
+			throw new IOException("No PV stream");
+		}
+		version = header.readShort();
+		if (version > PvStreamWriter.VERSION)
+		{
+			throw new IOException("Unsupported PV stream version: " + version);
+		}
+		int flags = header.readByte();
+		if ((flags & PvStreamWriter.FLAG_COMPRESSED) != 0)
+		{
+			inflater = new Inflater();
+			inStream = new InflaterInputStream(inStream, inflater, 65536);
+		}
+		else
+		{
+			inflater = null;
+		}
+		in = new DataInputStream(new BufferedInputStream(inStream, 65536));
+	}
+
+	/**
+	 * check if stream starts with PV stream header
+	 * - stream has to support mark/reset, stream position is restored
+	 *
+	 * @param inStream input stream to check
+	 * @return true if stream is in PV stream format
+	 * @throws IOException on read errors
+	 */
+	public static boolean isPvStream(InputStream inStream) throws IOException
+	{
+		inStream.mark(4);
+		try
+		{
+			int magic = 0;
+			for (int i = 0; i < 4; i++)
+			{
+				int b = inStream.read();
+				if (b < 0)
+				{
+					return false;
+				}
+				magic = (magic << 8) | b;
+			}
+			return magic == PvStreamWriter.MAGIC;
+		}
+		finally
+		{
+			inStream.reset();
+		}
+	}
+
+	/**
+	 * get format version of stream
+	 *
+	 * @return format version
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * read next value
+	 *
+	 * @return value read
+	 * @throws IOException on read errors, EOFException at end of stream
+	 */
+	public Object readObject() throws IOException
+	{
+		return readValue();
+	}
+
+	/**
+	 * close reader and underlying stream
+	 *
+	 * @throws IOException on errors
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			in.close();
+		}
+		finally
+		{
+			if (inflater != null)
+			{
+				inflater.end();
+			}
+		}
+	}
+
+	/**
+	 * read a typed value
+	 *
+	 * @return value read
+	 * @throws IOException on read errors or unknown value types
+	 */
+	private Object readValue() throws IOException
+	{
+		int type = in.readUnsignedByte();
+		switch (type)
+		{
+			case PvStreamWriter.T_NULL:
+				return null;
+			case PvStreamWriter.T_FALSE:
+				return Boolean.FALSE;
+			case PvStreamWriter.T_TRUE:
+				return Boolean.TRUE;
+			case PvStreamWriter.T_INT:
+				return (int) unzigzag(readVarLong());
+			case PvStreamWriter.T_LONG:
+				return unzigzag(readVarLong());
+			case PvStreamWriter.T_FLOAT:
+				return in.readFloat();
+			case PvStreamWriter.T_DOUBLE:
+				return in.readDouble();
+			case PvStreamWriter.T_STRING:
+			{
+				byte[] bytes = new byte[(int) readVarLong()];
+				in.readFully(bytes);
+				String result = new String(bytes, PvStreamWriter.UTF8);
+				strings.add(result);
+				return result;
+			}
+			case PvStreamWriter.T_STRING_REF:
+				return strings.get((int) readVarLong());
+			case PvStreamWriter.T_PV:
+				return readPv();
+			case PvStreamWriter.T_SERIES:
+				return readSeries();
+			default:
+				throw new IOException("Unknown value type: " + type);
+		}
+	}
+
+	/**
+	 * read process variable with all attributes
+	 *
+	 * @return process variable
+	 * @throws IOException on read errors
+	 */
+	private ProcessVar readPv() throws IOException
+	{
+		ProcessVar pv = createPv(String.valueOf(readValue()));
+		pv.setKeyAttribute(readValue());
+		int count = (int) readVarLong();
+		Object[] keys = new Object[count];
+		Object[] values = new Object[count];
+		for (int i = 0; i < count; i++)
+		{
+			keys[i] = readValue();
+			values[i] = readValue();
+			pv.put(keys[i], values[i]);
+		}
+		// map stored values, once all attributes are available
+		if (mapper != null)
+		{
+			for (int i = 0; i < count; i++)
+			{
+				if (values[i] == null)
+				{
+					continue;
+				}
+				Object value = mapper.fromStored(pv, keys[i], values[i]);
+				if (value == null)
+				{
+					pv.remove(keys[i]);
+				}
+				else if (value != values[i])
+				{
+					pv.put(keys[i], value);
+				}
+			}
+		}
+		return pv;
+	}
+
+	/**
+	 * create process variable of specified class
+	 * - unknown classes are replaced by PvList/ProcessVar
+	 *
+	 * @param className name of process variable class
+	 * @return new process variable
+	 */
+	private static ProcessVar createPv(String className)
+	{
+		try
+		{
+			Class<?> clazz = Class.forName(className, false, PvStreamReader.class.getClassLoader());
+			if (ProcessVar.class.isAssignableFrom(clazz))
+			{
+				Constructor<?> constructor = clazz.getDeclaredConstructor();
+				constructor.setAccessible(true);
+				return (ProcessVar) constructor.newInstance();
+			}
+		}
+		catch (Exception e)
+		{
+			log.log(Level.WARNING, className, e);
+		}
+		return className.endsWith("List") ? new PvList() : new ProcessVar();
+	}
+
+	/**
+	 * read time series from columnar blocks
+	 *
+	 * @return time series
+	 * @throws IOException on read errors
+	 */
+	private TimeSeriesBuffer readSeries() throws IOException
+	{
+		int capacity = (int) readVarLong();
+		long retentionTime = readVarLong();
+		TimeSeriesBuffer series = new TimeSeriesBuffer(capacity, retentionTime);
+		long lastTime = 0;
+		int n;
+		while ((n = (int) readVarLong()) > 0)
+		{
+			int len = (int) readVarLong();
+			if (n > PvStreamWriter.BLOCK_SIZE || len > blockBytes.length)
+			{
+				throw new IOException("Invalid series block size: " + n);
+			}
+			in.readFully(blockBytes, 0, len);
+			int pos = 0;
+			for (int i = 0; i < n; i++)
+			{
+				// decode varint of time delta
+				long value = 0;
+				int shift = 0;
+				byte b;
+				do
+				{
+					b = blockBytes[pos++];
+					value |= (long) (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				lastTime += unzigzag(value);
+				blockTimes[i] = lastTime;
+			}
+			for (int i = 0; i < n; i++)
+			{
+				long bits = 0;
+				for (int j = 0; j < 8; j++)
+				{
+					bits = (bits << 8) | (blockBytes[pos++] & 0xFF);
+				}
+				series.add(blockTimes[i], Double.longBitsToDouble(bits));
+			}
+		}
+		return series;
+	}
+
+	/**
+	 * zigzag decoding of signed value
+	 *
+	 * @param value encoded value
+	 * @return signed value
+	 */
+	private static long unzigzag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * read unsigned variable length value (7 bits per byte)
+	 *
+	 * @return value read
+	 * @throws IOException on read errors
+	 */
+	private long readVarLong() throws IOException
+	{
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			int b = in.readUnsignedByte();
+			result |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return result;
+			}
+		}
+		throw new IOException("Invalid varint");
+	}
+}
@@ -0,0 +1,423 @@
+/*
+ * (C) Copyright 2015 by fr3ts0n <erwin.scheuch-heilig@gmx.at>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston,
+ * MA 02111-1307 USA
+ */
+
+package com.fr3ts0n.pvs.io;
+
+import com.fr3ts0n.pvs.ProcessVar;
+import com.fr3ts0n.pvs.TimeSeriesBuffer;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writer for process variables in compact binary stream format
+ *
+ * Stream layout:
+ * - header: magic (int), format version (short), flags (byte)
+ * - body (deflate compressed if FLAG_COMPRESSED): sequence of typed values
+ *
+ * Typed values are a type byte followed by the value data:
+ * - numbers as (zigzag) varints or IEEE values
+ * - strings as references into a string pool which is built while writing
+ * - process variables with class name, key attribute and all attributes
+ * - time series in columnar blocks of delta coded times and values
+ *
+ * Attribute values of other types are mapped by a PvAttributeMapper,
+ * or skipped if they can't be mapped.
+ *
+ * @author erwin
+ */
+public class PvStreamWriter implements Closeable
+{
+	/** stream magic "PVS1" */
+	static final int MAGIC = 0x50565331;
+	/** current format version */
+	static final short VERSION = 1;
+	/** flag: body is deflate compressed */
+	static final int FLAG_COMPRESSED = 0x01;
+
+	/** value types */
+	static final int T_NULL = 0;
+	static final int T_FALSE = 1;
+	static final int T_TRUE = 2;
+	static final int T_INT = 3;
+	static final int T_LONG = 4;
+	static final int T_FLOAT = 5;
+	static final int T_DOUBLE = 6;
+	static final int T_STRING = 7;
+	static final int T_STRING_REF = 8;
+	static final int T_PV = 9;
+	static final int T_SERIES = 10;
+
+	/** max. number of samples per series block */
+	static final int BLOCK_SIZE = 1024;
+
+	/** character set of strings */
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Logger object */
+	private static final Logger log = Logger.getLogger("pvs.io");
+
+	/** data output */
+	private final DataOutputStream out;
+	/** deflater of compressed stream, null if not compressed */
+	private final Deflater deflater;
+	/** attribute mapper, null if none */
+	private final PvAttributeMapper mapper;
+	/** string pool: string -> index */
+	private final Map<String, Integer> strings = new HashMap<>();
+	/** sample buffers of series blocks */
+	private final long[] blockTimes = new long[BLOCK_SIZE];
+	private final double[] blockValues = new double[BLOCK_SIZE];
+	/** encoded series block: max. 10 bytes per time, 8 bytes per value */
+	private final byte[] blockBytes = new byte[BLOCK_SIZE * 18];
+
+	/**
+	 * Create writer and write stream header
+	 *
+	 * @param outStream output stream
+	 * @param compress  compress stream body
+	 * @param mapper    mapper of attribute values, null if none
+	 * @throws IOException on write errors
+	 */
+	public PvStreamWriter(OutputStream outStream, boolean compress, PvAttributeMapper mapper)
+		throws IOException
+	{
+		this.mapper = mapper;
+		DataOutputStream header = new DataOutputStream(outStream);
+		header.writeInt(MAGIC);
+		header.writeShort(VERSION);
+		header.writeByte(compress ? FLAG_COMPRESSED : 0);
+		header.flush();
+		if (compress)
+		{
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			outStream = new DeflaterOutputStream(outStream, deflater, 65536);
+		}
+		else
+		{
+			deflater = null;
+		}
+		out = new DataOutputStream(new BufferedOutputStream(outStream, 65536));
+	}
+
+	/**
+	 * write a value
+	 * - supported are null, Boolean, Integer (incl. Short/Byte), Long, Float,
+	 *   Double, String, ProcessVar and TimeSeriesBuffer
+	 *
+	 * @param value value to be written
+	 * @throws IOException on write errors or unsupported value types
+	 */
+	public void writeObject(Object value) throws IOException
+	{
+		if (!writeValue(value))
+		{
+			throw new IOException("Unsupported type: " + value.getClass().getName());
+		}
+	}
+
+	/**
+	 * finish stream body and close underlying stream
+	 *
+	 * @throws IOException on write errors
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			out.close();
+		}
+		finally
+		{
+			if (deflater != null)
+			{
+				deflater.end();
+			}
+		}
+	}
+
+	/**
+	 * write a typed value
+	 *
+	 * @param value value to be written
+	 * @return true if value was written, false if type is not supported
+	 * @throws IOException on write errors
+	 */
+	private boolean writeValue(Object value) throws IOException
+	{
+		if (value == null)
+		{
+			out.writeByte(T_NULL);
+		}
+		else if (value instanceof String)
+		{
+			writeString((String) value);
+		}
+		else if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+		{
+			out.writeByte(T_INT);
+			writeVarLong(zigzag(((Number) value).intValue()));
+		}
+		else if (value instanceof Long)
+		{
+			out.writeByte(T_LONG);
+			writeVarLong(zigzag((Long) value));
+		}
+		else if (value instanceof Float)
+		{
+			out.writeByte(T_FLOAT);
+			out.writeFloat((Float) value);
+		}
+		else if (value instanceof Double)
+		{
+			out.writeByte(T_DOUBLE);
+			out.writeDouble((Double) value);
+		}
+		else if (value instanceof Boolean)
+		{
+			out.writeByte((Boolean) value ? T_TRUE : T_FALSE);
+		}
+		else if (value instanceof ProcessVar)
+		{
+			writePv((ProcessVar) value);
+		}
+		else if (value instanceof TimeSeriesBuffer)
+		{
+			writeSeries((TimeSeriesBuffer) value);
+		}
+		else
+		{
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * write string as pool reference, or define it on first use
+	 *
+	 * @param value string to be written
+	 * @throws IOException on write errors
+	 */
+	private void writeString(String value) throws IOException
+	{
+		Integer index = strings.get(value);
+		if (index != null)
+		{
+			out.writeByte(T_STRING_REF);
+			writeVarLong(index);
+		}
+		else
+		{
+			strings.put(value, strings.size());
+			byte[] bytes = value.getBytes(UTF8);
+			out.writeByte(T_STRING);
+			writeVarLong(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * write process variable with all attributes
+	 * - attributes are copied under lock of the PV,
+	 *   so the PV is not blocked while writing
+	 *
+	 * @param pv process variable to be written
+	 * @throws IOException on write errors
+	 */
+	private void writePv(ProcessVar pv) throws IOException
+	{
+		Object[] keys;
+		Object[] values;
+		synchronized (pv)
+		{
+			keys = new Object[pv.size()];
+			values = new Object[keys.length];
+			int i = 0;
+			for (Object entry : pv.entrySet())
+			{
+				keys[i] = ((Map.Entry<?, ?>) entry).getKey();
+				values[i++] = ((Map.Entry<?, ?>) entry).getValue();
+			}
+		}
+		// map attribute values, only supported attributes are written
+		int count = 0;
+		for (int i = 0; i < keys.length; i++)
+		{
+			Object key = keys[i];
+			Object value = values[i];
+			if (mapper != null)
+			{
+				value = mapper.toStored(pv, key, value);
+			}
+			if (key != null && isSupported(key) && (value == null || isSupported(value)))
+			{
+				keys[count] = key;
+				values[count++] = value;
+			}
+			else
+			{
+				log.fine(String.format("%s: attribute skipped: %s", pv, key));
+			}
+		}
+		out.writeByte(T_PV);
+		writeString(pv.getClass().getName());
+		writeObject(pv.getKeyAttribute());
+		writeVarLong(count);
+		for (int i = 0; i < count; i++)
+		{
+			writeValue(keys[i]);
+			writeValue(values[i]);
+		}
+	}
+
+	/**
+	 * check if value type is supported by stream format
+	 *
+	 * @param value value to be checked (not null)
+	 * @return true if value type is supported
+	 */
+	private static boolean isSupported(Object value)
+	{
+		return value instanceof String
+		       || value instanceof Integer
+		       || value instanceof Long
+		       || value instanceof Float
+		       || value instanceof Double
+		       || value instanceof Short
+		       || value instanceof Byte
+		       || value instanceof Boolean
+		       || value instanceof ProcessVar
+		       || value instanceof TimeSeriesBuffer;
+	}
+
+	/**
+	 * write time series in columnar blocks
+	 * - blocks are copied under lock of the series
+	 * - samples added while writing are not included
+	 * - each block: number of samples, number of bytes,
+	 *   delta coded times (varints), values (IEEE doubles)
+	 * - a block with 0 samples terminates the series
+	 *
+	 * @param series time series to be written
+	 * @throws IOException on write errors
+	 */
+	private void writeSeries(TimeSeriesBuffer series) throws IOException
+	{
+		out.writeByte(T_SERIES);
+		writeVarLong(series.getCapacity());
+		writeVarLong(series.getRetentionTime());
+		long lastTime = 0;
+		long position;
+		long end;
+		synchronized (series)
+		{
+			position = series.getOffset();
+			end = position + series.size();
+		}
+		while (true)
+		{
+			int n;
+			synchronized (series)
+			{
+				// continue at oldest sample if samples were dropped meanwhile
+				int index = (int) Math.max(0, position - series.getOffset());
+				int last = (int) Math.min(series.size(), end - series.getOffset());
+				n = series.copy(index, blockTimes, blockValues, Math.min(BLOCK_SIZE, last - index));
+				position = series.getOffset() + index + n;
+			}
+			writeVarLong(n);
+			if (n == 0)
+			{
+				break;
+			}
+			int len = 0;
+			for (int i = 0; i < n; i++)
+			{
+				len = putVarLong(blockBytes, len, zigzag(blockTimes[i] - lastTime));
+				lastTime = blockTimes[i];
+			}
+			for (int i = 0; i < n; i++)
+			{
+				long bits = Double.doubleToRawLongBits(blockValues[i]);
+				for (int shift = 56; shift >= 0; shift -= 8)
+				{
+					blockBytes[len++] = (byte) (bits >>> shift);
+				}
+			}
+			writeVarLong(len);
+			out.write(blockBytes, 0, len);
+		}
+	}
+
+	/**
+	 * put unsigned variable length value (7 bits per byte) into buffer
+	 *
+	 * @param buffer buffer to put value into
+	 * @param pos    buffer position
+	 * @param value  value to be written
+	 * @return buffer position after value
+	 */
+	private static int putVarLong(byte[] buffer, int pos, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[pos++] = (byte) value;
+		return pos;
+	}
+
+	/**
+	 * zigzag encoding of signed value
+	 *
+	 * @param value signed value
+	 * @return encoded value (small magnitudes give small values)
+	 */
+	private static long zigzag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * write unsigned variable length value (7 bits per byte)
+	 *
+	 * @param value value to be written
+	 * @throws IOException on write errors
+	 */
+	private void writeVarLong(long value) throws IOException
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+}
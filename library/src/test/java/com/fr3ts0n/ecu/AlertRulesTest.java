@@ -0,0 +1,157 @@
+package com.fr3ts0n.ecu;
+
+import com.fr3ts0n.ecu.prot.obd.ObdProt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test alert rules with hysteresis
+ */
+class AlertRulesTest
+{
+	/**
+	 * Test min. duration and hysteresis of limit rule
+	 */
+	@Test
+	void update_Hysteresis()
+	{
+		AlertRule rule = new AlertRule("test", AlertRule.Type.ABOVE, 100, 5, 1000, "test");
+		assertFalse(rule.update(0, 101));
+		// violation too short
+		assertFalse(rule.update(500, 99));
+		assertFalse(rule.update(1000, 101));
+		assertFalse(rule.update(1500, 102));
+		assertFalse(rule.checkDuration(1999));
+		assertTrue(rule.checkDuration(2000));
+		assertTrue(rule.isActive());
+		assertFalse(rule.update(2000, 103));
+		// within hysteresis
+		assertFalse(rule.update(2500, 97));
+		assertTrue(rule.update(3000, 94));
+		assertFalse(rule.isActive());
+	}
+
+	/**
+	 * Test rate of change rule
+	 */
+	@Test
+	void update_Rate()
+	{
+		AlertRule rule = new AlertRule("test", AlertRule.Type.RATE_BELOW, -10, 2, 0, "test");
+		assertFalse(rule.update(0, 100));
+		assertFalse(rule.update(1000, 95));
+		// -15/s
+		assertTrue(rule.update(2000, 80));
+		assertEquals(-15.0, rule.getCheckedValue(), 1e-9);
+		assertTrue(rule.update(3000, 75));
+	}
+
+	/**
+	 * Test rules are evaluated on data item changes and published asynchronously
+	 */
+	@Test
+	void pvChanged_Notify() throws InterruptedException
+	{
+		EcuDataItem.cnvSystem = EcuDataItem.SYSTEM_METRIC;
+		EcuDataPv pv = ObdProt.dataItems.getPidDataItems(0x01, 0x05).get(0).getPv();
+		AlertRules rules = new AlertRules();
+		rules.add(new AlertRule((String) pv.get(EcuDataPv.FID_MNEMONIC),
+		                        AlertRule.Type.ABOVE, 110, 5, 0, "overheat"));
+		final CountDownLatch raised = new CountDownLatch(1);
+		rules.addAlertListener(new AlertRules.AlertListener()
+		{
+			@Override
+			public void alertChanged(AlertRule rule, boolean active, double value, long time)
+			{
+				if (active && value == 115.0)
+				{
+					raised.countDown();
+				}
+			}
+		});
+		pv.put(EcuDataPv.FID_VALUE, Float.valueOf(90f));
+		pv.put(EcuDataPv.FID_VALUE, Float.valueOf(115f));
+		assertTrue(raised.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Test metric limits are checked with imperial values
+	 */
+	@Test
+	void pvChanged_Imperial() throws InterruptedException
+	{
+		EcuDataPv pv = ObdProt.dataItems.getPidDataItems(0x01, 0x05).get(0).getPv();
+		AlertRules rules = new AlertRules();
+		rules.add(new AlertRule((String) pv.get(EcuDataPv.FID_MNEMONIC),
+		                        AlertRule.Type.ABOVE, 110, 5, 0, "overheat"));
+		final CountDownLatch raised = new CountDownLatch(1);
+		rules.addAlertListener(new AlertRules.AlertListener()
+		{
+			@Override
+			public void alertChanged(AlertRule rule, boolean active, double value, long time)
+			{
+				if (active && value == 115.0)
+				{
+					raised.countDown();
+				}
+			}
+		});
+		EcuDataItem.cnvSystem = EcuDataItem.SYSTEM_IMPERIAL;
+		try
+		{
+			// 194°F = 90°C, 239°F = 115°C
+			pv.put(EcuDataPv.FID_VALUE, Float.valueOf(194f));
+			pv.put(EcuDataPv.FID_VALUE, Float.valueOf(239f));
+		}
+		finally
+		{
+			EcuDataItem.cnvSystem = EcuDataItem.SYSTEM_METRIC;
+		}
+		assertTrue(raised.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Test min. durations are checked while other notifications are pending
+	 */
+	@Test
+	void checkDurations_Scheduled() throws InterruptedException
+	{
+		EcuDataItem.cnvSystem = EcuDataItem.SYSTEM_METRIC;
+		EcuDataPv coolant = ObdProt.dataItems.getPidDataItems(0x01, 0x05).get(0).getPv();
+		EcuDataPv speed = ObdProt.dataItems.getPidDataItems(0x01, 0x0D).get(0).getPv();
+		AlertRules rules = new AlertRules();
+		rules.add(new AlertRule((String) coolant.get(EcuDataPv.FID_MNEMONIC),
+		                        AlertRule.Type.ABOVE, 110, 5, 300, "overheat"));
+		rules.add(new AlertRule((String) speed.get(EcuDataPv.FID_MNEMONIC),
+		                        AlertRule.Type.ABOVE, 50, 0, 0, "speeding"));
+		final CountDownLatch raised = new CountDownLatch(1);
+		rules.addAlertListener(new AlertRules.AlertListener()
+		{
+			@Override
+			public void alertChanged(AlertRule rule, boolean active, double value, long time)
+			{
+				if (active && "overheat".equals(rule.getLabel()))
+				{
+					raised.countDown();
+				}
+			}
+		});
+		coolant.put(EcuDataPv.FID_VALUE, Float.valueOf(90f));
+		coolant.put(EcuDataPv.FID_VALUE, Float.valueOf(115f));
+		// keep notifications of other rule pending
+		for (int i = 0; i < 40 && raised.getCount() > 0; i++)
+		{
+			speed.put(EcuDataPv.FID_VALUE, Float.valueOf((i % 2 == 0) ? 60f : 40f));
+			Thread.sleep(50);
+		}
+		// raised while notifications were pending
+		assertEquals(0, raised.getCount());
+	}
+}
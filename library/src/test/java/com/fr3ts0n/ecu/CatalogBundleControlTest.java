@@ -0,0 +1,50 @@
+package com.fr3ts0n.ecu;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test code bundles are read from precompiled catalogs
+ */
+class CatalogBundleControlTest
+{
+	/**
+	 * Test catalog of a properties bundle delivers same entries as properties file
+	 */
+	@Test
+	void newBundle_Catalog() throws Exception
+	{
+		File props = new File("src/main/java/com/fr3ts0n/ecu/prot/obd/res/codes_de.properties");
+		File dir = File.createTempFile("catalog", "");
+		dir.delete();
+		File catalog = new File(dir, "codes_de.properties" + CsvCatalog.CATALOG_EXT);
+		catalog.getParentFile().mkdirs();
+		String[][] rows = CsvCatalog.readProperties(
+			new InputStreamReader(new FileInputStream(props), Charset.forName("UTF-8")));
+		CsvCatalog.writeCatalog(rows, new FileOutputStream(catalog));
+
+		ClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()}, null);
+		ResourceBundle bundle = ResourceBundle.getBundle("codes", Locale.GERMAN, loader,
+		                                                 new CatalogBundleControl());
+		assertEquals(rows.length, bundle.keySet().size());
+		assertEquals("Keine Codes gespeichert im Modul", bundle.getString("P0000"));
+		for (String[] row : rows)
+		{
+			assertEquals(row.length > 1 ? row[1] : "", bundle.getString(row[0]));
+		}
+
+		catalog.delete();
+		dir.delete();
+	}
+}
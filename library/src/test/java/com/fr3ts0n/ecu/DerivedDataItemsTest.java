@@ -0,0 +1,100 @@
+package com.fr3ts0n.ecu;
+
+import com.fr3ts0n.ecu.prot.obd.ObdProt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test derived data items (virtual PIDs)
+ */
+class DerivedDataItemsTest
+{
+	/**
+	 * Test expression parsing and evaluation
+	 */
+	@Test
+	void expression_Evaluate()
+	{
+		List<String> variables = new ArrayList<>();
+		Expression expr = new Expression("-2^2 + max(a, 3) * (b - 1) / 2 + abs(-a)", variables);
+		assertEquals(Arrays.asList("a", "b"), variables);
+		assertEquals(6.0, expr.evaluate(new double[]{5, 3}), 1e-9);
+		assertEquals(Double.NaN, expr.evaluate(new double[]{Double.NaN, 3}), 0.0);
+
+		assertThrows(IllegalArgumentException.class, () -> new Expression("a * (b", variables));
+		assertThrows(IllegalArgumentException.class, () -> new Expression("foo(a)", variables));
+	}
+
+	/**
+	 * Test derived value is updated on changes of input values
+	 */
+	@Test
+	void pvChanged_Update()
+	{
+		// expressions are defined for metric values
+		EcuDataItem.cnvSystem = EcuDataItem.SYSTEM_METRIC;
+		DerivedDataItem boost = null;
+		for (DerivedDataItem item : ObdProt.derivedItems)
+		{
+			if ("boost_pressure".equals(item.getPv().get(EcuDataPv.FID_MNEMONIC)))
+			{
+				boost = item;
+			}
+		}
+		EcuDataPv manifold = boost.getInputs().get(0).getPv();
+		EcuDataPv baro = boost.getInputs().get(1).getPv();
+		assertEquals("kPa", boost.getPv().getUnits());
+
+		// only boost pressure may be calculated from these inputs
+		List<DerivedDataItem> available = ObdProt.derivedItems.getAvailableItems(Arrays.asList(manifold, baro));
+		assertEquals(1, available.size());
+		assertEquals(boost, available.get(0));
+
+		manifold.put(EcuDataPv.FID_VALUE, Float.valueOf(150f));
+		baro.put(EcuDataPv.FID_VALUE, Float.valueOf(100f));
+		assertEquals(50f, boost.getPv().get(EcuDataPv.FID_VALUE));
+		// inputs may be set by other tests already, so count relative
+		long count = boost.getPv().getStatistics().getCount();
+		manifold.put(EcuDataPv.FID_VALUE, Float.valueOf(160f));
+		assertEquals(60f, boost.getPv().get(EcuDataPv.FID_VALUE));
+		assertEquals(count + 1, boost.getPv().getStatistics().getCount());
+	}
+
+	/**
+	 * Test derived value is calculated from metric values if inputs are imperial
+	 */
+	@Test
+	void pvChanged_Imperial()
+	{
+		DerivedDataItem boost = null;
+		for (DerivedDataItem item : ObdProt.derivedItems)
+		{
+			if ("boost_pressure".equals(item.getPv().get(EcuDataPv.FID_MNEMONIC)))
+			{
+				boost = item;
+			}
+		}
+		EcuDataItem manifold = boost.getInputs().get(0);
+		EcuDataItem baro = boost.getInputs().get(1);
+
+		EcuDataItem.cnvSystem = EcuDataItem.SYSTEM_IMPERIAL;
+		try
+		{
+			// publish imperial values of 170 kPa and 100 kPa
+			manifold.getPv().put(EcuDataPv.FID_VALUE, manifold.physVal(170));
+			baro.getPv().put(EcuDataPv.FID_VALUE, baro.physVal(100));
+			assertEquals(70f, ((Number) boost.getPv().get(EcuDataPv.FID_VALUE)).floatValue(), 0.5f);
+		}
+		finally
+		{
+			EcuDataItem.cnvSystem = EcuDataItem.SYSTEM_METRIC;
+		}
+	}
+}
@@ -7,6 +7,8 @@ import com.fr3ts0n.pvs.PvChangeListener;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Test class for dynamic conversion ranges via PID 0x4F
@@ -21,6 +23,7 @@ class EcuDataItemsTest
 {
 	static final EcuDataItems items =new EcuDataItems();
 	Number resultValue = 0;
+	long resultTime = 0;
 
 	/**
 	 * Test Dynamic Lambda PID 0x24 AB
@@ -29,7 +32,7 @@ class EcuDataItemsTest
 	@Test
 	void updateDataItems_Lambda()
 	{
-		ProcessVar pv = items.getPidDataItems(0x01, 0x24).get(0).pv;
+		ProcessVar pv = items.getPidDataItems(0x01, 0x24).get(0).getPv();
 		pv.addPvChangeListener(this, PvChangeEvent.PV_MODIFIED);
 
 		// Dynamic factor undefined: Static conversion factor
@@ -56,7 +59,7 @@ class EcuDataItemsTest
 	@Test
 	void updateDataItems_O2Voltage()
 	{
-		ProcessVar pv = items.getPidDataItems(0x01, 0x24).get(1).pv;
+		ProcessVar pv = items.getPidDataItems(0x01, 0x24).get(1).getPv();
 		pv.addPvChangeListener(this, PvChangeEvent.PV_MODIFIED);
 
 		// Dynamic factor undefined: Static conversion factor
@@ -83,7 +86,7 @@ class EcuDataItemsTest
 	@Test
 	void updateDataItems_O2Current()
 	{
-		ProcessVar pv = items.getPidDataItems(0x01, 0x34).get(1).pv;
+		ProcessVar pv = items.getPidDataItems(0x01, 0x34).get(1).getPv();
 		pv.addPvChangeListener(this, PvChangeEvent.PV_MODIFIED);
 
 		// Dynamic factor undefined: Static conversion factor
@@ -110,7 +113,7 @@ class EcuDataItemsTest
 	@Test
 	void TestConversionSystem()
 	{
-		EcuDataPv pv = items.getPidDataItems(0x01, 0x05).get(0).pv;
+		EcuDataPv pv = items.getPidDataItems(0x01, 0x05).get(0).getPv();
 		pv.addPvChangeListener(this, PvChangeEvent.PV_MODIFIED);
 
 		// Check metric conversion + Units
@@ -128,6 +131,131 @@ class EcuDataItemsTest
 		pv.removePvChangeListener(this);
 	}
 
+	/**
+	 * Test acquisition time is forwarded to PV change events
+	 */
+	@Test
+	void updateDataItems_AcquisitionTime()
+	{
+		EcuDataPv pv = items.getPidDataItems(0x01, 0x05).get(0).getPv();
+		pv.addPvChangeListener(this, PvChangeEvent.PV_MODIFIED);
+
+		long rxTime = System.nanoTime() - 5000000000L;
+		items.updateDataItems(0x01,0x05, new char[]{0x20,0x00,0x00,0x00}, rxTime);
+		assertEquals(rxTime, resultTime);
+
+		pv.removePvChangeListener(this);
+	}
+
+	/**
+	 * Test insignificant value changes are not published
+	 * - coolant temperature has a deadband of 1°C
+	 */
+	@Test
+	void updateDataItems_Deadband()
+	{
+		EcuDataItem.cnvSystem = EcuDataItem.SYSTEM_METRIC;
+		EcuDataPv pv = items.getPidDataItems(0x01, 0x05).get(0).getPv();
+		pv.addPvChangeListener(this, PvChangeEvent.PV_MODIFIED);
+		long rxTime = System.nanoTime();
+
+		items.updateDataItems(0x01,0x05, new char[]{0x7D,0x00,0x00,0x00}, rxTime);
+		assertEquals(85.0, resultValue.doubleValue(), 0.01);
+		// change within deadband
+		items.updateDataItems(0x01,0x05, new char[]{0x7E,0x00,0x00,0x00}, rxTime + 1000000000L);
+		assertEquals(85.0, ((Number) pv.get(EcuDataPv.FID_VALUE)).doubleValue(), 0.01);
+		// change exceeds deadband
+		items.updateDataItems(0x01,0x05, new char[]{0x7F,0x00,0x00,0x00}, rxTime + 2000000000L);
+		assertEquals(87.0, resultValue.doubleValue(), 0.01);
+		// change within deadband, but max. silence time exceeded
+		items.updateDataItems(0x01,0x05, new char[]{0x80,0x00,0x00,0x00}, rxTime + 3000000000L);
+		assertEquals(87.0, resultValue.doubleValue(), 0.01);
+		items.updateDataItems(0x01,0x05, new char[]{0x80,0x00,0x00,0x00},
+		                      rxTime + 2000000000L + EcuDataItem.DEFAULT_MAX_SILENCE_MS * 1000000L);
+		assertEquals(88.0, resultValue.doubleValue(), 0.01);
+
+		pv.removePvChangeListener(this);
+	}
+
+	/**
+	 * Test first value after reset is published regardless of deadband
+	 */
+	@Test
+	void resetStatistics_Deadband()
+	{
+		EcuDataItem.cnvSystem = EcuDataItem.SYSTEM_METRIC;
+		EcuDataPv pv = items.getPidDataItems(0x01, 0x05).get(0).getPv();
+		pv.addPvChangeListener(this, PvChangeEvent.PV_MODIFIED);
+		long rxTime = System.nanoTime();
+
+		items.updateDataItems(0x01,0x05, new char[]{0x7D,0x00,0x00,0x00}, rxTime);
+		assertEquals(85.0, resultValue.doubleValue(), 0.01);
+		items.resetStatistics();
+		assertEquals(Double.NaN, items.getChangeRate(0x01, 0x05));
+		// change within deadband of value before reset
+		items.updateDataItems(0x01,0x05, new char[]{0x7E,0x00,0x00,0x00}, rxTime + 1000000000L);
+		assertEquals(86.0, resultValue.doubleValue(), 0.01);
+
+		pv.removePvChangeListener(this);
+	}
+
+	/**
+	 * Test change rate is relative to data range of item
+	 * - coolant temperature has a data range of 255°C
+	 */
+	@Test
+	void getChangeRate_Range()
+	{
+		EcuDataItem.cnvSystem = EcuDataItem.SYSTEM_METRIC;
+		long rxTime = System.nanoTime();
+		items.updateDataItems(0x01,0x05, new char[]{0x50,0x00,0x00,0x00}, rxTime);
+		// 51°C within 2 seconds -> 10% of range per second
+		items.updateDataItems(0x01,0x05, new char[]{0x83,0x00,0x00,0x00}, rxTime + 2000000000L);
+		double rate = items.getChangeRate(0x01, 0x05);
+		items.updateDataItems(0x01,0x05, new char[]{0x83,0x00,0x00,0x00}, rxTime + 3000000000L);
+		assertTrue(items.getChangeRate(0x01, 0x05) < rate);
+		assertEquals(Double.NaN, items.getChangeRate(0x01, 0xFE));
+	}
+
+	/**
+	 * Test sudden changes are not delayed by change rate smoothing
+	 * - coolant temperature has a deadband of 1°C
+	 */
+	@Test
+	void getChangeRate_Sudden()
+	{
+		EcuDataItem.cnvSystem = EcuDataItem.SYSTEM_METRIC;
+		items.resetStatistics();
+		long rxTime = System.nanoTime();
+		for (int i = 0; i < 10; i++)
+		{
+			items.updateDataItems(0x01,0x05, new char[]{0x50,0x00,0x00,0x00}, rxTime + i * 1000000000L);
+		}
+		assertEquals(0.0, items.getChangeRate(0x01, 0x05), 0.0);
+		assertFalse(items.isChanging(0x01, 0x05));
+		// 51°C within 1 second -> 20% of range per second
+		items.updateDataItems(0x01,0x05, new char[]{0x83,0x00,0x00,0x00}, rxTime + 10000000000L);
+		assertEquals(0.2, items.getChangeRate(0x01, 0x05), 0.001);
+		assertTrue(items.isChanging(0x01, 0x05));
+		// change within deadband
+		items.updateDataItems(0x01,0x05, new char[]{0x84,0x00,0x00,0x00}, rxTime + 11000000000L);
+		assertFalse(items.isChanging(0x01, 0x05));
+	}
+
+	/**
+	 * Test dense PID index delivers same items as hash map view
+	 */
+	@Test
+	void getPidItems_Index()
+	{
+		EcuDataItem[] indexed = items.getPidItems(0x01, 0x24);
+		assertEquals(items.getPidDataItems(0x01, 0x24).size(), indexed.length);
+		assertEquals(items.getPidDataItems(0x01, 0x24).get(1), indexed[1]);
+		assertEquals(null, items.getPidItems(0x01, 0xFE));
+		assertEquals("24.2.0", indexed[1].toString());
+		assertEquals(indexed[1].toString(), indexed[1].getPv().toString());
+	}
+
 	/**
 	 * Handle PV change event
 	 * - store changed value to test result
@@ -139,5 +267,6 @@ class EcuDataItemsTest
 	{
 		/* Store changed value as result */
 		resultValue = (Number)event.getValue();
+		resultTime = event.getNanoTime();
 	}
 }
\ No newline at end of file
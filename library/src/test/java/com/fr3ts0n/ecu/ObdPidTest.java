@@ -0,0 +1,73 @@
+package com.fr3ts0n.ecu;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test adaptive request periods of PIDs
+ */
+class ObdPidTest
+{
+	/**
+	 * Test stable PIDs get stretched periods and snap back on changes
+	 */
+	@Test
+	void adaptRequestPeriod_Stretch()
+	{
+		ObdPid pid = new ObdPid(0x2F);
+		// unknown activity -> base period
+		assertEquals(0, pid.adaptRequestPeriod(0, Double.NaN, false));
+		// stable values -> period is stretched up to limit
+		assertEquals(ObdPid.MIN_STRETCH_MS, pid.adaptRequestPeriod(0, 0.0, false));
+		assertEquals(2 * ObdPid.MIN_STRETCH_MS, pid.adaptRequestPeriod(0, 0.0, false));
+		for (int i = 0; i < 10; i++)
+		{
+			pid.adaptRequestPeriod(0, 0.0, false);
+		}
+		assertEquals(ObdPid.MAX_STRETCH_MS, pid.adaptRequestPeriod(0, 0.0, false));
+		// changing values -> back to base period
+		assertEquals(100, pid.adaptRequestPeriod(100, 10 * ObdPid.STABLE_RATE, false));
+		assertEquals(0, pid.getStretchPeriod());
+	}
+
+	/**
+	 * Test stretched period snaps back if values exceed their deadband
+	 */
+	@Test
+	void adaptRequestPeriod_Changing()
+	{
+		ObdPid pid = new ObdPid(0x2F);
+		pid.adaptRequestPeriod(100, 0.0, false);
+		assertEquals(2 * ObdPid.MIN_STRETCH_MS, pid.adaptRequestPeriod(100, 0.0, false));
+		// slow change, but beyond deadband -> back to base period
+		assertEquals(100, pid.adaptRequestPeriod(100, 0.0, true));
+		assertEquals(0, pid.getStretchPeriod());
+	}
+
+	/**
+	 * Test dormant PIDs are re-probed with exponential backoff
+	 */
+	@Test
+	void setDormant_Backoff()
+	{
+		ObdPid pid = new ObdPid(0x0C);
+		assertEquals(ObdPid.DORMANT_MIN_MS, pid.setDormant(1000));
+		assertEquals(1000 + ObdPid.DORMANT_MIN_MS, pid.getNextRequest());
+		assertEquals(2 * ObdPid.DORMANT_MIN_MS, pid.setDormant(1000));
+		for (int i = 0; i < 40; i++)
+		{
+			pid.setDormant(1000);
+		}
+		assertEquals(ObdPid.DORMANT_MAX_MS, pid.setDormant(1000));
+		assertTrue(pid.isDormant());
+		assertFalse(pid.hasAnswered());
+		// answer ends dormancy
+		pid.setAlive();
+		assertFalse(pid.isDormant());
+		assertTrue(pid.hasAnswered());
+		assertEquals(ObdPid.DORMANT_MIN_MS, pid.setDormant(1000));
+	}
+}
@@ -0,0 +1,98 @@
+package com.fr3ts0n.ecu;
+
+import com.fr3ts0n.ecu.prot.obd.Messages;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Test bounded cache of conversion display texts
+ */
+class TextCacheTest
+{
+	/**
+	 * Test cached text is returned for same value and format only
+	 */
+	@Test
+	void get_Hit()
+	{
+		TextCache cache = new TextCache();
+		// first access validates cache
+		assertNull(cache.get(1, "%d"));
+		cache.put(1, "%d", "one");
+		assertEquals("one", cache.get(1, "%d"));
+		assertNull(cache.get(2, "%d"));
+		// other formats bypass the cache
+		assertNull(cache.get(1, "%x"));
+		cache.put(1, "%x", "0x1");
+		assertEquals("one", cache.get(1, "%d"));
+	}
+
+	/**
+	 * Test least recently used texts get dropped if cache is full
+	 */
+	@Test
+	void put_Eviction()
+	{
+		TextCache cache = new TextCache();
+		assertNull(cache.get(0, null));
+		for (long i = 0; i < 32; i++)
+		{
+			cache.put(i, null, String.valueOf(i));
+		}
+		// use oldest entry to keep it
+		assertEquals("0", cache.get(0, null));
+		cache.put(32, null, "32");
+		assertEquals("0", cache.get(0, null));
+		assertEquals("32", cache.get(32, null));
+		assertNull(cache.get(1, null));
+		assertEquals("2", cache.get(2, null));
+	}
+
+	/**
+	 * Test cache is cleared if default locale changes
+	 */
+	@Test
+	void get_LocaleChange()
+	{
+		TextCache cache = new TextCache();
+		Locale dflt = Locale.getDefault();
+		try
+		{
+			Locale.setDefault(Locale.US);
+			assertNull(cache.get(1, "%.1f"));
+			cache.put(1, "%.1f", "0.1");
+			assertEquals("0.1", cache.get(1, "%.1f"));
+
+			Locale.setDefault(Locale.GERMANY);
+			assertNull(cache.get(1, "%.1f"));
+			cache.put(1, "%.1f", "0,1");
+			assertEquals("0,1", cache.get(1, "%.1f"));
+		}
+		finally
+		{
+			Locale.setDefault(dflt);
+		}
+	}
+
+	/**
+	 * Test cache is cleared if messages get re-initialized
+	 */
+	@Test
+	void get_MessagesChange()
+	{
+		TextCache cache = new TextCache();
+		assertNull(cache.get(1, null));
+		cache.put(1, null, "old");
+		assertEquals("old", cache.get(1, null));
+
+		Messages.init("com.fr3ts0n.ecu.prot.obd.res.messages");
+		assertNull(cache.get(1, null));
+		cache.put(1, null, "new");
+		assertEquals("new", cache.get(1, null));
+	}
+}
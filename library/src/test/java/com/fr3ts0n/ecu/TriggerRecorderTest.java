@@ -0,0 +1,82 @@
+package com.fr3ts0n.ecu;
+
+import com.fr3ts0n.pvs.PvChangeEvent;
+import com.fr3ts0n.pvs.PvList;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test triggered capture of data item values
+ */
+class TriggerRecorderTest
+{
+	/**
+	 * Test capture contains samples before and after trigger
+	 */
+	@Test
+	void trigger_Capture() throws IOException, InterruptedException
+	{
+		File dir = new File(System.getProperty("java.io.tmpdir"), "capture" + System.nanoTime());
+		assertTrue(dir.mkdirs());
+		EcuDataPv pv = new EcuDataPv();
+		pv.put(EcuDataPv.FID_MNEMONIC, "engine_speed");
+		pv.put(EcuDataPv.FID_VALUE, Float.valueOf(0f));
+
+		TriggerRecorder recorder = new TriggerRecorder(dir, 1000, 200, 1000);
+		PvList list = new PvList();
+		recorder.record(list);
+		// data items are added at once (as ObdProt.preparePidPvs does)
+		PvList newList = new PvList();
+		newList.put("engine_speed", pv);
+		list.putAll(newList, PvChangeEvent.PV_ADDED, false);
+
+		long now = System.nanoTime();
+		pv.putTimed(EcuDataPv.FID_VALUE, Float.valueOf(800f), now - 20000000L);
+		assertTrue(recorder.trigger("test"));
+		assertFalse(recorder.trigger("ignored"));
+		pv.putTimed(EcuDataPv.FID_VALUE, Float.valueOf(900f), now + 20000000L);
+		assertTrue(recorder.isCapturing());
+		// this sample is after post trigger time and finishes capture
+		pv.putTimed(EcuDataPv.FID_VALUE, Float.valueOf(1000f), now + 300000000L);
+		assertFalse(recorder.isCapturing());
+
+		// wait for capture to be written in background
+		for (int i = 0; i < 100 && recorder.getLastCapture() == null; i++)
+		{
+			Thread.sleep(20);
+		}
+		File capture = recorder.getLastCapture();
+		assertNotNull(capture);
+		List<String[]> lines = new ArrayList<>();
+		BufferedReader reader = new BufferedReader(new FileReader(capture));
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			lines.add(line.split("\t"));
+		}
+		reader.close();
+		capture.delete();
+		dir.delete();
+
+		assertEquals(4, lines.size());
+		assertEquals("# trigger", lines.get(0)[0]);
+		assertEquals("test", lines.get(0)[2]);
+		assertTrue(Long.parseLong(lines.get(2)[0]) < 0);
+		assertEquals("engine_speed", lines.get(2)[1]);
+		assertEquals("800.0", lines.get(2)[2]);
+		assertTrue(Long.parseLong(lines.get(3)[0]) > 0);
+		assertEquals("900.0", lines.get(3)[2]);
+	}
+}
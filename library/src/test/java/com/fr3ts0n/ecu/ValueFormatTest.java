@@ -0,0 +1,85 @@
+package com.fr3ts0n.ecu;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test compiled value formats against String.format
+ */
+class ValueFormatTest
+{
+	static final Object[] floatValues =
+		{
+			0f, -0f, 1f, -1f, 0.5f, 12.345f, -12.345f, 99.95f, 1234567.8f, 0.001f, -0.04f,
+			0.0, 2.5, -273.15, 1e12, Double.NaN, Float.POSITIVE_INFINITY
+		};
+
+	static final Object[] intValues =
+		{
+			0, 1, -1, 255, 0x1234, Integer.MAX_VALUE, Integer.MIN_VALUE,
+			0L, -1L, 0xFFFFFFFFL, Long.MAX_VALUE, (short) -2, (byte) -1
+		};
+
+	/**
+	 * Test floating point patterns used in pids.csv
+	 */
+	@Test
+	void format_Float()
+	{
+		for (String pattern : new String[]{"%.0f", "%.1f", "%.2f", "%.3f", "%f", "%08.2f", "%8.1f", "T=%.1f C"})
+		{
+			for (Object value : floatValues)
+			{
+				assertEquals(String.format(pattern, value), ValueFormat.get(pattern).format(value));
+			}
+		}
+	}
+
+	/**
+	 * Test integer patterns
+	 */
+	@Test
+	void format_Integer()
+	{
+		for (String pattern : new String[]{"%d", "%5d", "%05d", "%x", "%X", "%#08x", "0x%08x", "%04X", "%s"})
+		{
+			for (Object value : intValues)
+			{
+				assertEquals(String.format(pattern, value), ValueFormat.get(pattern).format(value));
+			}
+		}
+	}
+
+	/**
+	 * Test decimal separator of default locale is used
+	 */
+	@Test
+	void format_Locale()
+	{
+		Locale dflt = Locale.getDefault();
+		try
+		{
+			Locale.setDefault(Locale.GERMANY);
+			assertEquals("12,35", ValueFormat.get("%.2f").format(12.345));
+			assertEquals(String.format("%.2f", 12.345f), ValueFormat.get("%.2f").format(12.345f));
+		}
+		finally
+		{
+			Locale.setDefault(dflt);
+		}
+	}
+
+	/**
+	 * Test formatting into a buffer
+	 */
+	@Test
+	void append_Buffer()
+	{
+		StringBuilder sb = new StringBuilder("v=");
+		ValueFormat.get("%.1f").append(sb, 1.25f);
+		assertEquals("v=1.3", sb.toString());
+	}
+}
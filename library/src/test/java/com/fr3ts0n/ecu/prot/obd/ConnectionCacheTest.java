@@ -0,0 +1,188 @@
+package com.fr3ts0n.ecu.prot.obd;
+
+import com.fr3ts0n.prot.TelegramWriter;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test warm start of connections from cached connection settings
+ */
+class ConnectionCacheTest
+	implements TelegramWriter
+{
+	/** telegrams sent by protocol */
+	final Vector<String> sent = new Vector<>();
+
+	@Override
+	public int writeTelegram(char[] buffer)
+	{
+		sent.add(String.valueOf(buffer));
+		return buffer.length;
+	}
+
+	@Override
+	public int writeTelegram(char[] buffer, int type, Object id)
+	{
+		return writeTelegram(buffer);
+	}
+
+	/**
+	 * create cache with a connection of CAN vehicle
+	 */
+	static ConnectionCache createCache()
+	{
+		ConnectionCache cache = new ConnectionCache();
+		ConnectionCache.Entry entry = new ConnectionCache.Entry("adapter");
+		entry.protocol = 6;
+		entry.ecus.put(0x7E8, "4100BE3EB811");
+		entry.pidMasks.put(0, 0x18000000L);
+		entry.unsupportedCmds.add(ElmProt.CMD.SETSPACES.name());
+		cache.put(entry);
+		return cache;
+	}
+
+	/**
+	 * acknowledge last command and get next command which is sent
+	 */
+	String prompt(ElmProt elm)
+	{
+		int numSent = sent.size();
+		elm.handleTelegram("OK".toCharArray());
+		elm.handleTelegram(">".toCharArray());
+		return sent.size() > numSent ? sent.lastElement() : null;
+	}
+
+	/**
+	 * Test cached entries are stored and loaded
+	 */
+	@Test
+	void saveLoad() throws IOException
+	{
+		ConnectionCache cache = createCache();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cache.save(out);
+
+		ConnectionCache loaded = new ConnectionCache();
+		loaded.load(new ByteArrayInputStream(out.toByteArray()));
+		ConnectionCache.Entry entry = loaded.get("adapter");
+		assertEquals(6, entry.protocol);
+		assertEquals("4100BE3EB811", entry.ecus.get(0x7E8));
+		assertEquals(Long.valueOf(0x18000000L), entry.pidMasks.get(0));
+		assertTrue(entry.unsupportedCmds.contains(ElmProt.CMD.SETSPACES.name()));
+		assertNull(loaded.get("other"));
+
+		// known VIN replaces entry without VIN
+		entry.vin = "WVWZZZ1JZXW000001";
+		loaded.put(entry);
+		assertEquals(1, loaded.size());
+	}
+
+	/**
+	 * Test matching cached connection skips protocol search and PID discovery
+	 */
+	@Test
+	void warmStart_Verified()
+	{
+		ObdProt.cmdQueue.clear();
+		ElmProt elm = new ElmProt();
+		elm.addTelegramWriter(this);
+		elm.setConnectionCache(createCache(), "adapter");
+		elm.handleTelegram("ELM327 v1.5".toCharArray());
+
+		String cmd;
+		while (!"0100".equals(cmd = prompt(elm)))
+		{
+			assertFalse(ElmProt.CMD.SETSPACES.toString().concat("0").equals(cmd));
+		}
+		assertTrue(sent.contains("ATSP6"));
+		elm.handleTelegram("7E8064100BE3EB811".toCharArray());
+		while (prompt(elm) != null) { }
+		assertEquals(ElmProt.STAT.ECU_DETECTED, elm.getStatus());
+		assertFalse(sent.contains("ATDPN"));
+
+		// supported PIDs are not requested again
+		elm.setService(ObdProt.OBD_SVC_DATA);
+		assertEquals("0104", sent.lastElement());
+		assertEquals(1, sent.lastIndexOf("0100") - sent.indexOf("0100") + 1);
+
+		elm.setService(ObdProt.OBD_SVC_NONE);
+		ObdProt.cmdQueue.clear();
+	}
+
+	/**
+	 * Test mismatching cached connection falls back to full discovery
+	 */
+	@Test
+	void warmStart_Mismatch()
+	{
+		ObdProt.cmdQueue.clear();
+		ConnectionCache cache = createCache();
+		ElmProt elm = new ElmProt();
+		elm.addTelegramWriter(this);
+		elm.setConnectionCache(cache, "adapter");
+		elm.handleTelegram("ELM327 v1.5".toCharArray());
+
+		while (!"0100".equals(prompt(elm))) { }
+		elm.handleTelegram("7E8064100FFFFFFFF".toCharArray());
+		while (!"0100".equals(prompt(elm))) { }
+		assertTrue(sent.contains("ATPC"));
+		assertTrue(sent.contains("ATSP0"));
+
+		// full discovery requests detected protocol
+		elm.handleTelegram("7E8064100FFFFFFFF".toCharArray());
+		while (!"ATDPN".equals(prompt(elm))) { }
+		elm.handleTelegram("A7".toCharArray());
+		elm.handleTelegram(">".toCharArray());
+		while (prompt(elm) != null) { }
+		assertEquals(ElmProt.STAT.ECU_DETECTED, elm.getStatus());
+
+		ConnectionCache.Entry entry = cache.get("adapter");
+		assertEquals(7, entry.protocol);
+		assertEquals("4100FFFFFFFF", entry.ecus.get(0x7E8));
+		assertTrue(entry.unsupportedCmds.contains(ElmProt.CMD.SETSPACES.name()));
+		ObdProt.cmdQueue.clear();
+	}
+
+	/**
+	 * Test cached connection of another vehicle with matching ECUs is used
+	 */
+	@Test
+	void warmStart_OtherVehicle() throws InterruptedException
+	{
+		ObdProt.cmdQueue.clear();
+		ConnectionCache cache = new ConnectionCache();
+		ConnectionCache.Entry other = new ConnectionCache.Entry("adapter");
+		other.vin = "WVWZZZ1JZXW000002";
+		other.protocol = 6;
+		other.ecus.put(0x7E8, "4100FFFFFFFF");
+		other.pidMasks.put(0, 0x18000000L);
+		cache.put(other);
+		Thread.sleep(5);
+		// most recent connection is another vehicle
+		cache.put(createCache().get("adapter"));
+
+		ElmProt elm = new ElmProt();
+		elm.addTelegramWriter(this);
+		elm.setConnectionCache(cache, "adapter");
+		elm.handleTelegram("ELM327 v1.5".toCharArray());
+
+		while (!"0100".equals(prompt(elm))) { }
+		elm.handleTelegram("7E8064100FFFFFFFF".toCharArray());
+		while (prompt(elm) != null) { }
+		assertEquals(ElmProt.STAT.ECU_DETECTED, elm.getStatus());
+		assertFalse(sent.contains("ATPC"));
+		assertFalse(sent.contains("ATDPN"));
+		assertEquals(other.vin, cache.get("adapter").vin);
+		ObdProt.cmdQueue.clear();
+	}
+}
@@ -0,0 +1,101 @@
+package com.fr3ts0n.ecu.prot.obd;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Test ELM command queue with adapter setting tracking
+ */
+class ElmCommandQueueTest
+{
+	/**
+	 * Test setting keys are detected from commands
+	 */
+	@Test
+	void getSettingKey_Commands()
+	{
+		assertEquals("SETPROT", ElmCommandQueue.getSettingKey("ATSP0"));
+		assertEquals("SETPROT", ElmCommandQueue.getSettingKey("ATSPA6"));
+		assertEquals("SETSPACES", ElmCommandQueue.getSettingKey("at s 0"));
+		assertEquals("SETTIMEOUT", ElmCommandQueue.getSettingKey("ATST32"));
+		assertEquals("SETCANRXFLT", ElmCommandQueue.getSettingKey("ATCRA7E8"));
+		assertEquals("SETCANRXFLT", ElmCommandQueue.getSettingKey("ATCRA"));
+		assertNull(ElmCommandQueue.getSettingKey("ATSI"));
+		assertNull(ElmCommandQueue.getSettingKey("ATZ"));
+		assertNull(ElmCommandQueue.getSettingKey("0100"));
+	}
+
+	/**
+	 * Test queued commands are sent last in, first out
+	 * and settings already in effect are dropped
+	 */
+	@Test
+	void poll_DropInEffect()
+	{
+		ElmCommandQueue queue = new ElmCommandQueue();
+		queue.sent("ATZ");
+		queue.sent("ATH1");
+		queue.add("ATH0");
+		queue.add("0100");
+		queue.add("ATH1");
+		queue.add("ATE0");
+		assertEquals("ATE0", queue.poll());
+		// header setting is already in effect
+		assertEquals("0100", queue.poll());
+		// header has to be disabled again after request
+		assertEquals("ATH0", queue.poll());
+		assertNull(queue.poll());
+		assertEquals(1, queue.getNumDropped());
+
+		// rejected setting is not in effect
+		queue.sent("ATST19");
+		queue.rejected("ATST19");
+		queue.add("ATST19");
+		assertEquals("ATST19", queue.poll());
+	}
+
+	/**
+	 * Test settings which would be overridden by an earlier queued setting
+	 * are dropped, but not across requests
+	 */
+	@Test
+	void add_Supersede()
+	{
+		ElmCommandQueue queue = new ElmCommandQueue();
+		queue.add("ATST32");
+		queue.add("0100");
+		queue.add("ATST19");
+		queue.add("ATH0");
+		queue.add("ATST0C");
+		queue.add("0100");
+		queue.add("0100");
+		assertEquals(5, queue.size());
+		assertEquals("0100", queue.poll());
+		assertEquals("ATH0", queue.poll());
+		assertEquals("ATST19", queue.poll());
+		assertEquals("0100", queue.poll());
+		assertEquals("ATST32", queue.poll());
+
+		// custom init setting stays in effect
+		queue.add("ATSP6");
+		queue.add("ATSP0");
+		queue.add("ATS0");
+		queue.add("ATE0");
+		assertEquals("ATE0", queue.poll());
+		assertEquals("ATS0", queue.poll());
+		assertEquals("ATSP6", queue.poll());
+		assertNull(queue.poll());
+
+		// reset and protocol close invalidate settings
+		queue.sent("ATSP0");
+		queue.sent("ATPC");
+		queue.add("ATSP0");
+		assertEquals("ATSP0", queue.poll());
+		queue.sent("ATE0");
+		queue.sent("ATWS");
+		queue.add("ATE0");
+		assertEquals("ATE0", queue.poll());
+	}
+}
@@ -52,11 +52,65 @@ class ElmProtTest
 		// assertEquals(1, prot.getNextSupportedPid());
 	}
 
+	/**
+	 * PIDs without data are re-probed with backoff only
+	 */
+	@Test
+	void handleTelegram_NoData_Dormant()
+	{
+		prot.setService(ObdProt.OBD_SVC_DATA);
+		// 18000000 -> PID's 4,5 set
+		prot.handleTelegram("410018000000".toCharArray());
+		prot.handleTelegram(">".toCharArray());
+		assertEquals(0, prot.getNumDormantPids());
+
+		prot.sendTelegram("0104".toCharArray());
+		prot.handleTelegram("NODATA".toCharArray());
+		prot.handleTelegram(">".toCharArray());
+		assertEquals(1, prot.getNumDormantPids());
+		// dormant PID is skipped until re-probe delay is over
+		assertEquals(5, prot.getNextSupportedPid());
+		assertEquals(5, prot.getNextSupportedPid());
+
+		prot.setService(ObdProt.OBD_SVC_NONE);
+	}
+
+	/**
+	 * ELM timeout follows latency percentile of requests
+	 */
+	@Test
+	void adaptiveTiming_Latency()
+	{
+		ElmProt elm = new ElmProt();
+		ElmProt.AdaptiveTiming timing = elm.mAdaptiveTiming;
+		timing.setMode(ElmProt.AdaptTimingMode.SOFTWARE);
+		assertEquals(200, timing.elmMsgTimeout);
+
+		// latencies 20..29 ms -> 98% percentile within 28..31 ms + margin
+		for (int i = 0; i < 100; i++)
+		{
+			timing.addLatency(20 + i % 10);
+		}
+		assertEquals(48, timing.elmMsgTimeout);
+		// shifted distribution replaces old latencies
+		for (int i = 0; i < 200; i++)
+		{
+			timing.addLatency(60);
+		}
+		assertEquals(80, timing.elmMsgTimeout);
+		// missing response raises timeout immediately
+		timing.responseMissing();
+		assertEquals(96, timing.elmMsgTimeout);
+
+		timing.setMode(ElmProt.AdaptTimingMode.OFF);
+		ObdProt.cmdQueue.clear();
+	}
+
 	@Test
 	void handleTelegram_Vin_ISO_Multiline()
 	{
 		EcuDataItem itm = prot.dataItems.getPidDataItems(0x09, 0x02).get(1);
-		itm.pv.addPvChangeListener(this);
+		itm.getPv().addPvChangeListener(this);
 
 		prot.setService(ObdProt.OBD_SVC_VEH_INFO);
 
@@ -71,7 +125,7 @@ class ElmProtTest
 		// VIN should match expected one ...
 		assertEquals("WAUZZZ8P46A005544", result[0].toString());
 
-		itm.pv.removePvChangeListener(this);
+		itm.getPv().removePvChangeListener(this);
 	}
 
 	/**
@@ -82,7 +136,7 @@ class ElmProtTest
 	void handleTelegram_Vin_Multiline()
 	{
 		EcuDataItem itm = prot.dataItems.getPidDataItems(0x09, 0x02).get(1);
-		itm.pv.addPvChangeListener(this);
+		itm.getPv().addPvChangeListener(this);
 
 		prot.setService(ObdProt.OBD_SVC_VEH_INFO);
 
@@ -96,7 +150,7 @@ class ElmProtTest
 		// VIN should match expected one ...
 		assertEquals("0123456789ABCDEFG", result[0].toString());
 
-		itm.pv.removePvChangeListener(this);
+		itm.getPv().removePvChangeListener(this);
 	}
 
 	/**
@@ -107,7 +161,7 @@ class ElmProtTest
 	void handleTelegram_CalId_Multiline()
 	{
 		EcuDataItem itm = prot.dataItems.getPidDataItems(0x09, 0x04).get(1);
-		itm.pv.addPvChangeListener(this);
+		itm.getPv().addPvChangeListener(this);
 
 		prot.setService(ObdProt.OBD_SVC_VEH_INFO);
 
@@ -121,7 +175,7 @@ class ElmProtTest
 		// VIN should match expected one ...
 		assertEquals("GSPA-12345678900", result[0].toString());
 
-		itm.pv.removePvChangeListener(this);
+		itm.getPv().removePvChangeListener(this);
 	}
 
 	/**
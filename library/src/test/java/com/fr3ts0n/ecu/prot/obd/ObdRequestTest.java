@@ -0,0 +1,158 @@
+package com.fr3ts0n.ecu.prot.obd;
+
+import com.fr3ts0n.prot.TelegramWriter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Vector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test single requests which are interleaved into running service loop
+ */
+class ObdRequestTest
+	implements TelegramWriter
+{
+	/** telegrams sent by protocol */
+	final Vector<String> sent = new Vector<>();
+
+	@Override
+	public int writeTelegram(char[] buffer)
+	{
+		sent.add(String.valueOf(buffer));
+		return buffer.length;
+	}
+
+	@Override
+	public int writeTelegram(char[] buffer, int type, Object id)
+	{
+		return writeTelegram(buffer);
+	}
+
+	/**
+	 * respond to last request and get next request which is sent
+	 */
+	String respond(ElmProt elm, String... response)
+	{
+		for (String line : response)
+		{
+			elm.handleTelegram(line.toCharArray());
+		}
+		elm.handleTelegram(">".toCharArray());
+		return sent.lastElement();
+	}
+
+	/**
+	 * Test high priority request preempts next poll slot
+	 * and does not affect running data service
+	 */
+	@Test
+	void request_High() throws InterruptedException
+	{
+		ObdProt.cmdQueue.clear();
+		ElmProt elm = new ElmProt();
+		elm.addTelegramWriter(this);
+		elm.setService(ObdProt.OBD_SVC_DATA);
+		// 18000000 -> PID's 4,5 set
+		assertEquals("0104", respond(elm, "410018000000"));
+
+		ObdRequest request = elm.request(ObdProt.OBD_SVC_VEH_INFO, 0x02,
+		                                 ObdRequest.Priority.HIGH, 1000);
+		assertFalse(request.isDone());
+		assertEquals("0902", respond(elm, "41047F"));
+		// send VIN "0123456789ABCDEFG"
+		String next = respond(elm, "014",
+		                      "1:49020130313233",
+		                      "2:343536373839",
+		                      "3:41424344454647");
+		assertEquals(ObdRequest.Result.OK, request.get(0));
+		assertEquals("0123456789ABCDEFG",
+		             request.getValues().get(ObdProt.MNEMONIC_VIN).toString());
+		// data service continues with supported PIDs
+		assertEquals(ObdProt.OBD_SVC_DATA, elm.getService());
+		assertTrue(next.equals("0104") || next.equals("0105"));
+
+		elm.setService(ObdProt.OBD_SVC_NONE);
+		ObdProt.cmdQueue.clear();
+	}
+
+	/**
+	 * Test responses of single requests are forwarded to data lists
+	 */
+	@Test
+	void forwardResponse_Codes()
+	{
+		ObdProt.cmdQueue.clear();
+		ElmProt elm = new ElmProt();
+		elm.addTelegramWriter(this);
+		elm.setService(ObdProt.OBD_SVC_NONE);
+		elm.handleTelegram("OK".toCharArray());
+		elm.handleTelegram(">".toCharArray());
+		ObdProt.tCodes.clear();
+
+		ObdRequest request = elm.request(ObdProt.OBD_SVC_READ_CODES, -1,
+		                                 ObdRequest.Priority.NORMAL, 0);
+		request.addCallback(new ObdRequest.Callback()
+		{
+			@Override
+			public void requestDone(ObdRequest request)
+			{
+				elm.forwardResponse(request);
+			}
+		});
+		assertEquals("03", sent.lastElement());
+		// non-CAN ECU with 4 codes (2 lines), and a second ECU
+		respond(elm, "43010002000300", "43040000000000", "43010500000000");
+		assertEquals("43010002000300", request.getResponse());
+		assertEquals(3, request.getResponses().size());
+		assertEquals(5, ObdProt.tCodes.size());
+		assertTrue(ObdProt.tCodes.containsKey(0x0400));
+		assertTrue(ObdProt.tCodes.containsKey(0x0105));
+		// service loop stays untouched
+		assertEquals(ObdProt.OBD_SVC_NONE, elm.getService());
+		ObdProt.cmdQueue.clear();
+	}
+
+	/**
+	 * Test requests while service loop is idle, negative and missing responses
+	 */
+	@Test
+	void request_Idle()
+	{
+		ObdProt.cmdQueue.clear();
+		ElmProt elm = new ElmProt();
+		elm.addTelegramWriter(this);
+		elm.setService(ObdProt.OBD_SVC_NONE);
+		elm.handleTelegram("OK".toCharArray());
+		elm.handleTelegram(">".toCharArray());
+
+		final ObdRequest[] done = new ObdRequest[1];
+		ObdRequest request = elm.request(ObdProt.OBD_SVC_CTRL_MODE, 0x00,
+		                                 ObdRequest.Priority.LOW, 0);
+		request.addCallback(new ObdRequest.Callback()
+		{
+			@Override
+			public void requestDone(ObdRequest request)
+			{
+				done[0] = request;
+			}
+		});
+		ObdRequest noData = elm.request(ObdProt.OBD_SVC_DATA, 0x0C,
+		                                ObdRequest.Priority.NORMAL, 0);
+		// idle loop sends request immediately
+		assertEquals("0800", sent.lastElement());
+		assertEquals("010C", respond(elm, "7F0811"));
+		assertEquals(request, done[0]);
+		assertEquals(ObdRequest.Result.NEGATIVE, request.getResult());
+		assertEquals(0x11, request.getNrc());
+
+		elm.handleTelegram("NODATA".toCharArray());
+		elm.handleTelegram(">".toCharArray());
+		assertEquals(ObdRequest.Result.NODATA, noData.getResult());
+		assertEquals(0, elm.getNumDormantPids());
+		ObdProt.cmdQueue.clear();
+	}
+}
@@ -0,0 +1,81 @@
+package com.fr3ts0n.pvs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test compressed time series
+ */
+class CompressedTimeSeriesTest
+{
+	/**
+	 * Test samples are restored exactly, and slowly varying signals get compressed
+	 */
+	@Test
+	void reader_RoundTrip()
+	{
+		CompressedTimeSeries series = new CompressedTimeSeries(100000);
+		TimeSeriesBuffer expected = new TimeSeriesBuffer(100000);
+		Random random = new Random(0);
+		long time = 1600000000000L;
+		float value = 800f;
+		for (int i = 0; i < 50000; i++)
+		{
+			time += 100 + random.nextInt(3) - 1;
+			if (random.nextInt(4) == 0)
+			{
+				value += random.nextInt(41) - 20;
+			}
+			series.add(time, value);
+			expected.add(time, value);
+		}
+		assertEquals(50000L, series.size());
+		assertEquals(50000 / CompressedTimeSeries.CHUNK_SIZE + 1, series.getChunkCount());
+		assertTrue(series.getStorageSize() * 10 < 16L * series.size());
+
+		CompressedTimeSeries.Reader reader = series.reader(Long.MIN_VALUE);
+		int i = 0;
+		while (reader.next())
+		{
+			assertEquals(expected.getTime(i), reader.getTime());
+			assertEquals(expected.getValue(i), reader.getValue(), 0.0);
+			i++;
+		}
+		assertEquals(50000, i);
+
+		// random access by time and chunk
+		reader = series.reader(expected.getTime(25000));
+		assertTrue(reader.next());
+		assertEquals(expected.getTime(25000), reader.getTime());
+		long[] times = new long[CompressedTimeSeries.CHUNK_SIZE];
+		double[] values = new double[CompressedTimeSeries.CHUNK_SIZE];
+		int chunk = series.findChunk(expected.getTime(25000));
+		assertEquals(CompressedTimeSeries.CHUNK_SIZE, series.decodeChunk(chunk, times, values));
+		assertEquals(expected.getTime(chunk * CompressedTimeSeries.CHUNK_SIZE), times[0]);
+	}
+
+	/**
+	 * Test oldest chunks get dropped if capacity is reached
+	 */
+	@Test
+	void add_Capacity()
+	{
+		CompressedTimeSeries series = new CompressedTimeSeries(1000);
+		for (int i = 0; i < 2500; i++)
+		{
+			series.add(i * 10L, i);
+		}
+		// 4 sealed chunks + tail
+		assertEquals(4 * 256L + 2500 % 256, series.size());
+		assertEquals(5L, series.getChunkOffset());
+		CompressedTimeSeries.Reader reader = series.reader(0);
+		assertTrue(reader.next());
+		assertEquals(5 * 256.0, reader.getValue(), 0.0);
+		assertEquals(5 * 256.0, series.getMinValue(), 0.0);
+		assertEquals(2499.0, series.getMaxValue(), 0.0);
+	}
+}
@@ -0,0 +1,78 @@
+package com.fr3ts0n.pvs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test running statistics of process variable values
+ */
+class PvStatisticsTest
+{
+	/**
+	 * Test basic statistics and time weighted mean
+	 */
+	@Test
+	void add_Statistics()
+	{
+		PvStatistics stats = new PvStatistics();
+		// 10 for 3s, 40 for 1s
+		stats.add(1000, 10);
+		stats.add(4000, 40);
+		stats.add(5000, 10);
+		assertEquals(3L, stats.getCount());
+		assertEquals(10.0, stats.getMinValue(), 0.0);
+		assertEquals(40.0, stats.getMaxValue(), 0.0);
+		assertEquals(20.0, stats.getMean(), 1e-9);
+		assertEquals(300.0, stats.getVariance(), 1e-9);
+		assertEquals(17.5, stats.getTimeWeightedMean(), 1e-9);
+
+		stats.reset();
+		assertEquals(0L, stats.getCount());
+		assertTrue(Double.isNaN(stats.getMean()));
+	}
+
+	/**
+	 * Test quantile estimation and merging of statistics
+	 */
+	@Test
+	void merge_Quantiles()
+	{
+		Random random = new Random(0);
+		double[] values = new double[20000];
+		PvStatistics first = new PvStatistics();
+		PvStatistics second = new PvStatistics();
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = 800 + 5000 * random.nextDouble() * random.nextDouble();
+			(i < values.length / 2 ? first : second).add(i * 100L, values[i]);
+		}
+		first.merge(second);
+		Arrays.sort(values);
+		assertEquals(values.length, first.getCount());
+		assertEquals(values[0], first.getMinValue(), 0.0);
+		assertEquals(values[values.length - 1], first.getMaxValue(), 0.0);
+		double sum = 0;
+		for (double value : values)
+		{
+			sum += value;
+		}
+		double mean = sum / values.length;
+		double m2 = 0;
+		for (double value : values)
+		{
+			m2 += (value - mean) * (value - mean);
+		}
+		assertEquals(mean, first.getMean(), 1e-6);
+		assertEquals(m2 / (values.length - 1), first.getVariance(), 1e-3);
+		for (double q : new double[]{0.01, 0.25, 0.5, 0.9, 0.99})
+		{
+			double expected = values[(int) (q * (values.length - 1))];
+			assertEquals(expected, first.getQuantile(q), expected * 0.01);
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package com.fr3ts0n.pvs;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test bounded time series buffer
+ */
+class TimeSeriesBufferTest
+{
+	/**
+	 * Test oldest samples get replaced if capacity is reached
+	 */
+	@Test
+	void add_Capacity()
+	{
+		TimeSeriesBuffer buffer = new TimeSeriesBuffer(1000);
+		for (int i = 0; i < 2500; i++)
+		{
+			buffer.add(i * 10L, i);
+		}
+		assertEquals(1000, buffer.size());
+		assertEquals(1500L, buffer.getOffset());
+		assertEquals(15000L, buffer.getTime(0));
+		assertEquals(2499.0, buffer.getValue(999), 0.0);
+		assertEquals(1500.0, buffer.getMinValue(), 0.0);
+		assertEquals(2499.0, buffer.getMaxValue(), 0.0);
+	}
+
+	/**
+	 * Test samples exceeding retention time get dropped
+	 */
+	@Test
+	void add_Retention()
+	{
+		TimeSeriesBuffer buffer = new TimeSeriesBuffer(1000, 100);
+		for (int i = 0; i < 50; i++)
+		{
+			buffer.add(i * 10L, 50 - i);
+		}
+		assertEquals(11, buffer.size());
+		assertEquals(390L, buffer.getTime(0));
+		assertEquals(1.0, buffer.getMinValue(), 0.0);
+		assertEquals(11.0, buffer.getMaxValue(), 0.0);
+	}
+
+	/**
+	 * Test limits follow dropped limit values on each update
+	 */
+	@Test
+	void getMinMax_Rolling()
+	{
+		TimeSeriesBuffer buffer = new TimeSeriesBuffer(100);
+		for (int i = 0; i < 1000; i++)
+		{
+			buffer.add(i * 10L, (i * 37) % 101);
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			for (int j = 0; j < buffer.size(); j++)
+			{
+				min = Math.min(min, buffer.getValue(j));
+				max = Math.max(max, buffer.getValue(j));
+			}
+			assertEquals(min, buffer.getMinValue(), 0.0);
+			assertEquals(max, buffer.getMaxValue(), 0.0);
+		}
+	}
+
+	/**
+	 * Test samples inserted/removed by index keep time order
+	 */
+	@Test
+	void add_InsertRemove()
+	{
+		TimeSeriesBuffer buffer = new TimeSeriesBuffer(4);
+		for (int i = 0; i < 3; i++)
+		{
+			buffer.add(i * 10L, i);
+		}
+		// time is limited to neighbours
+		buffer.add(1, 50L, 5);
+		assertEquals(4, buffer.size());
+		assertEquals(10L, buffer.getTime(1));
+		assertEquals(5.0, buffer.getValue(1), 0.0);
+		assertEquals(1.0, buffer.getValue(2), 0.0);
+		assertEquals(5.0, buffer.getMaxValue(), 0.0);
+
+		// full buffer drops oldest sample
+		buffer.add(3, 15L, 7);
+		assertEquals(4, buffer.size());
+		assertEquals(5.0, buffer.getValue(0), 0.0);
+		assertEquals(7.0, buffer.getValue(2), 0.0);
+		assertEquals(15L, buffer.getTime(2));
+
+		buffer.remove(2);
+		assertEquals(3, buffer.size());
+		assertEquals(1.0, buffer.getValue(1), 0.0);
+		assertEquals(5.0, buffer.getMaxValue(), 0.0);
+		buffer.remove(0);
+		assertEquals(2, buffer.size());
+		assertEquals(2.0, buffer.getMaxValue(), 0.0);
+		assertEquals(20L, buffer.getTime(1));
+	}
+
+	/**
+	 * Test dropped samples are moved to compressed history
+	 */
+	@Test
+	void add_History()
+	{
+		TimeSeriesBuffer buffer = new TimeSeriesBuffer(100);
+		buffer.setHistory(new CompressedTimeSeries(10000));
+		for (int i = 0; i < 1000; i++)
+		{
+			buffer.add(i * 10L, i);
+		}
+		CompressedTimeSeries history = buffer.getHistory();
+		assertEquals(100, buffer.size());
+		assertEquals(900L, history.size());
+		CompressedTimeSeries.Reader reader = history.reader(0);
+		for (int i = 0; i < 900; i++)
+		{
+			assertTrue(reader.next());
+			assertEquals(i * 10L, reader.getTime());
+			assertEquals(i, reader.getValue(), 0.0);
+		}
+		assertTrue(!reader.next());
+
+		// snapshot contains history up to end time
+		TimeSeriesBuffer snapshot = buffer.snapshot(4995);
+		assertEquals(500L, snapshot.getHistory().size());
+		assertEquals(0, snapshot.size());
+
+		buffer.clear();
+		assertEquals(0L, history.size());
+	}
+
+	/**
+	 * Test binary searches of sample times
+	 */
+	@Test
+	void bounds_Search()
+	{
+		TimeSeriesBuffer buffer = new TimeSeriesBuffer(8);
+		for (int i = 0; i < 12; i++)
+		{
+			buffer.add(i * 10L, i);
+		}
+		// buffer contains times 40 .. 110
+		assertEquals(0, buffer.lowerBound(0));
+		assertEquals(0, buffer.lowerBound(40));
+		assertEquals(1, buffer.upperBound(40));
+		assertEquals(2, buffer.lowerBound(55));
+		assertEquals(8, buffer.lowerBound(111));
+		// out of order sample time is corrected to newest time
+		buffer.add(5, 99);
+		assertEquals(110L, buffer.getTime(7));
+	}
+
+	/**
+	 * Test min/max decimation keeps extreme values and limits size
+	 */
+	@Test
+	void decimate_MinMax()
+	{
+		TimeSeriesBuffer buffer = new TimeSeriesBuffer(50000);
+		for (int i = 0; i < 70000; i++)
+		{
+			buffer.add(i * 100L, Math.sin(i / 1000.0) + ((i == 54321) ? 5 : 0));
+		}
+		int columns = 100;
+		long[] times = new long[2 * columns + 2];
+		double[] values = new double[2 * columns + 2];
+		int n = buffer.decimate(0, buffer.size(), columns, times, values);
+
+		assertTrue(n <= 2 * columns + 2);
+		assertEquals(buffer.getTime(0), times[0]);
+		assertEquals(buffer.getTime(buffer.size() - 1), times[n - 1]);
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++)
+		{
+			if (i > 0) assertTrue(times[i] > times[i - 1]);
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+		}
+		assertEquals(buffer.getMinValue(), min, 0.0);
+		assertEquals(buffer.getMaxValue(), max, 0.0);
+		assertEquals(5432100L, times[indexOf(values, n, max)]);
+
+		// mean of arbitrary range
+		double sum = 0;
+		for (int i = 123; i < 45678; i++)
+		{
+			sum += buffer.getValue(i);
+		}
+		assertEquals(sum / (45678 - 123), buffer.getMeanValue(123, 45678), 1e-9);
+
+		// small ranges are returned unchanged
+		assertEquals(10, buffer.decimate(100, 110, columns, times, values));
+		assertEquals(buffer.getTime(100), times[0]);
+	}
+
+	/**
+	 * Test snapshots are not affected by later changes
+	 */
+	@Test
+	void snapshot_CopyOnWrite()
+	{
+		TimeSeriesBuffer buffer = new TimeSeriesBuffer(8);
+		for (int i = 0; i < 10; i++)
+		{
+			buffer.add(i * 10L, i);
+		}
+		ProcessVar pv = new ProcessVar();
+		pv.put("SERIES", buffer);
+		pv.put("VALUE", 9);
+		// snapshot excludes samples after end time
+		ProcessVar pvSnapshot = pv.snapshot(85);
+		TimeSeriesBuffer snapshot = (TimeSeriesBuffer) pvSnapshot.get("SERIES");
+		assertEquals(7, snapshot.size());
+
+		// overwrite all shared samples
+		for (int i = 10; i < 30; i++)
+		{
+			buffer.add(i * 10L, i);
+		}
+		pv.put("VALUE", 29);
+		assertEquals(9, pvSnapshot.get("VALUE"));
+		assertEquals(7, snapshot.size());
+		for (int i = 0; i < 7; i++)
+		{
+			assertEquals((i + 2) * 10L, snapshot.getTime(i));
+			assertEquals(i + 2, snapshot.getValue(i), 0.0);
+		}
+		assertEquals(8.0, snapshot.getMaxValue(), 0.0);
+		assertEquals(22L, buffer.getOffset());
+		assertEquals(290L, buffer.getTime(7));
+
+		// modification of snapshot does not affect buffer
+		snapshot.add(1000, -1);
+		assertEquals(290L, buffer.getTime(7));
+		assertEquals(29, buffer.getValue(7), 0.0);
+	}
+
+	private static int indexOf(double[] values, int n, double value)
+	{
+		for (int i = 0; i < n; i++)
+		{
+			if (values[i] == value) return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,184 @@
+package com.fr3ts0n.pvs.io;
+
+import com.fr3ts0n.pvs.ProcessVar;
+import com.fr3ts0n.pvs.PvChangeEvent;
+import com.fr3ts0n.pvs.PvList;
+import com.fr3ts0n.pvs.TimeSeriesBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test process variable change journals
+ */
+class PvJournalTest
+{
+	/**
+	 * record changes of a list, and replay them
+	 */
+	@Test
+	void replay_Changes() throws IOException
+	{
+		PvList list = new PvList();
+		ProcessVar pv = new ProcessVar();
+		pv.setKeyValue("rpm");
+		pv.put("VALUE", 800.0f);
+		list.put("rpm", pv);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PvJournalWriter writer = new PvJournalWriter(bytes);
+		// commit explicitly only
+		writer.setCommitLimits(Long.MAX_VALUE, Integer.MAX_VALUE);
+		writer.record(list);
+		long start = System.currentTimeMillis();
+		for (int i = 1; i <= 200; i++)
+		{
+			pv.put("VALUE", 800.0f + i);
+			if (i % 10 == 0)
+			{
+				writer.commit();
+			}
+		}
+		// PVs added later on are recorded as well
+		ProcessVar speed = new ProcessVar();
+		speed.setKeyValue("speed");
+		list.put("speed", speed);
+		speed.put("VALUE", 42);
+		speed.put("UNITS", "km/h");
+		writer.close();
+
+		PvList result = new PvList();
+		PvJournalReader reader = new PvJournalReader(new ByteArrayInputStream(bytes.toByteArray()));
+		assertTrue(reader.replay(result, Long.MAX_VALUE) > 200);
+		reader.close();
+		assertTrue(!reader.isTruncated());
+		assertEquals(1000.0f, ((ProcessVar) result.get("rpm")).get("VALUE"));
+		assertEquals(42, ((ProcessVar) result.get("speed")).get("VALUE"));
+		assertEquals("km/h", ((ProcessVar) result.get("speed")).get("UNITS"));
+
+		// state before recording
+		result = new PvList();
+		reader = new PvJournalReader(new ByteArrayInputStream(bytes.toByteArray()));
+		reader.replay(result, start - 1000);
+		assertTrue(result.isEmpty());
+
+		// series of single item
+		TimeSeriesBuffer series = new TimeSeriesBuffer(1000);
+		reader = new PvJournalReader(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(201, reader.readSeries("rpm", "VALUE", 0, Long.MAX_VALUE, series));
+		assertEquals(1000.0, series.getValue(200), 0.0);
+
+		// crash within last frame: all previous frames are readable
+		byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 3);
+		reader = new PvJournalReader(new ByteArrayInputStream(truncated));
+		series = new TimeSeriesBuffer(1000);
+		int count = reader.readSeries("rpm", "VALUE", 0, Long.MAX_VALUE, series);
+		assertTrue(reader.isTruncated());
+		assertTrue(count > 150);
+		assertEquals(800.0 + count - 1, series.getValue(count - 1), 0.0);
+	}
+
+	/**
+	 * PVs which are added to a recorded list at once (putAll) are recorded
+	 */
+	@Test
+	void record_PutAll() throws IOException
+	{
+		PvList list = new PvList();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PvJournalWriter writer = new PvJournalWriter(bytes);
+		writer.record(list);
+
+		ProcessVar rpm = new ProcessVar();
+		rpm.setKeyValue("rpm");
+		ProcessVar speed = new ProcessVar();
+		speed.setKeyValue("speed");
+		PvList newList = new PvList();
+		newList.put("rpm", rpm);
+		newList.put("speed", speed);
+		list.putAll(newList, PvChangeEvent.PV_ADDED, false);
+		rpm.put("VALUE", 800.0f);
+		speed.put("VALUE", 42);
+		writer.close();
+
+		PvList result = new PvList();
+		PvJournalReader reader = new PvJournalReader(new ByteArrayInputStream(bytes.toByteArray()));
+		reader.replay(result, Long.MAX_VALUE);
+		reader.close();
+		assertEquals(800.0f, ((ProcessVar) result.get("rpm")).get("VALUE"));
+		assertEquals(42, ((ProcessVar) result.get("speed")).get("VALUE"));
+	}
+
+	/**
+	 * pending records are committed after commit interval
+	 */
+	@Test
+	void commit_Timed() throws IOException, InterruptedException
+	{
+		ProcessVar pv = new ProcessVar();
+		pv.setKeyValue("rpm");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PvJournalWriter writer = new PvJournalWriter(bytes);
+		writer.setCommitLimits(50, Integer.MAX_VALUE);
+		writer.record(pv);
+		pv.put("VALUE", 800.0f);
+		for (int i = 0; i < 100 && bytes.size() <= 6; i++)
+		{
+			Thread.sleep(20);
+		}
+		assertTrue(bytes.size() > 6);
+		writer.close();
+	}
+
+	/**
+	 * appending to a journal file removes a corrupted last frame
+	 */
+	@Test
+	void append_Truncated() throws IOException
+	{
+		File file = File.createTempFile("journal", ".pvj");
+		try
+		{
+			ProcessVar pv = new ProcessVar();
+			pv.setKeyValue("rpm");
+			PvJournalWriter writer = new PvJournalWriter(file, false);
+			writer.record(pv);
+			pv.put("VALUE", 800.0f);
+			writer.close();
+			long validLength = file.length();
+
+			// crash while writing the next frame
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.seek(validLength);
+			raf.writeInt(100);
+			raf.writeLong(0);
+			raf.close();
+
+			writer = new PvJournalWriter(file, false);
+			writer.record(pv);
+			pv.put("VALUE", 900.0f);
+			writer.close();
+
+			PvList result = new PvList();
+			PvJournalReader reader = new PvJournalReader(new FileInputStream(file));
+			reader.replay(result, Long.MAX_VALUE);
+			reader.close();
+			assertTrue(!reader.isTruncated());
+			assertEquals(900.0f, ((ProcessVar) result.get("rpm")).get("VALUE"));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.fr3ts0n.pvs.io;
+
+import com.fr3ts0n.ecu.EcuAttributeMapper;
+import com.fr3ts0n.ecu.EcuDataItems;
+import com.fr3ts0n.ecu.EcuDataPv;
+import com.fr3ts0n.ecu.ObdCodeItem;
+import com.fr3ts0n.pvs.ProcessVar;
+import com.fr3ts0n.pvs.PvList;
+import com.fr3ts0n.pvs.TimeSeriesBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test binary process variable streams
+ */
+class PvStreamTest
+{
+	static final EcuDataItems items = new EcuDataItems();
+
+	/**
+	 * write values to stream and read them back
+	 */
+	private static PvStreamReader roundTrip(boolean compress, Object... values) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PvStreamWriter writer = new PvStreamWriter(bytes, compress, new EcuAttributeMapper());
+		for (Object value : values)
+		{
+			writer.writeObject(value);
+		}
+		writer.close();
+		ByteArrayInputStream in = new ByteArrayInputStream(bytes.toByteArray());
+		assertTrue(PvStreamReader.isPvStream(in));
+		return new PvStreamReader(in, new EcuAttributeMapper());
+	}
+
+	/**
+	 * Test process variable lists with conversion references and series
+	 */
+	@Test
+	void readObject_PvList() throws IOException
+	{
+		PvList list = new PvList();
+		EcuDataPv pv = items.getPidDataItems(0x01, 0x0C).get(0).getPv();
+		TimeSeriesBuffer series = new TimeSeriesBuffer(100);
+		for (int i = 0; i < 150; i++)
+		{
+			series.add(1600000000000L + i * 250L, i * 0.5);
+		}
+		pv.put("SERIES", series);
+		pv.put(EcuDataPv.FID_VALUE, (Object) 1234.5f);
+		list.put(pv.toString(), pv);
+		list.put(0x0101, new ObdCodeItem(0x0101, "test code"));
+
+		for (boolean compress : new boolean[]{false, true})
+		{
+			PvStreamReader reader = roundTrip(compress, 1, list);
+			assertEquals(1, reader.readObject());
+			PvList result = (PvList) reader.readObject();
+			reader.close();
+
+			EcuDataPv resultPv = (EcuDataPv) result.get(pv.toString());
+			assertEquals(pv.get(EcuDataPv.FID_DESCRIPT), resultPv.get(EcuDataPv.FID_DESCRIPT));
+			assertEquals(1234.5f, resultPv.get(EcuDataPv.FID_VALUE));
+			assertEquals(pv.get(EcuDataPv.FID_MIN), resultPv.get(EcuDataPv.FID_MIN));
+			// conversions are resolved from catalog
+			assertSame(pv.get(EcuDataPv.FID_CNVID), resultPv.get(EcuDataPv.FID_CNVID));
+			assertEquals(pv.getKeyAttribute(), resultPv.getKeyAttribute());
+
+			TimeSeriesBuffer resultSeries = (TimeSeriesBuffer) resultPv.get("SERIES");
+			assertEquals(100, resultSeries.size());
+			for (int i = 0; i < 100; i++)
+			{
+				assertEquals(series.getTime(i), resultSeries.getTime(i));
+				assertEquals(series.getValue(i), resultSeries.getValue(i), 0.0);
+			}
+
+			ProcessVar code = (ProcessVar) result.get(0x0101);
+			assertTrue(code instanceof ObdCodeItem);
+			assertEquals("test code", code.get(ObdCodeItem.FIELDS[ObdCodeItem.FID_DESCRIPT]));
+			assertNull(code.get(ObdCodeItem.FIELDS[ObdCodeItem.FID_STATUS]));
+		}
+	}
+
+	/**
+	 * Test attributes of unsupported types are skipped
+	 */
+	@Test
+	void writeObject_Unsupported() throws IOException
+	{
+		ProcessVar pv = new ProcessVar();
+		pv.put("A", "a");
+		pv.put("B", new Object());
+		pv.put(1L, Long.MIN_VALUE);
+
+		PvStreamReader reader = roundTrip(true, pv);
+		ProcessVar result = (ProcessVar) reader.readObject();
+		reader.close();
+		assertEquals("a", result.get("A"));
+		assertTrue(!result.containsKey("B"));
+		assertEquals(Long.MIN_VALUE, result.get(1L));
+	}
+}